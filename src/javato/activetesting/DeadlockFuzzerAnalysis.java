@@ -3,12 +3,22 @@ package javato.activetesting;
 import javato.activetesting.activechecker.ActiveChecker;
 import javato.activetesting.analysis.CheckerAnalysisImpl;
 import javato.activetesting.common.Parameters;
+import javato.activetesting.igoodlock.CycleIndex;
 import javato.activetesting.igoodlock.DeadlockCycleInfo;
 import javato.activetesting.igoodlock.Node;
 import javato.activetesting.lockset.LockSetTracker;
 import javato.activetesting.reentrant.IgnoreRentrantLock;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Copyright (c) 2007-2008,
@@ -45,36 +55,86 @@ import java.util.List;
 public class DeadlockFuzzerAnalysis extends CheckerAnalysisImpl {
     private LockSetTracker lsTracker;
     private IgnoreRentrantLock ignoreRentrantLock;
-    private List<Node> deadlockingCycle;
+    // the cycle javato.activetesting.errorid, or with javato.deadlock.all.cycles
+    // every cycle in error.log that error.stat does not confirm yet
+    private CycleIndex targets;
 
     public void initialize() {
         synchronized (ActiveChecker.lock) {
             lsTracker = new LockSetTracker();
             ignoreRentrantLock = new IgnoreRentrantLock();
             DeadlockCycleInfo cycles = DeadlockCycleInfo.read();
-            deadlockingCycle = cycles.getCycles().get(Parameters.errorId - 1);
-            System.out.println("cycle " + deadlockingCycle);
+            if (Parameters.deadlockAllCycles) {
+                // an execution still ends at its first deadlock, so the cycles
+                // confirmed by earlier executions make way for the others
+                targets = new CycleIndex(cycles.getCycles(), 1, readConfirmed());
+                System.out.println("cycles " + targets.size());
+                if (targets.size() == 0) {
+                    // nothing left to confirm; error.stat stays as it is, which ends the trials
+                    Runtime.getRuntime().halt(0);
+                }
+            } else {
+                List<List<Node>> cycle = Collections.singletonList(cycles.getCycles().get(Parameters.errorId - 1));
+                targets = new CycleIndex(cycle, Parameters.errorId);
+                System.out.println("cycle " + cycle.get(0));
+            }
         }
     }
 
     private boolean needToPause(List<Integer> lockSet) {
-        for (Node node : deadlockingCycle) {
-            List<Integer> tupleLs = node.getContext();
-            if (lockSet.equals(tupleLs)) {
-                return true;
-            }
-        }
-        return false;
+        return targets.isContext(lockSet);
     }
 
     private boolean needToYieldOthers(List<Integer> lockSet) {
-        for (Node node : deadlockingCycle) {
-            List<Integer> tupleLs = node.getContext();
-            if (lockSet.size() == 1 && lockSet.get(0).equals(tupleLs.get(0))) {
-                return true;
+        return targets.isOuterLock(lockSet);
+    }
+
+    /**
+     * The ids of the cycles that error.stat confirms.
+     */
+    private static Set<Integer> readConfirmed() {
+        Set<Integer> ret = new HashSet<Integer>();
+        if (!new File(Parameters.ERROR_STAT_FILE).exists()) {
+            return ret;
+        }
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(Parameters.ERROR_STAT_FILE));
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("deadlock:")) {
+                    ret.add(Integer.parseInt(line.substring("deadlock:".length()).trim()));
+                }
+            }
+            in.close();
+        } catch (IOException e) {
+            System.err.println("Error while reading " + Parameters.ERROR_STAT_FILE);
+            System.exit(1);
+        }
+        return ret;
+    }
+
+    /**
+     * Appends the cycles that the deadlock of <code>thread</code>, about to
+     * acquire <code>lock</code>, confirms to error.stat, one
+     * "deadlock:&lt;id&gt;" line each.
+     */
+    private void writeStat(Integer thread, Integer lock) {
+        Integer owner = lsTracker.getLockOwner(lock);
+        if (owner == null) {
+            return;
+        }
+        List<Integer> confirmed = targets.cyclesThrough(lsTracker.getLockSetIids(thread), lsTracker.getLockSetIids(owner));
+        try {
+            PrintWriter pw = new PrintWriter(new FileWriter(Parameters.ERROR_STAT_FILE, true));
+            for (Integer id : confirmed) {
+                pw.println("deadlock:" + id);
             }
+            pw.close();
+        } catch (IOException e) {
+            System.err.println("Error while writing to " + Parameters.ERROR_STAT_FILE);
+            System.exit(1);
         }
-        return false;
+        System.out.println("confirmed cycles " + confirmed);
     }
 
 
@@ -83,6 +143,9 @@ public class DeadlockFuzzerAnalysis extends CheckerAnalysisImpl {
             if (ignoreRentrantLock.lockBefore(thread, lock)) {
                 boolean isDeadlock = lsTracker.lockBefore(iid, thread, lock);
                 if (isDeadlock) {
+                    if (Parameters.deadlockAllCycles) {
+                        writeStat(thread, lock);
+                    }
                     Runtime.getRuntime().halt(1);
                 } else {
                     List<Integer> lockSet = lsTracker.getLockSetIids(thread);
@@ -1,7 +1,7 @@
 package javato.activetesting;
 
 import javato.activetesting.activechecker.ActiveChecker;
-import javato.activetesting.analysis.AnalysisImpl;
+import javato.activetesting.analysis.PrimitiveAnalysisImpl;
 import javato.activetesting.analysis.Observer;
 import javato.activetesting.common.Parameters;
 
@@ -37,48 +37,48 @@ import javato.activetesting.common.Parameters;
  * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
-public class EmptyAnalysisNoMemory extends AnalysisImpl {
+public class EmptyAnalysisNoMemory extends PrimitiveAnalysisImpl {
 
     public void initialize() {
         synchronized (ActiveChecker.lock) {}
     }
 
-    public void lockBefore(Integer iid, Integer thread, Integer lock, Object actualLock) {
+    public void lockBefore(int iid, int thread, int lock, Object actualLock) {
         synchronized (ActiveChecker.lock) {}
     }
 
-    public void unlockAfter(Integer iid, Integer thread, Integer lock) {
+    public void unlockAfter(int iid, int thread, int lock) {
         synchronized (ActiveChecker.lock) {}
     }
 
-    public void newExprAfter(Integer iid, Integer object, Integer objOnWhichMethodIsInvoked) {
+    public void newExprAfter(int iid, int object, int objOnWhichMethodIsInvoked) {
     }
 
-    public void methodEnterBefore(Integer iid, Integer thread) {
+    public void methodEnterBefore(int iid, int thread) {
     }
 
-    public void methodExitAfter(Integer iid, Integer thread) {
+    public void methodExitAfter(int iid, int thread) {
     }
 
-    public void startBefore(Integer iid, Integer parent, Integer child) {
+    public void startBefore(int iid, int parent, int child) {
     }
 
-    public void waitAfter(Integer iid, Integer thread, Integer lock) {
+    public void waitAfter(int iid, int thread, int lock) {
     }
 
-    public void notifyBefore(Integer iid, Integer thread, Integer lock) {
+    public void notifyBefore(int iid, int thread, int lock) {
     }
 
-    public void notifyAllBefore(Integer iid, Integer thread, Integer lock) {
+    public void notifyAllBefore(int iid, int thread, int lock) {
     }
 
-    public void joinAfter(Integer iid, Integer parent, Integer child) {
+    public void joinAfter(int iid, int parent, int child) {
     }
 
-    public void readBefore(Integer iid, Integer thread, Long memory, boolean isVolatile) {
+    public void readBefore(int iid, int thread, long memory, boolean isVolatile) {
     }
 
-    public void writeBefore(Integer iid, Integer thread, Long memory, boolean isVolatile) {
+    public void writeBefore(int iid, int thread, long memory, boolean isVolatile) {
     }
 
     public void finish() {
@@ -1,7 +1,7 @@
 package javato.activetesting;
 
-import javato.activetesting.activechecker.ActiveChecker;
 import javato.activetesting.analysis.AnalysisImpl;
+import javato.activetesting.analysis.BatchableAnalysis;
 import javato.activetesting.hybridracedetection.HybridRaceTracker;
 import javato.activetesting.lockset.LockSet;
 import javato.activetesting.lockset.LockSetTracker;
@@ -9,6 +9,8 @@ import javato.activetesting.reentrant.IgnoreRentrantLock;
 import javato.activetesting.vc.VectorClockTracker;
 import javato.activetesting.common.Parameters;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Copyright (c) 2007-2008,
  * Koushik Sen    <ksen@cs.berkeley.edu>
@@ -41,47 +43,57 @@ import javato.activetesting.common.Parameters;
  * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
-public class HybridAnalysis extends AnalysisImpl {
+public class HybridAnalysis extends AnalysisImpl implements BatchableAnalysis {
+    // the trackers confine each thread's lock set and clock to the thread,
+    // and eb is guarded per location by eb.lockFor, so the callbacks of
+    // different threads only contend when they touch the same location;
+    // analysisLock only orders initialize and finish with them
     //private ContextIndexingTracker ciTracker;
     private VectorClockTracker vcTracker;
     private LockSetTracker lsTracker;
     private IgnoreRentrantLock ignoreRentrantLock;
     private HybridRaceTracker eb;
-    private int numAcqEvents, numRelEvents, numReadEvents, numWriteEvents, numForkEvents, numJoinEvents;
+    // created in initialize(), which runs before the field initializers
+    private AtomicInteger numAcqEvents, numRelEvents, numReadEvents, numWriteEvents, numForkEvents,
+            numJoinEvents;
     private boolean printEvents = true;
 
     public void initialize() {
         //ciTracker = new ContextIndexingTracker();
-        synchronized (ActiveChecker.lock) {
+        synchronized (analysisLock) {
             vcTracker = new VectorClockTracker();
             lsTracker = new LockSetTracker();
             ignoreRentrantLock = new IgnoreRentrantLock();
-            eb = new HybridRaceTracker();
-            numAcqEvents = numRelEvents = numReadEvents = numWriteEvents = numForkEvents = numJoinEvents = 0;
+            eb = HybridRaceTracker.create();
+            numAcqEvents = new AtomicInteger();
+            numRelEvents = new AtomicInteger();
+            numReadEvents = new AtomicInteger();
+            numWriteEvents = new AtomicInteger();
+            numForkEvents = new AtomicInteger();
+            numJoinEvents = new AtomicInteger();
             if (printEvents)
                 System.out.println("initialize()");
         }
     }
 
     public void lockBefore(Integer iid, Integer thread, Integer lock, Object actualLock) {
-        synchronized (ActiveChecker.lock) {
-            if (ignoreRentrantLock.lockBefore(thread, lock)) {
-//                if (Parameters.trackLockRaces) {
-//                    LockSet ls = lsTracker.getLockSet(thread);
-//                    Long mem = (long) lock;
-//                    eb.checkRace(iid, thread, mem , false, vcTracker.getVectorClock(thread), ls,true,false);
-//                    eb.addEvent(iid, thread, mem, false, vcTracker.getVectorClock(thread), ls);
-//                }
-                numAcqEvents++;
-                if (printEvents)
-                    System.out.println("lockBefore("+iid+","+thread+","+lock+")");
-                boolean isDeadlock = lsTracker.lockBefore(iid, thread, lock);
-            }
+        if (ignoreRentrantLock.lockBefore(thread, lock)) {
+//            if (Parameters.trackLockRaces) {
+//                LockSet ls = lsTracker.getLockSet(thread);
+//                Long mem = (long) lock;
+//                eb.checkRace(iid, thread, mem , false, vcTracker.getVectorClock(thread), ls,true,false);
+//                eb.addEvent(iid, thread, mem, false, vcTracker.getVectorClock(thread), ls);
+//            }
+            numAcqEvents.incrementAndGet();
+            if (printEvents)
+                System.out.println("lockBefore("+iid+","+thread+","+lock+")");
+            boolean isDeadlock = lsTracker.lockBefore(iid, thread, lock);
         }
     }
 
     public void waitBefore(Integer iid, Integer thread, Integer lock) {
-        synchronized (ActiveChecker.lock) {
+        Long mem = (long) lock;
+        synchronized (eb.lockFor(mem)) {
 //            if (Parameters.trackLockRaces) {
 //                LockSet ls = lsTracker.getLockSet(thread);
 //                Long mem = (long) lock;
@@ -89,7 +101,6 @@ public class HybridAnalysis extends AnalysisImpl {
 //                eb.addEvent(iid, thread, mem, false, vcTracker.getVectorClock(thread), ls);
 //            } else {
                 Integer acquireIid = lsTracker.getLockAcquireIID(thread,lock);
-                Long mem = (long) lock;
                 eb.checkRace(acquireIid, thread, mem , false, vcTracker.getVectorClock(thread), LockSet.emptySet,true,false);
                 eb.addEvent(acquireIid, thread, mem, false, vcTracker.getVectorClock(thread), LockSet.emptySet);
 
@@ -98,14 +109,12 @@ public class HybridAnalysis extends AnalysisImpl {
     }
 
     public void unlockAfter(Integer iid, Integer thread, Integer lock) {
-        synchronized (ActiveChecker.lock) {
-            if (ignoreRentrantLock.unlockAfter(thread, lock)) {
-                lsTracker.unlockAfter(thread);
-                
-                numRelEvents++;
-                if (printEvents)
-                    System.out.println("unlockAfter("+iid+","+thread+","+lock+")");
-            }
+        if (ignoreRentrantLock.unlockAfter(thread, lock)) {
+            lsTracker.unlockAfter(thread);
+
+            numRelEvents.incrementAndGet();
+            if (printEvents)
+                System.out.println("unlockAfter("+iid+","+thread+","+lock+")");
         }
     }
 
@@ -122,18 +131,16 @@ public class HybridAnalysis extends AnalysisImpl {
     }
 
     public void startBefore(Integer iid, Integer parent, Integer child) {
-        synchronized (ActiveChecker.lock) {
-            vcTracker.startBefore(parent, child);
-            
-            numForkEvents++;
-            if (printEvents)
-                System.out.println("startBefore("+iid+","+parent+","+child+")");
-        }
+        vcTracker.startBefore(parent, child);
+
+        numForkEvents.incrementAndGet();
+        if (printEvents)
+            System.out.println("startBefore("+iid+","+parent+","+child+")");
     }
 
     public void waitAfter(Integer iid, Integer thread, Integer lock) {
 //        if (!Parameters.trackLockRaces) {
-//            synchronized (ActiveChecker.lock) {
+//            synchronized (analysisLock) {
 //                vcTracker.waitAfter(thread, lock);
 //            }
 //        }
@@ -141,14 +148,14 @@ public class HybridAnalysis extends AnalysisImpl {
 
     public void notifyBefore(Integer iid, Integer thread, Integer lock) {
 //        if (!Parameters.trackLockRaces) {
-//            synchronized (ActiveChecker.lock) {
+//            synchronized (analysisLock) {
 //                vcTracker.notifyBefore(thread, lock);
 //            }
 //        }
-        synchronized (ActiveChecker.lock) {
+        Long mem = (long) lock;
+        synchronized (eb.lockFor(mem)) {
 //            if (!Parameters.trackLockRaces) {
                 Integer acquireIid = lsTracker.getLockAcquireIID(thread,lock);
-                Long mem = (long) lock;
                 eb.checkRace(acquireIid, thread, mem , true, vcTracker.getVectorClock(thread), LockSet.emptySet,true,false);
                 eb.addEvent(acquireIid, thread, mem, true, vcTracker.getVectorClock(thread), LockSet.emptySet);
             }
@@ -157,14 +164,14 @@ public class HybridAnalysis extends AnalysisImpl {
 
     public void notifyAllBefore(Integer iid, Integer thread, Integer lock) {
 //        if (!Parameters.trackLockRaces) {
-//            synchronized (ActiveChecker.lock) {
+//            synchronized (analysisLock) {
 //                vcTracker.notifyBefore(thread, lock);
 //            }
 //        }
-        synchronized (ActiveChecker.lock) {
+        Long mem = (long) lock;
+        synchronized (eb.lockFor(mem)) {
 //            if (!Parameters.trackLockRaces) {
                 Integer acquireIid = lsTracker.getLockAcquireIID(thread,lock);
-                Long mem = (long) lock;
                 eb.checkRace(acquireIid, thread, mem , true, vcTracker.getVectorClock(thread), LockSet.emptySet,true,false);
                 eb.addEvent(acquireIid, thread, mem, true, vcTracker.getVectorClock(thread), LockSet.emptySet);
 //            }
@@ -172,41 +179,39 @@ public class HybridAnalysis extends AnalysisImpl {
     }
 
     public void joinAfter(Integer iid, Integer parent, Integer child) {
-        synchronized (ActiveChecker.lock) {
-            vcTracker.joinAfter(parent, child);
-            
-            numJoinEvents++;
-            if (printEvents)
-                System.out.println("joinAfter("+iid+","+parent+","+child+")");
-        }
+        vcTracker.joinAfter(parent, child);
+
+        numJoinEvents.incrementAndGet();
+        if (printEvents)
+            System.out.println("joinAfter("+iid+","+parent+","+child+")");
     }
 
     public void readBefore(Integer iid, Integer thread, Long memory, boolean isVolatile) {
-        synchronized (ActiveChecker.lock) {
-            LockSet ls = lsTracker.getLockSet(thread);
+        LockSet ls = lsTracker.getLockSet(thread);
+        synchronized (eb.lockFor(memory)) {
             eb.checkRace(iid, thread, memory, true, vcTracker.getVectorClock(thread), ls, false,isVolatile);
             eb.addEvent(iid, thread, memory, true, vcTracker.getVectorClock(thread), ls);
-            
-            numReadEvents++;
-            if (printEvents)
-                System.out.println("readBefore("+iid+","+thread+","+memory+")");
         }
+
+        numReadEvents.incrementAndGet();
+        if (printEvents)
+            System.out.println("readBefore("+iid+","+thread+","+memory+")");
     }
 
     public void writeBefore(Integer iid, Integer thread, Long memory, boolean isVolatile) {
-        synchronized (ActiveChecker.lock) {
-            LockSet ls = lsTracker.getLockSet(thread);
+        LockSet ls = lsTracker.getLockSet(thread);
+        synchronized (eb.lockFor(memory)) {
             eb.checkRace(iid, thread, memory, false, vcTracker.getVectorClock(thread), ls, false,isVolatile);
             eb.addEvent(iid, thread, memory, false, vcTracker.getVectorClock(thread), ls);
-            
-            numWriteEvents++;
-            if (printEvents)
-                System.out.println("writeBefore("+iid+","+thread+","+memory+")");
         }
+
+        numWriteEvents.incrementAndGet();
+        if (printEvents)
+            System.out.println("writeBefore("+iid+","+thread+","+memory+")");
     }
 
     public void finish() {
-        synchronized (ActiveChecker.lock) {
+        synchronized (analysisLock) {
             if (printEvents)
                 System.out.println("finish()");
             System.out.println("Num acquire events: " + numAcqEvents);
@@ -215,7 +220,8 @@ public class HybridAnalysis extends AnalysisImpl {
             System.out.println("Num read events: " + numReadEvents);
             System.out.println("Num fork events: " + numForkEvents);
             System.out.println("Num join events: " + numJoinEvents);
-            int numTotalEvents = numAcqEvents + numRelEvents + numWriteEvents + numReadEvents + numForkEvents + numJoinEvents;
+            int numTotalEvents = numAcqEvents.get() + numRelEvents.get() + numWriteEvents.get() + numReadEvents.get()
+                    + numForkEvents.get() + numJoinEvents.get();
             System.out.println("Num total events: " + numTotalEvents);
 
             eb.dumpRaces();
@@ -1,9 +1,11 @@
 package javato.activetesting;
 
-import javato.activetesting.activechecker.ActiveChecker;
 import javato.activetesting.analysis.AnalysisImpl;
+import javato.activetesting.analysis.BatchableAnalysis;
 import javato.activetesting.analysis.Observer;
+import javato.activetesting.igoodlock.DeadlockCycleInfo;
 import javato.activetesting.igoodlock.GoodlockDS;
+import javato.activetesting.igoodlock.LockGraphAbstraction;
 import javato.activetesting.reentrant.IgnoreRentrantLock;
 import javato.activetesting.common.Parameters;
 
@@ -39,34 +41,62 @@ import javato.activetesting.common.Parameters;
  * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
-public class IGoodlockAnalysis extends AnalysisImpl {
+public class IGoodlockAnalysis extends AnalysisImpl implements BatchableAnalysis {
     private GoodlockDS gl;
     private IgnoreRentrantLock ignoreRentrantLock;
+    private LockGraphAbstraction abstraction;
 
     public void initialize() {
-        synchronized (ActiveChecker.lock) {
+        synchronized (analysisLock) {
             ignoreRentrantLock = new IgnoreRentrantLock();
-            gl = new GoodlockDS();
+            abstraction = LockGraphAbstraction.create();
+            if (Parameters.deadlockOnline) {
+                gl = new GoodlockDS(DeadlockCycleInfo.openStream());
+                Observer.writeIntegerList(Parameters.errorListFile(), 0);
+            } else {
+                gl = new GoodlockDS();
+            }
         }
     }
 
+    // gl keeps its own locks, so without an abstraction the acquires of
+    // different threads do not wait for each other
     public void lockBefore(Integer iid, Integer thread, Integer lock, Object actualLock) {
-        synchronized (ActiveChecker.lock) {
-            if (ignoreRentrantLock.lockBefore(thread, lock)) {
-                gl.lock(iid, thread, lock);
+        if (ignoreRentrantLock.lockBefore(thread, lock)) {
+            int n;
+            if (abstraction == null) {
+                n = gl.lock(iid, thread, lock);
+            } else {
+                synchronized (analysisLock) {
+                    n = gl.lock(iid, thread, abstraction.getThread(thread), abstraction.getLock(lock, actualLock));
+                }
+            }
+            if (n > 0) {
+                synchronized (analysisLock) {
+                    Observer.writeIntegerList(Parameters.errorListFile(), gl.getDeadlockCount());
+                }
             }
         }
     }
 
     public void unlockAfter(Integer iid, Integer thread, Integer lock) {
-        synchronized (ActiveChecker.lock) {
-            if (ignoreRentrantLock.unlockAfter(thread, lock)) {
+        if (ignoreRentrantLock.unlockAfter(thread, lock)) {
+            if (abstraction == null) {
                 gl.unlock(iid, thread, lock);
+            } else {
+                synchronized (analysisLock) {
+                    gl.unlock(iid, thread, abstraction.getThread(thread), lock);
+                }
             }
         }
     }
 
     public void newExprAfter(Integer iid, Integer object, Integer objOnWhichMethodIsInvoked) {
+        if (abstraction != null) {
+            synchronized (analysisLock) {
+                abstraction.newExprAfter(iid, object);
+            }
+        }
     }
 
     public void methodEnterBefore(Integer iid, Integer thread) {
@@ -76,6 +106,11 @@ public class IGoodlockAnalysis extends AnalysisImpl {
     }
 
     public void startBefore(Integer iid, Integer parent, Integer child) {
+        if (abstraction != null) {
+            synchronized (analysisLock) {
+                abstraction.startBefore(iid, child);
+            }
+        }
     }
 
     public void waitAfter(Integer iid, Integer thread, Integer lock) {
@@ -97,10 +132,10 @@ public class IGoodlockAnalysis extends AnalysisImpl {
     }
 
     public void finish() {
-        synchronized (ActiveChecker.lock) {
+        synchronized (analysisLock) {
             int nDeadlocks;
             nDeadlocks = gl.dumpDeadlocks();
-            Observer.writeIntegerList(Parameters.ERROR_LIST_FILE, nDeadlocks);
+            Observer.writeIntegerList(Parameters.errorListFile(), nDeadlocks);
         }
     }
 }
@@ -62,7 +62,7 @@ public class IGoodlockAnalysisLS extends AnalysisImpl {
                 if (isDeadlock) {
                     int nDeadlocks;
                     nDeadlocks = gl.dumpDeadlocks();
-                    Observer.writeIntegerList(Parameters.ERROR_LIST_FILE, nDeadlocks);
+                    Observer.writeIntegerList(Parameters.errorListFile(), nDeadlocks);
                     System.out.println("deadlock found in Igoodlock execution!");
                     Runtime.getRuntime().halt(0);
                 }
@@ -113,7 +113,7 @@ public class IGoodlockAnalysisLS extends AnalysisImpl {
         synchronized (ActiveChecker.lock) {
             int nDeadlocks;
             nDeadlocks = gl.dumpDeadlocks();
-            Observer.writeIntegerList(Parameters.ERROR_LIST_FILE, nDeadlocks);
+            Observer.writeIntegerList(Parameters.errorListFile(), nDeadlocks);
         }
     }
 }
@@ -1,7 +1,7 @@
 package javato.activetesting;
 
-import javato.activetesting.activechecker.ActiveChecker;
 import javato.activetesting.analysis.AnalysisImpl;
+import javato.activetesting.analysis.BatchableAnalysis;
 import javato.activetesting.hybridracedetection.HybridRaceTracker;
 import javato.activetesting.lockset.LockSet;
 import javato.activetesting.lockset.LockSetTracker;
@@ -10,7 +10,8 @@ import javato.activetesting.vc.VectorClockTracker;
 import javato.activetesting.common.Parameters;
 
 import java.util.TreeSet;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Copyright (c) 2007-2008,
@@ -46,20 +47,21 @@ import java.util.TreeMap;
  */
 
 
-public class PAtomicityAnalysis extends AnalysisImpl {
+public class PAtomicityAnalysis extends AnalysisImpl implements BatchableAnalysis {
     private VectorClockTracker vcTracker;
     private LockSetTracker lsTracker;
     private IgnoreRentrantLock ignoreRentrantLock;
     private HybridRaceTracker eb;
-    private TreeMap<Integer,ThreadInfo> atomicityInfo;
+    // a thread's ThreadInfo is only used by the thread itself
+    private ConcurrentMap<Integer,ThreadInfo> atomicityInfo;
 
     public void initialize() {
-        synchronized (ActiveChecker.lock) {
+        synchronized (analysisLock) {
             vcTracker = new VectorClockTracker();
             lsTracker = new LockSetTracker();
             ignoreRentrantLock = new IgnoreRentrantLock();
-            eb = new HybridRaceTracker();
-            atomicityInfo = new TreeMap<Integer, ThreadInfo>();
+            eb = HybridRaceTracker.create();
+            atomicityInfo = new ConcurrentHashMap<Integer, ThreadInfo>();
         }
     }
 
@@ -67,50 +69,48 @@ public class PAtomicityAnalysis extends AnalysisImpl {
         ThreadInfo ti = atomicityInfo.get(thread);
         if (ti==null) {
             ti = new ThreadInfo();
-            atomicityInfo.put(thread,ti);
+            ThreadInfo old = atomicityInfo.putIfAbsent(thread,ti);
+            if (old != null) {
+                ti = old;
+            }
         }
         return ti;
     }
 
     public void lockBefore(Integer iid, Integer thread, Integer lock, Object actualLock) {
-        synchronized (ActiveChecker.lock) {
-            if (ignoreRentrantLock.lockBefore(thread, lock)) {
-                ThreadInfo ti = getThreadInfo(thread);
-                LockSet ls = lsTracker.getLockSet(thread);
-                Long mem = (long) lock;
-                boolean isRead = !ti.isAcquiringAgain(lock);
+        if (ignoreRentrantLock.lockBefore(thread, lock)) {
+            ThreadInfo ti = getThreadInfo(thread);
+            LockSet ls = lsTracker.getLockSet(thread);
+            Long mem = (long) lock;
+            boolean isRead = !ti.isAcquiringAgain(lock);
+            // only the accesses to the same lock are serialized
+            synchronized (eb.lockFor(mem)) {
                 eb.checkRace(iid, thread, mem , isRead, vcTracker.getVectorClock(thread), ls,true,false);
                 eb.addEvent(iid, thread, mem, isRead, vcTracker.getVectorClock(thread), ls);
-                lsTracker.lockBefore(iid, thread, lock);
             }
+            lsTracker.lockBefore(iid, thread, lock);
         }
     }
 
 
     public void unlockAfter(Integer iid, Integer thread, Integer lock) {
-        synchronized (ActiveChecker.lock) {
-            if (ignoreRentrantLock.unlockAfter(thread, lock)) {
-                lsTracker.unlockAfter(thread);
-                getThreadInfo(thread).lockRelease();
-            }
+        if (ignoreRentrantLock.unlockAfter(thread, lock)) {
+            lsTracker.unlockAfter(thread);
+            getThreadInfo(thread).lockRelease();
         }
     }
 
     public void startBefore(Integer iid, Integer parent, Integer child) {
-        synchronized (ActiveChecker.lock) {
-            vcTracker.startBefore(parent, child);
-        }
+        vcTracker.startBefore(parent, child);
     }
 
 
     public void joinAfter(Integer iid, Integer parent, Integer child) {
-        synchronized (ActiveChecker.lock) {
-            vcTracker.joinAfter(parent, child);
-        }
+        vcTracker.joinAfter(parent, child);
     }
 
     public void finish() {
-        synchronized (ActiveChecker.lock) {
+        synchronized (analysisLock) {
             eb.dumpRaces();
         }
     }
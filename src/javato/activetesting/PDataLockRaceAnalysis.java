@@ -52,7 +52,7 @@ public class PDataLockRaceAnalysis extends AnalysisImpl {
             vcTracker = new VectorClockTracker();
             lsTracker = new LockSetTracker();
             ignoreRentrantLock = new IgnoreRentrantLock();
-            eb = new HybridRaceTracker();
+            eb = HybridRaceTracker.create();
         }
     }
 
@@ -52,7 +52,7 @@ public class PMissedNotifyAnalysis extends AnalysisImpl {
             vcTracker = new VectorClockTracker();
             lsTracker = new LockSetTracker();
             ignoreRentrantLock = new IgnoreRentrantLock();
-            eb = new HybridRaceTracker();
+            eb = HybridRaceTracker.create();
         }
     }
 
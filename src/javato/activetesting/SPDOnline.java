@@ -6,7 +6,6 @@ import javato.activetesting.analysis.AnalysisImpl;
 import javato.activetesting.analysis.ObserverForActiveTesting;
 import javato.activetesting.common.Parameters;
 import javato.activetesting.common.MutableLong;
-import javato.activetesting.activechecker.ActiveChecker;
 import javato.activetesting.threadrepro.EqualObjectBreakpoint;
 import javato.activetesting.deterministicscheduler.StallBreaker;
 import javato.activetesting.syncpd.util.VectorClock;
@@ -14,7 +13,7 @@ import javato.activetesting.syncpd.util.VectorClock;
 import java.util.Set;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Scanner;
@@ -26,6 +25,7 @@ import java.io.IOException;
 import java.io.FileNotFoundException;
 import java.util.Scanner;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javato.activetesting.syncpd.SyncPDState;;
 
@@ -62,6 +62,10 @@ import javato.activetesting.syncpd.SyncPDState;;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 public class SPDOnline extends AnalysisImpl {
+    // acquires, releases, starts and joins update the lock graph and the
+    // history and are serialized on analysisLock; a read or a write only
+    // touches the thread's own clock, locked for collectHistory, and the
+    // variable's last write, locked by state.lockFor
 
     private SyncPDState state;
     private LockSetTracker lsTracker;
@@ -76,11 +80,11 @@ public class SPDOnline extends AnalysisImpl {
     private final int MAX_PAUSE = 5;
 
     public void initialize() {
-        synchronized (ActiveChecker.lock) {
+        synchronized (analysisLock) {
             state = new SyncPDState();
             lsTracker = new LockSetTracker();
             ignoreRentrantLock = new IgnoreRentrantLock();
-            pauseThreads = new HashSet<Integer>();
+            pauseThreads = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
             pauseCountPerLoc = new HashMap<Long, Integer>();
             pauseCountPerThread = new HashMap<Integer, Integer>();
             writeLock = new Object();
@@ -100,7 +104,7 @@ public class SPDOnline extends AnalysisImpl {
     }
 
     public void lockBefore(Integer iid, Integer thread, Integer lock, Object actualLock) {
-        synchronized (ActiveChecker.lock) {
+        synchronized (analysisLock) {
             state.addThread(thread);
 
             int vertexIndex = state.keepCycleBooks(thread, lock, iid);
@@ -126,7 +130,7 @@ public class SPDOnline extends AnalysisImpl {
     }
 
     public void unlockAfter(Integer iid, Integer thread, Integer lock) {
-        synchronized (ActiveChecker.lock) {
+        synchronized (analysisLock) {
             if (state.getLockHeldCount(thread, lock) == 1)
                 lsTracker.unlockAfter(thread);
 
@@ -137,7 +141,7 @@ public class SPDOnline extends AnalysisImpl {
     }
 
     public void startBefore(Integer iid, Integer parent, Integer child) {
-        synchronized (ActiveChecker.lock) {
+        synchronized (analysisLock) {
             state.addThread(parent);
             state.incClockThread(parent);
             state.addThread(parent, child);
@@ -145,28 +149,39 @@ public class SPDOnline extends AnalysisImpl {
     }
 
     public void joinAfter(Integer iid, Integer parent, Integer child) {
-        synchronized (ActiveChecker.lock) {
+        synchronized (analysisLock) {
             state.incClockThread(parent);
 
             VectorClock C_t = state.getThreadVC(parent);
             VectorClock C_tc = state.getThreadVC(child);
             C_t.updateMax(C_tc);
+            state.joinThread(child);
+        }
+    }
+
+    private void addThread(Integer thread) {
+        if (!state.hasThread(thread)) {
+            synchronized (analysisLock) {
+                state.addThread(thread);
+            }
         }
     }
 
     public void readBefore(Integer iid, Integer thread, Long memory, boolean isVolatile) {
-        synchronized (ActiveChecker.lock) {
-            state.addThread(thread);
-            state.incClockThread(thread);
-            VectorClock C_t = state.getThreadVC(thread);
+        addThread(thread);
+        VectorClock C_t = state.getThreadVC(thread);
+        synchronized (state.lockFor(memory)) {
+            synchronized (C_t) {
+                state.incClockThread(thread);
 
-            if (state.variableToLastWriteThread.containsKey(memory)) {
-                int lastWriteThread = state.variableToLastWriteThread.get(memory);
-                VectorClock LW_v = state.lastWriteVariable.get(memory);
+                if (state.variableToLastWriteThread.containsKey(memory)) {
+                    int lastWriteThread = state.variableToLastWriteThread.get(memory);
+                    VectorClock LW_v = state.lastWriteVariable.get(memory);
 
-                int lastWriteThreadId = state.getThreadId(lastWriteThread);
-                if (C_t.getClockIndex(lastWriteThreadId) < LW_v.getClockIndex(lastWriteThreadId)) 
-                    C_t.updateMax(LW_v);
+                    int lastWriteThreadId = state.getThreadId(lastWriteThread);
+                    if (C_t.getClockIndex(lastWriteThreadId) < LW_v.getClockIndex(lastWriteThreadId)) 
+                        C_t.updateMax(LW_v);
+                }
             }
         }
     }
@@ -208,19 +223,32 @@ public class SPDOnline extends AnalysisImpl {
             }
         }
 
-        synchronized (ActiveChecker.lock) {
-            state.addThread(thread);
-
-            state.incClockThread(thread);
-            VectorClock C_t = state.getThreadVC(thread);
+        addThread(thread);
+        VectorClock C_t = state.getThreadVC(thread);
+        synchronized (state.lockFor(memory)) {
+            synchronized (C_t) {
+                state.incClockThread(thread);
+            }
 
-            state.lastWriteVariable.put(memory, new VectorClock(C_t));
+            VectorClock LW_v = state.lastWriteVariable.get(memory);
+            if (LW_v == null)
+                state.lastWriteVariable.put(memory, new VectorClock(C_t));
+            else {
+                LW_v.setToZero();
+                LW_v.copyFrom(C_t);
+            }
             state.variableToLastWriteThread.put(memory, thread);
         }
     }
 
+    public SyncPDState getSyncPDState() {
+        return state;
+    }
+
     public void finish() {
         System.out.println("\nTotal number of unique deadlocks: " + state.uniqueDeadlockCount);
+        System.out.println("SyncPD history: " + state.historyReclaimed + " entries reclaimed in "
+                + state.historyCollections + " collections, peak " + state.historyPeak);
         writeStat(Parameters.execNumberFile);
     }
 
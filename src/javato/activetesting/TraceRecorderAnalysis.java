@@ -0,0 +1,148 @@
+package javato.activetesting;
+
+import javato.activetesting.analysis.EventType;
+import javato.activetesting.analysis.Observer;
+import javato.activetesting.analysis.PrimitiveAnalysisImpl;
+import javato.activetesting.common.Parameters;
+import javato.activetesting.trace.TraceReader;
+import javato.activetesting.trace.TraceWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the event stream into per-thread memory-mapped binary files in
+ * javato.trace.dir (default "trace") so that prediction analyses can be run
+ * offline on the same execution; see {@link TraceReader}.
+ * <p/>
+ * Recording does no string formatting and shares nothing but the global
+ * sequence counter: each thread owns its file, whose lock only finish
+ * contends for.
+ * Callbacks that carry values rather than ids (writeAfter and the
+ * deterministic-block assertions) are not recorded, and the actual lock
+ * object of lockBefore is dropped.
+ */
+public class TraceRecorderAnalysis extends PrimitiveAnalysisImpl {
+    private File dir;
+    private AtomicLong sequence;
+    private AtomicInteger nWriters;
+    private List<TraceWriter> writers;
+    private ThreadLocal<TraceWriter> writer;
+
+    public void initialize() {
+        dir = new File(Parameters.traceDir);
+        dir.mkdirs();
+        File[] old = dir.listFiles();
+        if (old != null) {
+            for (File f : old) {
+                if (f.getName().endsWith(TraceReader.SUFFIX)) {
+                    f.delete();
+                }
+            }
+        }
+        sequence = new AtomicLong(0);
+        nWriters = new AtomicInteger(0);
+        writers = new ArrayList<TraceWriter>();
+        writer = new ThreadLocal<TraceWriter>() {
+            protected TraceWriter initialValue() {
+                File f = new File(dir, "thread-" + nWriters.getAndIncrement() + TraceReader.SUFFIX);
+                try {
+                    TraceWriter w = new TraceWriter(f, Parameters.traceChunkRecords);
+                    synchronized (writers) {
+                        writers.add(w);
+                    }
+                    return w;
+                } catch (IOException e) {
+                    System.err.println("Error while creating " + f);
+                    e.printStackTrace();
+                    System.exit(1);
+                    return null;
+                }
+            }
+        };
+    }
+
+    private void record(byte op, boolean flag, int iid, int thread, long target) {
+        try {
+            writer.get().write(op, flag, iid, thread, target, sequence.getAndIncrement());
+        } catch (IOException e) {
+            System.err.println("Error while writing to trace in " + dir);
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    public void lockBefore(int iid, int thread, int lock, Object actualLock) {
+        record(EventType.LOCK, false, iid, thread, lock);
+    }
+
+    public void unlockAfter(int iid, int thread, int lock) {
+        record(EventType.UNLOCK, false, iid, thread, lock);
+    }
+
+    public void newExprAfter(int iid, int object, int objOnWhichMethodIsInvoked) {
+        record(EventType.NEW, false, iid, object, objOnWhichMethodIsInvoked);
+    }
+
+    public void methodEnterBefore(int iid, int thread) {
+        record(EventType.METHOD_ENTER, false, iid, thread, 0);
+    }
+
+    public void methodExitAfter(int iid, int thread) {
+        record(EventType.METHOD_EXIT, false, iid, thread, 0);
+    }
+
+    public void startBefore(int iid, int parent, int child) {
+        record(EventType.START_BEFORE, false, iid, parent, child);
+    }
+
+    public void startAfter(int iid, int parent, Object child) {
+        record(EventType.START_AFTER, false, iid, parent, Observer.uniqueId(child));
+    }
+
+    public void waitBefore(int iid, int thread, int lock) {
+        record(EventType.WAIT_BEFORE, false, iid, thread, lock);
+    }
+
+    public void waitAfter(int iid, int thread, int lock) {
+        record(EventType.WAIT_AFTER, false, iid, thread, lock);
+    }
+
+    public void notifyBefore(int iid, int thread, int lock) {
+        record(EventType.NOTIFY, false, iid, thread, lock);
+    }
+
+    public void notifyAllBefore(int iid, int thread, int lock) {
+        record(EventType.NOTIFY_ALL, false, iid, thread, lock);
+    }
+
+    public void joinAfter(int iid, int parent, int child) {
+        record(EventType.JOIN, false, iid, parent, child);
+    }
+
+    public void readBefore(int iid, int thread, long memory, boolean isVolatile) {
+        record(EventType.READ, isVolatile, iid, thread, memory);
+    }
+
+    public void writeBefore(int iid, int thread, long memory, boolean isVolatile) {
+        record(EventType.WRITE, isVolatile, iid, thread, memory);
+    }
+
+    public void finish() {
+        long n = 0;
+        synchronized (writers) {
+            for (TraceWriter w : writers) {
+                // threads that are still running may keep appending, so the
+                // files are only flushed here, under the writer's lock, and
+                // closed by the JVM on exit
+                n += w.getCount();
+                w.flush();
+            }
+        }
+        System.out.println("Recorded " + n + " events from " + nWriters.get() + " threads in " + dir);
+    }
+}
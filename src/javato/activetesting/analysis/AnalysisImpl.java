@@ -1,5 +1,7 @@
 package javato.activetesting.analysis;
 
+import javato.activetesting.trial.Trial;
+
 /**
  * Copyright (c) 2007-2008,
  * Koushik Sen    <ksen@cs.berkeley.edu>
@@ -33,15 +35,40 @@ package javato.activetesting.analysis;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 abstract public class AnalysisImpl extends Thread implements Analysis {
+    /**
+     * Monitor guarding the state of a passive ({@link BatchableAnalysis})
+     * analysis.  Active analyses synchronize on ActiveChecker.lock instead,
+     * since they have to coordinate with the scheduler.
+     */
+    protected final Object analysisLock = new Object();
+
     public AnalysisImpl() {
         initialize();
-        Runtime.getRuntime().addShutdownHook(this);
+        Trial.addShutdownHook(this);
     }
 
     public void run() {
         finish();
     }
 
+    public Object getAnalysisLock() {
+        return analysisLock;
+    }
+
+    /**
+     * Keeps <code>analysis</code> from finishing on its own at shutdown, for
+     * drivers that call finish() themselves once all events are delivered.
+     */
+    public static void removeShutdownHook(Analysis analysis) {
+        if (analysis instanceof Thread) {
+            try {
+                Trial.removeShutdownHook((Thread) analysis);
+            } catch (IllegalStateException e) {
+                // already shutting down
+            }
+        }
+    }
+
     /* Default implementations. */
     public void initialize() { }
     public void lockBefore(Integer iid, Integer thread, Integer lock, Object actualLock) { }
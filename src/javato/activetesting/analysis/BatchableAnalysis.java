@@ -0,0 +1,16 @@
+package javato.activetesting.analysis;
+
+/**
+ * Implemented by analyses that only observe the event stream and never act on the
+ * calling thread (no pausing, no scheduling, no use of thread locals or
+ * Thread.currentThread()).  Such analyses may receive their callbacks from a
+ * different thread, later than the event happened, and in batches; see
+ * {@link BatchingAnalysisImpl}.
+ */
+public interface BatchableAnalysis extends Analysis {
+    /**
+     * The monitor the analysis synchronizes its callbacks on.  It must not be
+     * ActiveChecker.lock, so that independent analyses can run concurrently.
+     */
+    public Object getAnalysisLock();
+}
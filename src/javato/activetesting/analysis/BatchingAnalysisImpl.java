@@ -0,0 +1,350 @@
+package javato.activetesting.analysis;
+
+import javato.activetesting.common.Parameters;
+import javato.activetesting.trial.Trial;
+
+import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Buffers the events of each thread in a thread-local {@link EventBuffer} and
+ * hands them to the wrapped analysis in batches.  A batch is dispatched under a
+ * single acquisition of the analysis' own monitor (see
+ * {@link BatchableAnalysis#getAnalysisLock()}), so the synchronized blocks in
+ * its callbacks become uncontended re-entries.
+ * <p/>
+ * A global sequence number is taken for every event and the buffers are merged
+ * on that number when they are drained, so the analysis sees exactly the
+ * order in which the events were observed.  A thread only takes a sequence
+ * number once it knows its buffer has room, so a taken number is always
+ * published without blocking and the merge never waits for long.
+ * <p/>
+ * Events are recorded and dispatched through {@link PrimitiveAnalysis}, so
+ * neither side boxes ids when the wrapped analysis takes primitive ids.
+ * <p/>
+ * Only {@link BatchableAnalysis} analyses may be wrapped.  The remaining
+ * buffered events are drained at shutdown, before the analysis' finish().
+ */
+public class BatchingAnalysisImpl extends Thread implements Analysis, PrimitiveAnalysis {
+    private final Analysis analysis;
+    private final PrimitiveAnalysis next;
+    private final Object lock;
+    private final int capacity;
+    private final AtomicLong sequence = new AtomicLong(0);
+    private final CopyOnWriteArrayList<EventBuffer> buffers = new CopyOnWriteArrayList<EventBuffer>();
+    private long nextToDispatch = 0;
+    private long nBatches = 0;
+
+    private final ThreadLocal<EventBuffer> buffer = new ThreadLocal<EventBuffer>() {
+        protected EventBuffer initialValue() {
+            EventBuffer b = new EventBuffer(capacity, Thread.currentThread());
+            buffers.add(b);
+            return b;
+        }
+    };
+
+    public BatchingAnalysisImpl(BatchableAnalysis next) {
+        this(next, Parameters.eventBatchSize);
+    }
+
+    public BatchingAnalysisImpl(BatchableAnalysis next, int capacity) {
+        this.analysis = next;
+        this.lock = next.getAnalysisLock();
+        this.next = BoxingAnalysisAdapter.toPrimitive(next);
+        this.capacity = capacity;
+        // the wrapped analysis must not finish before we have drained
+        AnalysisImpl.removeShutdownHook(next);
+        Trial.addShutdownHook(this);
+    }
+
+    public void run() {
+        finish();
+    }
+
+    private void record(byte op, int iid, int thread, long target, boolean flag, Object ref) {
+        EventBuffer b = buffer.get();
+        while (b.isFull()) {
+            drain();
+            if (b.isFull()) {
+                // another thread has taken a sequence number but not published yet
+                Thread.yield();
+            }
+        }
+        b.append(sequence.getAndIncrement(), op, iid, thread, target, flag, ref);
+        if (b.isFull()) {
+            drain();
+        }
+    }
+
+    /**
+     * Dispatches, in sequence order, every buffered event that is not preceded
+     * by an unpublished one.
+     */
+    public void drain() {
+        synchronized (lock) {
+            long first = nextToDispatch;
+            boolean progress = true;
+            while (progress) {
+                progress = false;
+                for (EventBuffer b : buffers) {
+                    long h = b.head;
+                    long t = b.tail;
+                    while (h < t && b.seq[b.index(h)] == nextToDispatch) {
+                        dispatch(b, b.index(h));
+                        h++;
+                        nextToDispatch++;
+                        progress = true;
+                    }
+                    b.head = h;
+                }
+            }
+            if (nextToDispatch != first) {
+                nBatches++;
+            }
+            Iterator<EventBuffer> it = buffers.iterator();
+            while (it.hasNext()) {
+                EventBuffer b = it.next();
+                if (b.isEmpty() && b.isOrphan()) {
+                    buffers.remove(b);
+                }
+            }
+        }
+    }
+
+    private void dispatch(EventBuffer b, int k) {
+        int iid = b.iid[k];
+        int thread = b.thread[k];
+        long target = b.target[k];
+        Object ref = b.ref[k];
+        b.ref[k] = null;
+        switch (b.op[k]) {
+            case EventType.LOCK:
+                next.lockBefore(iid, thread, (int) target, ref);
+                break;
+            case EventType.UNLOCK:
+                next.unlockAfter(iid, thread, (int) target);
+                break;
+            case EventType.NEW:
+                next.newExprAfter(iid, thread, (int) target);
+                break;
+            case EventType.METHOD_ENTER:
+                next.methodEnterBefore(iid, thread);
+                break;
+            case EventType.METHOD_EXIT:
+                next.methodExitAfter(iid, thread);
+                break;
+            case EventType.START_BEFORE:
+                next.startBefore(iid, thread, (int) target);
+                break;
+            case EventType.START_AFTER:
+                next.startAfter(iid, thread, ref);
+                break;
+            case EventType.WAIT_BEFORE:
+                next.waitBefore(iid, thread, (int) target);
+                break;
+            case EventType.WAIT_AFTER:
+                next.waitAfter(iid, thread, (int) target);
+                break;
+            case EventType.NOTIFY:
+                next.notifyBefore(iid, thread, (int) target);
+                break;
+            case EventType.NOTIFY_ALL:
+                next.notifyAllBefore(iid, thread, (int) target);
+                break;
+            case EventType.JOIN:
+                next.joinAfter(iid, thread, (int) target);
+                break;
+            case EventType.READ:
+                next.readBefore(iid, thread, target, b.flag[k]);
+                break;
+            case EventType.WRITE:
+                next.writeBefore(iid, thread, target, b.flag[k]);
+                break;
+            case EventType.WRITE_AFTER:
+                Object[] args = (Object[]) ref;
+                next.writeAfter(iid, (Thread) args[0], (String) args[1], args[2], (String) args[3]);
+                break;
+            case EventType.OPEN_BLOCK:
+                next.openDeterministicBlock(iid);
+                break;
+            case EventType.CLOSE_BLOCK:
+                next.closeDeterministicBlock(iid);
+                break;
+            case EventType.REQUIRE_DETERMINISTIC:
+                next.requireDeterministic(thread, ref);
+                break;
+            case EventType.ASSERT_DETERMINISTIC:
+                next.assertDeterministic(thread, ref);
+                break;
+        }
+    }
+
+    public void initialize() {
+    }
+
+    public void lockBefore(Integer iid, Integer thread, Integer lock, Object actualLock) {
+        record(EventType.LOCK, iid, thread, lock, false, actualLock);
+    }
+
+    public void unlockAfter(Integer iid, Integer thread, Integer lock) {
+        record(EventType.UNLOCK, iid, thread, lock, false, null);
+    }
+
+    public void newExprAfter(Integer iid, Integer object, Integer objOnWhichMethodIsInvoked) {
+        record(EventType.NEW, iid, object, objOnWhichMethodIsInvoked, false, null);
+    }
+
+    public void methodEnterBefore(Integer iid, Integer thread) {
+        record(EventType.METHOD_ENTER, iid, thread, 0, false, null);
+    }
+
+    public void methodExitAfter(Integer iid, Integer thread) {
+        record(EventType.METHOD_EXIT, iid, thread, 0, false, null);
+    }
+
+    public void startBefore(Integer iid, Integer parent, Integer child) {
+        record(EventType.START_BEFORE, iid, parent, child, false, null);
+    }
+
+    public void startAfter(Integer iid, Integer parent, Object child) {
+        record(EventType.START_AFTER, iid, parent, 0, false, child);
+    }
+
+    public void waitBefore(Integer iid, Integer thread, Integer lock) {
+        record(EventType.WAIT_BEFORE, iid, thread, lock, false, null);
+    }
+
+    public void waitAfter(Integer iid, Integer thread, Integer lock) {
+        record(EventType.WAIT_AFTER, iid, thread, lock, false, null);
+    }
+
+    public void notifyBefore(Integer iid, Integer thread, Integer lock) {
+        record(EventType.NOTIFY, iid, thread, lock, false, null);
+    }
+
+    public void notifyAllBefore(Integer iid, Integer thread, Integer lock) {
+        record(EventType.NOTIFY_ALL, iid, thread, lock, false, null);
+    }
+
+    public void joinAfter(Integer iid, Integer parent, Integer child) {
+        record(EventType.JOIN, iid, parent, child, false, null);
+    }
+
+    public void readBefore(Integer iid, Integer thread, Long memory, boolean isVolatile) {
+        record(EventType.READ, iid, thread, memory, isVolatile, null);
+    }
+
+    public void writeBefore(Integer iid, Integer thread, Long memory, boolean isVolatile) {
+        record(EventType.WRITE, iid, thread, memory, isVolatile, null);
+    }
+
+    public void writeAfter(Integer iid, Thread thread, String local, Object value, String type) {
+        record(EventType.WRITE_AFTER, iid, 0, 0, false, new Object[]{thread, local, value, type});
+    }
+
+    public void openDeterministicBlock(Integer bid) {
+        record(EventType.OPEN_BLOCK, bid, 0, 0, false, null);
+    }
+
+    public void closeDeterministicBlock(Integer bid) {
+        record(EventType.CLOSE_BLOCK, bid, 0, 0, false, null);
+    }
+
+    public void requireDeterministic(Integer thread, Object invariant) {
+        record(EventType.REQUIRE_DETERMINISTIC, 0, thread, 0, false, invariant);
+    }
+
+    public void assertDeterministic(Integer thread, Object invariant) {
+        record(EventType.ASSERT_DETERMINISTIC, 0, thread, 0, false, invariant);
+    }
+
+    public void lockBefore(int iid, int thread, int lock, Object actualLock) {
+        record(EventType.LOCK, iid, thread, lock, false, actualLock);
+    }
+
+    public void unlockAfter(int iid, int thread, int lock) {
+        record(EventType.UNLOCK, iid, thread, lock, false, null);
+    }
+
+    public void newExprAfter(int iid, int object, int objOnWhichMethodIsInvoked) {
+        record(EventType.NEW, iid, object, objOnWhichMethodIsInvoked, false, null);
+    }
+
+    public void methodEnterBefore(int iid, int thread) {
+        record(EventType.METHOD_ENTER, iid, thread, 0, false, null);
+    }
+
+    public void methodExitAfter(int iid, int thread) {
+        record(EventType.METHOD_EXIT, iid, thread, 0, false, null);
+    }
+
+    public void startBefore(int iid, int parent, int child) {
+        record(EventType.START_BEFORE, iid, parent, child, false, null);
+    }
+
+    public void startAfter(int iid, int parent, Object child) {
+        record(EventType.START_AFTER, iid, parent, 0, false, child);
+    }
+
+    public void waitBefore(int iid, int thread, int lock) {
+        record(EventType.WAIT_BEFORE, iid, thread, lock, false, null);
+    }
+
+    public void waitAfter(int iid, int thread, int lock) {
+        record(EventType.WAIT_AFTER, iid, thread, lock, false, null);
+    }
+
+    public void notifyBefore(int iid, int thread, int lock) {
+        record(EventType.NOTIFY, iid, thread, lock, false, null);
+    }
+
+    public void notifyAllBefore(int iid, int thread, int lock) {
+        record(EventType.NOTIFY_ALL, iid, thread, lock, false, null);
+    }
+
+    public void joinAfter(int iid, int parent, int child) {
+        record(EventType.JOIN, iid, parent, child, false, null);
+    }
+
+    public void readBefore(int iid, int thread, long memory, boolean isVolatile) {
+        record(EventType.READ, iid, thread, memory, isVolatile, null);
+    }
+
+    public void writeBefore(int iid, int thread, long memory, boolean isVolatile) {
+        record(EventType.WRITE, iid, thread, memory, isVolatile, null);
+    }
+
+    public void writeAfter(int iid, Thread thread, String local, Object value, String type) {
+        record(EventType.WRITE_AFTER, iid, 0, 0, false, new Object[]{thread, local, value, type});
+    }
+
+    public void openDeterministicBlock(int bid) {
+        record(EventType.OPEN_BLOCK, bid, 0, 0, false, null);
+    }
+
+    public void closeDeterministicBlock(int bid) {
+        record(EventType.CLOSE_BLOCK, bid, 0, 0, false, null);
+    }
+
+    public void requireDeterministic(int thread, Object invariant) {
+        record(EventType.REQUIRE_DETERMINISTIC, 0, thread, 0, false, invariant);
+    }
+
+    public void assertDeterministic(int thread, Object invariant) {
+        record(EventType.ASSERT_DETERMINISTIC, 0, thread, 0, false, invariant);
+    }
+
+    public void finish() {
+        synchronized (lock) {
+            drain();
+            if (nextToDispatch != sequence.get()) {
+                System.err.println("Batched analysis: " + (sequence.get() - nextToDispatch)
+                        + " events were still in flight at shutdown");
+            }
+            System.out.println("Batched analysis: dispatched " + nextToDispatch + " events in "
+                    + nBatches + " batches");
+            analysis.finish();
+        }
+    }
+}
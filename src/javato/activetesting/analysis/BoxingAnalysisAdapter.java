@@ -0,0 +1,106 @@
+package javato.activetesting.analysis;
+
+/**
+ * Lets an {@link Analysis} with boxed parameters be driven through the
+ * {@link PrimitiveAnalysis} interface.  The boxing that used to happen in
+ * ObserverForActiveTesting happens here instead, so existing analyses keep
+ * working unchanged.
+ */
+public class BoxingAnalysisAdapter implements PrimitiveAnalysis {
+    private final Analysis next;
+
+    public BoxingAnalysisAdapter(Analysis next) {
+        this.next = next;
+    }
+
+    /**
+     * Returns <code>analysis</code> itself if it already takes primitive
+     * ids, and an adapter around it otherwise.
+     */
+    public static PrimitiveAnalysis toPrimitive(Analysis analysis) {
+        if (analysis instanceof PrimitiveAnalysis) {
+            return (PrimitiveAnalysis) analysis;
+        }
+        return new BoxingAnalysisAdapter(analysis);
+    }
+
+    public Analysis getAnalysis() {
+        return next;
+    }
+
+    public void lockBefore(int iid, int thread, int lock, Object actualLock) {
+        next.lockBefore(iid, thread, lock, actualLock);
+    }
+
+    public void unlockAfter(int iid, int thread, int lock) {
+        next.unlockAfter(iid, thread, lock);
+    }
+
+    public void newExprAfter(int iid, int object, int objOnWhichMethodIsInvoked) {
+        next.newExprAfter(iid, object, objOnWhichMethodIsInvoked);
+    }
+
+    public void methodEnterBefore(int iid, int thread) {
+        next.methodEnterBefore(iid, thread);
+    }
+
+    public void methodExitAfter(int iid, int thread) {
+        next.methodExitAfter(iid, thread);
+    }
+
+    public void startBefore(int iid, int parent, int child) {
+        next.startBefore(iid, parent, child);
+    }
+
+    public void startAfter(int iid, int parent, Object child) {
+        next.startAfter(iid, parent, child);
+    }
+
+    public void waitBefore(int iid, int thread, int lock) {
+        next.waitBefore(iid, thread, lock);
+    }
+
+    public void waitAfter(int iid, int thread, int lock) {
+        next.waitAfter(iid, thread, lock);
+    }
+
+    public void notifyBefore(int iid, int thread, int lock) {
+        next.notifyBefore(iid, thread, lock);
+    }
+
+    public void notifyAllBefore(int iid, int thread, int lock) {
+        next.notifyAllBefore(iid, thread, lock);
+    }
+
+    public void joinAfter(int iid, int parent, int child) {
+        next.joinAfter(iid, parent, child);
+    }
+
+    public void readBefore(int iid, int thread, long memory, boolean isVolatile) {
+        next.readBefore(iid, thread, memory, isVolatile);
+    }
+
+    public void writeBefore(int iid, int thread, long memory, boolean isVolatile) {
+        next.writeBefore(iid, thread, memory, isVolatile);
+    }
+
+    public void writeAfter(int iid, Thread thread, String local, Object value, String type) {
+        next.writeAfter(iid, thread, local, value, type);
+    }
+
+    public void openDeterministicBlock(int bid) {
+        next.openDeterministicBlock(bid);
+    }
+
+    public void closeDeterministicBlock(int bid) {
+        next.closeDeterministicBlock(bid);
+    }
+
+    public void requireDeterministic(int thread, Object invariant) {
+        next.requireDeterministic(thread, invariant);
+    }
+
+    public void assertDeterministic(int thread, Object invariant) {
+        next.assertDeterministic(thread, invariant);
+    }
+}
@@ -3,6 +3,7 @@ package javato.activetesting.analysis;
 import javato.activetesting.common.Parameters;
 import javato.activetesting.scheduler.LivelockBreaker;
 import javato.activetesting.scheduler.StallBreaker;
+import javato.activetesting.trial.Trial;
 
 /**
  * Copyright (c) 2007-2008,
@@ -41,7 +42,7 @@ abstract public class CheckerAnalysisImpl extends Thread implements Analysis {
         initialize();
         (new LivelockBreaker(Parameters.livelockCheckerInterval)).start();
         (new StallBreaker()).start();
-        Runtime.getRuntime().addShutdownHook(this);
+        Trial.addShutdownHook(this);
     }
 
     public void run() {
@@ -0,0 +1,77 @@
+package javato.activetesting.analysis;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Single-producer ring of compact event records.  Only the owning thread
+ * appends; a draining thread consumes from the head.  Records are stored
+ * column-wise in primitive arrays so that appending does not allocate.
+ * <p/>
+ * Every record carries a global sequence number which is used to merge the
+ * buffers of all threads back into one ordered stream.  Op codes are the
+ * ones of {@link EventType}.
+ */
+class EventBuffer {
+    final byte[] op;
+    final int[] iid;
+    final int[] thread;
+    final long[] target;
+    final boolean[] flag;
+    final Object[] ref;
+    final long[] seq;
+    private final int mask;
+    final WeakReference<Thread> owner;
+
+    // head is only written by the drainer, tail only by the owner
+    volatile long head;
+    volatile long tail;
+
+    EventBuffer(int capacity, Thread owner) {
+        int n = 1;
+        while (n < capacity) {
+            n <<= 1;
+        }
+        op = new byte[n];
+        iid = new int[n];
+        thread = new int[n];
+        target = new long[n];
+        flag = new boolean[n];
+        ref = new Object[n];
+        seq = new long[n];
+        mask = n - 1;
+        this.owner = new WeakReference<Thread>(owner);
+    }
+
+    int index(long position) {
+        return (int) (position & mask);
+    }
+
+    boolean isFull() {
+        return tail - head > mask;
+    }
+
+    boolean isEmpty() {
+        return tail == head;
+    }
+
+    boolean isOrphan() {
+        Thread t = owner.get();
+        return t == null || !t.isAlive();
+    }
+
+    /**
+     * Must only be called by the owner, and only if !isFull().
+     */
+    void append(long s, byte o, int i, int t, long tgt, boolean f, Object r) {
+        long position = tail;
+        int k = index(position);
+        op[k] = o;
+        iid[k] = i;
+        thread[k] = t;
+        target[k] = tgt;
+        flag[k] = f;
+        ref[k] = r;
+        seq[k] = s;
+        tail = position + 1;
+    }
+}
@@ -0,0 +1,45 @@
+package javato.activetesting.analysis;
+
+/**
+ * Compact op codes for the {@link Analysis} callbacks, used wherever events
+ * are stored as records instead of being dispatched immediately.  Zero is
+ * never a valid op code.
+ */
+public final class EventType {
+    public static final byte LOCK = 1;
+    public static final byte UNLOCK = 2;
+    public static final byte NEW = 3;
+    public static final byte METHOD_ENTER = 4;
+    public static final byte METHOD_EXIT = 5;
+    public static final byte START_BEFORE = 6;
+    public static final byte START_AFTER = 7;
+    public static final byte WAIT_BEFORE = 8;
+    public static final byte WAIT_AFTER = 9;
+    public static final byte NOTIFY = 10;
+    public static final byte NOTIFY_ALL = 11;
+    public static final byte JOIN = 12;
+    public static final byte READ = 13;
+    public static final byte WRITE = 14;
+    public static final byte WRITE_AFTER = 15;
+    public static final byte OPEN_BLOCK = 16;
+    public static final byte CLOSE_BLOCK = 17;
+    public static final byte REQUIRE_DETERMINISTIC = 18;
+    public static final byte ASSERT_DETERMINISTIC = 19;
+
+    private static final String[] names = {
+            null, "lockBefore", "unlockAfter", "newExprAfter", "methodEnterBefore", "methodExitAfter",
+            "startBefore", "startAfter", "waitBefore", "waitAfter", "notifyBefore", "notifyAllBefore",
+            "joinAfter", "readBefore", "writeBefore", "writeAfter", "openDeterministicBlock",
+            "closeDeterministicBlock", "requireDeterministic", "assertDeterministic"
+    };
+
+    private EventType() {
+    }
+
+    public static String toString(byte op) {
+        if (op <= 0 || op >= names.length) {
+            return "unknown(" + op + ")";
+        }
+        return names[op];
+    }
+}
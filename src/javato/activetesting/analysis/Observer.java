@@ -1,10 +1,12 @@
 package javato.activetesting.analysis;
 
 import javato.activetesting.common.Parameters;
-import javato.activetesting.common.WeakIdentityHashMap;
+import javato.activetesting.common.ObjectIdRegistry;
+import javato.activetesting.trial.Trial;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Copyright (c) 2007-2008,
@@ -40,11 +42,25 @@ import java.util.ArrayList;
  */
 public class Observer {
 
-    private static WeakIdentityHashMap objectMap = new WeakIdentityHashMap(3511);
-    private static int currentId = readInteger(Parameters.usedObjectId, 1);
-    private static ArrayList<String> iidToLineMap = null;
+    private static ObjectIdRegistry objectMap
+            = new ObjectIdRegistry(firstObjectId(), Parameters.objectIdStripes);
+    private static List<String> iidToLineMap = null;
+
+    /**
+     * The first id past those the instrumentation gave to field and class
+     * names: from the instr target's file, or kept by InstrumentationAgent.
+     */
+    private static int firstObjectId() {
+        int ret = readInteger(Parameters.usedObjectId, 1);
+        Integer reserved = (Integer) Trial.getShared(Parameters.usedObjectId);
+        return reserved == null ? ret : Math.max(ret, reserved);
+    }
 
     public static Long idInt(int f, int s) {
+        return longId(f, s);
+    }
+
+    public static long longId(int f, int s) {
         long l = f;
         l = l << 32;
         l += s;
@@ -53,6 +69,10 @@ public class Observer {
 
     public static String getIidToLine(Integer iid) {
         ObjectInputStream in;
+        if (iidToLineMap == null) {
+            // loaded once for all trials of a TrialRunner, or kept up to date by InstrumentationAgent
+            iidToLineMap = (List<String>) Trial.getShared(Parameters.iidToLineMapFile);
+        }
         if (iidToLineMap != null) {
             return iidToLineMap.get(iid).replaceAll(".html#", "#");
         } else {
@@ -60,6 +80,7 @@ public class Observer {
                 in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(Parameters.iidToLineMapFile)));
                 iidToLineMap = (ArrayList<String>) in.readObject();
                 in.close();
+                Trial.putShared(Parameters.iidToLineMapFile, iidToLineMap);
                 return iidToLineMap.get(iid).replaceAll(".html#", "#");
             } catch (IOException e) {
                 e.printStackTrace();
@@ -71,28 +92,36 @@ public class Observer {
         }
     }
 
-    synchronized public static Integer uniqueId(Object o) {
-        Object val = objectMap.get(o);
-        if (val == null) {
-            val = currentId++;
-            objectMap.put(o, val);
-        }
-        return (Integer) val;
+    public static Integer uniqueId(Object o) {
+        return objectMap.getId(o);
     }
 
-    synchronized public static Object idToObject(int id) {
-        for (Object ret : objectMap.keySet()) {
-            Integer val = (Integer) objectMap.get(ret);
-            if (val != null) {
-                if (val == id)
-                    return ret;
-            }
-        }
-        return "Unknown Object";
+    public static Integer uniqueThreadId() {
+        return objectMap.currentThreadId();
+    }
+
+    public static Object idToObject(int id) {
+        Object ret = objectMap.getObject(id);
+        if (ret == null)
+            return "Unknown Object";
+        return ret;
+    }
+
+    /**
+     * The live object with id <code>id</code>, or null if it has been
+     * collected or has no id in this JVM.
+     */
+    public static Object getObject(int id) {
+        return objectMap.getObject(id);
     }
 
     public static Long id(Object o, int x) {
-        return idInt(uniqueId(o), x);
+        return longId(uniqueId(o).intValue(), x);
+    }
+
+    public static long longId(Object o, int x) {
+        // intValue(), or this overload would call itself
+        return longId(uniqueId(o).intValue(), x);
     }
 
     static public int readInteger(String filename, int defaultVal) {
@@ -41,6 +41,7 @@ import java.util.LinkedList;
 public class ObserverForActiveTesting extends Observer {
     private static SyncMethodCache cache = new SyncMethodCache();
     public static Analysis analysis;
+    private static PrimitiveAnalysis primitiveAnalysis;
     //private static AtomicLong counter = new AtomicLong(0);
     //private static boolean stopRW = false;
     private static IIDAccessCounter counters = new IIDAccessCounter();
@@ -53,7 +54,15 @@ public class ObserverForActiveTesting extends Observer {
                 analysis = (Analysis) t.newInstance();
                 if (Parameters.isDeterministicSchedule) {
                     analysis = new DeterministicAnalysisImpl(analysis);
+                } else if (Parameters.batchEvents) {
+                    if (analysis instanceof BatchableAnalysis) {
+                        analysis = new BatchingAnalysisImpl((BatchableAnalysis) analysis);
+                    } else {
+                        System.err.println("Analysis class " + Parameters.analysisClass
+                                + " does not support batched dispatch; using direct dispatch");
+                    }
                 }
+                primitiveAnalysis = BoxingAnalysisAdapter.toPrimitive(analysis);
 
             } catch (Exception e) {
                 System.err.println("Cannot find or instantiate Analysis class: " + Parameters.analysisClass + Thread.currentThread());
@@ -63,6 +72,15 @@ public class ObserverForActiveTesting extends Observer {
         }
     }
 
+    /**
+     * Replaces the analysis named by javato.activetesting.analysis.class,
+     * which is only read when this class is loaded.
+     */
+    public static void setAnalysis(Analysis a) {
+        analysis = a;
+        primitiveAnalysis = BoxingAnalysisAdapter.toPrimitive(a);
+    }
+
 
     public static java.lang.ThreadLocal lockStack = new java.lang.ThreadLocal() {
         protected synchronized Object initialValue() {
@@ -77,11 +95,11 @@ public class ObserverForActiveTesting extends Observer {
     };
 
     public static void myMethodEnterBefore(int iid) {
-        analysis.methodEnterBefore(iid, uniqueId(Thread.currentThread()));
+        primitiveAnalysis.methodEnterBefore(iid, uniqueThreadId());
     }
 
     public static void myMethodExitAfter(int iid) {
-        analysis.methodExitAfter(iid, uniqueId(Thread.currentThread()));
+        primitiveAnalysis.methodExitAfter(iid, uniqueThreadId());
     }
 
 
@@ -89,13 +107,23 @@ public class ObserverForActiveTesting extends Observer {
         boolean isSynchronized = cache.isSynchronized(iid, lock, sig);
         if (isSynchronized) {
             ((LinkedList) lockStack.get()).addFirst(lock);
-            analysis.lockBefore(iid, uniqueId(Thread.currentThread()), uniqueId(lock),lock);
+            primitiveAnalysis.lockBefore(iid, uniqueThreadId(), uniqueId(lock),lock);
         } else {
             ((LinkedList) lockStack.get()).addFirst(null);
         }
         ((LinkedList<Integer>) iidStack.get()).addFirst(iid);
     }
 
+    /**
+     * Before a call the instrumentor found to always run a synchronized
+     * method of <code>lock</code>; paired with myUnlockAfter(int).
+     */
+    public static void mySyncMethodBefore(int iid, Object lock) {
+        ((LinkedList<Object>) lockStack.get()).addFirst(lock);
+        primitiveAnalysis.lockBefore(iid, uniqueThreadId(), uniqueId(lock),lock);
+        ((LinkedList<Integer>) iidStack.get()).addFirst(iid);
+    }
+
     public static void myLockBefore(int iid, int oid, String className) {
         Class c = null;
         try {
@@ -103,11 +131,11 @@ public class ObserverForActiveTesting extends Observer {
         } catch (ClassNotFoundException e) {
             e.printStackTrace();
         }
-        analysis.lockBefore(iid, uniqueId(Thread.currentThread()), oid, c);
+        primitiveAnalysis.lockBefore(iid, uniqueThreadId(), oid, c);
     }
 
     public static void myLockBefore(int iid, Object lock) {
-        analysis.lockBefore(iid, uniqueId(Thread.currentThread()), uniqueId(lock),lock);
+        primitiveAnalysis.lockBefore(iid, uniqueThreadId(), uniqueId(lock),lock);
     }
 
     public static void myUnlockAfter(int iid) {
@@ -117,157 +145,157 @@ public class ObserverForActiveTesting extends Observer {
         int entryIid = is.removeFirst();
         while (iid != entryIid + 1) { // this is a hack; needs better handling in future
             if (lock != null) {
-                analysis.unlockAfter(iid, uniqueId(Thread.currentThread()), uniqueId(lock));
+                primitiveAnalysis.unlockAfter(iid, uniqueThreadId(), uniqueId(lock));
             }
             lock = ls.removeFirst();
             entryIid = is.removeFirst();
         }
         if (iid != entryIid + 1) {
-            System.out.println("thread " + uniqueId(Thread.currentThread()));
+            System.out.println("thread " + uniqueThreadId());
         }
         assert iid == entryIid + 1;
         if (lock != null) {
-            analysis.unlockAfter(iid, uniqueId(Thread.currentThread()), uniqueId(lock));
+            primitiveAnalysis.unlockAfter(iid, uniqueThreadId(), uniqueId(lock));
         }
     }
 
     public static void myUnlockAfter(int iid, int oid) {
-        analysis.unlockAfter(iid, uniqueId(Thread.currentThread()), oid);
+        primitiveAnalysis.unlockAfter(iid, uniqueThreadId(), oid);
     }
 
     public static void myUnlockAfter(int iid, Object lock) {
-        analysis.unlockAfter(iid, uniqueId(Thread.currentThread()), uniqueId(lock));
+        primitiveAnalysis.unlockAfter(iid, uniqueThreadId(), uniqueId(lock));
     }
 
     public static void myNewExprInANonStaticMethodAfter(int iid, Object o, Object objOnWhichMethodIsInvoked) {
-        analysis.newExprAfter(iid, uniqueId(o), uniqueId(objOnWhichMethodIsInvoked));
+        primitiveAnalysis.newExprAfter(iid, uniqueId(o), uniqueId(objOnWhichMethodIsInvoked));
     }
 
     public static void myNewExprInAStaticMethodAfter(int iid, Object o) {
-        analysis.newExprAfter(iid, uniqueId(o), 0);
+        primitiveAnalysis.newExprAfter(iid, uniqueId(o), 0);
     }
 
     public static void myStartBefore(int iid, Object t) {
-        analysis.startBefore(iid, uniqueId(Thread.currentThread()), uniqueId(t));
+        primitiveAnalysis.startBefore(iid, uniqueThreadId(), uniqueId(t));
     }
 
     public static void myStartAfter(int iid, Object t) {
-        analysis.startAfter(iid, uniqueId(Thread.currentThread()), t);
+        primitiveAnalysis.startAfter(iid, uniqueThreadId(), t);
     }
 
 
     public static void myWaitBefore(int iid, Object lock) {
-        analysis.waitBefore(iid, uniqueId(Thread.currentThread()), uniqueId(lock));
+        primitiveAnalysis.waitBefore(iid, uniqueThreadId(), uniqueId(lock));
     }
 
     public static void myWaitAfter(int iid, Object lock) {
-        analysis.waitAfter(iid, uniqueId(Thread.currentThread()), uniqueId(lock));
+        primitiveAnalysis.waitAfter(iid, uniqueThreadId(), uniqueId(lock));
     }
 
     public static void myNotifyBefore(int iid, Object lock) {
-        analysis.notifyBefore(iid, uniqueId(Thread.currentThread()), uniqueId(lock));
+        primitiveAnalysis.notifyBefore(iid, uniqueThreadId(), uniqueId(lock));
     }
 
     public static void myNotifyAllBefore(int iid, Object lock) {
-        analysis.notifyAllBefore(iid, uniqueId(Thread.currentThread()), uniqueId(lock));
+        primitiveAnalysis.notifyAllBefore(iid, uniqueThreadId(), uniqueId(lock));
     }
 
     public static void myJoinAfter(int iid, Object thread) {
-        analysis.joinAfter(iid, uniqueId(Thread.currentThread()), uniqueId(thread));
+        primitiveAnalysis.joinAfter(iid, uniqueThreadId(), uniqueId(thread));
     }
 
     public static void myReadBefore(int iid, Object o, int field) {
         if (counters.needToIgnore(iid)) return;
-        analysis.readBefore(iid, uniqueId(Thread.currentThread()), id(o, field), false);
+        primitiveAnalysis.readBefore(iid, uniqueThreadId(), longId(o, field), false);
     }
 
     public static void myReadBefore(int iid, int clss, int field) {
         if (counters.needToIgnore(iid)) return;
-        analysis.readBefore(iid, uniqueId(Thread.currentThread()), idInt(clss, field), false);
+        primitiveAnalysis.readBefore(iid, uniqueThreadId(), longId(clss, field), false);
     }
 
     public static void myVReadBefore(int iid, Object o, int field) {
         if (counters.needToIgnore(iid)) return;
-        analysis.readBefore(iid, uniqueId(Thread.currentThread()), id(o, field), true);
+        primitiveAnalysis.readBefore(iid, uniqueThreadId(), longId(o, field), true);
     }
 
     public static void myVReadBefore(int iid, int clss, int field) {
         if (counters.needToIgnore(iid)) return;
-        analysis.readBefore(iid, uniqueId(Thread.currentThread()), idInt(clss, field), true);
+        primitiveAnalysis.readBefore(iid, uniqueThreadId(), longId(clss, field), true);
     }
 
     public static void myWriteBefore(int iid, Object o, int field) {
         if (counters.needToIgnore(iid)) return;
-        analysis.writeBefore(iid, uniqueId(Thread.currentThread()), id(o, field), false);
+        primitiveAnalysis.writeBefore(iid, uniqueThreadId(), longId(o, field), false);
     }
 
     public static void myWriteBefore(int iid, int clss, int field) {
         if (counters.needToIgnore(iid)) return;
-        analysis.writeBefore(iid, uniqueId(Thread.currentThread()), idInt(clss, field), false);
+        primitiveAnalysis.writeBefore(iid, uniqueThreadId(), longId(clss, field), false);
     }
 
     public static void myVWriteBefore(int iid, Object o, int field) {
         if (counters.needToIgnore(iid)) return;
-        analysis.writeBefore(iid, uniqueId(Thread.currentThread()), id(o, field), true);
+        primitiveAnalysis.writeBefore(iid, uniqueThreadId(), longId(o, field), true);
     }
 
     public static void myVWriteBefore(int iid, int clss, int field) {
         if (counters.needToIgnore(iid)) return;
-        analysis.writeBefore(iid, uniqueId(Thread.currentThread()), idInt(clss, field), true);
+        primitiveAnalysis.writeBefore(iid, uniqueThreadId(), longId(clss, field), true);
     }
 
 
     public static void myWriteAfter(int iid, String local, Object value, String type) {
-        analysis.writeAfter(iid, Thread.currentThread(), local, value, type);
+        primitiveAnalysis.writeAfter(iid, Thread.currentThread(), local, value, type);
     }
 
     public static void myWriteAfter(int iid, String local, byte value) {
-        analysis.writeAfter(iid, Thread.currentThread(), local, value, "java.lang.Byte");
+        primitiveAnalysis.writeAfter(iid, Thread.currentThread(), local, value, "java.lang.Byte");
     }
 
     public static void myWriteAfter(int iid, String local, char value) {
-        analysis.writeAfter(iid, Thread.currentThread(), local, value, "java.lang.Character");
+        primitiveAnalysis.writeAfter(iid, Thread.currentThread(), local, value, "java.lang.Character");
     }
 
     public static void myWriteAfter(int iid, String local, short value) {
-        analysis.writeAfter(iid, Thread.currentThread(), local, value, "java.lang.Short");
+        primitiveAnalysis.writeAfter(iid, Thread.currentThread(), local, value, "java.lang.Short");
     }
 
     public static void myWriteAfter(int iid, String local, int value) {
-        analysis.writeAfter(iid, Thread.currentThread(), local, value, "java.lang.Integer");
+        primitiveAnalysis.writeAfter(iid, Thread.currentThread(), local, value, "java.lang.Integer");
     }
 
     public static void myWriteAfter(int iid, String local, long value) {
-        analysis.writeAfter(iid, Thread.currentThread(), local, value, "java.lang.Long");
+        primitiveAnalysis.writeAfter(iid, Thread.currentThread(), local, value, "java.lang.Long");
     }
 
     public static void myWriteAfter(int iid, String local, float value) {
-        analysis.writeAfter(iid, Thread.currentThread(), local, value, "java.lang.Float");
+        primitiveAnalysis.writeAfter(iid, Thread.currentThread(), local, value, "java.lang.Float");
     }
 
     public static void myWriteAfter(int iid, String local, double value) {
-        analysis.writeAfter(iid, Thread.currentThread(), local, value, "java.lang.Double");
+        primitiveAnalysis.writeAfter(iid, Thread.currentThread(), local, value, "java.lang.Double");
     }
 
     public static void myWriteAfter(int iid, String local, boolean value) {
-        analysis.writeAfter(iid, Thread.currentThread(), local, value, "java.lang.Boolean");
+        primitiveAnalysis.writeAfter(iid, Thread.currentThread(), local, value, "java.lang.Boolean");
     }
 
     public static void myOpenDeterministicBlock(int iid) {
-        analysis.openDeterministicBlock(uniqueId(Thread.currentThread()));
+        primitiveAnalysis.openDeterministicBlock(uniqueThreadId());
     }
 
     public static void myCloseDeterministicBlock(int iid) {
-        analysis.closeDeterministicBlock(uniqueId(Thread.currentThread()));
+        primitiveAnalysis.closeDeterministicBlock(uniqueThreadId());
     }
 
     /** Parameter 'invariant' must be serializable. */
     public static void requireDeterministic(Object invariant) {
-        analysis.requireDeterministic(uniqueId(Thread.currentThread()), invariant);
+        primitiveAnalysis.requireDeterministic(uniqueThreadId(), invariant);
     }
 
     /** Parameter 'invariant' must be serializable. */
     public static void assertDeterministic(Object invariant) {
-        analysis.assertDeterministic(uniqueId(Thread.currentThread()), invariant);
+        primitiveAnalysis.assertDeterministic(uniqueThreadId(), invariant);
     }
 }
@@ -0,0 +1,50 @@
+package javato.activetesting.analysis;
+
+/**
+ * Same callbacks as {@link Analysis}, but with primitive ids so that the
+ * instrumented program does not allocate a wrapper object per argument on
+ * every event.  ObserverForActiveTesting dispatches through this interface;
+ * analyses that only implement {@link Analysis} are reached through a
+ * {@link BoxingAnalysisAdapter}.
+ */
+public interface PrimitiveAnalysis {
+    public void lockBefore(int iid, int thread, int lock, Object actualLock);
+
+    public void unlockAfter(int iid, int thread, int lock);
+
+    public void newExprAfter(int iid, int object, int objOnWhichMethodIsInvoked);
+
+    public void methodEnterBefore(int iid, int thread);
+
+    public void methodExitAfter(int iid, int thread);
+
+    public void startBefore(int iid, int parent, int child);
+
+    public void startAfter(int iid, int parent, Object child);
+
+    public void waitBefore(int iid, int thread, int lock);
+
+    public void waitAfter(int iid, int thread, int lock);
+
+    public void notifyBefore(int iid, int thread, int lock);
+
+    public void notifyAllBefore(int iid, int thread, int lock);
+
+    public void joinAfter(int iid, int parent, int child);
+
+    public void readBefore(int iid, int thread, long memory, boolean isVolatile);
+
+    public void writeBefore(int iid, int thread, long memory, boolean isVolatile);
+
+    public void writeAfter(int iid, Thread thread, String local, Object value, String type);
+
+    public void openDeterministicBlock(int bid);
+
+    public void closeDeterministicBlock(int bid);
+
+    /** Parameter 'invariant' must be serializable. */
+    public void requireDeterministic(int thread, Object invariant);
+
+    /** Parameter 'invariant' must be serializable. */
+    public void assertDeterministic(int thread, Object invariant);
+}
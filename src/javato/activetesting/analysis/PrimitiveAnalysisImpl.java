@@ -0,0 +1,108 @@
+package javato.activetesting.analysis;
+
+/**
+ * Base class for analyses written against {@link PrimitiveAnalysis}.  The boxed
+ * {@link Analysis} callbacks forward to the primitive ones, so a subclass only
+ * overrides the primitive callbacks and can still be driven by code that
+ * knows only about {@link Analysis}.
+ */
+abstract public class PrimitiveAnalysisImpl extends AnalysisImpl implements PrimitiveAnalysis {
+
+    /* Default implementations. */
+    public void lockBefore(int iid, int thread, int lock, Object actualLock) { }
+    public void unlockAfter(int iid, int thread, int lock) { }
+    public void newExprAfter(int iid, int object, int objOnWhichMethodIsInvoked) { }
+    public void methodEnterBefore(int iid, int thread) { }
+    public void methodExitAfter(int iid, int thread) { }
+    public void startBefore(int iid, int parent, int child) { }
+    public void startAfter(int iid, int parent, Object child) { }
+    public void waitBefore(int iid, int thread, int lock) { }
+    public void waitAfter(int iid, int thread, int lock) { }
+    public void notifyBefore(int iid, int thread, int lock) { }
+    public void notifyAllBefore(int iid, int thread, int lock) { }
+    public void joinAfter(int iid, int parent, int child) { }
+    public void readBefore(int iid, int thread, long memory, boolean isVolatile) { }
+    public void writeBefore(int iid, int thread, long memory, boolean isVolatile) { }
+    public void writeAfter(int iid, Thread thread, String local, Object value, String type) { }
+    public void openDeterministicBlock(int bid) { }
+    public void closeDeterministicBlock(int bid) { }
+    public void requireDeterministic(int thread, Object invariant) { }
+    public void assertDeterministic(int thread, Object invariant) { }
+
+    /* Boxed callbacks forward to the primitive ones. */
+    public final void lockBefore(Integer iid, Integer thread, Integer lock, Object actualLock) {
+        lockBefore(iid.intValue(), thread.intValue(), lock.intValue(), actualLock);
+    }
+
+    public final void unlockAfter(Integer iid, Integer thread, Integer lock) {
+        unlockAfter(iid.intValue(), thread.intValue(), lock.intValue());
+    }
+
+    public final void newExprAfter(Integer iid, Integer object, Integer objOnWhichMethodIsInvoked) {
+        newExprAfter(iid.intValue(), object.intValue(), objOnWhichMethodIsInvoked.intValue());
+    }
+
+    public final void methodEnterBefore(Integer iid, Integer thread) {
+        methodEnterBefore(iid.intValue(), thread.intValue());
+    }
+
+    public final void methodExitAfter(Integer iid, Integer thread) {
+        methodExitAfter(iid.intValue(), thread.intValue());
+    }
+
+    public final void startBefore(Integer iid, Integer parent, Integer child) {
+        startBefore(iid.intValue(), parent.intValue(), child.intValue());
+    }
+
+    public final void startAfter(Integer iid, Integer parent, Object child) {
+        startAfter(iid.intValue(), parent.intValue(), child);
+    }
+
+    public final void waitBefore(Integer iid, Integer thread, Integer lock) {
+        waitBefore(iid.intValue(), thread.intValue(), lock.intValue());
+    }
+
+    public final void waitAfter(Integer iid, Integer thread, Integer lock) {
+        waitAfter(iid.intValue(), thread.intValue(), lock.intValue());
+    }
+
+    public final void notifyBefore(Integer iid, Integer thread, Integer lock) {
+        notifyBefore(iid.intValue(), thread.intValue(), lock.intValue());
+    }
+
+    public final void notifyAllBefore(Integer iid, Integer thread, Integer lock) {
+        notifyAllBefore(iid.intValue(), thread.intValue(), lock.intValue());
+    }
+
+    public final void joinAfter(Integer iid, Integer parent, Integer child) {
+        joinAfter(iid.intValue(), parent.intValue(), child.intValue());
+    }
+
+    public final void readBefore(Integer iid, Integer thread, Long memory, boolean isVolatile) {
+        readBefore(iid.intValue(), thread.intValue(), memory.longValue(), isVolatile);
+    }
+
+    public final void writeBefore(Integer iid, Integer thread, Long memory, boolean isVolatile) {
+        writeBefore(iid.intValue(), thread.intValue(), memory.longValue(), isVolatile);
+    }
+
+    public final void writeAfter(Integer iid, Thread thread, String local, Object value, String type) {
+        writeAfter(iid.intValue(), thread, local, value, type);
+    }
+
+    public final void openDeterministicBlock(Integer bid) {
+        openDeterministicBlock(bid.intValue());
+    }
+
+    public final void closeDeterministicBlock(Integer bid) {
+        closeDeterministicBlock(bid.intValue());
+    }
+
+    public final void requireDeterministic(Integer thread, Object invariant) {
+        requireDeterministic(thread.intValue(), invariant);
+    }
+
+    public final void assertDeterministic(Integer thread, Object invariant) {
+        assertDeterministic(thread.intValue(), invariant);
+    }
+}
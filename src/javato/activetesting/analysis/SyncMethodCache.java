@@ -1,9 +1,9 @@
 package javato.activetesting.analysis;
 
 import java.lang.reflect.Method;
-import java.util.HashSet;
-import java.util.IdentityHashMap;
-import java.util.TreeSet;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Copyright (c) 2007-2008,
@@ -37,97 +37,56 @@ import java.util.TreeSet;
  * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
+/**
+ * Tells whether a call site whose target could not be resolved at
+ * instrumentation time (see javato.instrumentor.SyncMethodResolver) lands
+ * in a synchronized method, given the receiver.  The answer is cached per
+ * receiver class and method signature; lookups take no lock.
+ */
 public class SyncMethodCache {
-    private IdentityHashMap<Class, TreeSet<Integer>> synchronizedIids
-            = new IdentityHashMap<Class, TreeSet<Integer>>();
-    private IdentityHashMap<Class, TreeSet<Integer>> nonSynchronizedIids
-            = new IdentityHashMap<Class, TreeSet<Integer>>();
-
-    private IdentityHashMap<Class, HashSet<String>> synchronizedSigs
-            = new IdentityHashMap<Class, HashSet<String>>();
-    private IdentityHashMap<Class, HashSet<String>> nonSynchronizedSigs
-            = new IdentityHashMap<Class, HashSet<String>>();
-
-    private enum SYNC_STATUS {
-        SYNC, NONSYNC, UNKNOWN
-    }
-
-    private SYNC_STATUS getFromCache(int iid, Class cls, String sig) {
-        TreeSet<Integer> syncIids = synchronizedIids.get(cls);
-        if (syncIids != null) {
-            if (syncIids.contains(iid)) return SYNC_STATUS.SYNC;
-        }
-        TreeSet<Integer> nonSyncIids = nonSynchronizedIids.get(cls);
-        if (nonSyncIids != null) {
-            if (nonSyncIids.contains(iid)) return SYNC_STATUS.NONSYNC;
+    // receiver class -> method signature -> whether it dispatches to a synchronized method
+    private final ClassValue<ConcurrentMap<String, Boolean>> sigs = new ClassValue<ConcurrentMap<String, Boolean>>() {
+        protected ConcurrentMap<String, Boolean> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<String, Boolean>();
         }
+    };
 
-        HashSet<String> syncSigs = synchronizedSigs.get(cls);
-        if (syncSigs != null) {
-            if (syncSigs.contains(sig)) return SYNC_STATUS.SYNC;
+    /**
+     * True iff calling the method <code>sig</code>, a Soot subsignature
+     * without the return type such as <code>put(java.lang.Object,int[])</code>,
+     * on <code>lock</code> runs a synchronized method.
+     */
+    public boolean isSynchronized(int iid, Object lock, String sig) {
+        ConcurrentMap<String, Boolean> m = sigs.get(lock.getClass());
+        Boolean ret = m.get(sig);
+        if (ret == null) {
+            // computing it twice in a race is harmless
+            ret = lookup(lock.getClass(), sig);
+            m.put(sig, ret);
         }
-        HashSet<String> nonSyncSigs = nonSynchronizedSigs.get(cls);
-        if (nonSyncSigs != null) {
-            if (nonSyncSigs.contains(sig)) return SYNC_STATUS.NONSYNC;
-        }
-
-        return SYNC_STATUS.UNKNOWN;
+        return ret;
     }
 
-    private void setToCache(int iid, Class cls, String sig, boolean isSync) {
-        if (isSync) {
-            TreeSet<Integer> syncIids = synchronizedIids.get(cls);
-            if (syncIids == null) {
-                syncIids = new TreeSet<Integer>();
-                synchronizedIids.put(cls, syncIids);
-            }
-            syncIids.add(iid);
-            HashSet<String> syncSigs = synchronizedSigs.get(cls);
-            if (syncSigs == null) {
-                syncSigs = new HashSet<String>();
-                synchronizedSigs.put(cls, syncSigs);
-            }
-            syncSigs.add(sig);
-        } else {
-            TreeSet<Integer> nonSyncIids = nonSynchronizedIids.get(cls);
-            if (nonSyncIids == null) {
-                nonSyncIids = new TreeSet<Integer>();
-                nonSynchronizedIids.put(cls, nonSyncIids);
-            }
-            nonSyncIids.add(iid);
-            HashSet<String> nonSyncSigs = nonSynchronizedSigs.get(cls);
-            if (nonSyncSigs == null) {
-                nonSyncSigs = new HashSet<String>();
-                nonSynchronizedSigs.put(cls, nonSyncSigs);
+    private static boolean lookup(Class c, String sig) {
+        for (; c != null; c = c.getSuperclass()) {
+            for (Method m : c.getDeclaredMethods()) {
+                if (!m.isBridge() && signatureOf(m).equals(sig)) {
+                    return Modifier.isSynchronized(m.getModifiers());
+                }
             }
-            nonSyncSigs.add(sig);
         }
+        return false;
     }
 
-    public synchronized boolean isSynchronized(int iid, Object lock, String sig) {
-        Class c = lock.getClass();
-        Class cls = c;
-        SYNC_STATUS stat = getFromCache(iid, cls, sig);
-        if (stat == SYNC_STATUS.SYNC) return true;
-        if (stat == SYNC_STATUS.NONSYNC) return false;
-
-        while (c != null) {
-            Method[] ms = c.getDeclaredMethods();
-            for (Method m : ms) {
-                String mname = m.toString();
-                if (mname.indexOf(sig) != -1) {
-                    if (mname.indexOf("synchronized") != -1) {
-                        setToCache(iid, cls, sig, true);
-                        return true;
-                    } else {
-                        setToCache(iid, cls, sig, false);
-                        return false;
-                    }
-                }
+    static String signatureOf(Method m) {
+        StringBuilder sb = new StringBuilder(m.getName()).append('(');
+        Class[] params = m.getParameterTypes();
+        for (int i = 0; i < params.length; i++) {
+            if (i > 0) {
+                sb.append(',');
             }
-            c = c.getSuperclass();
+            sb.append(params[i].getTypeName());
         }
-        setToCache(iid, cls, sig, false);
-        return false;
+        return sb.append(')').toString();
     }
 }
@@ -2,7 +2,7 @@ package javato.activetesting.atominfer;
 
 import javato.activetesting.common.Parameters;
 import javato.activetesting.lockset.LockSet;
-import javato.activetesting.vc.VectorClock;
+import javato.activetesting.vc.DenseVectorClock;
 import java.util.*;
 
 /**
@@ -34,7 +34,7 @@ public class AtomicRaceTracker {
 	alreadySeenRaces = new LinkedHashSet<CommutativePair>();
     }
 
-    public void checkRace(Integer iid, Integer t, Long m, boolean isRead, VectorClock vc, LockSet ls, UniqueEvent e) {
+    public void checkRace(Integer iid, Integer t, Long m, boolean isRead, DenseVectorClock vc, LockSet ls, UniqueEvent e) {
         Map<Integer, LinkedList<VCLockPair>> threadLists1;
         Map<Integer, LinkedList<VCLockPair>> threadLists2 = null;
         if (isRead) {
@@ -51,10 +51,10 @@ public class AtomicRaceTracker {
         }
     }
 
-    protected void checkRaceAux(Integer iid, Map<Integer, LinkedList<VCLockPair>> threadLists, Integer t, VectorClock vc, LockSet ls, Long m, UniqueEvent uniqueEvent) {
+    protected void checkRaceAux(Integer iid, Map<Integer, LinkedList<VCLockPair>> threadLists, Integer t, DenseVectorClock vc, LockSet ls, Long m, UniqueEvent uniqueEvent) {
         for (Integer t2 : threadLists.keySet()) {
             if (!t2.equals(t)) {
-                Long c2 = vc.getValue(t2);
+                long c2 = vc.getValue(t2);
                 LinkedList<VCLockPair> vcs = threadLists.get(t2);
                 for (VCLockPair c : vcs) {
                     if (c2 < c.getClock()) {
@@ -85,7 +85,7 @@ public class AtomicRaceTracker {
         }
     }
 
-    public void addEvent(Integer iid, Integer t, Long m, boolean isRead, VectorClock vc, LockSet ls, UniqueEvent e) {
+    public void addEvent(Integer iid, Integer t, Long m, boolean isRead, DenseVectorClock vc, LockSet ls, UniqueEvent e) {
         Map<Long, Map<Integer, LinkedList<VCLockPair>>> currentMap = isRead ? readMap : writeMap;
         Map<Integer, LinkedList<VCLockPair>> threadLists = currentMap.get(m);
         if (threadLists == null) {
@@ -95,7 +95,7 @@ public class AtomicRaceTracker {
 	addEventAux(iid, threadLists, t, vc, ls, e);
     }
 
-    protected void addEventAux(Integer iid, Map<Integer, LinkedList<VCLockPair>> threadLists, Integer t, VectorClock vc, LockSet ls, UniqueEvent e) {
+    protected void addEventAux(Integer iid, Map<Integer, LinkedList<VCLockPair>> threadLists, Integer t, DenseVectorClock vc, LockSet ls, UniqueEvent e) {
         LinkedList<VCLockPair> vcLists = threadLists.get(t);
         if (vcLists == null) {
             vcLists = new LinkedList<VCLockPair>();
@@ -143,14 +143,14 @@ public class AtomicRaceTracker {
 
     /* Lock versions */
 
-    public void checkRace(Integer iid, Integer t, Integer l, boolean isLock, VectorClock vc, LockSet ls, UniqueEvent e) {
+    public void checkRace(Integer iid, Integer t, Integer l, boolean isLock, DenseVectorClock vc, LockSet ls, UniqueEvent e) {
 	Long m = l.longValue();
 	Map<Integer, LinkedList<VCLockPair>> threadLists = lockMap.get(m);
 	if (threadLists != null)
 	    checkRaceAux(iid, threadLists, t, vc, ls, m, e);
     }
 
-    public void addEvent(Integer iid, Integer t, Integer l, boolean isLock, VectorClock vc, LockSet ls, UniqueEvent e) {
+    public void addEvent(Integer iid, Integer t, Integer l, boolean isLock, DenseVectorClock vc, LockSet ls, UniqueEvent e) {
 	Long m = l.longValue();
 	Map<Integer, LinkedList<VCLockPair>> threadLists = lockMap.get(m);
         if (threadLists == null) {
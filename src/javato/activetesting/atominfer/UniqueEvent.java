@@ -3,6 +3,7 @@ package javato.activetesting.atominfer;
 import java.io.Serializable;
 import java.util.Iterator;
 import java.util.List;
+import javato.activetesting.vc.DenseVectorClock;
 import javato.activetesting.vc.VectorClock;
 
 /**
@@ -19,7 +20,7 @@ class UniqueEvent implements Comparable<UniqueEvent>, Serializable {
     private VectorClock vectorClock;
     private int eventIndex;
 
-    public UniqueEvent(Integer thread, List<Integer> context, VectorClock vectorClock, int eventIndex) {
+    public UniqueEvent(Integer thread, List<Integer> context, DenseVectorClock vectorClock, int eventIndex) {
 	this.thread = thread;
 	this.context = context;
 	this.vectorClock = new VectorClock(vectorClock); // make a copy
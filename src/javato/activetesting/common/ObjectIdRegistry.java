@@ -0,0 +1,156 @@
+package javato.activetesting.common;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Assigns unique integer ids to objects by identity.  Objects are weakly
+ * referenced, so registering an object does not keep it alive.
+ * <p/>
+ * The registry is split into a power-of-two number of stripes, each of which
+ * is a {@link WeakIdentityHashMap} guarded by its own monitor.  An object is
+ * always looked up in the stripe selected by its identity hash code, so two
+ * threads only contend if their objects fall into the same stripe.  Ids are
+ * drawn from a single atomic counter and are therefore unique across stripes.
+ * <p/>
+ * The id of the current thread is asked for on every instrumented event, so
+ * it is additionally cached in a thread local ({@link #currentThreadId()}).
+ * <p/>
+ * A weak reverse index from id to object is maintained next to the stripes so
+ * that {@link #getObject(int)} is a single hash lookup.  Entries of the reverse
+ * index are dropped once their referent has been collected.
+ */
+public class ObjectIdRegistry {
+    public static final int DEFAULT_STRIPES = 64;
+
+    private final WeakIdentityHashMap[] stripes;
+    private final int mask;
+    private final AtomicInteger nextId;
+    private final ConcurrentHashMap<Integer, IdReference> idToObject;
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+    private final ThreadLocal<Integer> threadId = new ThreadLocal<Integer>() {
+        protected Integer initialValue() {
+            return getId(Thread.currentThread());
+        }
+    };
+
+    public ObjectIdRegistry(int firstId) {
+        this(firstId, DEFAULT_STRIPES);
+    }
+
+    public ObjectIdRegistry(int firstId, int nStripes) {
+        int n = 1;
+        while (n < nStripes) {
+            n <<= 1;
+        }
+        stripes = new WeakIdentityHashMap[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new WeakIdentityHashMap(3511 / n + 16);
+        }
+        mask = n - 1;
+        nextId = new AtomicInteger(firstId);
+        idToObject = new ConcurrentHashMap<Integer, IdReference>(3511, 0.75f, n);
+    }
+
+    private static class IdReference extends WeakReference<Object> {
+        final Integer id;
+
+        IdReference(Object referent, Integer id, ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            this.id = id;
+        }
+    }
+
+    /**
+     * Removes reverse index entries whose objects have been collected.
+     */
+    private void expungeStaleIds() {
+        IdReference r;
+        while ((r = (IdReference) queue.poll()) != null) {
+            idToObject.remove(r.id, r);
+        }
+    }
+
+    private WeakIdentityHashMap stripeFor(Object o) {
+        int h = System.identityHashCode(o);
+        // the stripe index must not reuse the low bits that WeakIdentityHashMap
+        // uses for its bucket index, otherwise every stripe is sparsely filled
+        h ^= (h >>> 16);
+        h *= 0x45d9f3b;
+        return stripes[(h >>> 16) & mask];
+    }
+
+    /**
+     * Returns the id of <code>o</code>, assigning a fresh one if the object
+     * has not been seen before.
+     */
+    public Integer getId(Object o) {
+        WeakIdentityHashMap stripe = stripeFor(o);
+        synchronized (stripe) {
+            Object val = stripe.get(o);
+            if (val == null) {
+                Integer id = nextId.getAndIncrement();
+                stripe.put(o, id);
+                expungeStaleIds();
+                idToObject.put(id, new IdReference(o, id, queue));
+                return id;
+            }
+            return (Integer) val;
+        }
+    }
+
+    /**
+     * Same as <code>getId(Thread.currentThread())</code> but without
+     * touching any shared state after the first call from a thread.
+     */
+    public Integer currentThreadId() {
+        return threadId.get();
+    }
+
+    /**
+     * Returns the object with the given id, or null if there is none or it
+     * has already been collected.
+     */
+    public Object getObject(int id) {
+        IdReference ref = idToObject.get(id);
+        if (ref == null) {
+            return null;
+        }
+        return ref.get();
+    }
+
+    /**
+     * The id that will be handed out to the next new object.
+     */
+    public int peekNextId() {
+        return nextId.get();
+    }
+
+    public int size() {
+        int ret = 0;
+        for (WeakIdentityHashMap stripe : stripes) {
+            synchronized (stripe) {
+                ret += stripe.size();
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Number of live entries in each stripe; useful to check the spread.
+     */
+    public List<Integer> stripeSizes() {
+        List<Integer> ret = new ArrayList<Integer>(stripes.length);
+        for (WeakIdentityHashMap stripe : stripes) {
+            synchronized (stripe) {
+                ret.add(stripe.size());
+            }
+        }
+        return ret;
+    }
+}
@@ -39,7 +39,17 @@ public class Parameters {
     public static final long stallCheckerInterval = Long.getLong("javato.activeChecker.stallCheckerInterval", 10);
     public static final long livelockCheckerInterval = Long.getLong("javato.activeChecker.livelockCheckerInterval", 200);
     public static final int deadlockCycleLength = Integer.getInteger("javato.deadlock.cycle.length", 2);
+    public static final int deadlockSearchThreads = Integer.getInteger("javato.deadlock.search.threads",
+            Runtime.getRuntime().availableProcessors());
+    public static final boolean deadlockOnline = Boolean.getBoolean("javato.deadlock.online");
+    public static final boolean deadlockAllCycles = Boolean.getBoolean("javato.deadlock.all.cycles");
+    public static final String deadlockAbstractThreads = System.getProperty("javato.deadlock.abstract.threads", "none");
+    public static final String deadlockAbstractLocks = System.getProperty("javato.deadlock.abstract.locks", "none");
+    public static final int syncpdHistoryCap = Integer.getInteger("javato.syncpd.history.cap", 1 << 16);
     public static final int maxPausesInActiveTesting = Integer.getInteger("javato.max.iid.count",100);
+    public static final int objectIdStripes = Integer.getInteger("javato.objectid.stripes", 64);
+    public static final boolean batchEvents = Boolean.getBoolean("javato.analysis.batched");
+    public static final int eventBatchSize = Integer.getInteger("javato.analysis.batch.size", 1024);
 
     // hybrid race detection and thrille specific
     public static final int N_VECTOR_CLOCKS_WINDOW = 5;
@@ -52,6 +62,7 @@ public class Parameters {
     public final static boolean removeOlderRace = Boolean.getBoolean("javato.hybrid.removeoldrace");
     public final static boolean removeOlderAccess = Boolean.getBoolean("javato.hybrid.removeoldaccess");
     public static final boolean trackWaitNotifyOnly = Boolean.getBoolean("javato.track.waitnotifyonly");
+    public static final boolean raceEpochs = Boolean.getBoolean("javato.race.epochs");
 
     // instrumentation specific
     public static final boolean ignoreArrays = Boolean.getBoolean("javato.ignore.arrays");
@@ -60,18 +71,54 @@ public class Parameters {
     public static final boolean ignoreFields = Boolean.getBoolean("javato.ignore.fields");
     public static final boolean ignoreConcurrency = Boolean.getBoolean("javato.ignore.concurrency");
     public static final boolean trackLocals = Boolean.getBoolean("javato.track.locals");
+    // leave accesses to objects that never leave their allocating thread uninstrumented
+    public static final boolean escapeAnalysis = Boolean.getBoolean("javato.escape.analysis");
+    // instrument only the first of equivalent accesses between synchronization points
+    public static final boolean redundantAccessElimination = Boolean.getBoolean("javato.redundant.elimination");
     public static final boolean trackDeterministicLocals
         = Boolean.getBoolean("javato.track.locals.deterministic");
+    // load-time instrumentation: the iid ranges of classes, the ids kept for names, packages left alone
+    public static final String agentIidFile = System.getProperty("javato.agent.iid.file", "javato.agent.iids");
+    public static final int agentSymbolIds = Integer.getInteger("javato.agent.symbol.ids", 1 << 16);
+    public static final String agentExcludes = System.getProperty("javato.agent.exclude", "");
 
     // various files for persistent data and logs
     public static final String execNumberFile = "/root/table2/calfuzzer/execNumberFile.txt";
     public static final String iidToLineMapFile = "iidToLine.map";
+    public static final String REDUNDANT_STAT_FILE = System.getProperty("javato.redundant.stat.file", "redundant.stat");
     public static final String usedObjectId = "javato.usedids";
     public static final String ERROR_STAT_FILE = System.getProperty("javato.activetesting.errorstat.file", "error.stat");
     public static final String ERROR_LOG_FILE = System.getProperty("javato.activetesting.errorlog.file", "error.log");
     public static final String ERROR_LIST_FILE = System.getProperty("javato.activetesting.errorlist.file", "error.list");
     public static final String ERROR_STALL_FILE = System.getProperty("javato.activetesting.errorstall.file", "error.stall");
 
+    // appended to the error log and list of the analysis running in a thread, so that analyses
+    // replayed in one pass (see TraceReplay) do not overwrite each other's reports
+    private static final ThreadLocal<String> errorFileSuffix = new ThreadLocal<String>() {
+        protected String initialValue() {
+            return "";
+        }
+    };
+
+    public static void setErrorFileSuffix(String suffix) {
+        errorFileSuffix.set(suffix);
+    }
+
+    public static String errorLogFile() {
+        return ERROR_LOG_FILE + errorFileSuffix.get();
+    }
+
+    public static String errorListFile() {
+        return ERROR_LIST_FILE + errorFileSuffix.get();
+    }
+
+    // binary trace recording and replay
+    public static final String traceDir = System.getProperty("javato.trace.dir", "trace");
+    public static final int traceChunkRecords = Integer.getInteger("javato.trace.chunk.records", 1 << 16);
+    public static final boolean replayParallel = Boolean.parseBoolean(System.getProperty("javato.replay.parallel", "true"));
+    public static final int replayBlockSize = Integer.getInteger("javato.replay.block.size", 4096);
+    public static final int replayQueueBlocks = Integer.getInteger("javato.replay.queue.blocks", 16);
+
     // entry class and must be specified
     public static final String analysisClass = System.getProperty("javato.activetesting.analysis.class");
 
@@ -0,0 +1,167 @@
+package javato.activetesting.hybridracedetection;
+
+import javato.activetesting.common.Parameters;
+import javato.activetesting.lockset.LockSet;
+import javato.activetesting.vc.DenseVectorClock;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * FastTrack-style variant of {@link HybridRaceTracker}, selected with
+ * -Djavato.race.epochs=true.  Instead of a window of clocks per location and
+ * thread, a location remembers the epochs (clock@thread), locksets and iids of
+ * the writes and of the reads that a later access could still race with.  An
+ * access subsumes an older one of its thread, or one that happens before it,
+ * if its lockset is a subset of the older lockset: whatever races with the
+ * older access then races with it too.  Accesses of a thread in the same
+ * epoch are merged into one with the intersection of their locksets.  So a
+ * location takes one access of each kind while its accesses are ordered and
+ * consistently locked, and an access is checked in O(1) in that case instead
+ * of O(threads x window).
+ * <p/>
+ * Two accesses race, as in HybridRaceTracker, if they are concurrent by the
+ * vector clocks and their locksets do not intersect.  The lockset check is
+ * only done for concurrent accesses.  Races are reported into the same
+ * CommutativePair set and error.log.
+ * <p/>
+ * Since merged and subsumed accesses keep only one of their iids, the
+ * tracker may report fewer iid pairs per location than the windowed
+ * tracker, which in turn misses the races that fall out of its window.
+ */
+public class EpochRaceTracker extends HybridRaceTracker {
+    // a location's shadow is guarded by lockFor(location)
+    private final Map<Long, Shadow> shadows = new ConcurrentHashMap<Long, Shadow>();
+
+    static class Access {
+        final int thread;
+        final long clock;
+        LockSet ls;
+        Integer iid;
+        long iidCount;
+        // an older access of the same kind that this one does not subsume
+        Access next;
+
+        Access(int thread, long clock, LockSet ls, Integer iid, long iidCount) {
+            this.thread = thread;
+            this.clock = clock;
+            // locksets change with the thread, so keep a copy
+            this.ls = ls.isEmpty() ? LockSet.emptySet : new LockSet(ls);
+            this.iid = iid;
+            this.iidCount = iidCount;
+        }
+
+        boolean happensBefore(DenseVectorClock vc) {
+            return clock <= vc.getValue(thread);
+        }
+
+        /**
+         * Whether a later access with clock vector vc and lockset ls races
+         * with everything this one races with.
+         */
+        boolean isSubsumedBy(DenseVectorClock vc, LockSet ls) {
+            return happensBefore(vc) && this.ls.containsAll(ls);
+        }
+    }
+
+    static class Shadow {
+        Access writes;
+        Access reads;
+    }
+
+    public void checkRace(Integer iid, Integer t, Long m, boolean isRead, DenseVectorClock vc, LockSet ls,
+                          boolean isLock, boolean isVolatile) {
+        long visitC = incAndGetVisitCount(iid);
+        Shadow s = shadows.get(m);
+        if (s == null) {
+            return;
+        }
+        for (Access w = s.writes; w != null; w = w.next) {
+            if (!check(w, iid, t, vc, ls, visitC, isRead, false, isLock, isVolatile)) {
+                return;
+            }
+        }
+        if (!isRead) {
+            for (Access r = s.reads; r != null; r = r.next) {
+                if (!check(r, iid, t, vc, ls, visitC, false, true, isLock, isVolatile)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private boolean check(Access a, Integer iid, int t, DenseVectorClock vc, LockSet ls, long visitC,
+                          boolean isRead1, boolean isRead2, boolean isLock, boolean isVolatile) {
+        if (a.thread != t && !a.happensBefore(vc) && !a.ls.intersects(ls)) {
+            return reportRace(iid, visitC, isRead1, a.iid, a.iidCount, isRead2, isLock, isVolatile);
+        }
+        return true;
+    }
+
+    public void addEvent(Integer iid, Integer t, Long m, boolean isRead, DenseVectorClock vc, LockSet ls) {
+        Shadow s = shadows.get(m);
+        if (s == null) {
+            s = new Shadow();
+            shadows.put(m, s);
+        }
+        long c = vc.getValue(t);
+        long count = Parameters.LOG_IID_VISIT_COUNT ? getVisitCount(iid) : 0;
+        if (isRead) {
+            s.reads = add(s.reads, t, c, vc, ls, iid, count);
+        } else {
+            s.writes = add(s.writes, t, c, vc, ls, iid, count);
+            // a write subsumes reads as it does writes
+            s.reads = dropSubsumed(s.reads, vc, ls);
+        }
+    }
+
+    /**
+     * Adds an access of thread t in epoch c to the accesses starting at
+     * <code>head</code>, and returns the new first one.
+     */
+    private static Access add(Access head, int t, long c, DenseVectorClock vc, LockSet ls, Integer iid,
+                              long count) {
+        for (Access a = head; a != null; a = a.next) {
+            if (a.thread == t && a.clock == c && ls.containsAll(a.ls)) {
+                // the common case: the same access again, under the same locks or more
+                return head;
+            }
+        }
+        Access added = new Access(t, c, ls, iid, count);
+        Access prev = added;
+        for (Access a = head; a != null; a = a.next) {
+            if (a.thread == t && a.clock == c) {
+                // concurrent with the same accesses, so it races while either is unprotected
+                LockSet both = new LockSet(added.ls);
+                both.retainAll(a.ls);
+                added.ls = both.isEmpty() ? LockSet.emptySet : both;
+                if (!a.ls.containsAll(ls)) {
+                    added.iid = a.iid;
+                    added.iidCount = a.iidCount;
+                }
+            } else if (!a.isSubsumedBy(vc, ls)) {
+                prev.next = a;
+                prev = a;
+            }
+        }
+        prev.next = null;
+        return added;
+    }
+
+    /**
+     * Forgets the accesses starting at <code>head</code> that an access with
+     * clock vector vc and lockset ls subsumes, and returns the first one
+     * kept.
+     */
+    private static Access dropSubsumed(Access head, DenseVectorClock vc, LockSet ls) {
+        while (head != null && head.isSubsumedBy(vc, ls)) {
+            head = head.next;
+        }
+        for (Access a = head; a != null; a = a.next) {
+            while (a.next != null && a.next.isSubsumedBy(vc, ls)) {
+                a.next = a.next.next;
+            }
+        }
+        return head;
+    }
+}
@@ -1,12 +1,14 @@
 package javato.activetesting.hybridracedetection;
 
 import javato.activetesting.common.Parameters;
-import javato.activetesting.common.MutableLong;
 import javato.activetesting.lockset.LockSet;
-import javato.activetesting.vc.VectorClock;
+import javato.activetesting.vc.DenseVectorClock;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Copyright (c) 2007-2008,
@@ -41,30 +43,56 @@ import java.util.*;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 public class HybridRaceTracker {
+    // guarded by itself, as are the race counts
     private LinkedHashSet<CommutativePair> alreadySeenRaces;
 
-    // m -> t -> list(vc,ls->Set(iid))
+    // m -> t -> list(vc,ls->Set(iid)); what is kept for m is guarded by lockFor(m)
     private Map<Long, Map<Integer, LinkedList<VCLockPair>>> readMap;
     private Map<Long, Map<Integer, LinkedList<VCLockPair>>> writeMap;
 
-    private Map<Integer, MutableLong> iidVisitCount;
+    private ConcurrentMap<Integer, AtomicLong> iidVisitCount;
     private int lockRaceCount = 0;
     private int dataRaceCount = 0;
 
+    private static final int STRIPES = 64;
+    private final Object[] stripes = new Object[STRIPES];
+
+
+    /**
+     * The tracker selected by javato.race.epochs: an {@link EpochRaceTracker}
+     * if set, a HybridRaceTracker otherwise.
+     */
+    public static HybridRaceTracker create() {
+        return Parameters.raceEpochs ? new EpochRaceTracker() : new HybridRaceTracker();
+    }
 
     public HybridRaceTracker() {
-        readMap = new TreeMap<Long, Map<Integer, LinkedList<VCLockPair>>>();
-        writeMap = new TreeMap<Long, Map<Integer, LinkedList<VCLockPair>>>();
-        iidVisitCount = new TreeMap<Integer, MutableLong>();
+        readMap = new ConcurrentHashMap<Long, Map<Integer, LinkedList<VCLockPair>>>();
+        writeMap = new ConcurrentHashMap<Long, Map<Integer, LinkedList<VCLockPair>>>();
+        iidVisitCount = new ConcurrentHashMap<Integer, AtomicLong>();
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
 
         alreadySeenRaces = getRacesFromFile();
     }
 
+    /**
+     * The monitor for the accesses to location <code>m</code>.  An
+     * analysis that does not serialize its callbacks must call checkRace
+     * and addEvent for m while holding it; accesses to different locations
+     * rarely share a monitor, so they do not contend.
+     */
+    public Object lockFor(long m) {
+        long h = m * 0x9E3779B97F4A7C15L;
+        return stripes[(int) (h >>> 58)];
+    }
+
     public static LinkedHashSet<CommutativePair> getRacesFromFile() {
         LinkedHashSet<CommutativePair> alreadySeenRaces;
         ObjectInputStream in;
         try {
-            in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(Parameters.ERROR_LOG_FILE)));
+            in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(Parameters.errorLogFile())));
             alreadySeenRaces = (LinkedHashSet<CommutativePair>) in.readObject();
             in.close();
         } catch (IOException e) {
@@ -76,10 +104,16 @@ public class HybridRaceTracker {
     }
 
     public void dumpRaces() {
+        synchronized (alreadySeenRaces) {
+            dumpRacesAux();
+        }
+    }
+
+    private void dumpRacesAux() {
         ObjectOutputStream out;
-        javato.activetesting.analysis.Observer.writeIntegerList(Parameters.ERROR_LIST_FILE, alreadySeenRaces.size());
+        javato.activetesting.analysis.Observer.writeIntegerList(Parameters.errorListFile(), alreadySeenRaces.size());
         try {
-            out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(Parameters.ERROR_LOG_FILE)));
+            out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(Parameters.errorLogFile())));
             out.writeObject(alreadySeenRaces);
             for(CommutativePair cp:alreadySeenRaces) {
                 cp.printcryptic(System.out);
@@ -91,7 +125,7 @@ public class HybridRaceTracker {
         }
     }
 
-    public void checkRace(Integer iid, Integer t, Long m, boolean isRead, VectorClock vc, LockSet ls,
+    public void checkRace(Integer iid, Integer t, Long m, boolean isRead, DenseVectorClock vc, LockSet ls,
                           boolean isLock, boolean isVolatile) {
         Map<Integer, LinkedList<VCLockPair>> threadLists1;
         Map<Integer, LinkedList<VCLockPair>> threadLists2 = null;
@@ -112,25 +146,31 @@ public class HybridRaceTracker {
         }
     }
 
-    private long incAndGetVisitCount(Integer iid) {
+    protected long incAndGetVisitCount(Integer iid) {
         if (Parameters.LOG_IID_VISIT_COUNT) {
-            MutableLong l = iidVisitCount.get(iid);
+            AtomicLong l = iidVisitCount.get(iid);
             if (l==null) {
-                l = new MutableLong(0);
-                iidVisitCount.put(iid,l);
+                l = new AtomicLong();
+                AtomicLong old = iidVisitCount.putIfAbsent(iid, l);
+                if (old != null) {
+                    l = old;
+                }
             }
-            (l.val)++;
-            return l.val;
+            return l.incrementAndGet();
         }
         return 0;
     }
 
+    protected long getVisitCount(Integer iid) {
+        return iidVisitCount.get(iid).get();
+    }
+
     protected void checkRaceAux(Integer iid, Map<Integer, LinkedList<VCLockPair>> threadLists,
-                                Integer t, VectorClock vc, LockSet ls, Long m, long iidVisitCount,
+                                Integer t, DenseVectorClock vc, LockSet ls, Long m, long iidVisitCount,
                                 boolean isLock, boolean isRead1, boolean isRead2, boolean isVolatile) {
         for (Integer t2 : threadLists.keySet()) {
             if (!t2.equals(t)) {
-                Long c2 = vc.getValue(t2);
+                long c2 = vc.getValue(t2);
                 LinkedList<VCLockPair> vcs = threadLists.get(t2);
                 for (VCLockPair c : vcs) {
                     if (c2 < c.getClock()) {
@@ -138,41 +178,13 @@ public class HybridRaceTracker {
                         for (LockSet ls2 : lockSets.keySet()) {
                             if (!ls2.intersects(ls)) {
                                 TreeMap<Integer,Long> iids = lockSets.get(ls2);
-                                CommutativePair cp;
                                 for (Integer iid2 : iids.keySet()) {
                                     long iid2Count = 0;
                                     if (Parameters.LOG_IID_VISIT_COUNT) {
                                         iid2Count = iids.get(iid2);
                                     }
-                                    cp = new CommutativePair(iid, iidVisitCount,isRead1,iid2,iid2Count,isRead2,isLock,isVolatile);
-                                    if (Parameters.trackWaitNotifyOnly && !isLock)
+                                    if (!reportRace(iid, iidVisitCount, isRead1, iid2, iid2Count, isRead2, isLock, isVolatile))
                                         return;
-                                    if (!alreadySeenRaces.contains(cp)) {
-                                        //printLocation();
-                                        alreadySeenRaces.add(cp);
-                                        if (isLock) lockRaceCount++;
-                                        else dataRaceCount++;
-                                        if (Parameters.LOG_IID_VISIT_COUNT) {
-                                            if (isLock)
-                                                System.out.print("Lock race between ");
-                                            else
-                                                System.out.print("Data race between ");
-
-                                            System.out.println(javato.activetesting.analysis.Observer.getIidToLine(iid) + ":"+iidVisitCount+ " and "
-                                                    + javato.activetesting.analysis.Observer.getIidToLine(iid2)+":"+iid2Count);
-                                        } else {
-                                            if (isLock)
-                                                System.out.print("Lock race between ");
-                                            else
-                                                System.out.print("Data race between ");
-                                            System.out.println(javato.activetesting.analysis.Observer.getIidToLine(iid) + " and "
-                                                    + javato.activetesting.analysis.Observer.getIidToLine(iid2));
-
-                                        }
-                                    } else if (Parameters.removeOlderRace) {
-                                        alreadySeenRaces.remove(cp);
-                                        alreadySeenRaces.add(cp);
-                                    }
                                 }
                             }
                         }
@@ -185,7 +197,56 @@ public class HybridRaceTracker {
         }
     }
 
-    public void addEvent(Integer iid, Integer t, Long m, boolean isRead, VectorClock vc, LockSet ls) {
+    /**
+     * Records the race between the current access (iid) and an earlier one
+     * (iid2), and prints it the first time it is seen.  Returns false if no
+     * further races of the current access should be reported.
+     */
+    protected boolean reportRace(Integer iid, long iidVisitCount, boolean isRead1, Integer iid2, long iid2Count,
+                                 boolean isRead2, boolean isLock, boolean isVolatile) {
+        if (Parameters.trackWaitNotifyOnly && !isLock)
+            return false;
+        CommutativePair cp = new CommutativePair(iid, iidVisitCount,isRead1,iid2,iid2Count,isRead2,isLock,isVolatile);
+        synchronized (alreadySeenRaces) {
+            if (!alreadySeenRaces.contains(cp)) {
+                //printLocation();
+                alreadySeenRaces.add(cp);
+                if (isLock) lockRaceCount++;
+                else dataRaceCount++;
+                if (Parameters.LOG_IID_VISIT_COUNT) {
+                    if (isLock)
+                        System.out.print("Lock race between ");
+                    else
+                        System.out.print("Data race between ");
+
+                    System.out.println(javato.activetesting.analysis.Observer.getIidToLine(iid) + ":"+iidVisitCount+ " and "
+                            + javato.activetesting.analysis.Observer.getIidToLine(iid2)+":"+iid2Count);
+                } else {
+                    if (isLock)
+                        System.out.print("Lock race between ");
+                    else
+                        System.out.print("Data race between ");
+                    System.out.println(javato.activetesting.analysis.Observer.getIidToLine(iid) + " and "
+                            + javato.activetesting.analysis.Observer.getIidToLine(iid2));
+
+                }
+            } else if (Parameters.removeOlderRace) {
+                alreadySeenRaces.remove(cp);
+                alreadySeenRaces.add(cp);
+            }
+        }
+        return true;
+    }
+
+    public int getDataRaceCount() {
+        return dataRaceCount;
+    }
+
+    public int getLockRaceCount() {
+        return lockRaceCount;
+    }
+
+    public void addEvent(Integer iid, Integer t, Long m, boolean isRead, DenseVectorClock vc, LockSet ls) {
         Map<Long, Map<Integer, LinkedList<VCLockPair>>> currentMap = isRead ? readMap : writeMap;
         Map<Integer, LinkedList<VCLockPair>> threadLists = currentMap.get(m);
         if (threadLists == null) {
@@ -195,7 +256,7 @@ public class HybridRaceTracker {
         addEventAux(iid, threadLists, t, vc, ls);
     }
 
-    protected void addEventAux(Integer iid, Map<Integer, LinkedList<VCLockPair>> threadLists, Integer t, VectorClock vc, LockSet ls) {
+    protected void addEventAux(Integer iid, Map<Integer, LinkedList<VCLockPair>> threadLists, Integer t, DenseVectorClock vc, LockSet ls) {
         LinkedList<VCLockPair> vcLists = threadLists.get(t);
         if (vcLists == null) {
             vcLists = new LinkedList<VCLockPair>();
@@ -220,7 +281,7 @@ public class HybridRaceTracker {
         }
         if (Parameters.removeOlderAccess || (!Parameters.removeOlderAccess && !iids.containsKey(iid))) {
             if (Parameters.LOG_IID_VISIT_COUNT) {
-                iids.put(iid,iidVisitCount.get(iid).val);
+                iids.put(iid,getVisitCount(iid));
             } else {
                 iids.put(iid,0l);
             }
@@ -0,0 +1,71 @@
+package javato.activetesting.igoodlock;
+
+/**
+ * The children of all the nodes of one LockTree, hashed on the parent's id
+ * and the (lockId, iid) pair packed into a long.  Open addressing over a
+ * single array of the child nodes, which carry their own key: finding the
+ * child for a lock acquire is a hash probe whatever the number of children,
+ * nothing is boxed, and the index costs a few bytes per node.
+ */
+class ChildIndex {
+    private LockNode[] children;
+    private int size;
+
+    ChildIndex() {
+        children = new LockNode[16];
+    }
+
+    static long pack(int lockId, int iid) {
+        return ((long) lockId << 32) | (iid & 0xFFFFFFFFL);
+    }
+
+    private static int slot(int parent, long key, int mask) {
+        long h = (key ^ ((long) parent << 17)) * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
+
+    private static boolean matches(LockNode child, LockNode parent, int lockId, int iid) {
+        return child.getParent() == parent && child.getLockId() == lockId && child.getIid() == iid;
+    }
+
+    LockNode get(LockNode parent, int lockId, int iid) {
+        LockNode[] table = children;
+        int mask = table.length - 1;
+        for (int i = slot(parent.id, pack(lockId, iid), mask); table[i] != null; i = (i + 1) & mask) {
+            if (matches(table[i], parent, lockId, iid)) {
+                return table[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds a child that is not in the index yet.
+     */
+    void put(LockNode child) {
+        if (4 * (size + 1) > 3 * children.length) {
+            LockNode[] old = children;
+            children = new LockNode[2 * old.length];
+            for (LockNode n : old) {
+                if (n != null) {
+                    insert(n);
+                }
+            }
+        }
+        insert(child);
+        size++;
+    }
+
+    private void insert(LockNode child) {
+        int mask = children.length - 1;
+        int i = slot(child.getParent().id, pack(child.getLockId(), child.getIid()), mask);
+        while (children[i] != null) {
+            i = (i + 1) & mask;
+        }
+        children[i] = child;
+    }
+
+    int size() {
+        return size;
+    }
+}
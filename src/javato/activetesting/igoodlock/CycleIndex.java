@@ -0,0 +1,111 @@
+package javato.activetesting.igoodlock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The cycles of a DeadlockCycleInfo, indexed by the lock contexts of their
+ * nodes, so that DeadlockFuzzer can target all of them in one execution.
+ * A cycle is known by its id, its position in error.log counting from 1
+ * (as javato.activetesting.errorid).
+ */
+public class CycleIndex {
+    private final List<List<Node>> cycles = new ArrayList<List<Node>>();
+    private final List<Integer> ids = new ArrayList<Integer>();
+    // context -> the positions in cycles of the cycles with a node for it
+    private final Map<List<Integer>, List<Integer>> contextToCycles = new HashMap<List<Integer>, List<Integer>>();
+    // the first iid of every context
+    private final Set<Integer> outerIids = new HashSet<Integer>();
+
+    /**
+     * Indexes every cycle in <code>cycles</code>; the first one has the id
+     * <code>firstId</code>.
+     */
+    public CycleIndex(List<List<Node>> cycles, int firstId) {
+        this(cycles, firstId, Collections.<Integer>emptySet());
+    }
+
+    /**
+     * Indexes the cycles in <code>cycles</code> whose ids are not in
+     * <code>skipped</code>; the first one has the id <code>firstId</code>.
+     */
+    public CycleIndex(List<List<Node>> cycles, int firstId, Set<Integer> skipped) {
+        for (List<Node> cycle : cycles) {
+            if (!skipped.contains(firstId)) {
+                add(firstId, cycle);
+            }
+            firstId++;
+        }
+    }
+
+    private void add(int id, List<Node> cycle) {
+        int pos = cycles.size();
+        cycles.add(cycle);
+        ids.add(id);
+        for (Node node : cycle) {
+            List<Integer> context = node.getContext();
+            List<Integer> through = contextToCycles.get(context);
+            if (through == null) {
+                through = new ArrayList<Integer>(2);
+                contextToCycles.put(context, through);
+            }
+            if (through.isEmpty() || through.get(through.size() - 1) != pos) {
+                through.add(pos);
+            }
+            outerIids.add(context.get(0));
+        }
+    }
+
+    public int size() {
+        return cycles.size();
+    }
+
+    /**
+     * True iff <code>lockSet</code>, the iids of the locks a thread holds
+     * outermost first, is the context of a node of some cycle.
+     */
+    public boolean isContext(List<Integer> lockSet) {
+        return contextToCycles.containsKey(lockSet);
+    }
+
+    /**
+     * True iff <code>lockSet</code> is a single lock acquired where some
+     * context starts.
+     */
+    public boolean isOuterLock(List<Integer> lockSet) {
+        return lockSet.size() == 1 && outerIids.contains(lockSet.get(0));
+    }
+
+    /**
+     * The ids of the cycles that have a node for each of
+     * <code>context1</code> and <code>context2</code>, the contexts of two
+     * threads that are deadlocked.
+     */
+    public List<Integer> cyclesThrough(List<Integer> context1, List<Integer> context2) {
+        List<Integer> ret = new ArrayList<Integer>();
+        List<Integer> through = contextToCycles.get(context1);
+        if (through == null) {
+            return ret;
+        }
+        for (int pos : through) {
+            boolean found1 = false;
+            boolean found2 = false;
+            for (Node node : cycles.get(pos)) {
+                if (!found1 && node.getContext().equals(context1)) {
+                    found1 = true;
+                } else if (node.getContext().equals(context2)) {
+                    found2 = true;
+                }
+            }
+            if (found2) {
+                ret.add(ids.get(pos));
+            }
+        }
+        return ret;
+    }
+}
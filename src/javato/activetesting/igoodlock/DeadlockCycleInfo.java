@@ -44,31 +44,82 @@ public class DeadlockCycleInfo implements Serializable {
     // cycle is a list of Node
     List<List<Node>> cycles;
     private List<Node> current;
+    private transient ObjectOutputStream stream;
+    private transient int nStreamed;
 
     public DeadlockCycleInfo(int nCycles) {
         cycles = new ArrayList<List<Node>>(nCycles);
     }
 
+    /**
+     * A DeadlockCycleInfo that writes every cycle to error.log as soon as
+     * {@link #flushCycle()} is called, as a record of its own, instead of
+     * keeping the cycles until {@link #write()}.  The cycles found so far
+     * survive a run that is killed; {@link #read()} accepts both formats.
+     */
+    public static DeadlockCycleInfo openStream() {
+        DeadlockCycleInfo ret = new DeadlockCycleInfo(1);
+        try {
+            ret.stream = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(Parameters.errorLogFile())));
+            ret.stream.flush();
+        } catch (IOException e) {
+            System.err.println("Error while opening " + Parameters.errorLogFile());
+            System.exit(1);
+        }
+        return ret;
+    }
+
+    @SuppressWarnings("unchecked")
     public static DeadlockCycleInfo read() {
         ObjectInputStream in;
         try {
-            in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(Parameters.ERROR_LOG_FILE)));
-            DeadlockCycleInfo cycle = (DeadlockCycleInfo) in.readObject();
-            in.close();
-            return cycle;
+            in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(Parameters.errorLogFile())));
         } catch (IOException e) {
             e.printStackTrace();
+            return null;
+        }
+        DeadlockCycleInfo streamed = new DeadlockCycleInfo(16);
+        try {
+            while (true) {
+                Object o = in.readObject();
+                if (o instanceof DeadlockCycleInfo) {
+                    in.close();
+                    return (DeadlockCycleInfo) o;
+                }
+                streamed.cycles.add((List<Node>) o);
+            }
+        } catch (EOFException e) {
+            // end of a streamed log
+        } catch (IOException e) {
+            // the last record of a run that was killed while writing it
+            e.printStackTrace();
         } catch (ClassNotFoundException e) {
             e.printStackTrace();
+            return null;
         }
-        return null;
+        try {
+            in.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return streamed;
     }
 
     public int write() {
+        if (stream != null) {
+            System.out.println("# of deadlocks detected " + nStreamed);
+            try {
+                stream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            stream = null;
+            return nStreamed;
+        }
         ObjectOutputStream out;
         System.out.println("# of deadlocks detected " + cycles.size());
         try {
-            out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(Parameters.ERROR_LOG_FILE)));
+            out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(Parameters.errorLogFile())));
             out.writeObject(this);
             out.close();
         } catch (IOException e) {
@@ -77,6 +128,29 @@ public class DeadlockCycleInfo implements Serializable {
         return cycles.size();
     }
 
+    /**
+     * Writes the cycle added last to error.log if this is a stream (see
+     * {@link #openStream()}); otherwise the cycle is kept until write().
+     */
+    public void flushCycle() {
+        if (stream != null) {
+            try {
+                stream.writeObject(current);
+                // forget the written objects, nothing refers back to them
+                stream.reset();
+                stream.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            cycles.clear();
+            nStreamed++;
+        }
+    }
+
+    public int getCycleCount() {
+        return nStreamed + cycles.size();
+    }
+
     // parkcs: renaming addANode to addALockNode for compatibility with other types of "lock nodes"
     public void addALockNode(LockNode old) {
         Node tmp = new Node(old.getContext());
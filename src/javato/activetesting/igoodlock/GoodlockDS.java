@@ -3,7 +3,13 @@ package javato.activetesting.igoodlock;
 
 import javato.activetesting.common.Parameters;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Copyright (c) 2007-2008,
@@ -38,75 +44,229 @@ import java.util.LinkedList;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 public class GoodlockDS {
+    // a thread's own lock tree is only changed by the thread, so an acquire
+    // that adds no lock node takes no lock; everything else is guarded by
+    // this, as are the trees shared under an abstraction
     private LockGraph lockGraph;
     private InterEdges interEdges;
-    private LinkedList<Path> initialSingleNodePaths;
-    private LinkedList<Path> deadlocks;
+    // every lock node, in the order it was added; each one starts a path of
+    // the offline search
+    private ArrayList<LockNode> lockNodes;
+    private List<Path> deadlocks;
+    // dense numbering of the threads and locks, so that a Path can keep
+    // them in bitsets
+    private HashMap<Integer, Integer> threadIndices;
+    private HashMap<Integer, Integer> lockIndices;
+    // the cycles found so far, if they are searched as the lock nodes are added
+    private DeadlockCycleInfo online;
 
     public GoodlockDS() {
         this.lockGraph = new LockGraph();
         this.interEdges = new InterEdges();
-        initialSingleNodePaths = new LinkedList<Path>();
+        lockNodes = new ArrayList<LockNode>();
+        threadIndices = new HashMap<Integer, Integer>();
+        lockIndices = new HashMap<Integer, Integer>();
     }
 
+    /**
+     * Searches the cycles through every new lock node as it is added and
+     * adds them to <code>online</code>, flushing each one (see
+     * {@link DeadlockCycleInfo#openStream()}), instead of searching the
+     * whole graph in dumpDeadlocks().
+     */
+    public GoodlockDS(DeadlockCycleInfo online) {
+        this();
+        this.online = online;
+    }
 
-    public void lock(int iid, int threadId, int lockId) {
+    /**
+     * @return the number of cycles the new lock node closes; always 0 unless
+     *         the search is online
+     */
+    public int lock(int iid, int threadId, int lockId) {
+        if (online != null) {
+            // the search walks the children of the other threads' nodes
+            synchronized (this) {
+                return addLockNode(lockGraph.lock(iid, threadId, lockId));
+            }
+        }
         Pair<Boolean, LockNode> pair = lockGraph.lock(iid, threadId, lockId);
+        if (!pair.fst) {
+            return 0;
+        }
+        synchronized (this) {
+            return addLockNode(pair);
+        }
+    }
+
+    /**
+     * Acquires a lock in the lock tree <code>treeId</code>, which stands
+     * for <code>threadId</code> and possibly other threads (see
+     * LockGraphAbstraction).
+     */
+    public synchronized int lock(int iid, int threadId, int treeId, int lockId) {
+        Pair<Boolean, LockNode> pair = lockGraph.lock(iid, threadId, treeId, lockId);
+        if (lockGraph.isShared(treeId)) {
+            interEdges.setShared(indexOf(threadIndices, treeId));
+        }
+        return addLockNode(pair);
+    }
+
+    private int addLockNode(Pair<Boolean, LockNode> pair) {
         if (pair.fst) {
-            interEdges.addLockNode(pair.snd);
-            Path tmp = new Path();
-            tmp.addFirstNode(pair.snd);
-            initialSingleNodePaths.add(tmp);
+            LockNode ln = pair.snd;
+            ln.threadIndex = indexOf(threadIndices, ln.getThreadId());
+            ln.lockIndex = indexOf(lockIndices, ln.getLockId());
+            interEdges.addLockNode(ln);
+            if (online == null) {
+                lockNodes.add(ln);
+            } else {
+                List<Path> cycles = findDeadlocksThrough(ln);
+                for (Path path : cycles) {
+                    path.printDeadlock();
+                    online.addACycle();
+                    path.addCycleToDeadlockCycleInfo(online);
+                    online.flushCycle();
+                }
+                return cycles.size();
+            }
+        }
+        return 0;
+    }
+
+    private static int indexOf(HashMap<Integer, Integer> indices, int id) {
+        Integer ret = indices.get(id);
+        if (ret == null) {
+            ret = indices.size();
+            indices.put(id, ret);
         }
+        return ret;
     }
 
     public void unlock(int iid, int threadId, int lockId) {
         lockGraph.unlock(iid, threadId, lockId);
     }
 
-    private LinkedList<Path> findDeadlocks() {
-        if (deadlocks == null) {
-            deadlocks = new LinkedList<Path>();
-            LinkedList<Path> bucket = new LinkedList<Path>();
-            LinkedList<Path> nextBucket = new LinkedList<Path>();
+    public synchronized void unlock(int iid, int threadId, int treeId, int lockId) {
+        lockGraph.unlock(iid, threadId, treeId, lockId);
+    }
 
-            //        lockGraph.printGraph(iidToLineMap);
-            //        interEdges.printInterEdges(iidToLineMap);
+    public synchronized int getDeadlockCount() {
+        if (online != null) {
+            return online.getCycleCount();
+        }
+        return deadlocks == null ? 0 : deadlocks.size();
+    }
 
-            for (Path path : initialSingleNodePaths) {
-                path.addIntraEdges(bucket, deadlocks);
+    /**
+     * The cycles the new lock node <code>ln</code> closes.  A cycle comes
+     * into being with the last of its lock nodes, which is a leaf and so
+     * ends the cycle's segment in its thread; it is therefore enough to
+     * search from the paths that end at ln.
+     */
+    List<Path> findDeadlocksThrough(LockNode ln) {
+        List<List<Path>> found = new ArrayList<List<Path>>();
+        search(Path.endingAt(ln), interEdges, found);
+        List<Path> ret = new ArrayList<Path>();
+        for (List<Path> cycles : found) {
+            ret.addAll(cycles);
+        }
+        return ret;
+    }
+
+    /**
+     * Extends the paths in <code>bucket</code> by one more thread per round
+     * and adds the list of cycles closed in each round to <code>found</code>.
+     */
+    private static void search(List<Path> bucket, InterEdges interEdges, List<List<Path>> found) {
+        List<Path> nextBucket = new ArrayList<Path>();
+        int i = 0;
+        while (!bucket.isEmpty() && (Parameters.deadlockCycleLength == 0 || i < Parameters.deadlockCycleLength)) {
+            i++;
+            nextBucket.clear();
+            for (Path path : bucket) {
+                path.addInterEdges(nextBucket, interEdges);
             }
+            bucket.clear();
+            List<Path> cycles = new ArrayList<Path>();
+            for (Path path : nextBucket) {
+                path.addIntraEdges(bucket, cycles);
+            }
+            found.add(cycles);
+        }
+    }
 
-            //        System.out.println("###################################");
-            //        for (Path path : bucket) {
-            //            path.printPath(iidToLineMap);
-            //        }
-            assert deadlocks.isEmpty();
-            int i = 0;
-            while ((Parameters.deadlockCycleLength == 0 && !bucket.isEmpty()) || i < Parameters.deadlockCycleLength) {
-                i++;
-                nextBucket.clear();
-                for (Path path : bucket) {
-                    path.addInterEdges(nextBucket, interEdges);
-                }
-                //            System.out.println("###################################");
-                //            for (Path path : nextBucket) {
-                //                path.printPath(iidToLineMap);
-                //            }
-                bucket.clear();
-                for (Path path : nextBucket) {
-                    path.addIntraEdges(bucket, deadlocks);
+    /**
+     * Searches the cycles starting at every lock node in parallel, one task
+     * per start node.  The result is in the order of the breadth-first
+     * search over all start nodes: by cycle length, then by start node, then
+     * in the order the task found them.  A cycle found from several start
+     * nodes is kept where it comes first in that order, so the result does
+     * not depend on how the tasks were scheduled.
+     */
+    List<Path> findDeadlocks() {
+        if (deadlocks == null) {
+            final List<SearchTask> tasks = new ArrayList<SearchTask>(lockNodes.size());
+            for (LockNode ln : lockNodes) {
+                tasks.add(new SearchTask(ln, interEdges));
+            }
+            ForkJoinPool pool = new ForkJoinPool(Math.max(1, Parameters.deadlockSearchThreads));
+            try {
+                pool.invoke(new RecursiveAction() {
+                    private static final long serialVersionUID = 1L;
+
+                    protected void compute() {
+                        invokeAll(tasks);
+                    }
+                });
+            } finally {
+                pool.shutdown();
+            }
+
+            deadlocks = new ArrayList<Path>();
+            Set<List<LockNode>> seen = new HashSet<List<LockNode>>();
+            boolean more = true;
+            for (int level = 0; more; level++) {
+                more = false;
+                for (SearchTask task : tasks) {
+                    if (level < task.found.size()) {
+                        for (Path path : task.found.get(level)) {
+                            if (seen.add(path.getCycle())) {
+                                deadlocks.add(path);
+                            }
+                        }
+                        more = true;
+                    }
                 }
-                //            System.out.println("###################################");
-                //            for (Path path : bucket) {
-                //                path.printPath(iidToLineMap);
-                //            }
             }
         }
         return deadlocks;
     }
 
+    private static class SearchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final LockNode start;
+        private final InterEdges interEdges;
+        // the cycles found in each round, including those other tasks find too
+        final List<List<Path>> found = new ArrayList<List<Path>>();
+
+        SearchTask(LockNode start, InterEdges interEdges) {
+            this.start = start;
+            this.interEdges = interEdges;
+        }
+
+        protected void compute() {
+            List<Path> bucket = new ArrayList<Path>();
+            List<Path> cycles = new ArrayList<Path>();
+            new Path(start).addIntraEdges(bucket, cycles);
+            found.add(cycles);
+            search(bucket, interEdges, found);
+        }
+    }
+
     public void printDeadlocks() {
+        if (online != null)
+            return;
         if (deadlocks == null)
             findDeadlocks();
         for (Path path : deadlocks) {
@@ -114,7 +274,9 @@ public class GoodlockDS {
         }
     }
 
-    public int dumpDeadlocks() {
+    public synchronized int dumpDeadlocks() {
+        if (online != null)
+            return online.write();
         if (deadlocks == null)
             findDeadlocks();
         printDeadlocks();
@@ -125,4 +287,4 @@ public class GoodlockDS {
         }
         return ret.write();
     }
-}
\ No newline at end of file
+}
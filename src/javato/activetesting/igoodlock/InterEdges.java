@@ -1,9 +1,9 @@
 package javato.activetesting.igoodlock;
 
 
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.SortedMap;
 import java.util.TreeMap;
 
 /**
@@ -40,82 +40,58 @@ import java.util.TreeMap;
  */
 public class InterEdges {
     // lock -> thread -> lockNode list
-    private TreeMap<Integer, TreeMap<Integer, LinkedList<LockNode>>> map;
+    private TreeMap<Integer, TreeMap<Integer, ArrayList<LockNode>>> map;
+
+    // by LockNode.threadIndex: the threads whose lock tree is shared by
+    // several threads, so that a cycle may go through the tree twice
+    private BitSet sharedThreads = new BitSet();
 
     public InterEdges() {
-        map = new TreeMap<Integer, TreeMap<Integer, LinkedList<LockNode>>>();
+        map = new TreeMap<Integer, TreeMap<Integer, ArrayList<LockNode>>>();
     }
 
     public void addLockNode(LockNode lockNode) {
         int threadId = lockNode.getThreadId();
         int lockId = lockNode.getLockId();
-        TreeMap<Integer, LinkedList<LockNode>> threadToLockNodes = map.get(lockId);
+        TreeMap<Integer, ArrayList<LockNode>> threadToLockNodes = map.get(lockId);
         if (threadToLockNodes == null) {
-            threadToLockNodes = new TreeMap<Integer, LinkedList<LockNode>>();
+            threadToLockNodes = new TreeMap<Integer, ArrayList<LockNode>>();
             map.put(lockId, threadToLockNodes);
         }
-        LinkedList<LockNode> lockNodes = threadToLockNodes.get(threadId);
+        ArrayList<LockNode> lockNodes = threadToLockNodes.get(threadId);
         if (lockNodes == null) {
-            lockNodes = new LinkedList<LockNode>();
+            lockNodes = new ArrayList<LockNode>(2);
             threadToLockNodes.put(threadId, lockNodes);
         }
         lockNodes.add(lockNode);
     }
 
-    public Iterator getIterator(int lockId, Set<Integer> ignoredThreadIds, int minThreadId) {
-        return new InterEdgeIterator(lockId, ignoredThreadIds, minThreadId);
+    /**
+     * The lock nodes of <code>lockId</code> by thread, restricted to threads
+     * with an id above <code>minThreadId</code>, or equal to it if
+     * <code>inclusive</code>.  A view; safe to use from several threads once
+     * no more lock nodes are added.
+     */
+    public SortedMap<Integer, ArrayList<LockNode>> getLockNodesAfter(int lockId, int minThreadId, boolean inclusive) {
+        return map.get(lockId).tailMap(minThreadId, inclusive);
     }
 
-    private class InterEdgeIterator implements Iterator {
-        private Iterator<Integer> threadIterator;
-        private Iterator<LockNode> lockNodeIterator;
-        private Set<Integer> ignoredThreadIds;
-        private LockNode toReturn;
-        private TreeMap<Integer, LinkedList<LockNode>> threadsToLockNodes;
-        private int minThreadId;
-
-        public InterEdgeIterator(int lockId, Set<Integer> ignoredThreadIds, int minThreadId) {
-            threadsToLockNodes = map.get(lockId);
-            threadIterator = threadsToLockNodes.keySet().iterator();
-            this.ignoredThreadIds = ignoredThreadIds;
-            this.minThreadId = minThreadId;
-        }
-
-        public boolean hasNext() {
-            while (true) {
-                while (lockNodeIterator == null && threadIterator.hasNext()) {
-                    Integer threadId = threadIterator.next();
-                    if (threadId > minThreadId && !ignoredThreadIds.contains(threadId)) {
-                        lockNodeIterator = threadsToLockNodes.get(threadId).iterator();
-                    }
-                }
-                if (lockNodeIterator == null)
-                    return false;
-                if (lockNodeIterator.hasNext()) {
-                    toReturn = lockNodeIterator.next();
-                    return true;
-                } else {
-                    lockNodeIterator = null;
-                }
-            }
-        }
-
-        public LockNode next() {
-            return toReturn;
-        }
+    public void setShared(int threadIndex) {
+        sharedThreads.set(threadIndex);
+    }
 
-        public void remove() {
-        }
+    public boolean isShared(int threadIndex) {
+        return sharedThreads.get(threadIndex);
     }
 
     public void printInterEdges() {
         System.out.println("Printing InterEdges:");
         for (Integer lockId : map.keySet()) {
-            TreeMap<Integer, LinkedList<LockNode>> threadToLockNodes = map.get(lockId);
+            TreeMap<Integer, ArrayList<LockNode>> threadToLockNodes = map.get(lockId);
             System.out.println("Lock " + lockId);
             for (Integer threadId : threadToLockNodes.keySet()) {
                 System.out.println("Thread " + threadId);
-                LinkedList<LockNode> lockNodes = threadToLockNodes.get(threadId);
+                ArrayList<LockNode> lockNodes = threadToLockNodes.get(threadId);
                 for (LockNode ln : lockNodes) {
                     ln.printNode();
                 }
@@ -2,7 +2,10 @@ package javato.activetesting.igoodlock;
 
 
 import java.util.ArrayList;
-import java.util.TreeMap;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 /**
  * Copyright (c) 2007-2008,
@@ -37,10 +40,25 @@ import java.util.TreeMap;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 public class LockGraph {
-    private TreeMap<Integer, LockTree> graph;
+    // thread -> its lock tree, which only that thread changes unless the
+    // tree is shared (see LockGraphAbstraction)
+    private Map<Integer, LockTree> graph;
+
+    // thread -> its position in the tree it shares with other threads, while
+    // it holds locks (see LockGraphAbstraction)
+    private HashMap<Integer, Cursor> cursors;
 
     public LockGraph() {
-        graph = new TreeMap<Integer, LockTree>();
+        graph = new ConcurrentSkipListMap<Integer, LockTree>();
+        cursors = new HashMap<Integer, Cursor>();
+    }
+
+    private static class Cursor {
+        LockNode node;
+        // for each lock held, innermost last: whether it was folded into an
+        // enclosing hold of the same abstract lock
+        boolean[] folded = new boolean[4];
+        int depth;
     }
 
     public Pair<Boolean, LockNode> lock(int iid, int threadId, int lockId) {
@@ -59,6 +77,57 @@ public class LockGraph {
         lt.unlock(lockId, iid);
     }
 
+    /**
+     * Acquires <code>lockId</code> in the tree <code>treeId</code>, which
+     * <code>threadId</code> may share with other threads.  A lock that the
+     * thread already holds in the tree, which is another object of the same
+     * abstract lock, is not nested again.
+     *
+     * @return as lock(iid, threadId, lockId); the node is null if the lock
+     *         was folded into the one already held
+     */
+    public Pair<Boolean, LockNode> lock(int iid, int threadId, int treeId, int lockId) {
+        LockTree lt = graph.get(treeId);
+        if (lt == null) {
+            lt = new LockTree(treeId);
+            graph.put(treeId, lt);
+        }
+        Cursor c = cursors.get(threadId);
+        if (c == null) {
+            c = new Cursor();
+            c.node = lt.getRoot();
+            cursors.put(threadId, c);
+            lt.addThread(threadId);
+        }
+        if (c.depth == c.folded.length) {
+            c.folded = Arrays.copyOf(c.folded, 2 * c.depth);
+        }
+        for (LockNode tmp = c.node; tmp.getLockId() != -1; tmp = tmp.getParent()) {
+            if (tmp.getLockId() == lockId) {
+                c.folded[c.depth++] = true;
+                return new Pair<Boolean, LockNode>(false, null);
+            }
+        }
+        int n = lt.size();
+        c.node = lt.getOrAddChild(c.node, lockId, iid);
+        c.folded[c.depth++] = false;
+        return new Pair<Boolean, LockNode>(lt.size() > n, c.node);
+    }
+
+    public void unlock(int iid, int threadId, int treeId, int lockId) {
+        Cursor c = cursors.get(threadId);
+        if (!c.folded[--c.depth]) {
+            c.node = c.node.getParent();
+        }
+        if (c.depth == 0) {
+            cursors.remove(threadId);
+        }
+    }
+
+    public boolean isShared(int treeId) {
+        return graph.get(treeId).isShared();
+    }
+
     public void printGraph(ArrayList<String> iidToLineMap) {
         for (Integer t : graph.keySet()) {
             System.out.println("---- Thread " + t);
@@ -0,0 +1,195 @@
+package javato.activetesting.igoodlock;
+
+import javato.activetesting.analysis.Observer;
+import javato.activetesting.common.Parameters;
+import javato.activetesting.common.WeakIdentityHashMap;
+
+import java.util.HashMap;
+
+/**
+ * Maps threads and locks to abstract identities, so that the lock trees of
+ * threads with the same identity are merged into one and the lock objects
+ * with the same identity are one lock.  A thread pool that keeps replacing
+ * its workers then adds to the lock graph only when a worker takes a lock
+ * path no worker took before.
+ * <p/>
+ * Threads are abstracted by
+ * <ul>
+ * <li><code>site</code>: the iid of the start() call that started them;</li>
+ * <li><code>name</code>: their name at start() with the digits replaced,
+ * so that pool-1-thread-7 and pool-2-thread-3 are the same.</li>
+ * </ul>
+ * Locks are abstracted by
+ * <ul>
+ * <li><code>site</code>: the iid of the allocation of the lock object;</li>
+ * <li><code>class</code>: the class of the lock object.</li>
+ * </ul>
+ * Threads and locks that cannot be abstracted, such as the main thread or
+ * objects allocated in uninstrumented code, keep their own id.  The
+ * abstract ids are negative and do not collide with object ids.
+ * <p/>
+ * The <code>site</code> abstraction of locks needs the allocation events,
+ * which javato.ignore.allocs leaves out.  It keeps the allocation site of
+ * a live object only as long as the object, so its memory is bounded by
+ * the objects alive at a time; the objects of a replayed trace are known
+ * by id only, and their sites are kept to the end of the trace.  The
+ * <code>class</code> abstraction needs the lock objects themselves, which a
+ * replayed trace does not have.
+ */
+public class LockGraphAbstraction {
+    public static final String NONE = "none";
+
+    private final String threads;
+    private final String locks;
+    private final IntIntMap threadIds = new IntIntMap();
+    // object to allocation site, dropped with the object
+    private final WeakIdentityHashMap liveSites = new WeakIdentityHashMap();
+    // the sites of the objects that are not alive in this JVM
+    private final IntIntMap allocationSites = new IntIntMap();
+    private final HashMap<String, Integer> names = new HashMap<String, Integer>();
+    private final HashMap<Class<?>, Integer> classes = new HashMap<Class<?>, Integer>();
+
+    public LockGraphAbstraction(String threads, String locks) {
+        if (!threads.equals(NONE) && !threads.equals("site") && !threads.equals("name")) {
+            System.err.println("Unknown thread abstraction " + threads + ", expected none, site or name");
+            System.exit(1);
+        }
+        if (!locks.equals(NONE) && !locks.equals("site") && !locks.equals("class")) {
+            System.err.println("Unknown lock abstraction " + locks + ", expected none, site or class");
+            System.exit(1);
+        }
+        this.threads = threads;
+        this.locks = locks;
+    }
+
+    /**
+     * The abstraction selected by javato.deadlock.abstract.threads and
+     * javato.deadlock.abstract.locks, or null if both are none.
+     */
+    public static LockGraphAbstraction create() {
+        if (Parameters.deadlockAbstractThreads.equals(NONE) && Parameters.deadlockAbstractLocks.equals(NONE)) {
+            return null;
+        }
+        if (Parameters.deadlockAbstractLocks.equals("site") && Parameters.ignoreAlloc) {
+            System.err.println("The site abstraction of locks needs allocation events; instrument without javato.ignore.allocs");
+            System.exit(1);
+        }
+        return new LockGraphAbstraction(Parameters.deadlockAbstractThreads, Parameters.deadlockAbstractLocks);
+    }
+
+    private static int abstractId(int n) {
+        return -2 - n;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void newExprAfter(int iid, int object) {
+        if (locks.equals("site")) {
+            Object o = Observer.getObject(object);
+            if (o != null) {
+                liveSites.put(o, iid);
+            } else {
+                allocationSites.put(object, iid);
+            }
+        }
+    }
+
+    public void startBefore(int iid, int child) {
+        if (threads.equals("site")) {
+            threadIds.put(child, abstractId(iid));
+        } else if (threads.equals("name")) {
+            Object t = Observer.idToObject(child);
+            if (t instanceof Thread) {
+                String name = ((Thread) t).getName().replaceAll("[0-9]+", "#");
+                Integer n = names.get(name);
+                if (n == null) {
+                    n = names.size();
+                    names.put(name, n);
+                }
+                threadIds.put(child, abstractId(n));
+            }
+        }
+    }
+
+    public int getThread(int thread) {
+        return threadIds.get(thread, thread);
+    }
+
+    public int getLock(int lock, Object actualLock) {
+        if (locks.equals("site")) {
+            Object o = actualLock != null ? actualLock : Observer.getObject(lock);
+            Integer site = o == null ? null : (Integer) liveSites.get(o);
+            int iid = site != null ? site : allocationSites.get(lock, -1);
+            return iid < 0 ? lock : abstractId(iid);
+        } else if (locks.equals("class") && actualLock != null) {
+            Integer n = classes.get(actualLock.getClass());
+            if (n == null) {
+                n = classes.size();
+                classes.put(actualLock.getClass(), n);
+            }
+            return abstractId(n);
+        }
+        return lock;
+    }
+
+    /**
+     * Number of allocation sites kept, for tests.
+     */
+    int siteCount() {
+        return liveSites.size() + allocationSites.size;
+    }
+
+    /**
+     * An int to int map with open addressing, as there is an entry per
+     * thread or per object of a replayed trace.
+     */
+    private static class IntIntMap {
+        private int[] keys = new int[16];
+        private int[] values = new int[16];
+        private boolean[] used = new boolean[16];
+        private int size;
+
+        private static int slot(int key, int mask) {
+            int h = key * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        int get(int key, int absent) {
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); used[i]; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return absent;
+        }
+
+        void put(int key, int value) {
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (used[i]) {
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            used[i] = true;
+            keys[i] = key;
+            values[i] = value;
+            if (2 * ++size > keys.length) {
+                int[] oldKeys = keys;
+                int[] oldValues = values;
+                boolean[] oldUsed = used;
+                keys = new int[2 * oldKeys.length];
+                values = new int[keys.length];
+                used = new boolean[keys.length];
+                size = 0;
+                for (int j = 0; j < oldKeys.length; j++) {
+                    if (oldUsed[j]) {
+                        put(oldKeys[j], oldValues[j]);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package javato.activetesting.igoodlock;
 
 import javato.activetesting.analysis.Observer;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 
 /**
@@ -42,9 +43,18 @@ public class LockNode {
 
     private int threadId;
     private LockNode parent;
-    private LinkedList<LockNode> children;
-
-    public LockNode(int iid, int threadId, int lockId) {
+    // in the order they were added; null while there are none
+    private LockNode[] children;
+    private int nChildren;
+    // number of the node within its LockTree, the root being 0
+    final int id;
+    // dense indices of the thread and the lock, assigned by GoodlockDS when
+    // the node is added
+    int threadIndex;
+    int lockIndex;
+
+    private LockNode(int iid, int threadId, int lockId, int id) {
+        this.id = id;
         this.iid = iid;
         this.threadId = threadId;
         this.lockId = lockId;
@@ -53,6 +63,7 @@ public class LockNode {
     }
 
     public LockNode(int threadId) {
+        this.id = 0;
         this.iid = -1;
         this.threadId = threadId;
         this.lockId = -1;
@@ -60,29 +71,28 @@ public class LockNode {
         children = null;
     }
 
-    public LockNode getChild(int lockId, int iid) {
-        if (children != null) {
-            for (LockNode tmp : children) {
-                if (tmp.iid == iid && tmp.lockId == lockId) {
-                    return tmp;
-                }
-            }
-        }
-        return null;
-    }
-
-    public LockNode addChild(int lockId, int iid) {
+    /**
+     * Adds a new child; its id is given by the LockTree, which also indexes
+     * the children by (lockId, iid).
+     */
+    LockNode addChild(int lockId, int iid, int id) {
         if (children == null) {
-            children = new LinkedList<LockNode>();
+            children = new LockNode[2];
+        } else if (nChildren == children.length) {
+            children = Arrays.copyOf(children, 2 * nChildren);
         }
-        LockNode tmp = new LockNode(iid, threadId, lockId);
-        children.add(tmp);
+        LockNode tmp = new LockNode(iid, threadId, lockId, id);
+        children[nChildren++] = tmp;
         tmp.parent = this;
         return tmp;
     }
 
-    public LinkedList<LockNode> getChildren() {
-        return children;
+    public int getChildCount() {
+        return nChildren;
+    }
+
+    public LockNode getChild(int i) {
+        return children[i];
     }
 
     public LockNode getParent() {
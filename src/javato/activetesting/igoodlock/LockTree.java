@@ -2,7 +2,6 @@ package javato.activetesting.igoodlock;
 
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 
 /**
  * Copyright (c) 2007-2008,
@@ -40,6 +39,12 @@ public class LockTree {
     private LockNode root;
     private LockNode current;
     private int threadId;
+    private ChildIndex children = new ChildIndex();
+    // when the tree stands for several threads (see LockGraphAbstraction):
+    // the first thread that used it, and whether another one did
+    private boolean used;
+    private int firstThread;
+    private boolean shared;
 
     public LockTree(int threadId) {
         current = root = new LockNode(threadId);
@@ -50,15 +55,54 @@ public class LockTree {
         return current;
     }
 
+    public LockNode getRoot() {
+        return root;
+    }
+
     public boolean lock(int lockId, int iid) {
-        LockNode child = current.getChild(lockId, iid);
+        int n = children.size();
+        current = getOrAddChild(current, lockId, iid);
+        return children.size() > n;
+    }
+
+    /**
+     * The child of <code>parent</code> for (lockId, iid), which is added if
+     * there is none yet.
+     */
+    public LockNode getOrAddChild(LockNode parent, int lockId, int iid) {
+        LockNode child = children.get(parent, lockId, iid);
         if (child == null) {
-            current = current.addChild(lockId, iid);
-            return true;
-        } else {
-            current = child;
-            return false;
+            child = parent.addChild(lockId, iid, children.size() + 1);
+            children.put(child);
         }
+        return child;
+    }
+
+    /**
+     * The number of nodes, not counting the root.
+     */
+    public int size() {
+        return children.size();
+    }
+
+    /**
+     * Records that <code>thread</code> acquires locks in this tree.
+     */
+    public void addThread(int thread) {
+        if (!used) {
+            used = true;
+            firstThread = thread;
+        } else if (thread != firstThread) {
+            shared = true;
+        }
+    }
+
+    /**
+     * Whether more than one thread acquired locks in this tree, so that a
+     * deadlock may involve two paths of it.
+     */
+    public boolean isShared() {
+        return shared;
     }
 
     public void unlock(int lockId, int iid) {
@@ -71,11 +115,8 @@ public class LockTree {
         System.out.print(s);
         if (n.getLockId() != -1)
             n.printNode();
-        LinkedList<LockNode> children = n.getChildren();
-        if (children != null) {
-            for (LockNode child : children) {
-                printTree(iidToLineMap, child, s + "    ");
-            }
+        for (int i = 0; i < n.getChildCount(); i++) {
+            printTree(iidToLineMap, n.getChild(i), s + "    ");
         }
     }
 
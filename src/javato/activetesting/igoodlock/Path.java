@@ -2,9 +2,9 @@ package javato.activetesting.igoodlock;
 
 
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.TreeSet;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Copyright (c) 2007-2008,
@@ -39,120 +39,194 @@ import java.util.TreeSet;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 public class Path {
-    private LinkedList<LockNode> path;
-    private TreeSet<Integer> threadsInvolved;
-    private TreeSet<Integer> guardLocksUnion;
-    private int minThreadId;
+    // persistent path: the last node and the path it extends, which is shared
+    // with every other extension of that prefix
+    private final LockNode node;
+    private final Path prefix;
+    private final LockNode first;
+    private final int length;
+    // by LockNode.threadIndex and LockNode.lockIndex; shared with the prefix
+    // when the extension does not add to them
+    private final BitSet threadsInvolved;
+    private final BitSet guardLocksUnion;
+    private final int minThreadId;
 
-    public Path() {
-        path = new LinkedList<LockNode>();
-        threadsInvolved = new TreeSet<Integer>();
-        guardLocksUnion = new TreeSet<Integer>();
+    /**
+     * The single-node path starting at <code>ln</code>.  The node indices
+     * must have been assigned (see GoodlockDS).
+     */
+    public Path(LockNode ln) {
+        this(ln, contextLocks(ln), ln.getThreadId());
     }
 
-    public Path(Path path) {
-        this.path = new LinkedList<LockNode>(path.path);
-        threadsInvolved = new TreeSet<Integer>(path.threadsInvolved);
-        guardLocksUnion = new TreeSet<Integer>(path.guardLocksUnion);
-        this.minThreadId = path.minThreadId;
+    private Path(LockNode ln, BitSet guardLocksUnion, int minThreadId) {
+        node = ln;
+        prefix = null;
+        first = ln;
+        length = 1;
+        threadsInvolved = new BitSet();
+        threadsInvolved.set(ln.threadIndex);
+        this.guardLocksUnion = guardLocksUnion;
+        this.minThreadId = minThreadId;
     }
 
-    public void addInterEdges(LinkedList<Path> bucket, InterEdges edges) {
-        LockNode endNode = path.getLast();
-        Iterator interEdgeIterator = edges.getIterator(endNode.getLockId(), threadsInvolved, minThreadId);
-        while (interEdgeIterator.hasNext()) {
-            LockNode ln = (LockNode) interEdgeIterator.next();
-            boolean notInGuards = true;
-            LockNode tmp = ln.getParent();
-            TreeSet<Integer> tmpGuards = new TreeSet<Integer>();
-            while (tmp.getLockId() != -1 && notInGuards) {
-                if (guardLocksUnion.contains(tmp.getLockId())) {
-                    notInGuards = false;
-                } else {
-                    tmpGuards.add(tmp.getLockId());
-                }
-                tmp = tmp.getParent();
-            }
-            if (notInGuards) {
-                Path tmp2 = new Path(this);
-                tmp2.addNode(ln);
-                tmp2.guardLocksUnion.addAll(tmpGuards);
-                bucket.add(tmp2);
+    private static BitSet contextLocks(LockNode ln) {
+        BitSet ret = new BitSet();
+        LockNode tmp = ln;
+        while (tmp.getLockId() != -1) {
+            ret.set(tmp.lockIndex);
+            tmp = tmp.getParent();
+        }
+        return ret;
+    }
+
+    /**
+     * The paths in the thread of <code>ln</code> that start at one of the
+     * locks held when ln was acquired and end at ln.  Every cycle through
+     * ln, if ln is a leaf, starts with one of them once it is rotated to
+     * start in ln's thread, which need not be the smallest; so unlike the
+     * paths of the offline search they may extend to any other thread.
+     */
+    public static List<Path> endingAt(LockNode ln) {
+        ArrayList<LockNode> context = new ArrayList<LockNode>();
+        for (LockNode tmp = ln; tmp.getLockId() != -1; tmp = tmp.getParent()) {
+            context.add(tmp);
+        }
+        BitSet guards = contextLocks(ln);
+        List<Path> ret = new ArrayList<Path>(context.size());
+        for (int j = 1; j < context.size(); j++) {
+            Path p = new Path(context.get(j), guards, Integer.MIN_VALUE);
+            for (int k = j - 1; k >= 0; k--) {
+                p = new Path(p, context.get(k), guards);
             }
+            ret.add(p);
+        }
+        return ret;
+    }
+
+    private Path(Path prefix, LockNode ln, BitSet guardLocksUnion) {
+        node = ln;
+        this.prefix = prefix;
+        first = prefix.first;
+        length = prefix.length + 1;
+        if (prefix.threadsInvolved.get(ln.threadIndex)) {
+            threadsInvolved = prefix.threadsInvolved;
+        } else {
+            threadsInvolved = (BitSet) prefix.threadsInvolved.clone();
+            threadsInvolved.set(ln.threadIndex);
         }
+        this.guardLocksUnion = guardLocksUnion;
+        minThreadId = prefix.minThreadId;
     }
 
-    public void addIntraEdges(LinkedList<Path> bucket, LinkedList<Path> deadlocks) {
-        LockNode endNode = path.getLast();
-        LinkedList<LockNode> children = endNode.getChildren();
-        if (children != null) {
-            LockNode first = path.getFirst();
-            for (LockNode child : children) {
-                if (first.getLockId() == child.getLockId()) {
-                    Path tmp = new Path(this);
-                    tmp.addNode(child);
-                    deadlocks.add(tmp);
-                } else if (!guardLocksUnion.contains(child.getLockId())) {
-                    Path tmp = new Path(this);
-                    tmp.addNode(child);
-                    tmp.guardLocksUnion.add(child.getLockId());
-                    bucket.add(tmp);
-                    tmp.addIntraEdges(bucket, deadlocks);
+    public void addInterEdges(List<Path> bucket, InterEdges edges) {
+        BitSet tmpGuards = new BitSet();
+        boolean sharedFirst = edges.isShared(first.threadIndex);
+        for (List<LockNode> lockNodes : edges.getLockNodesAfter(node.getLockId(), minThreadId, sharedFirst).values()) {
+            for (LockNode ln : lockNodes) {
+                if (threadsInvolved.get(ln.threadIndex) && !edges.isShared(ln.threadIndex)) {
+                    break;
+                }
+                boolean notInGuards = true;
+                LockNode tmp = ln.getParent();
+                tmpGuards.clear();
+                while (tmp.getLockId() != -1 && notInGuards) {
+                    if (guardLocksUnion.get(tmp.lockIndex)) {
+                        notInGuards = false;
+                    } else {
+                        tmpGuards.set(tmp.lockIndex);
+                    }
+                    tmp = tmp.getParent();
+                }
+                if (notInGuards) {
+                    BitSet guards = guardLocksUnion;
+                    if (!tmpGuards.isEmpty()) {
+                        guards = (BitSet) guardLocksUnion.clone();
+                        guards.or(tmpGuards);
+                    }
+                    bucket.add(new Path(this, ln, guards));
                 }
             }
         }
     }
 
-    private void addNode(LockNode ln) {
-        path.addLast(ln);
-        threadsInvolved.add(ln.getThreadId());
+    public void addIntraEdges(List<Path> bucket, List<Path> deadlocks) {
+        for (int i = 0; i < node.getChildCount(); i++) {
+            LockNode child = node.getChild(i);
+            if (first.getLockId() == child.getLockId()) {
+                deadlocks.add(new Path(this, child, guardLocksUnion));
+            } else if (!guardLocksUnion.get(child.lockIndex)) {
+                BitSet guards = (BitSet) guardLocksUnion.clone();
+                guards.set(child.lockIndex);
+                Path tmp = new Path(this, child, guards);
+                bucket.add(tmp);
+                tmp.addIntraEdges(bucket, deadlocks);
+            }
+        }
     }
 
-    public void addFirstNode(LockNode ln) {
-        path.addLast(ln);
-        threadsInvolved.add(ln.getThreadId());
-        minThreadId = ln.getThreadId();
-        LockNode tmp = ln;
-        while (tmp.getLockId() != -1) {
-            guardLocksUnion.add(tmp.getLockId());
-            tmp = tmp.getParent();
+    /**
+     * The nodes of the path, first to last.
+     */
+    public LockNode[] getNodes() {
+        LockNode[] nodes = new LockNode[length];
+        Path p = this;
+        for (int i = length - 1; i >= 0; i--) {
+            nodes[i] = p.node;
+            p = p.prefix;
         }
-
+        return nodes;
     }
 
     public void printPath(ArrayList<String> iidToLineMap) {
         System.out.println("Printing Path:");
-        for (LockNode cur : path) {
+        for (LockNode cur : getNodes()) {
             cur.printNode();
         }
     }
 
     public void printDeadlock() {
-        LockNode old = null;
         System.out.println("##################################### Printing deadlock:");
-        for (LockNode cur : path) {
-            if (old != null && old.getThreadId() != cur.getThreadId()) {
-                System.out.println("******** Thread " + old.getThreadId());
-                old.printContext();
-            }
-            old = cur;
-        }
-        if (old != null) {
-            System.out.println("******** Thread " + old.getThreadId());
-            old.printContext();
+        for (LockNode ln : getCycle()) {
+            System.out.println("******** Thread " + ln.getThreadId());
+            ln.printContext();
         }
     }
 
-    public void addCycleToDeadlockCycleInfo(DeadlockCycleInfo ret) {
+    /**
+     * The last lock node of each thread on the cycle, which is what
+     * DeadlockFuzzer gets to see of it, starting with the smallest thread
+     * (and its earliest node, if the thread's tree is on the cycle twice).
+     */
+    public List<LockNode> getCycle() {
+        List<LockNode> ret = new ArrayList<LockNode>();
         LockNode old = null;
-        for (LockNode cur : path) {
-            if (old != null && old.getThreadId() != cur.getThreadId()) {
-                ret.addALockNode(old); // parkcs: addANode renamed to addALockNode
+        for (LockNode cur : getNodes()) {
+            // an intra edge goes to a child, an inter edge to another thread
+            // or, in a shared tree, to another branch
+            if (old != null && cur.getParent() != old) {
+                ret.add(old);
             }
             old = cur;
         }
         if (old != null) {
-            ret.addALockNode(old); // parkcs: addANode renamed to addALockNode
+            ret.add(old);
+        }
+        int smallest = 0;
+        for (int i = 1; i < ret.size(); i++) {
+            LockNode ln = ret.get(i);
+            LockNode min = ret.get(smallest);
+            if (ln.getThreadId() < min.getThreadId() || (ln.getThreadId() == min.getThreadId() && ln.id < min.id)) {
+                smallest = i;
+            }
+        }
+        Collections.rotate(ret, -smallest);
+        return ret;
+    }
+
+    public void addCycleToDeadlockCycleInfo(DeadlockCycleInfo ret) {
+        for (LockNode ln : getCycle()) {
+            ret.addALockNode(ln); // parkcs: addANode renamed to addALockNode
         }
     }
 }
@@ -0,0 +1,509 @@
+package javato.activetesting.instrumentor;
+
+import javato.activetesting.common.Parameters;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Adds the calls to ObserverForActiveTesting that VisitorForActiveTesting
+ * adds, to a class file as it is loaded; see InstrumentationAgent.  The
+ * iids of the class are given from <code>base</code> on, in the order the
+ * calls are added, and their lines collected in <code>getLines()</code>.
+ * <p/>
+ * The calls are added to the bytecode instead of to Jimple, so the values
+ * they pass are moved around on the operand stack: a call before an access
+ * copies the object (and index) the access uses, and a call that needs the
+ * receiver of an invoke saves the arguments to locals past the method's
+ * own.  Locals are not tracked, and in a constructor nothing is passed
+ * before it has called the constructor of its superclass, as the verifier
+ * does not allow passing an uninitialized this.  The class keeps its
+ * version; InstrumentationAgent computes its stack map frames again.
+ */
+class AgentClassAdapter extends ClassVisitor implements Opcodes {
+    private static final String OBSERVER = "javato/activetesting/analysis/ObserverForActiveTesting";
+    private static final String DETERMINISM = "edu/berkeley/cs/detcheck/Determinism";
+
+    private final InstrumentationAgent agent;
+    private final ClassLoader loader;
+    private final int base;
+    // method name + descriptor -> max locals before instrumentation; filled if empty
+    private final Map<String, Integer> maxLocals;
+    private final List<String> lines = new ArrayList<String>();
+    private String fileName = "unknown.java";
+    private String packagePath = "";
+
+    AgentClassAdapter(ClassVisitor cv, InstrumentationAgent agent, ClassLoader loader, int base,
+                      Map<String, Integer> maxLocals) {
+        super(ASM9, cv);
+        this.agent = agent;
+        this.loader = loader;
+        this.base = base;
+        this.maxLocals = maxLocals;
+    }
+
+    List<String> getLines() {
+        return lines;
+    }
+
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        int i = name.lastIndexOf('/');
+        packagePath = i == -1 ? "" : name.substring(0, i + 1);
+        super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    public void visitSource(String source, String debug) {
+        if (source != null) {
+            fileName = source;
+        }
+        super.visitSource(source, debug);
+    }
+
+    public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+        MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
+        if (mv == null || (access & (ACC_ABSTRACT | ACC_NATIVE)) != 0) {
+            return mv;
+        }
+        return new MethodRewriter(mv, access, name, desc);
+    }
+
+    private int nextIid(int line) {
+        lines.add(packagePath + fileName + ".html#" + line);
+        return base + lines.size() - 1;
+    }
+
+    private class MethodRewriter extends MethodVisitor {
+        private final String key;
+        private final boolean isStatic;
+        private final boolean isInit;
+        // in a constructor, whether this has been initialized yet
+        private boolean thisInitialized;
+        // for each NEW whose constructor has not been called: its iid, or -1 if not duplicated
+        private final LinkedList<Integer> pendingNews = new LinkedList<Integer>();
+        private int lastNewIid = -1;
+        private int line = 0;
+        private final int firstFreeLocal;
+
+        MethodRewriter(MethodVisitor mv, int access, String name, String desc) {
+            super(ASM9, mv);
+            key = name + desc;
+            isStatic = (access & ACC_STATIC) != 0;
+            isInit = name.equals("<init>");
+            thisInitialized = !isInit;
+            Integer max = maxLocals.get(key);
+            firstFreeLocal = max == null ? 0 : max;
+        }
+
+        private int iid() {
+            return nextIid(line);
+        }
+
+        private void push(int value) {
+            if (value >= -1 && value <= 5) {
+                mv.visitInsn(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                mv.visitIntInsn(BIPUSH, value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                mv.visitIntInsn(SIPUSH, value);
+            } else {
+                mv.visitLdcInsn(value);
+            }
+        }
+
+        private void call(String name, String desc) {
+            mv.visitMethodInsn(INVOKESTATIC, OBSERVER, name, desc, false);
+        }
+
+        /**
+         * Calls <code>name(iid)</code>.
+         */
+        private void callWithIid(String name, int iid) {
+            push(iid);
+            call(name, "(I)V");
+        }
+
+        /**
+         * Calls <code>name(iid, o)</code> for the object o on top of the
+         * stack, which the call consumes.
+         */
+        private void callWithObject(String name, int iid) {
+            push(iid);
+            mv.visitInsn(SWAP);
+            call(name, "(ILjava/lang/Object;)V");
+        }
+
+        /**
+         * Calls <code>name(iid, o, i)</code> for the object o on top of the
+         * stack, which the call consumes.
+         */
+        private void callWithObjectInt(String name, int iid, int i) {
+            push(iid);
+            mv.visitInsn(SWAP);
+            push(i);
+            call(name, "(ILjava/lang/Object;I)V");
+        }
+
+        private void lastInsn() {
+            lastNewIid = -1;
+        }
+
+        public void visitLineNumber(int line, Label start) {
+            this.line = line;
+            super.visitLineNumber(line, start);
+        }
+
+        public void visitMaxs(int maxStack, int maxLocals) {
+            if (!AgentClassAdapter.this.maxLocals.containsKey(key)) {
+                AgentClassAdapter.this.maxLocals.put(key, maxLocals);
+            }
+            super.visitMaxs(maxStack, maxLocals);
+        }
+
+        public void visitInsn(int opcode) {
+            if (opcode == DUP && lastNewIid != -1) {
+                pendingNews.set(0, lastNewIid);
+            }
+            lastInsn();
+            if (opcode >= IALOAD && opcode <= SALOAD) {
+                if (!Parameters.ignoreArrays) {
+                    // arr idx -> arr idx, after myReadBefore(iid, arr, idx)
+                    mv.visitInsn(DUP2);
+                    push(iid());
+                    mv.visitInsn(DUP_X2);
+                    mv.visitInsn(POP);
+                    call("myReadBefore", "(ILjava/lang/Object;I)V");
+                }
+            } else if (opcode >= IASTORE && opcode <= SASTORE) {
+                if (!Parameters.ignoreArrays) {
+                    boolean wide = opcode == LASTORE || opcode == DASTORE;
+                    // arr idx v -> v arr idx
+                    if (wide) {
+                        mv.visitInsn(DUP2_X2);
+                        mv.visitInsn(POP2);
+                    } else {
+                        mv.visitInsn(DUP_X2);
+                        mv.visitInsn(POP);
+                    }
+                    mv.visitInsn(DUP2);
+                    push(iid());
+                    mv.visitInsn(DUP_X2);
+                    mv.visitInsn(POP);
+                    call("myWriteBefore", "(ILjava/lang/Object;I)V");
+                    // v arr idx -> arr idx v
+                    mv.visitInsn(wide ? DUP2_X2 : DUP2_X1);
+                    mv.visitInsn(POP2);
+                }
+            } else if (opcode == MONITORENTER) {
+                if (!Parameters.ignoreConcurrency) {
+                    mv.visitInsn(DUP);
+                    callWithObject("myLockBefore", iid());
+                }
+            } else if (opcode == MONITOREXIT) {
+                if (!Parameters.ignoreConcurrency) {
+                    mv.visitInsn(DUP);
+                    mv.visitInsn(opcode);
+                    callWithObject("myUnlockAfter", iid());
+                    return;
+                }
+            }
+            super.visitInsn(opcode);
+        }
+
+        /**
+         * After the instruction that leaves a new object or array on top of
+         * the stack.
+         */
+        private void newExprAfter(int iid) {
+            if (isStatic) {
+                mv.visitInsn(DUP);
+                callWithObject("myNewExprInAStaticMethodAfter", iid);
+            } else if (thisInitialized) {
+                mv.visitInsn(DUP);
+                push(iid);
+                mv.visitInsn(SWAP);
+                mv.visitVarInsn(ALOAD, 0);
+                call("myNewExprInANonStaticMethodAfter", "(ILjava/lang/Object;Ljava/lang/Object;)V");
+            }
+        }
+
+        public void visitTypeInsn(int opcode, String type) {
+            lastInsn();
+            super.visitTypeInsn(opcode, type);
+            if (opcode == NEW) {
+                pendingNews.addFirst(-1);
+                if (!Parameters.ignoreAlloc) {
+                    lastNewIid = iid();
+                }
+            } else if (opcode == ANEWARRAY && !Parameters.ignoreAlloc) {
+                newExprAfter(iid());
+            }
+        }
+
+        public void visitIntInsn(int opcode, int operand) {
+            lastInsn();
+            super.visitIntInsn(opcode, operand);
+            if (opcode == NEWARRAY && !Parameters.ignoreAlloc) {
+                newExprAfter(iid());
+            }
+        }
+
+        public void visitMultiANewArrayInsn(String desc, int dims) {
+            lastInsn();
+            super.visitMultiANewArrayInsn(desc, dims);
+            if (!Parameters.ignoreAlloc) {
+                newExprAfter(iid());
+            }
+        }
+
+        public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+            lastInsn();
+            if (!Parameters.ignoreFields) {
+                BytecodeHierarchy.Member f = agent.getHierarchy().findField(loader, owner, name);
+                boolean isVolatile = f != null && f.is(ACC_VOLATILE);
+                if (opcode == GETSTATIC || opcode == PUTSTATIC) {
+                    String declaring = (f == null ? owner : f.owner).replace('/', '.');
+                    push(iid());
+                    push(agent.symbol(declaring));
+                    push(agent.symbol(name));
+                    call(opcode == GETSTATIC ? (isVolatile ? "myVReadBefore" : "myReadBefore")
+                            : (isVolatile ? "myVWriteBefore" : "myWriteBefore"), "(III)V");
+                } else if (thisInitialized && (!isInit || (!name.equals("this$0") && !name.startsWith("val$")))) {
+                    if (opcode == GETFIELD) {
+                        mv.visitInsn(DUP);
+                        callWithObjectInt(isVolatile ? "myVReadBefore" : "myReadBefore", iid(), agent.symbol(name));
+                    } else {
+                        // obj v -> obj v obj
+                        if (Type.getType(desc).getSize() == 2) {
+                            mv.visitInsn(DUP2_X1);
+                            mv.visitInsn(POP2);
+                            mv.visitInsn(DUP_X2);
+                        } else {
+                            mv.visitInsn(DUP2);
+                            mv.visitInsn(POP);
+                        }
+                        callWithObjectInt(isVolatile ? "myVWriteBefore" : "myWriteBefore", iid(), agent.symbol(name));
+                    }
+                }
+            }
+            super.visitFieldInsn(opcode, owner, name, desc);
+        }
+
+        public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+            lastInsn();
+            if (opcode == INVOKESTATIC) {
+                visitStaticInvoke(owner, name, desc, itf);
+            } else {
+                visitInstanceInvoke(opcode, owner, name, desc, itf);
+            }
+        }
+
+        private void visitStaticInvoke(String owner, String name, String desc, boolean itf) {
+            int enter = -1, exit = -1, lock = -1, unlock = -1, det = -1;
+            if (!Parameters.ignoreMethods) {
+                enter = iid();
+                exit = iid();
+            }
+            BytecodeHierarchy.Member m = agent.getHierarchy().findMethod(loader, owner, name, desc);
+            String declaring = (m == null ? owner : m.owner).replace('/', '.');
+            if (m != null && m.is(ACC_SYNCHRONIZED) && !Parameters.ignoreConcurrency) {
+                lock = iid();
+                unlock = iid();
+            }
+            String detHook = null;
+            if (owner.equals(DETERMINISM) && desc.equals("()V")) {
+                if (name.equals("openDeterministicBlock")) {
+                    detHook = "myOpenDeterministicBlock";
+                } else if (name.equals("closeDeterministicBlock")) {
+                    detHook = "myCloseDeterministicBlock";
+                }
+                if (detHook != null) {
+                    det = iid();
+                }
+            }
+
+            if (enter != -1) {
+                callWithIid("myMethodEnterBefore", enter);
+            }
+            if (lock != -1) {
+                push(lock);
+                push(agent.symbol(declaring));
+                mv.visitLdcInsn(declaring);
+                call("myLockBefore", "(IILjava/lang/String;)V");
+            }
+            if (det != -1) {
+                callWithIid(detHook, det);
+            }
+            super.visitMethodInsn(INVOKESTATIC, owner, name, desc, itf);
+            if (unlock != -1) {
+                push(unlock);
+                push(agent.symbol(declaring));
+                call("myUnlockAfter", "(II)V");
+            }
+            if (exit != -1) {
+                callWithIid("myMethodExitAfter", exit);
+            }
+        }
+
+        private void visitInstanceInvoke(int opcode, String owner, String name, String desc, boolean itf) {
+            boolean isConstructor = name.equals("<init>");
+            // the constructor of the last NEW, or else of the superclass or this class
+            boolean ofNew = isConstructor && opcode == INVOKESPECIAL && !pendingNews.isEmpty();
+            int newIid = ofNew ? pendingNews.removeFirst() : -1;
+            boolean ofThis = isConstructor && !ofNew && !thisInitialized;
+
+            String before = null, after = null;
+            if (!Parameters.ignoreConcurrency && !owner.startsWith("[")) {
+                boolean isThread = (name.equals("start") || name.equals("join"))
+                        && agent.getHierarchy().isSubclass(loader, owner, "java/lang/Thread");
+                if (name.equals("wait") && (desc.equals("()V") || desc.equals("(J)V") || desc.equals("(JI)V"))) {
+                    before = "myWaitBefore";
+                    after = "myWaitAfter";
+                } else if (name.equals("notify") && desc.equals("()V")) {
+                    before = "myNotifyBefore";
+                } else if (name.equals("notifyAll") && desc.equals("()V")) {
+                    before = "myNotifyAllBefore";
+                } else if (isThread && name.equals("start") && desc.equals("()V")) {
+                    before = "myStartBefore";
+                    after = "myStartAfter";
+                } else if (isThread && name.equals("join") && (desc.equals("()V") || desc.equals("(J)V") || desc.equals("(JI)V"))) {
+                    after = "myJoinAfter";
+                }
+            }
+            int beforeIid = before == null ? -1 : iid();
+            int afterIid = after == null ? -1 : iid();
+            int enter = -1, exit = -1;
+            if (!Parameters.ignoreMethods) {
+                enter = iid();
+                exit = iid();
+            }
+
+            // SYNC and UNKNOWN as in SyncMethodResolver; the agent only resolves exact targets
+            String lockHook = null;
+            int lock = -1, unlock = -1;
+            if (!isConstructor && !Parameters.ignoreConcurrency && !owner.startsWith("[")) {
+                BytecodeHierarchy.Member m = agent.getHierarchy().findMethod(loader, owner, name, desc);
+                if (m == null || (opcode != INVOKESPECIAL && !BytecodeHierarchy.isFinal(m))) {
+                    lockHook = "myLockBefore";
+                } else if (m.is(ACC_SYNCHRONIZED)) {
+                    lockHook = "mySyncMethodBefore";
+                }
+                if (lockHook != null) {
+                    lock = iid();
+                    unlock = iid();
+                }
+            }
+
+            if (before != null || after != null || lockHook != null) {
+                // recv args -> recv [recv] args, with the hooks before the call made
+                Type[] args = Type.getArgumentTypes(desc);
+                int local = firstFreeLocal;
+                for (Type arg : args) {
+                    local += arg.getSize();
+                }
+                for (int i = args.length - 1; i >= 0; i--) {
+                    local -= args[i].getSize();
+                    mv.visitVarInsn(args[i].getOpcode(ISTORE), local);
+                }
+                if (after != null) {
+                    mv.visitInsn(DUP);
+                }
+                if (before != null) {
+                    mv.visitInsn(DUP);
+                    callWithObject(before, beforeIid);
+                }
+                if (enter != -1) {
+                    callWithIid("myMethodEnterBefore", enter);
+                }
+                if (lockHook != null) {
+                    mv.visitInsn(DUP);
+                    push(lock);
+                    mv.visitInsn(SWAP);
+                    if (lockHook.equals("myLockBefore")) {
+                        mv.visitLdcInsn(name + "(" + argNames(args) + ")");
+                        call(lockHook, "(ILjava/lang/Object;Ljava/lang/String;)V");
+                    } else {
+                        call(lockHook, "(ILjava/lang/Object;)V");
+                    }
+                }
+                for (Type arg : args) {
+                    mv.visitVarInsn(arg.getOpcode(ILOAD), local);
+                    local += arg.getSize();
+                }
+            } else if (enter != -1) {
+                callWithIid("myMethodEnterBefore", enter);
+            }
+
+            super.visitMethodInsn(opcode, owner, name, desc, itf);
+
+            if (unlock != -1) {
+                callWithIid("myUnlockAfter", unlock);
+            }
+            if (exit != -1) {
+                callWithIid("myMethodExitAfter", exit);
+            }
+            if (after != null) {
+                // the hooks with an after call are all on void methods
+                callWithObject(after, afterIid);
+            }
+            if (ofThis) {
+                thisInitialized = true;
+            } else if (newIid != -1) {
+                newExprAfter(newIid);
+            }
+        }
+
+        private String argNames(Type[] args) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < args.length; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(args[i].getClassName());
+            }
+            return sb.toString();
+        }
+
+        public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
+            lastInsn();
+            super.visitInvokeDynamicInsn(name, desc, bsm, bsmArgs);
+        }
+
+        public void visitVarInsn(int opcode, int var) {
+            lastInsn();
+            super.visitVarInsn(opcode, var);
+        }
+
+        public void visitJumpInsn(int opcode, Label label) {
+            lastInsn();
+            super.visitJumpInsn(opcode, label);
+        }
+
+        public void visitLdcInsn(Object cst) {
+            lastInsn();
+            super.visitLdcInsn(cst);
+        }
+
+        public void visitIincInsn(int var, int increment) {
+            lastInsn();
+            super.visitIincInsn(var, increment);
+        }
+
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+            lastInsn();
+            super.visitTableSwitchInsn(min, max, dflt, labels);
+        }
+
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+            lastInsn();
+            super.visitLookupSwitchInsn(dflt, keys, labels);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package javato.activetesting.instrumentor;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * The class hierarchy as far as InstrumentationAgent needs it, read from the
+ * class files a class loader finds rather than from loaded classes, since
+ * loading a class from a transformer could recursively load the class being
+ * transformed.  Names are internal names (java/lang/Thread).
+ */
+class BytecodeHierarchy {
+    /**
+     * A field or method and the class that declares it.
+     */
+    static class Member {
+        final String owner;
+        final int access;
+        final int ownerAccess;
+
+        Member(String owner, int access, int ownerAccess) {
+            this.owner = owner;
+            this.access = access;
+            this.ownerAccess = ownerAccess;
+        }
+
+        boolean is(int flag) {
+            return (access & flag) != 0;
+        }
+    }
+
+    private static class Node {
+        int access;
+        String superName;
+        String[] interfaces;
+        // name -> access
+        final Map<String, Integer> fields = new HashMap<String, Integer>();
+        // name + descriptor -> access
+        final Map<String, Integer> methods = new HashMap<String, Integer>();
+    }
+
+    private static class NodeReader extends ClassVisitor {
+        final Node node = new Node();
+
+        NodeReader() {
+            super(Opcodes.ASM9);
+        }
+
+        public void visit(int version, int access, String name, String signature, String superName,
+                          String[] interfaces) {
+            node.access = access;
+            node.superName = superName;
+            node.interfaces = interfaces == null ? new String[0] : interfaces;
+        }
+
+        public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+            node.fields.put(name, access);
+            return null;
+        }
+
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature,
+                                         String[] exceptions) {
+            node.methods.put(name + desc, access);
+            return null;
+        }
+    }
+
+    private static final Node MISSING = new Node();
+    // loader -> class -> node; the null key stands for the bootstrap loader
+    private final Map<ClassLoader, Map<String, Node>> nodes = new WeakHashMap<ClassLoader, Map<String, Node>>();
+
+    private synchronized Node node(ClassLoader loader, String name) {
+        Map<String, Node> byName = nodes.get(loader);
+        if (byName == null) {
+            byName = new HashMap<String, Node>();
+            nodes.put(loader, byName);
+        }
+        Node ret = byName.get(name);
+        if (ret == null) {
+            ret = read(loader, name);
+            byName.put(name, ret);
+        }
+        return ret == MISSING ? null : ret;
+    }
+
+    private static Node read(ClassLoader loader, String name) {
+        String resource = name + ".class";
+        InputStream in = loader == null ? ClassLoader.getSystemResourceAsStream(resource)
+                : loader.getResourceAsStream(resource);
+        if (in == null) {
+            return MISSING;
+        }
+        try {
+            ClassReader cr = new ClassReader(in);
+            in.close();
+            NodeReader reader = new NodeReader();
+            cr.accept(reader, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            return reader.node;
+        } catch (IOException e) {
+            return MISSING;
+        } catch (RuntimeException e) {
+            // a class file newer than ASM reads; the callers then check at runtime
+            return MISSING;
+        }
+    }
+
+    /**
+     * The field <code>name</code> as resolved from <code>owner</code>, or
+     * null if the class files cannot be found.
+     */
+    Member findField(ClassLoader loader, String owner, String name) {
+        Node n = node(loader, owner);
+        if (n == null) {
+            return null;
+        }
+        Integer access = n.fields.get(name);
+        if (access != null) {
+            return new Member(owner, access, n.access);
+        }
+        for (String i : n.interfaces) {
+            Member ret = findField(loader, i, name);
+            if (ret != null) {
+                return ret;
+            }
+        }
+        return n.superName == null ? null : findField(loader, n.superName, name);
+    }
+
+    /**
+     * The method <code>name</code> with descriptor <code>desc</code> as
+     * resolved from <code>owner</code>, or null if the class files cannot be
+     * found.
+     */
+    Member findMethod(ClassLoader loader, String owner, String name, String desc) {
+        Node n = node(loader, owner);
+        if (n == null) {
+            return null;
+        }
+        Integer access = n.methods.get(name + desc);
+        if (access != null) {
+            return new Member(owner, access, n.access);
+        }
+        if (n.superName != null) {
+            Member ret = findMethod(loader, n.superName, name, desc);
+            if (ret != null) {
+                return ret;
+            }
+        }
+        for (String i : n.interfaces) {
+            Member ret = findMethod(loader, i, name, desc);
+            if (ret != null) {
+                return ret;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The superclass of <code>name</code>, or null for java/lang/Object and
+     * interfaces.
+     *
+     * @throws IllegalArgumentException if the class files cannot be found
+     */
+    String getSuperName(ClassLoader loader, String name) {
+        Node n = node(loader, name);
+        if (n == null) {
+            throw new IllegalArgumentException("Cannot read " + name);
+        }
+        return (n.access & Opcodes.ACC_INTERFACE) != 0 ? null : n.superName;
+    }
+
+    /**
+     * The closest class that both <code>name1</code> and <code>name2</code>
+     * extend, for computing stack map frames; java/lang/Object if either is
+     * an interface.
+     *
+     * @throws IllegalArgumentException if the class files cannot be found
+     */
+    String getCommonSuperClass(ClassLoader loader, String name1, String name2) {
+        Set<String> supers1 = new HashSet<String>();
+        for (String c = name1; c != null; c = getSuperName(loader, c)) {
+            supers1.add(c);
+        }
+        for (String c = name2; c != null; c = getSuperName(loader, c)) {
+            if (supers1.contains(c)) {
+                return c;
+            }
+        }
+        return "java/lang/Object";
+    }
+
+    boolean isSubclass(ClassLoader loader, String name, String superName) {
+        for (Node n; name != null; name = n.superName) {
+            if (name.equals(superName)) {
+                return true;
+            }
+            if ((n = node(loader, name)) == null) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    static boolean isFinal(Member m) {
+        return m.is(Opcodes.ACC_FINAL) || m.is(Opcodes.ACC_PRIVATE)
+                || ((m.ownerAccess & Opcodes.ACC_FINAL) != 0 && (m.ownerAccess & Opcodes.ACC_INTERFACE) == 0);
+    }
+}
@@ -0,0 +1,308 @@
+package javato.activetesting.instrumentor;
+
+import javato.activetesting.common.Parameters;
+import javato.activetesting.trial.Trial;
+import javato.instrumentor.SymbolTables;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Instruments the program as its classes are loaded, instead of ahead of
+ * time with the instr target:
+ * <pre>
+ *   java -javaagent:javato-agent.jar -cp &lt;program&gt;:classes:lib/asm-9.8.jar ...
+ * </pre>
+ * Only the classes that load are instrumented, with the calls to
+ * ObserverForActiveTesting that VisitorForActiveTesting adds (see
+ * AgentClassAdapter), except for tracking locals.  Neither the escape
+ * analysis nor the redundant access elimination run, and calls that may be
+ * overridden are checked for being synchronized at runtime.
+ * <p/>
+ * A class gets its iids when it first loads, in a range of its own that it
+ * keeps, in this run and later ones, for as long as its bytecode does not
+ * change; the ranges are kept in javato.agent.iid.file, so that iids
+ * reported by one run name the same accesses in the next.  The iid to line
+ * map is shared in memory with Observer and written out at exit.  Field and
+ * class names get ids below javato.agent.symbol.ids, which objects then
+ * start from.  Classes of the JDK, of javato, the analysis class and the
+ * classes under the prefixes in javato.agent.exclude (comma separated, with
+ * dots) are left as they are.
+ */
+public class InstrumentationAgent implements ClassFileTransformer {
+    private static final String[] EXCLUDED = {"java/", "javax/", "sun/", "com/sun/", "jdk/", "javato/",
+            "edu/berkeley/cs/detcheck/", "org/objectweb/asm/"};
+
+    /**
+     * The iids of a class, and the bytecode they were given for.
+     */
+    private static class Range {
+        final String hash;
+        final int base;
+        final List<String> lines;
+
+        Range(String hash, int base, List<String> lines) {
+            this.hash = hash;
+            this.base = base;
+            this.lines = lines;
+        }
+    }
+
+    private final BytecodeHierarchy hierarchy = new BytecodeHierarchy();
+    private final SymbolTables symbols = new SymbolTables();
+    private final List<String> excluded = new ArrayList<String>();
+    // class -> its iids; only grows
+    private final Map<String, Range> ranges = new TreeMap<String, Range>();
+    private int nextIid = 0;
+    // read by Observer while classes load
+    private final List<String> iidToLine = Collections.synchronizedList(new ArrayList<String>());
+
+    InstrumentationAgent() {
+        Collections.addAll(excluded, EXCLUDED);
+        if (Parameters.analysisClass != null) {
+            excluded.add(Parameters.analysisClass.replace('.', '/'));
+        }
+        for (String prefix : Parameters.agentExcludes.split(",")) {
+            if (!prefix.trim().equals("")) {
+                excluded.add(prefix.trim().replace('.', '/'));
+            }
+        }
+    }
+
+    public static void premain(String args, Instrumentation inst) {
+        if (Parameters.trackLocals || Parameters.trackDeterministicLocals) {
+            System.err.println("The instrumentation agent does not track locals; use the instr target instead");
+        }
+        final InstrumentationAgent agent = new InstrumentationAgent();
+        agent.readRanges(Parameters.agentIidFile);
+        Trial.putShared(Parameters.iidToLineMapFile, agent.iidToLine);
+        Trial.putShared(Parameters.usedObjectId, Parameters.agentSymbolIds);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                agent.writeRanges(Parameters.agentIidFile);
+                agent.dumpIidToLine();
+            }
+        });
+        inst.addTransformer(agent);
+    }
+
+    BytecodeHierarchy getHierarchy() {
+        return hierarchy;
+    }
+
+    synchronized int symbol(String name) {
+        int ret = symbols.get(name);
+        if (ret >= Parameters.agentSymbolIds) {
+            System.err.println("More than " + Parameters.agentSymbolIds + " field and class names; "
+                    + "raise javato.agent.symbol.ids");
+            System.exit(1);
+        }
+        return ret;
+    }
+
+    boolean isExcluded(String className) {
+        for (String prefix : excluded) {
+            if (className.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                            ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        if (loader == null || className == null || classBeingRedefined != null || isExcluded(className)) {
+            return null;
+        }
+        try {
+            return instrument(loader, className, classfileBuffer);
+        } catch (Throwable t) {
+            // the class loads as it is, which is better than not at all
+            System.err.println("Could not instrument " + className + ": " + t);
+            return null;
+        }
+    }
+
+    byte[] instrument(ClassLoader loader, String className, byte[] bytes) {
+        ClassReader cr = new ClassReader(bytes);
+        if ((cr.getAccess() & Opcodes.ACC_INTERFACE) != 0) {
+            return null;
+        }
+        // the first pass finds the number of iids and where fresh locals start
+        Map<String, Integer> maxLocals = new HashMap<String, Integer>();
+        AgentClassAdapter counter = new AgentClassAdapter(new ClassWriter(0), this, loader, 0, maxLocals);
+        cr.accept(counter, ClassReader.SKIP_FRAMES);
+        if (counter.getLines().isEmpty()) {
+            return null;
+        }
+        int base = reserve(className.replace('/', '.'), sha1(bytes), counter.getLines());
+        // the frames of class files from Java 6 on no longer match the code, and older ones have none
+        int flags = cr.readUnsignedShort(6) >= (Opcodes.V1_6 & 0xFFFF) ? ClassWriter.COMPUTE_FRAMES
+                : ClassWriter.COMPUTE_MAXS;
+        ClassWriter cw = new FrameWriter(cr, flags, loader);
+        cr.accept(new AgentClassAdapter(cw, this, loader, base, maxLocals), ClassReader.SKIP_FRAMES);
+        return cw.toByteArray();
+    }
+
+    /**
+     * Computes frames from the class files of the loader, as ClassWriter
+     * would from loaded classes.  A class whose hierarchy cannot be read
+     * fails to instrument and loads as it is.
+     */
+    private class FrameWriter extends ClassWriter {
+        private final ClassLoader loader;
+
+        FrameWriter(ClassReader cr, int flags, ClassLoader loader) {
+            super(cr, flags);
+            this.loader = loader;
+        }
+
+        protected String getCommonSuperClass(String type1, String type2) {
+            return hierarchy.getCommonSuperClass(loader, type1, type2);
+        }
+    }
+
+    /**
+     * The first iid of <code>className</code>, which needs as many as it has
+     * <code>lines</code>: the one it had before if its bytecode is the same.
+     */
+    synchronized int reserve(String className, String hash, List<String> lines) {
+        Range r = ranges.get(className);
+        if (r == null || !r.hash.equals(hash) || r.lines.size() != lines.size()) {
+            r = new Range(hash, nextIid, lines);
+            nextIid += lines.size();
+            ranges.put(className, r);
+        }
+        setLines(r);
+        return r.base;
+    }
+
+    private void setLines(Range r) {
+        synchronized (iidToLine) {
+            while (iidToLine.size() < r.base + r.lines.size()) {
+                iidToLine.add(null);
+            }
+            for (int i = 0; i < r.lines.size(); i++) {
+                iidToLine.set(r.base + i, r.lines.get(i));
+            }
+        }
+    }
+
+    static String sha1(byte[] bytes) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(bytes)) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads the ranges written by <code>writeRanges</code>: a line "next
+     * &lt;iid&gt;", and for every class a line "class &lt;class&gt;
+     * &lt;hash&gt; &lt;base&gt; &lt;iids&gt;" followed by the line of each iid.
+     */
+    synchronized void readRanges(String file) {
+        if (!new File(file).exists()) {
+            return;
+        }
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(file));
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (parts[0].equals("next")) {
+                    nextIid = Integer.parseInt(parts[1]);
+                } else if (parts[0].equals("class")) {
+                    List<String> lines = new ArrayList<String>();
+                    for (int n = Integer.parseInt(parts[4]); n > 0; n--) {
+                        lines.add(in.readLine());
+                    }
+                    Range r = new Range(parts[2], Integer.parseInt(parts[3]), lines);
+                    ranges.put(parts[1], r);
+                    setLines(r);
+                }
+            }
+            in.close();
+        } catch (IOException e) {
+            System.err.println("Error while reading " + file);
+            System.exit(1);
+        }
+    }
+
+    synchronized void writeRanges(String file) {
+        try {
+            PrintWriter pw = new PrintWriter(new FileWriter(file));
+            pw.println("next " + nextIid);
+            for (Map.Entry<String, Range> e : ranges.entrySet()) {
+                Range r = e.getValue();
+                pw.println("class " + e.getKey() + " " + r.hash + " " + r.base + " " + r.lines.size());
+                for (String l : r.lines) {
+                    pw.println(l);
+                }
+            }
+            pw.close();
+        } catch (IOException e) {
+            System.err.println("Error while writing to " + file);
+            System.exit(1);
+        }
+    }
+
+    List<String> getIidToLine() {
+        return iidToLine;
+    }
+
+    /**
+     * Writes the iid to line map as the instr target does, for the tools
+     * that read it after the run.
+     */
+    void dumpIidToLine() {
+        ArrayList<String> map;
+        synchronized (iidToLine) {
+            map = new ArrayList<String>(iidToLine);
+        }
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(Parameters.iidToLineMapFile)));
+            out.writeObject(map);
+            out.close();
+            PrintStream out2 = new PrintStream(new BufferedOutputStream(
+                    new FileOutputStream(Parameters.iidToLineMapFile + ".html")));
+            out2.println("<html><body>");
+            for (int i = 0; i < map.size(); i++) {
+                if (map.get(i) != null) {
+                    out2.println("<a href=\"tmpclasses/" + map.get(i) + "\">" + i + "</a><br>");
+                }
+            }
+            out2.println("</html></body>");
+            out2.close();
+        } catch (IOException e) {
+            System.err.println("Error while writing to " + Parameters.iidToLineMapFile);
+        }
+    }
+}
@@ -2,7 +2,10 @@ package javato.activetesting.instrumentor;
 
 import benchmarks.instrumented.java15.util.Arrays;
 import javato.activetesting.common.Parameters;
+import javato.instrumentor.EscapeAnalysis;
 import javato.instrumentor.RecursiveVisitor;
+import javato.instrumentor.RedundantAccessElimination;
+import javato.instrumentor.SyncMethodResolver;
 import javato.instrumentor.TransformClass;
 import javato.instrumentor.Visitor;
 
@@ -40,15 +43,38 @@ import javato.instrumentor.Visitor;
  */
 public class InstrumentorForActiveTesting {
     public static void main(String[] args) {
+        VisitorForActiveTesting pv = setUp();
+        TransformClass processor = new TransformClass();
+        processor.processAllAtOnce(args, pv);
+        Visitor.dumpIidToLine();
+        pv.writeSymTblSize();
+        printStats();
+        if (Parameters.redundantAccessElimination) {
+            RedundantAccessElimination.v().writeStat(Parameters.REDUNDANT_STAT_FILE);
+            System.out.println("Redundant accesses per class in " + Parameters.REDUNDANT_STAT_FILE);
+        }
+    }
+
+    static VisitorForActiveTesting setUp() {
         System.setProperty("sun.boot.class.path", "C:/Users/tim.heller/.jdks/jdk1.6.0_45/jre/lib/rt.jar");
         System.setProperty("java.ext.dirs", "C:/Users/tim.heller/.jdks/jdk1.6.0_45/jre/lib/rt.jar");
         RecursiveVisitor vv = new RecursiveVisitor(null);
         VisitorForActiveTesting pv = new VisitorForActiveTesting(vv);
         vv.setNextVisitor(pv);
         Visitor.setObserverClass("javato.activetesting.analysis.ObserverForActiveTesting");
-        TransformClass processor = new TransformClass();
-        processor.processAllAtOnce(args, pv);
-        Visitor.dumpIidToLine();
-        pv.writeSymTblSize();
+        return pv;
+    }
+
+    static void printStats() {
+        if (Parameters.escapeAnalysis) {
+            System.out.println("Thread-local accesses not instrumented: " + EscapeAnalysis.v().getTaggedCount());
+        }
+        if (Parameters.redundantAccessElimination) {
+            System.out.println("Redundant accesses not instrumented: " + RedundantAccessElimination.v().getTaggedCount());
+        }
+        SyncMethodResolver r = SyncMethodResolver.v();
+        System.out.println("Call sites synchronized: " + r.getCount(SyncMethodResolver.Status.SYNC)
+                + ", not synchronized: " + r.getCount(SyncMethodResolver.Status.NONSYNC)
+                + ", checked at runtime: " + r.getCount(SyncMethodResolver.Status.UNKNOWN));
     }
 }
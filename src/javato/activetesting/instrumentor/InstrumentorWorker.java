@@ -0,0 +1,92 @@
+package javato.activetesting.instrumentor;
+
+import javato.activetesting.common.Parameters;
+import javato.instrumentor.RedundantAccessElimination;
+import javato.instrumentor.SymbolTables;
+import javato.instrumentor.SyncMethodResolver;
+import javato.instrumentor.TransformClass;
+import javato.instrumentor.Visitor;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Instruments one batch of classes for javato.instrumentor.IncrementalInstrumentor,
+ * in a JVM of its own, since Soot keeps its state in globals.
+ * <pre>
+ *   InstrumentorWorker &lt;task file&gt; &lt;symbol file&gt; &lt;report file&gt; &lt;soot options&gt;...
+ * </pre>
+ * The task file has a line "&lt;class&gt; &lt;first iid&gt;" per class to
+ * instrument; the iids of a class are given from its first one on, and
+ * field and class names get the ids of the symbol file.  The report has,
+ * for every class, a line "class &lt;class&gt; &lt;iids&gt;" followed by the
+ * source line of each of its iids, and a line "symbol &lt;name&gt;" for every
+ * name that was not in the symbol file.  With javato.redundant.elimination
+ * set, it also has a line "redundant &lt;class&gt; &lt;accesses&gt;" for every
+ * class, with the number of its accesses found redundant.
+ */
+public class InstrumentorWorker {
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.err.println("Usage: InstrumentorWorker <task file> <symbol file> <report file> <soot options>...");
+            System.exit(1);
+        }
+        Map<String, Integer> bases = new LinkedHashMap<String, Integer>();
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(args[0]));
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] parts = line.split(" ");
+                bases.put(parts[0], Integer.parseInt(parts[1]));
+            }
+            in.close();
+        } catch (IOException e) {
+            System.err.println("Error while reading " + args[0]);
+            System.exit(1);
+        }
+
+        SymbolTables symbols = SymbolTables.read(args[1]);
+        symbols.freeze();
+        Visitor.setSymbolTables(symbols);
+        Visitor.setIidBases(bases);
+        // what is decided for a class may only depend on the classes it names
+        SyncMethodResolver.v().setUseHierarchy(false);
+        VisitorForActiveTesting pv = InstrumentorForActiveTesting.setUp();
+
+        List<String> sootArgs = new ArrayList<String>();
+        for (int i = 3; i < args.length; i++) {
+            sootArgs.add(args[i]);
+        }
+        sootArgs.addAll(bases.keySet());
+        new TransformClass().processAllAtOnce(sootArgs.toArray(new String[sootArgs.size()]), pv);
+        InstrumentorForActiveTesting.printStats();
+
+        try {
+            PrintWriter pw = new PrintWriter(new FileWriter(args[2]));
+            for (String c : bases.keySet()) {
+                List<String> lines = Visitor.getIidToLine(c);
+                pw.println("class " + c + " " + lines.size());
+                for (String l : lines) {
+                    pw.println(l);
+                }
+                if (Parameters.redundantAccessElimination) {
+                    pw.println("redundant " + c + " " + RedundantAccessElimination.v().getTaggedCount(c));
+                }
+            }
+            for (String name : symbols.getUnknown()) {
+                pw.println("symbol " + name);
+            }
+            pw.close();
+        } catch (IOException e) {
+            System.err.println("Error while writing to " + args[2]);
+            System.exit(1);
+        }
+    }
+}
@@ -3,6 +3,9 @@ package javato.activetesting.instrumentor;
 import java.util.LinkedList;
 
 import javato.instrumentor.UnknownASTNodeException;
+import javato.instrumentor.RedundantAccessTag;
+import javato.instrumentor.SyncMethodResolver;
+import javato.instrumentor.ThreadLocalTag;
 import javato.instrumentor.Visitor;
 import javato.instrumentor.contexts.*;
 import javato.activetesting.common.Parameters;
@@ -270,11 +273,18 @@ public class VisitorForActiveTesting extends Visitor {
 
         if (sig.indexOf("<init>") == -1) {
             if (!Parameters.ignoreConcurrency) {
-                String ssig = sig.substring(sig.indexOf(' ') + 1);
-                Value sig2 = StringConstant.v(ssig);
-                addCallWithObjectString(units, s, "myLockBefore", base, sig2, true);
-                // t = t.syncMethod() is problematic, so do not pass t
-                addCall(units, s, "myUnlockAfter", false);
+                SyncMethodResolver.Status status = SyncMethodResolver.v().resolve(sm, invokeExpr);
+                if (status == SyncMethodResolver.Status.SYNC) {
+                    addCallWithObject(units, s, "mySyncMethodBefore", base, true);
+                    // t = t.syncMethod() is problematic, so do not pass t
+                    addCall(units, s, "myUnlockAfter", false);
+                } else if (status == SyncMethodResolver.Status.UNKNOWN) {
+                    String ssig = sig.substring(sig.indexOf(' ') + 1);
+                    Value sig2 = StringConstant.v(ssig);
+                    addCallWithObjectString(units, s, "myLockBefore", base, sig2, true);
+                    // t = t.syncMethod() is problematic, so do not pass t
+                    addCall(units, s, "myUnlockAfter", false);
+                }
             }
 
         } else if (Parameters.trackLocals ||
@@ -323,8 +333,16 @@ public class VisitorForActiveTesting extends Visitor {
     }
 
 
+    /**
+     * True iff the access in <code>s</code> was found not to need
+     * instrumentation: it is thread-local or repeats an earlier one.
+     */
+    private static boolean isUninstrumented(Stmt s) {
+        return s.hasTag(ThreadLocalTag.NAME) || s.hasTag(RedundantAccessTag.NAME);
+    }
+
     public void visitArrayRef(SootMethod sm, Chain units, Stmt s, ArrayRef arrayRef, RefContext context) {
-        if (!Parameters.ignoreArrays) {
+        if (!Parameters.ignoreArrays && !isUninstrumented(s)) {
             if (context == RHSContextImpl.getInstance()) {
                 addCallWithObjectInt(units, s, "myReadBefore", arrayRef.getBase(), arrayRef.getIndex(), true);
             } else {
@@ -335,7 +353,7 @@ public class VisitorForActiveTesting extends Visitor {
     }
 
     public void visitInstanceFieldRef(SootMethod sm, Chain units, Stmt s, InstanceFieldRef instanceFieldRef, RefContext context) {
-        if (!Parameters.ignoreFields) {
+        if (!Parameters.ignoreFields && !isUninstrumented(s)) {
             if ((!sm.getName().equals("<init>") || !instanceFieldRef.getField().getName().equals("this$0"))
             && (!sm.getName().equals("<init>") || !instanceFieldRef.getField().getName().startsWith("val$")))
             {
@@ -426,7 +444,7 @@ public class VisitorForActiveTesting extends Visitor {
     }
 
     public void visitStaticFieldRef(SootMethod sm, Chain units, Stmt s, StaticFieldRef staticFieldRef, RefContext context) {
-        if (!Parameters.ignoreFields) {
+        if (!Parameters.ignoreFields && !isUninstrumented(s)) {
             Value v1 = IntConstant.v(st.get(staticFieldRef.getField().getDeclaringClass().getName()));
             Value v2 = IntConstant.v(st.get(staticFieldRef.getField().getName()));
             if (Modifier.isVolatile(staticFieldRef.getField().getModifiers())) {
@@ -35,14 +35,14 @@ import java.util.TreeSet;
  * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
-public class LockSet extends TreeSet {
+public class LockSet extends TreeSet<Integer> {
     public final static LockSet emptySet = new LockSet();
 
     public LockSet() {
         super();
     }
 
-    public LockSet(Collection ls) {
+    public LockSet(Collection<? extends Integer> ls) {
         super(ls);
     }
 
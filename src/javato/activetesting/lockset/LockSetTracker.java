@@ -4,10 +4,13 @@ package javato.activetesting.lockset;
 import javato.activetesting.analysis.Observer;
 import javato.activetesting.igoodlock.Pair;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 /**
  * Copyright (c) 2007-2008,
@@ -42,91 +45,117 @@ import java.util.TreeMap;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 public class LockSetTracker {
-    // thread -> list of iids
-    private Map<Integer, LinkedList<Integer>> threadsToIidStack = new TreeMap<Integer, LinkedList<Integer>>();
-    private Map<Integer, LinkedList<Integer>> threadsToLockStack = new TreeMap<Integer, LinkedList<Integer>>();
-    private Map<Integer, Integer> holdsLockToThread = new TreeMap<Integer, Integer>();
-    private Map<Integer, LinkedList<Integer>> reqThreadsToIidStack = new TreeMap<Integer, LinkedList<Integer>>();
-    private Map<Integer, LinkedList<Integer>> reqThreadsToLockStack = new TreeMap<Integer, LinkedList<Integer>>();
-    private Map<Integer, Integer> reqHoldsLockToThread = new TreeMap<Integer, Integer>();
-    boolean isDeadlock = false;
+    // the locks each thread holds, and the wait-for map over them
+    private final Holds held = new Holds();
+    // the same for the locks requested, see requestBefore
+    private final Holds requested = new Holds();
+    volatile boolean isDeadlock = false;
 
     private int deadlockThreadId, deadlockLockId;
 
     //private ArrayList<String> iidToLineMap = Observer.getIidToLineMap(Parameters.iidToLineMapFile);
 
     /**
-     * updates lockset for thread t
-     * returns true iff a deadlock is detected
-     *
-     * @param thread
-     * @param iid
-     * @param lockId
-     * @return
+     * The locks of one thread and the iids at which it acquired them,
+     * innermost last.  Only the thread itself pushes and pops; depth is
+     * written last, so a thread that reads depth first also sees the
+     * entries below it.
      */
-    public boolean lockBefore(Integer iid, Integer thread, Integer lockId) {
-        LinkedList<Integer> iidStack = threadsToIidStack.get(thread);
-        LinkedList<Integer> lockStack = threadsToLockStack.get(thread);
-        if (iidStack == null) {
-            iidStack = new LinkedList<Integer>();
-            threadsToIidStack.put(thread, iidStack);
+    private static final class LockStack {
+        private Integer[] locks = new Integer[8];
+        private Integer[] iids = new Integer[8];
+        private volatile int depth;
+
+        void push(Integer iid, Integer lockId) {
+            int d = depth;
+            if (d == locks.length) {
+                locks = Arrays.copyOf(locks, 2 * d);
+                iids = Arrays.copyOf(iids, 2 * d);
+            }
+            locks[d] = lockId;
+            iids[d] = iid;
+            depth = d + 1;
         }
-        if (lockStack == null) {
-            lockStack = new LinkedList<Integer>();
-            threadsToLockStack.put(thread, lockStack);
+
+        Integer pop() {
+            int d = depth - 1;
+            depth = d;
+            return locks[d];
         }
-        iidStack.addLast(iid);
-        if (!lockStack.isEmpty()) {
-            holdsLockToThread.put(lockStack.getLast(), thread);
+
+        Integer peekLock() {
+            int d = depth;
+            return d == 0 ? null : locks[d - 1];
         }
-        lockStack.addLast(lockId);
 
-        if (!isDeadlock && isDeadlock(thread, lockId)) {
-            isDeadlock = true;
+        Integer peekIid() {
+            int d = depth;
+            return d == 0 ? null : iids[d - 1];
+        }
 
-            List<String> locations = new LinkedList<String>();
-            for (Integer tid : threadsToIidStack.keySet()) {
-                if (tid == thread || tid == deadlockThreadId) {
-                    System.out.println("Thread:  (" + tid + ")");
-                    LinkedList<Integer> iids = threadsToIidStack.get(tid);
-                    LinkedList<Integer> locks = threadsToLockStack.get(tid);
-                    int i = 0;
-                    for (Integer lid : locks) {
-                        if (lid == lockId || lid == deadlockLockId) {
-                            Integer iid2 = iids.get(i);
-                            System.out.println("    Lock  (" + locks.get(i) + ") at " + iid2 + " " + Observer.getIidToLine(iid2));
-                            if (i != 0)
-                                locations.add(Observer.getIidToLine(iid2));
-                        }
-                        i++;
-                    }
+        int indexOf(Integer lockId) {
+            int d = depth;
+            for (int i = 0; i < d; i++) {
+                if (locks[i].equals(lockId)) {
+                    return i;
                 }
             }
-            System.out.print("locations: ");
-            for (String lid : locations) 
-                System.out.print(lid + ",");
-            System.out.println("\n");
+            return -1;
+        }
 
-            // System.out.println("Thread1: " + deadlockThreadId);
-            // System.out.println("Thread1 lock: " + lockId);
-            // System.out.println("Thread1 lock iid: " + threadsToLockStack.get(deadlockThreadId).get(lockId));
-            // System.out.println("Thread2: " + thread);
-            // System.out.println("Thread2 lock: " + deadlockLockId);
-            // System.out.println("Thread2 lock iid: " + threadsToLockStack.get(thread).get( deadlockLockId));
+        List<Integer> lockList() {
+            int d = depth;
+            return new ArrayList<Integer>(Arrays.asList(locks).subList(0, d));
+        }
 
-            System.err.println("##############################################################");
-            System.err.println("Real Deadlock Detected");
-            System.err.println("##############################################################");
-            //printDeadlock();
-            System.err.println("##############################################################");
-            return true;
+        List<Integer> iidList() {
+            int d = depth;
+            return new ArrayList<Integer>(Arrays.asList(iids).subList(0, d));
         }
-        deadlockThreadId = -1;
-        deadlockLockId = -1;
-        return false;
     }
-    
+
+    /**
+     * The lock stacks of all threads, and the wait-for map: a lock a thread
+     * held when it went for another one -> that thread.  Cycles can only
+     * close through a lock in the map, so an acquire of a lock that no other
+     * thread is mapped to needs no search.
+     */
+    private static final class Holds {
+        final Map<Integer, LockStack> stacks = new ConcurrentSkipListMap<Integer, LockStack>();
+        final Map<Integer, Integer> owners = new ConcurrentHashMap<Integer, Integer>();
+
+        LockStack stackOf(Integer thread) {
+            LockStack s = stacks.get(thread);
+            if (s == null) {
+                s = new LockStack();
+                stacks.put(thread, s);
+            }
+            return s;
+        }
+
         /**
+         * @return true iff another thread holds lockId while going for
+         *         another lock, and so may close a cycle
+         */
+        boolean push(Integer iid, Integer thread, Integer lockId) {
+            LockStack s = stackOf(thread);
+            Integer top = s.peekLock();
+            if (top != null && !thread.equals(owners.get(top))) {
+                owners.put(top, thread);
+            }
+            s.push(iid, lockId);
+            Integer owner = owners.get(lockId);
+            return owner != null && !owner.equals(thread);
+        }
+
+        void pop(Integer thread) {
+            LockStack s = stacks.get(thread);
+            assert s != null;
+            owners.remove(s.pop(), thread);
+        }
+    }
+
+    /**
      * updates lockset for thread t
      * returns true iff a deadlock is detected
      *
@@ -135,34 +164,47 @@ public class LockSetTracker {
      * @param lockId
      * @return
      */
-    public boolean requestBefore(Integer iid, Integer thread, Integer lockId) {
-        LinkedList<Integer> iidStack = reqThreadsToIidStack.get(thread);
-        LinkedList<Integer> lockStack = reqThreadsToLockStack.get(thread);
-        if (iidStack == null) {
-            iidStack = new LinkedList<Integer>();
-            reqThreadsToIidStack.put(thread, iidStack);
+    public boolean lockBefore(Integer iid, Integer thread, Integer lockId) {
+        if (!held.push(iid, thread, lockId)) {
+            return false;
         }
-        if (lockStack == null) {
-            lockStack = new LinkedList<Integer>();
-            reqThreadsToLockStack.put(thread, lockStack);
+        // the walk and the report share deadlockThreadId and deadlockLockId
+        synchronized (this) {
+            return report(held, thread, lockId, false);
         }
-        iidStack.addLast(iid);
-        if (!lockStack.isEmpty()) {
-            reqHoldsLockToThread.put(lockStack.getLast(), thread);
+    }
+
+    /**
+     * updates lockset for thread t
+     * returns true iff a deadlock is detected
+     *
+     * @param thread
+     * @param iid
+     * @param lockId
+     * @return
+     */
+    public boolean requestBefore(Integer iid, Integer thread, Integer lockId) {
+        if (!requested.push(iid, thread, lockId)) {
+            return false;
+        }
+        synchronized (this) {
+            return report(requested, thread, lockId, true);
         }
-        lockStack.addLast(lockId);
+    }
 
-        if (!isDeadlock && isDeadlockReq(thread, lockId)) {
+    private boolean report(Holds h, Integer thread, Integer lockId, boolean printAll) {
+        if (!isDeadlock && isDeadlock(h, thread, lockId)) {
             isDeadlock = true;
 
             List<String> locations = new LinkedList<String>();
-            for (Integer tid : reqThreadsToIidStack.keySet()) {
+            for (Map.Entry<Integer, LockStack> entry : h.stacks.entrySet()) {
+                int tid = entry.getKey();
                 if (tid == thread || tid == deadlockThreadId) {
                     System.out.println("Thread:  (" + tid + ")");
-                    LinkedList<Integer> iids = reqThreadsToIidStack.get(tid);
-                    LinkedList<Integer> locks = reqThreadsToLockStack.get(tid);
+                    List<Integer> iids = entry.getValue().iidList();
+                    List<Integer> locks = entry.getValue().lockList();
                     int i = 0;
-                    for (Integer lid : locks) {
+                    for (int lid : locks) {
                         if (lid == lockId || lid == deadlockLockId) {
                             Integer iid2 = iids.get(i);
                             System.out.println("    Lock  (" + locks.get(i) + ") at " + iid2 + " " + Observer.getIidToLine(iid2));
@@ -178,17 +220,11 @@ public class LockSetTracker {
                 System.out.print(lid + ",");
             System.out.println("\n");
 
-            // System.out.println("Thread1: " + deadlockThreadId);
-            // System.out.println("Thread1 lock: " + lockId);
-            // System.out.println("Thread1 lock iid: " + threadsToLockStack.get(deadlockThreadId).get(lockId));
-            // System.out.println("Thread2: " + thread);
-            // System.out.println("Thread2 lock: " + deadlockLockId);
-            // System.out.println("Thread2 lock iid: " + threadsToLockStack.get(thread).get( deadlockLockId));
-
             System.err.println("##############################################################");
             System.err.println("Real Deadlock Detected");
             System.err.println("##############################################################");
-            printDeadlock();
+            if (printAll)
+                printDeadlock();
             System.err.println("##############################################################");
             return true;
         }
@@ -199,10 +235,10 @@ public class LockSetTracker {
 
     private void printDeadlock() {
         System.out.println("Thread and lock sets:" + Thread.currentThread());
-        for (Integer tid : threadsToIidStack.keySet()) {
-            System.out.println("Thread:  (" + tid + ")");
-            LinkedList<Integer> iids = threadsToIidStack.get(tid);
-            LinkedList<Integer> locks = threadsToLockStack.get(tid);
+        for (Map.Entry<Integer, LockStack> entry : held.stacks.entrySet()) {
+            System.out.println("Thread:  (" + entry.getKey() + ")");
+            List<Integer> iids = entry.getValue().iidList();
+            List<Integer> locks = entry.getValue().lockList();
             int i = 0;
             for (Integer lid : locks) {
                 Integer iid = iids.get(i);
@@ -218,14 +254,7 @@ public class LockSetTracker {
      * @param thread
      */
     public void unlockAfter(Integer thread) {
-        LinkedList<Integer> iidStack = threadsToIidStack.get(thread);
-        assert iidStack != null;
-        iidStack.removeLast();
-        LinkedList<Integer> lockStack = threadsToLockStack.get(thread);
-        assert (lockStack != null);
-        Integer lockId = lockStack.removeLast();
-        if (thread.equals(holdsLockToThread.get(lockId)))
-            holdsLockToThread.remove(lockId);
+        held.pop(thread);
     }
 
         /**
@@ -234,14 +263,7 @@ public class LockSetTracker {
      * @param thread
      */
     public void unlockAfterReq(Integer thread) {
-        LinkedList<Integer> reqIidStack = reqThreadsToIidStack.get(thread);
-        assert reqIidStack != null;
-        reqIidStack.removeLast();
-        LinkedList<Integer> reqLockStack = reqThreadsToLockStack.get(thread);
-        assert (reqLockStack != null);
-        Integer reqLockId = reqLockStack.removeLast();
-        if (thread.equals(reqHoldsLockToThread.get(reqLockId)))
-            reqHoldsLockToThread.remove(reqLockId);
+        requested.pop(thread);
     }
 
 
@@ -252,14 +274,12 @@ public class LockSetTracker {
      * @param lockId
      * @return
      */
-    private boolean isDeadlock(Integer threadId, Integer lockId) {
+    private boolean isDeadlock(Holds h, Integer threadId, Integer lockId) {
         Integer tmpThread = threadId;
         Integer tmpLock = lockId; // what tmpThread intends to acquire
-        //System.out.println("called isDeadlock, threadId: " + threadId + ", lockId:" + lockId);
         while (true) {
             Integer oldThread = tmpThread;
-            tmpThread = holdsLockToThread.get(tmpLock);
-            //System.out.println("tmpThread: " + tmpThread + ", oldThread: " + oldThread + ", tmpLock: " + tmpLock);
+            tmpThread = h.owners.get(tmpLock);
             // no one else holds the lock
             if (tmpThread == null) {
                 return false;
@@ -269,56 +289,32 @@ public class LockSetTracker {
             }
             if (tmpThread.equals(threadId)) {
                 deadlockLockId = tmpLock;
-                //System.out.println("deadlock true tmpThread: " + tmpThread + ", tmpLock: " + tmpLock);
                 return true;
             }
-            //System.out.println("tmpThread2: " + tmpThread + ", tmpLock2: " + tmpLock);
             deadlockThreadId = tmpThread;
 
-            tmpLock = threadsToLockStack.get(tmpThread).getLast();
+            // the other thread may be releasing its locks meanwhile
+            tmpLock = h.stacks.get(tmpThread).peekLock();
+            if (tmpLock == null) {
+                return false;
+            }
         }
     }
 
-        /**
-     * returns true iff the current lockset of all threads implies a deadlock
+    public Pair<Integer,Integer> locationsInvolvedInDeadlock(Integer threadId, Integer lockId) {
+        Integer iid1 = held.stacks.get(threadId).peekIid();
+        Integer otherThread = held.owners.get(lockId);
+        return new Pair<Integer,Integer>(iid1, held.stacks.get(otherThread).peekIid());
+    }
+
+    /**
+     * returns the thread that holds lockId while going for another lock, or null
      *
-     * @param threadId
      * @param lockId
      * @return
      */
-    private boolean isDeadlockReq(Integer threadId, Integer lockId) {
-        Integer tmpThread = threadId;
-        Integer tmpLock = lockId; // what tmpThread intends to acquire
-        //System.out.println("called isDeadlock, threadId: " + threadId + ", lockId:" + lockId);
-        while (true) {
-            Integer oldThread = tmpThread;
-            tmpThread = reqHoldsLockToThread.get(tmpLock);
-            //System.out.println("tmpThread: " + tmpThread + ", oldThread: " + oldThread + ", tmpLock: " + tmpLock);
-            // no one else holds the lock
-            if (tmpThread == null) {
-                return false;
-            }
-            if (tmpThread.equals(oldThread)) {
-                return false;
-            }
-            if (tmpThread.equals(threadId)) {
-                deadlockLockId = tmpLock;
-                //System.out.println("tmpThread: " + tmpThread + ", tmpLock: " + tmpLock);
-                return true;
-            }
-            //System.out.println("tmpThread2: " + tmpThread + ", tmpLock2: " + tmpLock);
-            deadlockThreadId = tmpThread;
-
-            tmpLock = reqThreadsToLockStack.get(tmpThread).getLast();
-        }
-    }
-
-    public Pair<Integer,Integer> locationsInvolvedInDeadlock(Integer threadId, Integer lockId) {
-        Integer iid1 = threadsToIidStack.get(threadId).getLast();
-        Integer iid2;
-        Integer otherThread = holdsLockToThread.get(lockId);
-        LinkedList<Integer> iids = threadsToIidStack.get(otherThread);
-        return new Pair<Integer,Integer>(iid1,iids.getLast());
+    public Integer getLockOwner(Integer lockId) {
+        return held.owners.get(lockId);
     }
 
     /**
@@ -329,11 +325,11 @@ public class LockSetTracker {
      * @return
      */
     public List<Integer> getLockSetIids(Integer thread) {
-        LinkedList<Integer> ls = threadsToIidStack.get(thread);
-        if (ls == null) {
+        LockStack s = held.stacks.get(thread);
+        if (s == null) {
             return (new LinkedList<Integer>());
         }
-        return (new LinkedList<Integer>(ls));
+        return s.iidList();
     }
 
     /**
@@ -344,11 +340,11 @@ public class LockSetTracker {
      * @return
      */
     public List<Integer> getLockList(Integer thread) {
-        LinkedList<Integer> ls = threadsToLockStack.get(thread);
-        if (ls == null) {
+        LockStack s = held.stacks.get(thread);
+        if (s == null) {
             return (new LinkedList<Integer>());
         }
-        return (new LinkedList<Integer>(ls));
+        return s.lockList();
     }
 
     /**
@@ -359,17 +355,16 @@ public class LockSetTracker {
      * @return
      */
     public LockSet getLockSet(Integer thread) {
-        LinkedList<Integer> ls = threadsToLockStack.get(thread);
-        if (ls == null) {
+        LockStack s = held.stacks.get(thread);
+        if (s == null) {
             return (new LockSet());
         }
-        return (new LockSet(ls));
+        return (new LockSet(s.lockList()));
     }
 
 
     public Integer getLockAcquireIID(Integer thread, Integer lock) {
-        LinkedList<Integer> ls = threadsToLockStack.get(thread);
-        int index = ls.indexOf(lock);
-        return threadsToIidStack.get(thread).get(index);
+        LockStack s = held.stacks.get(thread);
+        return s.iids[s.indexOf(lock)];
     }
 }
@@ -35,7 +35,8 @@ import java.util.Set;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 public class IgnoreRentrantLock {
-    public static ThreadLocal lockSet = new ThreadLocal() {
+    // per instance, so that several analyses can be driven in one process
+    public ThreadLocal lockSet = new ThreadLocal() {
         public Object initialValue() {
             return new LockSetWithCount();
         }
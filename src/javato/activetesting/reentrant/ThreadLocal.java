@@ -1,7 +1,7 @@
 package javato.activetesting.reentrant;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Copyright (c) 2007-2008,
@@ -36,7 +36,8 @@ import java.util.Map;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 abstract public class ThreadLocal {
-    private Map map = new HashMap();
+    // the values are used by their own thread, but the threads share the map
+    private ConcurrentMap<Integer, Object> map = new ConcurrentHashMap<Integer, Object>();
 
     abstract public Object initialValue();
 
@@ -44,7 +45,10 @@ abstract public class ThreadLocal {
         Object val = map.get(thread);
         if (val == null) {
             val = initialValue();
-            map.put(thread, val);
+            Object old = map.putIfAbsent(thread, val);
+            if (old != null) {
+                val = old;
+            }
         }
         return val;
     }
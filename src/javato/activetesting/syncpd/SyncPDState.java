@@ -1,15 +1,16 @@
 package javato.activetesting.syncpd;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.HashMultiset;
-import com.google.common.collect.Multiset;
 import com.google.common.collect.Table;
 
 import javato.activetesting.syncpd.util.Pair;
@@ -18,29 +19,58 @@ import javato.activetesting.syncpd.util.Triplet;
 
 import javato.activetesting.syncpd.util.VectorClock;
 import javato.activetesting.analysis.ObserverForActiveTesting;
+import javato.activetesting.common.Parameters;
 
 
 public class SyncPDState {
 
 	public int uniqueDeadlockCount, numThreads, numLocks, numVariables;
+	// csHist and vertexToVCs entries: live, most live at once, reclaimed, and collections run
+	public long historySize, historyPeak, historyReclaimed, historyCollections;
 
 	public Set<Integer> threadSet, lockSet;
-	private HashMap<Integer, Integer> threadMap;
+	private Map<Integer, Integer> threadMap;
 	
-	private Set<Set<Quaternary<Integer, Integer, HashSet<Integer>, Integer>>> declaredDeadlocks;
+	private Set<Long> declaredDeadlocks; // vertex pair, see pairKey
 	private Map<Integer, VectorClock> clockThread; // threadIndex -> VC
+	// the entries for a variable are guarded by lockFor(variable); everything
+	// else is left to the caller, except that threads and their clocks may
+	// be looked up concurrently
 	public Map<Long, VectorClock> lastWriteVariable; // variableIndex -> VC
 	public Map<Long, Integer> variableToLastWriteThread; // variableIndex -> threadIndex
+	private static final int STRIPES = 64;
+	private final Object[] stripes = new Object[STRIPES];
 
-	private Table<Integer, Integer, LinkedList<Triplet<Integer, VectorClock, VectorClock>>> csHist;
+	private Table<Integer, Integer, ArrayList<Triplet<Integer, VectorClock, VectorClock>>> csHist;
 	private Table<Integer, Integer, Integer> reentrantLockCounter;
-	private Map<Integer, Multiset<Integer>> locksHeld;
+	private Map<Integer, HashMap<Integer, Integer>> locksHeld; // thread -> lock -> hold count
 	
-	private Map<Set<Quaternary<Integer, Integer, HashSet<Integer>, Integer>>, VectorClock> vertexSetToSPIdeal; 
-	private Map<Quaternary<Integer, Integer, HashSet<Integer>, Integer>, Integer> vertexToIndex;
-	private Map<Integer, List<Pair<VectorClock, VectorClock>>> vertexToVCs;
-	private Map<Integer, Set<Quaternary<Integer, Integer, HashSet<Integer>, Integer>>> verticesHoldingLock; 
-	private Table<Integer, Integer, Integer> vertexToEventQueueIndex; 
+	private Map<Long, VectorClock> vertexSetToSPIdeal; // vertex pair -> last ideal
+	private Map<Vertex, Vertex> vertexToIndex; // interned vertices, the index is Vertex.index
+	private List<Vertex> vertices; // index -> vertex
+	private List<List<Pair<VectorClock, VectorClock>>> vertexToVCs; // index -> (C_prev, C) per acquire
+	private Map<Long, List<Vertex>> verticesHoldingLock; // (held lock, requested lock) -> vertices
+
+	// lock sets are bitsets over dense lock indices, interned to an id
+	private Map<Integer, Integer> lockToIndex;
+	private List<Integer> indexToLock;
+	private Map<BitSet, Integer> lockSetToId;
+	private Map<Integer, BitSet> threadLockSet; // thread -> locks held, as in locksHeld
+	private final Vertex probe = new Vertex();
+
+	// history collection, see collectHistory
+	private Set<Integer> joinedThreads;
+	private long nextCollection;
+	private final VectorClock frontier = new VectorClock(0);
+	private final ArrayDeque<VectorClock> clockPool = new ArrayDeque<VectorClock>();
+	private static final int CLOCK_POOL_SIZE = 4096;
+
+	// scratch clocks of checkForDeadlocks and computeSPIdeal, reused across calls
+	private final VectorClock ideal = new VectorClock(0);
+	private final VectorClock IOrig = new VectorClock(0);
+	private final Map<Integer, VectorClock> releaseClock = new HashMap<Integer, VectorClock>();
+	private static final Triplet<Integer, VectorClock, VectorClock> NO_LOWER_BOUND =
+			new Triplet<Integer, VectorClock, VectorClock>(0, null, null);
 
 	public SyncPDState() {
 		uniqueDeadlockCount = numThreads = numLocks = numVariables = 0;
@@ -48,31 +78,102 @@ public class SyncPDState {
 	}
 
 	public void initDS() {
-		this.clockThread = new HashMap<Integer, VectorClock>();
+		this.clockThread = new ConcurrentHashMap<Integer, VectorClock>();
 
 		this.threadSet = new HashSet<Integer>();
-		this.threadMap = new HashMap<Integer, Integer>();
+		this.threadMap = new ConcurrentHashMap<Integer, Integer>();
 		this.lockSet = new HashSet<Integer>();
 
 		// initialize lastWriteVariable
-		this.lastWriteVariable = new HashMap<Long, VectorClock>();
+		this.lastWriteVariable = new ConcurrentHashMap<Long, VectorClock>();
 
 		// initialize csHist
 		this.csHist = HashBasedTable.create();
 		
 		// initialize locksHeld and numAcquriesPerThread
-		this.locksHeld = new HashMap<Integer, Multiset<Integer>>();
+		this.locksHeld = new HashMap<Integer, HashMap<Integer, Integer>>();
 		
 		// initialize lockHistory
 		this.reentrantLockCounter = HashBasedTable.create();
-		this.declaredDeadlocks = new HashSet<Set<Quaternary<Integer, Integer, HashSet<Integer>, Integer>>>();
-		this.variableToLastWriteThread = new HashMap<Long, Integer>();
+		this.declaredDeadlocks = new HashSet<Long>();
+		this.variableToLastWriteThread = new ConcurrentHashMap<Long, Integer>();
 		
-		this.vertexToIndex = new HashMap();
-		this.vertexToVCs = new HashMap();
-		this.vertexToEventQueueIndex = HashBasedTable.create();
-		this.verticesHoldingLock = new HashMap();
-		this.vertexSetToSPIdeal = new HashMap();
+		this.vertexToIndex = new HashMap<Vertex, Vertex>();
+		this.vertices = new ArrayList<Vertex>();
+		this.vertexToVCs = new ArrayList<List<Pair<VectorClock, VectorClock>>>();
+		this.verticesHoldingLock = new HashMap<Long, List<Vertex>>();
+		this.vertexSetToSPIdeal = new HashMap<Long, VectorClock>();
+
+		this.lockToIndex = new HashMap<Integer, Integer>();
+		this.indexToLock = new ArrayList<Integer>();
+		this.lockSetToId = new HashMap<BitSet, Integer>();
+		this.threadLockSet = new HashMap<Integer, BitSet>();
+
+		this.joinedThreads = new HashSet<Integer>();
+		this.nextCollection = Parameters.syncpdHistoryCap;
+		for (int i = 0; i < STRIPES; i++)
+			stripes[i] = new Object();
+	}
+
+	/**
+	 * The monitor for the last write to <code>variable</code>.
+	 */
+	public Object lockFor(long variable) {
+		long h = variable * 0x9E3779B97F4A7C15L;
+		return stripes[(int) (h >>> 58)];
+	}
+
+	/**
+	 * A vertex of the abstract lock graph: thread t requesting lock l at iid
+	 * while holding the locks of an interned lock set.  Equality is on the
+	 * four ints, so looking a vertex up hashes no collection.
+	 */
+	private static final class Vertex {
+		int thread, lock, lockSetId, iid;
+		BitSet lockSet; // dense lock indices
+		int index;
+
+		@Override
+		public boolean equals(Object o) {
+			Vertex v = (Vertex) o;
+			return thread == v.thread && lock == v.lock && lockSetId == v.lockSetId && iid == v.iid;
+		}
+
+		@Override
+		public int hashCode() {
+			int h = thread;
+			h = 31 * h + lock;
+			h = 31 * h + lockSetId;
+			return 31 * h + iid;
+		}
+	}
+
+	private static long pack(int first, int second) {
+		return ((long) first << 32) | (second & 0xFFFFFFFFL);
+	}
+
+	// the key of an unordered pair of vertices
+	private static long pairKey(Vertex v1, Vertex v2) {
+		return v1.index < v2.index ? pack(v1.index, v2.index) : pack(v2.index, v1.index);
+	}
+
+	private int lockIndex(Integer l) {
+		Integer index = lockToIndex.get(l);
+		if (index == null) {
+			index = indexToLock.size();
+			lockToIndex.put(l, index);
+			indexToLock.add(l);
+		}
+		return index;
+	}
+
+	// the vertex as the reports print it, with its lock set as a set of lock ids
+	private Quaternary<Integer, Integer, HashSet<Integer>, Integer> toQuaternary(Vertex v) {
+		HashSet<Integer> locks = new HashSet<Integer>();
+		for (int i = v.lockSet.nextSetBit(0); i >= 0; i = v.lockSet.nextSetBit(i + 1)) {
+			locks.add(indexToLock.get(i));
+		}
+		return new Quaternary<Integer, Integer, HashSet<Integer>, Integer>(v.thread, v.lock, locks, v.iid);
 	}
 	
 	public void addAcquireToHist(Integer t, Integer l, int acquireId){
@@ -80,29 +181,32 @@ public class SyncPDState {
 			lockSet.add(l);
 
 		if (!csHist.contains(t, l)) {
-			this.csHist.put(t, l, new LinkedList<Triplet<Integer, VectorClock, VectorClock>>());
+			this.csHist.put(t, l, new ArrayList<Triplet<Integer, VectorClock, VectorClock>>());
 		}
 
-		if (this.csHist.get(t, l).size() > 0 && this.csHist.get(t, l).getLast().third == null) {
+		ArrayList<Triplet<Integer, VectorClock, VectorClock>> hist = this.csHist.get(t, l);
+		if (hist.size() > 0 && hist.get(hist.size() - 1).third == null) {
 			if (this.reentrantLockCounter.contains(t, l)) {
 				this.reentrantLockCounter.put(t, l, this.reentrantLockCounter.get(t, l) + 1);
 			} else {
 				this.reentrantLockCounter.put(t, l, 1);
 			}
 		} else {
-			VectorClock copyClock = new VectorClock(this.clockThread.get(t));
-			this.csHist.get(t, l).add(new Triplet<Integer, VectorClock, VectorClock>(acquireId, copyClock, null));
+			VectorClock copyClock = newClock(this.clockThread.get(t));
+			hist.add(new Triplet<Integer, VectorClock, VectorClock>(acquireId, copyClock, null));
+			addToHistory();
 		}		
 	}
 
-	public void handleDeadlock(boolean deadlock, Quaternary<Integer, Integer, HashSet<Integer>, Integer> vertex1, Quaternary<Integer, Integer, HashSet<Integer>, Integer> vertex2) {
+	private void handleDeadlock(boolean deadlock, Vertex vertex1, Vertex vertex2) {
 		if (deadlock) {
-			HashSet<Quaternary<Integer, Integer, HashSet<Integer>, Integer>> vertexSet = new HashSet<Quaternary<Integer, Integer, HashSet<Integer>, Integer>>();
-			vertexSet.add(vertex1);
-			vertexSet.add(vertex2);
+			long vertexSet = pairKey(vertex1, vertex2);
 			if (!declaredDeadlocks.contains(vertexSet)) {
-				System.out.println("Deadlock found on cycle: " + vertexSet);
-				System.out.println("locations: " + ObserverForActiveTesting.getIidToLine(vertex1.fourth) + ", " + ObserverForActiveTesting.getIidToLine(vertex2.fourth));
+				HashSet<Quaternary<Integer, Integer, HashSet<Integer>, Integer>> cycle = new HashSet<Quaternary<Integer, Integer, HashSet<Integer>, Integer>>();
+				cycle.add(toQuaternary(vertex1));
+				cycle.add(toQuaternary(vertex2));
+				System.out.println("Deadlock found on cycle: " + cycle);
+				System.out.println("locations: " + ObserverForActiveTesting.getIidToLine(vertex1.iid) + ", " + ObserverForActiveTesting.getIidToLine(vertex2.iid));
 				
 				this.declaredDeadlocks.add(vertexSet);
 				this.uniqueDeadlockCount++;
@@ -111,125 +215,121 @@ public class SyncPDState {
 	}
 
 	public int keepCycleBooks(Integer t, Integer l, Integer locationId) {
-		if (this.locksHeld.containsKey(t) && this.locksHeld.get(t).size() > 0) {
-			HashSet<Integer> lockSet = new HashSet<Integer>(this.locksHeld.get(t));
-			Quaternary<Integer, Integer, HashSet<Integer>, Integer> vertex = new Quaternary(t, l, lockSet, locationId);
+		BitSet lockSet = this.threadLockSet.get(t);
+		if (lockSet != null && !lockSet.isEmpty()) {
+			Integer lockSetId = this.lockSetToId.get(lockSet);
+			if (lockSetId == null) {
+				lockSetId = this.lockSetToId.size();
+				this.lockSetToId.put((BitSet) lockSet.clone(), lockSetId);
+			}
+			probe.thread = t;
+			probe.lock = l;
+			probe.lockSetId = lockSetId;
+			probe.iid = locationId;
 			
-			int vertexIndex;
-			if (!this.vertexToIndex.containsKey(vertex)) {
-				vertexIndex = this.vertexToIndex.size();
-				this.vertexToIndex.put(vertex, vertexIndex);
-				this.vertexToVCs.put(vertexIndex, new LinkedList<Pair<VectorClock, VectorClock>>());
-			} else {
-				vertexIndex = this.vertexToIndex.get(vertex);
+			Vertex vertex = this.vertexToIndex.get(probe);
+			if (vertex == null) {
+				vertex = new Vertex();
+				vertex.thread = t;
+				vertex.lock = l;
+				vertex.lockSetId = lockSetId;
+				vertex.iid = locationId;
+				vertex.lockSet = (BitSet) lockSet.clone();
+				vertex.index = this.vertices.size();
+				this.vertexToIndex.put(vertex, vertex);
+				this.vertices.add(vertex);
+				this.vertexToVCs.add(new ArrayList<Pair<VectorClock, VectorClock>>());
+				for (int h = lockSet.nextSetBit(0); h >= 0; h = lockSet.nextSetBit(h + 1)) {
+					long key = pack(indexToLock.get(h), l);
+					List<Vertex> holding = verticesHoldingLock.get(key);
+					if (holding == null) {
+						holding = new ArrayList<Vertex>();
+						verticesHoldingLock.put(key, holding);
+					}
+					holding.add(vertex);
+				}
 			}
 			
-			VectorClock C_prev = new VectorClock(this.clockThread.get(t));
-			VectorClock C = new VectorClock(this.clockThread.get(t));
+			VectorClock C_prev = newClock(this.clockThread.get(t));
+			VectorClock C = newClock(this.clockThread.get(t));
 			int threadId = getThreadId(t);
 			C.inc(threadId);
 			
-			this.vertexToVCs.get(vertexIndex).add(new Pair<VectorClock, VectorClock>(C_prev, C));
+			this.vertexToVCs.get(vertex.index).add(new Pair<VectorClock, VectorClock>(C_prev, C));
+			this.historySize++;
 			
-			return vertexIndex;
+			return vertex.index;
 		} else {
 			return -1;
 		}
 	}
 
 	public boolean findDeadlocks(int vertexIndex, int t, int l, int locationId) {
-		HashSet<Integer> lockSet = new HashSet<Integer>(this.locksHeld.get(t));
-		Quaternary<Integer, Integer, HashSet<Integer>, Integer> currentVertex = new Quaternary(t, l, lockSet, locationId);
+		Vertex currentVertex = this.vertices.get(vertexIndex);
+		List<Pair<VectorClock, VectorClock>> vcPairs = this.vertexToVCs.get(vertexIndex);
+		Pair<VectorClock, VectorClock> vcPair = vcPairs.get(vcPairs.size() - 1);
 		
-		List<Quaternary> deadlockPatterns = getDeadlockPatterns(currentVertex, t, l, locationId);
 		boolean foundDeadlock = false;
-		for (Quaternary<Integer, Integer, HashSet<Integer>, Integer> vertexPrime : deadlockPatterns) {
-			int vertexPrimeIndex = this.vertexToIndex.get(vertexPrime);
-			int threadQueueIndex = 0;
-			if (this.vertexToEventQueueIndex.contains(vertexPrimeIndex, vertexIndex)) 
-				threadQueueIndex = this.vertexToEventQueueIndex.get(vertexPrimeIndex, vertexIndex);
-
-
-			Pair<VectorClock, VectorClock> vcPair = this.vertexToVCs.get(vertexIndex).get(this.vertexToVCs.get(vertexIndex).size()-1);
-			for (Pair<VectorClock, VectorClock> vcPrimePair : this.vertexToVCs.get(vertexPrimeIndex).subList(threadQueueIndex, this.vertexToVCs.get(vertexPrimeIndex).size())) {
-				HashSet<Quaternary<Integer, Integer, HashSet<Integer>, Integer>> vertexSet = new HashSet<Quaternary<Integer, Integer, HashSet<Integer>, Integer>>();
-				vertexSet.add(currentVertex);
-				vertexSet.add(vertexPrime);
-				if (!declaredDeadlocks.contains(vertexSet) && (!vertexSetToSPIdeal.containsKey(vertexSet) || vertexSetToSPIdeal.get(vertexSet).isLessThanOrEqual(vcPrimePair.second))) {
-					Pair<Boolean, VectorClock> deadlock = checkForDeadlocks(vcPrimePair, vcPair);
-					this.handleDeadlock(deadlock.first, currentVertex, vertexPrime);
-					if (deadlock.first) {
-						foundDeadlock = true;
+		BitSet lockSet = currentVertex.lockSet;
+		for (int h = lockSet.nextSetBit(0); h >= 0; h = lockSet.nextSetBit(h + 1)) {
+			// vertices requesting a lock we hold while holding the lock we request
+			List<Vertex> candidates = verticesHoldingLock.get(pack(l, indexToLock.get(h)));
+			if (candidates == null)
+				continue;
+			for (int c = 0; c < candidates.size(); c++) {
+				Vertex vertexPrime = candidates.get(c);
+				if (vertexPrime.thread == t || vertexPrime.lock == l || vertexPrime.lockSet.intersects(lockSet))
+					continue;
+				long vertexSet = pairKey(currentVertex, vertexPrime);
+				List<Pair<VectorClock, VectorClock>> vcPrimePairs = this.vertexToVCs.get(vertexPrime.index);
+				for (int i = 0; i < vcPrimePairs.size(); i++) {
+					Pair<VectorClock, VectorClock> vcPrimePair = vcPrimePairs.get(i);
+					if (declaredDeadlocks.contains(vertexSet))
 						break;
-					} else 
-						vertexSetToSPIdeal.put(vertexSet, deadlock.second);
-				}
-			}
-		}
-
-		return foundDeadlock;
-	}
-
-
-	private List<Quaternary> getDeadlockPatterns(Quaternary<Integer, Integer, HashSet<Integer>, Integer> currentVertex, int t, int l, int locationId) {
-		for (Integer heldLock : this.locksHeld.get(t) ) {
-			if (verticesHoldingLock.containsKey(heldLock)) {
-				verticesHoldingLock.get(heldLock).add(currentVertex);
-			} else {
-				Set<Quaternary<Integer, Integer, HashSet<Integer>, Integer>> vertexSet = new HashSet();
-				vertexSet.add(currentVertex);
-				verticesHoldingLock.put(heldLock, vertexSet);
-			}
-		}
-		
-		List<Quaternary> verticesInDeadlockPattern = new LinkedList();
-		if (verticesHoldingLock.containsKey(l)) {
-			for (Quaternary<Integer, Integer, HashSet<Integer>, Integer> vertexPrime : this.verticesHoldingLock.get(l)) {
-				if (!vertexPrime.first.equals(t)) {
-					if (!vertexPrime.second.equals(l)) {
-						HashSet<Integer> intersection = new HashSet<Integer>(vertexPrime.third);
-						intersection.retainAll(currentVertex.third);
-						
-						if (intersection.size() == 0) {							
-							if (vertexPrime.third.contains(l) && currentVertex.third.contains(vertexPrime.second)) { 
-								HashSet<Quaternary<Integer, Integer, HashSet<Integer>, Integer>> vertexSet = new HashSet<Quaternary<Integer, Integer, HashSet<Integer>, Integer>>();
-								vertexSet.add(currentVertex);
-								vertexSet.add(vertexPrime);
-								if (!declaredDeadlocks.contains(vertexSet))
-									verticesInDeadlockPattern.add(vertexPrime);
-							}
+					VectorClock knownIdeal = vertexSetToSPIdeal.get(vertexSet);
+					if (knownIdeal == null || knownIdeal.isLessThanOrEqual(vcPrimePair.second)) {
+						boolean deadlock = checkForDeadlocks(vcPrimePair, vcPair);
+						this.handleDeadlock(deadlock, currentVertex, vertexPrime);
+						if (deadlock) {
+							foundDeadlock = true;
+							break;
+						} else if (knownIdeal == null)
+							vertexSetToSPIdeal.put(vertexSet, new VectorClock(ideal));
+						else {
+							knownIdeal.setToZero();
+							knownIdeal.copyFrom(ideal);
 						}
 					}
 				}
 			}
 		}
-		
-		return verticesInDeadlockPattern;
+
+		return foundDeadlock;
 	}
 
 	long countCheckForDeadlocks = 0L;
-	private Pair<Boolean, VectorClock> checkForDeadlocks(Pair<VectorClock, VectorClock> beforeEvent, Pair<VectorClock, VectorClock> currentEvent) {
-		VectorClock ideal = new VectorClock(this.threadSet.size());
+	// leaves the sync-preserving ideal of the two events in this.ideal
+	private boolean checkForDeadlocks(Pair<VectorClock, VectorClock> beforeEvent, Pair<VectorClock, VectorClock> currentEvent) {
+		ideal.setToZero();
+		ideal.adjustSize(this.threadSet.size() - 1);
 		
 		ideal.updateMax(beforeEvent.first);
 		ideal.updateMax(currentEvent.first);
 		VectorClock SPIdeal = this.computeSPIdeal(ideal);
 
 		countCheckForDeadlocks++;
-		if (beforeEvent.second.isLessThanOrEqual(SPIdeal)) 
-			return new Pair(false, SPIdeal);
-		else 
-			return new Pair(true, SPIdeal);
+		return !beforeEvent.second.isLessThanOrEqual(SPIdeal);
 	}
 
-	private Triplet<Integer, VectorClock, VectorClock> maxLowerBound(VectorClock U, LinkedList<Triplet<Integer, VectorClock, VectorClock>> Lst) {
-		Triplet<Integer, VectorClock, VectorClock> maxTriplet = new Triplet<Integer, VectorClock, VectorClock>(0, null, null); 
+	// the returned triplet belongs to Lst and must not be modified
+	private Triplet<Integer, VectorClock, VectorClock> maxLowerBound(VectorClock U, ArrayList<Triplet<Integer, VectorClock, VectorClock>> Lst) {
+		Triplet<Integer, VectorClock, VectorClock> maxTriplet = NO_LOWER_BOUND; 
 		
 		int frontComputation = Lst.size() < 10 ? Lst.size() : 10;
 		for (int i = 0; i < frontComputation; i++) {
 			Triplet<Integer, VectorClock, VectorClock> triplet = Lst.get(i);
 			if (triplet.second.isLessThanOrEqual(U)) {
-				maxTriplet = new Triplet<Integer, VectorClock, VectorClock>(triplet.first, triplet.second, triplet.third);
+				maxTriplet = triplet;
 			} else {
 				return maxTriplet;
 			}
@@ -238,7 +338,7 @@ public class SyncPDState {
 		for (int i = Lst.size()-1; i >= frontComputation; i--) {
 			Triplet<Integer, VectorClock, VectorClock> triplet = Lst.get(i);
 			if (triplet.second.isLessThanOrEqual(U)) {
-				maxTriplet = new Triplet<Integer, VectorClock, VectorClock>(triplet.first, triplet.second, triplet.third);
+				maxTriplet = triplet;
 				break;
 			}
 		}
@@ -246,35 +346,37 @@ public class SyncPDState {
 	}
 
 	public VectorClock computeSPIdeal(VectorClock I) {		
-		VectorClock IOrig = new VectorClock(this.threadSet.size());
 		do {
 			for (Integer l : this.lockSet) {
 				Integer maxIndex = -1;
 				Integer maxThread = null;
 				
-				Table<Integer, Integer, VectorClock> releaseClock = HashBasedTable.create(); 
+				releaseClock.clear();
 	
 				for (Integer t : this.threadSet) {
-					if (csHist.get(t, l) != null) {
-						Triplet<Integer, VectorClock, VectorClock> triplet = maxLowerBound(I, csHist.get(t, l));
+					ArrayList<Triplet<Integer, VectorClock, VectorClock>> hist = csHist.get(t, l);
+					if (hist != null) {
+						Triplet<Integer, VectorClock, VectorClock> triplet = maxLowerBound(I, hist);
 						if (triplet.first > maxIndex) {
 							maxIndex = triplet.first;
 							maxThread = t;
 						}						
 						if (triplet.third != null) {
-							releaseClock.put(t, l, triplet.third);
+							releaseClock.put(t, triplet.third);
 						}						
 					}
 				}
-				IOrig = new VectorClock(I);
+				IOrig.copyFrom(I);
 				for (Integer t : this.threadSet) {
 					if (!t.equals(maxThread)) {
-						if (releaseClock.get(t, l) != null) {
-							I.updateMax(releaseClock.get(t, l));
+						VectorClock release = releaseClock.get(t);
+						if (release != null) {
+							I.updateMax(release);
 						}
 					}
 				}
 			}
+			// IOrig is a different object from I, so this pass runs exactly once
 		} while(IOrig.equals(I));
 		return I;
 	}
@@ -283,29 +385,50 @@ public class SyncPDState {
 		if (this.reentrantLockCounter.contains(t, l) && this.reentrantLockCounter.get(t, l) > 0) {
 			this.reentrantLockCounter.put(t, l, this.reentrantLockCounter.get(t, l) - 1);
 		} else {
-			VectorClock copyClock = new VectorClock(this.clockThread.get(t));
-			this.csHist.get(t, l).getLast().third = copyClock;
+			VectorClock copyClock = newClock(this.clockThread.get(t));
+			ArrayList<Triplet<Integer, VectorClock, VectorClock>> hist = this.csHist.get(t, l);
+			hist.get(hist.size() - 1).third = copyClock;
 		}
 	}
 
 	public void addToLocksHeld(Integer t, Integer l) {
-		if (!this.locksHeld.containsKey(t)) {
-			HashMultiset<Integer> hms = new HashMultiset<>();
-			this.locksHeld.put(t, hms);
-		} 
-		this.locksHeld.get(t).add(l);
+		HashMap<Integer, Integer> held = this.locksHeld.get(t);
+		if (held == null) {
+			held = new HashMap<Integer, Integer>();
+			this.locksHeld.put(t, held);
+		}
+		Integer count = held.get(l);
+		held.put(l, count == null ? 1 : count + 1);
+		if (count == null) {
+			BitSet lockSet = this.threadLockSet.get(t);
+			if (lockSet == null) {
+				lockSet = new BitSet();
+				this.threadLockSet.put(t, lockSet);
+			}
+			lockSet.set(lockIndex(l));
+		}
 	}
 	
 	public void removeLockFromLocksHeld(Integer t, Integer l) {
-		this.locksHeld.get(t).remove(l);
+		HashMap<Integer, Integer> held = this.locksHeld.get(t);
+		Integer count = held.get(l);
+		if (count == null)
+			return;
+		if (count == 1) {
+			held.remove(l);
+			this.threadLockSet.get(t).clear(lockIndex(l));
+		}
+		else
+			held.put(l, count - 1);
 	}
 
 	public int getLockHeldCount(Integer t, Integer l) {
-		return this.locksHeld.get(t).count(l);
+		Integer count = this.locksHeld.get(t).get(l);
+		return count == null ? 0 : count;
 	}
 	
 	public int uniqueLocksHeld(Integer t) {
-		return this.locksHeld.get(t).elementSet().size();
+		return this.locksHeld.get(t).size();
 	}
 
 	public void incClockThread(int index) {
@@ -334,6 +457,10 @@ public class SyncPDState {
 		this.getThreadVC(parent).adjustSize(this.threadSet.size());
 	}
 
+	public boolean hasThread(int thread) {
+		return this.clockThread.containsKey(thread);
+	}
+
 	public void addThread(int newThread) {
 		if (!this.threadSet.contains(newThread)) {
 			int threadId = this.threadSet.size();
@@ -345,6 +472,111 @@ public class SyncPDState {
 		}
 	}
 
+	/**
+	 * Takes the thread out of the history frontier: it was joined and
+	 * issues no more events.
+	 */
+	public void joinThread(int thread) {
+		this.joinedThreads.add(thread);
+	}
+
+	private VectorClock newClock(VectorClock from) {
+		VectorClock clock = clockPool.poll();
+		if (clock == null)
+			return new VectorClock(from);
+		clock.setToZero();
+		clock.copyFrom(from);
+		return clock;
+	}
+
+	private void reclaimClock(VectorClock clock) {
+		if (clockPool.size() < CLOCK_POOL_SIZE)
+			clockPool.add(clock);
+	}
+
+	// counts a new csHist entry, the acquire's vertexToVCs entry being counted already
+	private void addToHistory() {
+		historySize++;
+		if (historySize > historyPeak)
+			historyPeak = historySize;
+		if (historySize >= nextCollection) {
+			collectHistory();
+			// collecting again before the history doubles would make collection quadratic
+			nextCollection = Math.max(Parameters.syncpdHistoryCap, 2 * historySize);
+		}
+	}
+
+	/**
+	 * Drops the history entries that no future check can use.  The frontier
+	 * F is the pointwise minimum of the clocks of the threads that may still
+	 * issue events, i.e. all but the joined ones; every later acquire has
+	 * C_prev >= F, and so has every ideal built from it.  Then
+	 * <ul>
+	 * <li>an acquire (C_prev, C) of vertexToVCs with C <= F happened before
+	 * every later acquire, so checkForDeadlocks can never report it;</li>
+	 * <li>in a csHist list, ordered by acquire clock, maxLowerBound never
+	 * returns a section that precedes the last one acquired at or before F.</li>
+	 * </ul>
+	 * Neither changes what is reported.  A thread that stops issuing events
+	 * without being joined holds the frontier back, and with it collection.
+	 */
+	void collectHistory() {
+		historyCollections++;
+		boolean first = true;
+		frontier.setToZero();
+		for (Map.Entry<Integer, VectorClock> entry : clockThread.entrySet()) {
+			if (joinedThreads.contains(entry.getKey()))
+				continue;
+			VectorClock clock = entry.getValue();
+			// the thread may be in a read or a write, which lock the clock
+			synchronized (clock) {
+				if (first) {
+					frontier.copyFrom(clock);
+					first = false;
+				} else {
+					for (int i = 0; i < frontier.getDim(); i++) {
+						if (clock.getClockIndex(i) < frontier.getClockIndex(i))
+							frontier.setClockIndex(i, clock.getClockIndex(i));
+					}
+				}
+			}
+		}
+		if (first)
+			return;
+
+		long reclaimed = 0;
+		for (List<Pair<VectorClock, VectorClock>> vcPairs : vertexToVCs) {
+			int n = 0;
+			while (n < vcPairs.size() && vcPairs.get(n).second.isLessThanOrEqual(frontier))
+				n++;
+			if (n > 0) {
+				List<Pair<VectorClock, VectorClock>> dropped = vcPairs.subList(0, n);
+				for (Pair<VectorClock, VectorClock> vcPair : dropped) {
+					reclaimClock(vcPair.first);
+					reclaimClock(vcPair.second);
+				}
+				dropped.clear();
+				reclaimed += n;
+			}
+		}
+		for (ArrayList<Triplet<Integer, VectorClock, VectorClock>> hist : csHist.values()) {
+			int n = 0;
+			while (n + 1 < hist.size() && hist.get(n + 1).second.isLessThanOrEqual(frontier))
+				n++;
+			if (n > 0) {
+				List<Triplet<Integer, VectorClock, VectorClock>> dropped = hist.subList(0, n);
+				for (Triplet<Integer, VectorClock, VectorClock> triplet : dropped) {
+					reclaimClock(triplet.second);
+					reclaimClock(triplet.third);
+				}
+				dropped.clear();
+				reclaimed += n;
+			}
+		}
+		historySize -= reclaimed;
+		historyReclaimed += reclaimed;
+	}
+
 	public Integer getThreadId(int thread) {
 		return this.threadMap.get(thread);
 	}
@@ -1,148 +1,110 @@
 package javato.activetesting.syncpd.util;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 public class VectorClock implements Comparable<VectorClock> {
 
 	private int dim;
-	private ArrayList<Integer> clock;
+	// components at dim and beyond are always 0
+	private int[] clock;
 
 	public VectorClock(int d) {
 		this.dim = d;
-		this.clock = new ArrayList<Integer>();
-		for (int ind = 0; ind < this.dim; ind++) 
-			this.clock.add(0);
+		this.clock = new int[d];
 	}
 
 	public VectorClock(VectorClock fromVectorClock) {
 		this.dim = fromVectorClock.getDim();
-		this.clock = (ArrayList<Integer>) fromVectorClock.getClock().clone();
+		this.clock = Arrays.copyOf(fromVectorClock.clock, this.dim);
 	}
 
 	public int getDim() {
-		if (!(this.dim == this.clock.size())) {
-			throw new IllegalArgumentException("Mismatch in dim and clock size");
-		}
 		return this.dim;
 	}
 
-	public ArrayList<Integer> getClock() {
-		return this.clock;
-	}
-
 	public String toString() {
-		return this.clock.toString();
+		StringBuilder sb = new StringBuilder("[");
+		for (int ind = 0; ind < this.dim; ind++) {
+			if (ind > 0)
+				sb.append(", ");
+			sb.append(this.clock[ind]);
+		}
+		return sb.append(']').toString();
 	}
 
 	public boolean isZero() {
-		boolean itIsZero = true;
 		for (int ind = 0; ind < this.dim; ind++) {
-			int thisVal = this.clock.get(ind);
-			if (thisVal != 0) {
-				itIsZero = false;
-				break;
-			}
+			if (this.clock[ind] != 0)
+				return false;
 		}
-		return itIsZero;
+		return true;
 	}
 
 	public boolean isEqual(VectorClock vc) {
 		if (!(this.dim == vc.getDim())) 
 			return false;
-		boolean itIsEqual = true;
-		ArrayList<Integer> vcClock = vc.getClock();
+		int[] vcClock = vc.clock;
 		for (int ind = 0; ind < this.dim; ind++) {
-			int thisVal = this.clock.get(ind);
-			int vcVal = vcClock.get(ind);
-			if (thisVal != vcVal) {
-				itIsEqual = false;
-				break;
-			}
+			if (this.clock[ind] != vcClock[ind])
+				return false;
 		}
-		return itIsEqual;
+		return true;
 	}
 
 	public boolean isLessThanOrEqual(VectorClock vc) {
-		if (this.clock.size() <= vc.getDim()) 
+		if (this.dim <= vc.getDim()) 
 			adjustSize(vc.getDim()-1);
-		boolean itIsLessThanOrEqual = true;
-		ArrayList<Integer> vcClock = vc.getClock();
+		int[] vcClock = vc.clock;
 		for (int ind = 0; ind < vc.getDim(); ind++) {
-			int thisVal = this.clock.get(ind);
-			int vcVal = vcClock.get(ind);
-			if (!(thisVal <= vcVal)) {
-				itIsLessThanOrEqual = false;
-				break;
-			}
+			if (!(this.clock[ind] <= vcClock[ind]))
+				return false;
 		}
-		return itIsLessThanOrEqual;
+		return true;
 	}
 	
 	public boolean isGreaterThanOrEqual(VectorClock vc) {
-		if (this.clock.size() <= vc.getDim())
+		if (this.dim <= vc.getDim())
 			adjustSize(vc.getDim()-1);
-		boolean itIsGreaterThanOrEqual = true;
-		ArrayList<Integer> vcClock = vc.getClock();
+		int[] vcClock = vc.clock;
 		for (int ind = 0; ind < vc.getDim(); ind++) {
-			int thisVal = this.clock.get(ind);
-			int vcVal = vcClock.get(ind);
-			if (!(thisVal >= vcVal)) {
-				itIsGreaterThanOrEqual = false;
-				break;
-			}
+			if (!(this.clock[ind] >= vcClock[ind]))
+				return false;
 		}
-		return itIsGreaterThanOrEqual;
+		return true;
 	}
 
 	public void setToZero() {
-		for (int ind = 0; ind < this.dim; ind++)
-			this.clock.set(ind, 0);
+		Arrays.fill(this.clock, 0, this.dim, 0);
 	}
 
 	public void copyFrom(VectorClock vc) {
-		if (this.clock.size() <= vc.getDim()) 
+		if (this.dim <= vc.getDim()) 
 			adjustSize(vc.getDim()-1);
-		for (int ind = 0; ind < vc.getDim(); ind++) 
-			this.clock.set(ind, vc.clock.get(ind)); 
+		System.arraycopy(vc.clock, 0, this.clock, 0, vc.getDim());
 	}
 
 	public void updateMax(VectorClock vc) {
-		if (this.clock.size() <= vc.getDim()) 
+		if (this.dim <= vc.getDim()) 
 			this.adjustSize(vc.getDim()-1);
+		int[] thisClock = this.clock;
+		int[] vcClock = vc.clock;
 		for (int ind = 0; ind < vc.getDim(); ind++) {
-			int this_c = this.clock.get(ind);
-			int vc_c = vc.clock.get(ind); 
-			int max_c = this_c > vc_c ? this_c : vc_c;
-			this.clock.set(ind, max_c);
-		}
-	}
-
-	private void updateMax2(VectorClock vc) {
-		if (this.clock.size() <= vc.getDim())
-			adjustSize(vc.getDim()-1);
-		for (int ind = 0; ind < vc.getDim(); ind++) {
-			int this_c = this.clock.get(ind);
-			int vc_c = vc.clock.get(ind);
-			int max_c = this_c > vc_c ? this_c : vc_c;
-			this.clock.set(ind, max_c);
+			if (vcClock[ind] > thisClock[ind])
+				thisClock[ind] = vcClock[ind];
 		}
 	}
 
 	// The following function update this as : this := \lambda t . if t == tIndex
 	// then this[tIndex] else max(this[t], vc[t])
 	public void updateMax2WithoutLocal(VectorClock vc, int tIndex) {
-		if (this.clock.size() <= vc.getDim())
+		if (this.dim <= vc.getDim())
 			adjustSize(vc.getDim()-1);
-		if ((this.clock.size() < vc.getDim()))
-			throw new IllegalArgumentException("Mismatch in this.dim and argument.dim");
 
+		int[] thisClock = this.clock;
+		int[] vcClock = vc.clock;
 		for (int ind = 0; ind < vc.getDim(); ind++) {
-			if (ind != tIndex) {
-				int this_c = this.clock.get(ind);
-				int vc_c = vc.clock.get(ind);
-				int max_c = this_c > vc_c ? this_c : vc_c;
-				this.clock.set(ind, max_c);
-			}
+			if (ind != tIndex && vcClock[ind] > thisClock[ind])
+				thisClock[ind] = vcClock[ind];
 		}
 	}
 
@@ -153,19 +115,18 @@ public class VectorClock implements Comparable<VectorClock> {
 		}
 		this.copyFrom(vcList[0]);
 		for (int i = 1; i < vcList.length; i++) {
-			VectorClock vc = vcList[i];
-			this.updateMax2(vc);
+			this.updateMax(vcList[i]);
 		}
 	}
 
 	private void updateMin2(VectorClock vc) {
-		if (this.clock.size() <= vc.getDim()) 
+		if (this.dim <= vc.getDim()) 
 			adjustSize(vc.getDim()-1);
+		int[] thisClock = this.clock;
+		int[] vcClock = vc.clock;
 		for (int ind = 0; ind < vc.getDim(); ind++) {
-			int this_c = this.clock.get(ind);
-			int vc_c = vc.clock.get(ind);
-			int min_c = this_c < vc_c ? this_c : vc_c;
-			this.clock.set(ind, min_c); 		
+			if (vcClock[ind] < thisClock[ind])
+				thisClock[ind] = vcClock[ind];
 		}
 	}
 
@@ -176,32 +137,34 @@ public class VectorClock implements Comparable<VectorClock> {
 		}
 		this.copyFrom(vcList[0]);
 		for (int i = 1; i < vcList.length; i++) {
-			VectorClock vc = vcList[i];
-			this.updateMin2(vc);
+			this.updateMin2(vcList[i]);
 		}
 	}
 
 	public int getClockIndex(int tIndex) {
-		if (tIndex >= this.clock.size())
+		if (tIndex >= this.dim)
 			return 0;
 		else
-			return this.clock.get(tIndex);
+			return this.clock[tIndex];
 	}
 
 	public void setClockIndex(int tIndex, int tValue) {
 		adjustSize(tIndex);
-		this.clock.set(tIndex, tValue);
+		this.clock[tIndex] = tValue;
 	}
 
 	public void inc(int tIndex) {
 		adjustSize(tIndex);
-		this.clock.set(tIndex, this.clock.get(tIndex)+1);
+		this.clock[tIndex]++;
 	}
 
+	// grows the clock in place, doubling the array when it is full
 	public void adjustSize(int tIndex) {
-		while (tIndex >= this.clock.size())
-			this.clock.add(0);
-		this.dim = this.clock.size();
+		if (tIndex < this.dim)
+			return;
+		if (tIndex >= this.clock.length)
+			this.clock = Arrays.copyOf(this.clock, Math.max(tIndex + 1, 2 * this.clock.length));
+		this.dim = tIndex + 1;
 	}
 
 	@Override
@@ -214,4 +177,4 @@ public class VectorClock implements Comparable<VectorClock> {
 			return 1;
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,256 @@
+package javato.activetesting.trace;
+
+import javato.activetesting.analysis.Analysis;
+import javato.activetesting.analysis.AnalysisImpl;
+import javato.activetesting.analysis.BoxingAnalysisAdapter;
+import javato.activetesting.analysis.CheckerAnalysisImpl;
+import javato.activetesting.analysis.EventType;
+import javato.activetesting.analysis.PrimitiveAnalysis;
+import javato.activetesting.analysis.PrimitiveAnalysisImpl;
+import javato.activetesting.common.Parameters;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Feeds one stream of trace records to several independent analyses, each
+ * running in its own worker thread.  Records are copied into fixed-size
+ * blocks of primitive columns and handed to a worker through a bounded
+ * queue; the blocks are recycled through a second queue, so the producer is
+ * throttled by the slowest analysis and nothing is allocated per event.
+ * <p/>
+ * Each analysis only gets the event types whose callback it overrides (see
+ * {@link #consumedEvents(Analysis)}): a lock-graph analysis never sees the
+ * reads and writes, which are the bulk of a trace.  Every analysis still
+ * sees its events in trace order, and its finish() runs in its own worker
+ * once the stream has ended.  Each worker reports into the error files
+ * named by {@link TraceReplay#errorFileSuffixes}, so the finish() of one
+ * analysis does not overwrite or interleave with that of another.
+ * <p/>
+ * The analyses must not share state with each other.  Passive analyses
+ * synchronize on their own {@link AnalysisImpl#getAnalysisLock()}, not on
+ * ActiveChecker.lock, so they do not serialize on each other.
+ */
+public class ParallelFanOut {
+    private static final int N_OPS = EventType.WRITE + 1;
+    private static final Block END = new Block(0);
+
+    private final Worker[] workers;
+
+    public ParallelFanOut(int blockSize, int queueBlocks, Analysis... analyses) {
+        workers = new Worker[analyses.length];
+        String[] suffixes = TraceReplay.errorFileSuffixes(analyses);
+        for (int i = 0; i < analyses.length; i++) {
+            workers[i] = new Worker(analyses[i], suffixes[i], blockSize, queueBlocks);
+        }
+        for (Worker w : workers) {
+            w.start();
+        }
+    }
+
+    /**
+     * Hands one trace record to every analysis that consumes its type.
+     */
+    public void event(byte op, int iid, int thread, long target, boolean flag) throws InterruptedException {
+        if (op <= 0 || op >= N_OPS) {
+            throw new IllegalArgumentException("Unexpected event in trace: " + EventType.toString(op));
+        }
+        for (Worker w : workers) {
+            if (w.consumes[op]) {
+                w.add(op, iid, thread, target, flag);
+            }
+        }
+    }
+
+    /**
+     * Flushes the pending blocks, waits until every analysis has processed
+     * its events and run its finish(), and rethrows the first failure of a
+     * worker.
+     */
+    public void finish() throws InterruptedException {
+        for (Worker w : workers) {
+            w.flush();
+            w.full.put(END);
+        }
+        for (Worker w : workers) {
+            w.join();
+        }
+        for (Worker w : workers) {
+            System.out.println("  " + w.getName() + ": " + w.nEvents + " events, busy "
+                    + w.busyNanos / 1e9 + " s");
+        }
+        for (Worker w : workers) {
+            if (w.failure != null) {
+                throw new RuntimeException("Analysis " + w.analysis.getClass().getName() + " failed", w.failure);
+            }
+        }
+    }
+
+    /**
+     * The event types, indexed by op code, whose callback <code>a</code>
+     * overrides.  Callbacks inherited from AnalysisImpl, CheckerAnalysisImpl
+     * or PrimitiveAnalysisImpl do nothing, so those events need not be sent.
+     */
+    public static boolean[] consumedEvents(Analysis a) {
+        boolean[] consumed = new boolean[N_OPS];
+        boolean primitive = a instanceof PrimitiveAnalysis;
+        for (byte op = EventType.LOCK; op < N_OPS; op++) {
+            Class<?>[] types = primitive ? primitiveParameters(op) : boxedParameters(op);
+            try {
+                Method m = a.getClass().getMethod(EventType.toString(op), types);
+                Class<?> c = m.getDeclaringClass();
+                consumed[op] = c != AnalysisImpl.class && c != CheckerAnalysisImpl.class
+                        && c != PrimitiveAnalysisImpl.class;
+            } catch (NoSuchMethodException e) {
+                consumed[op] = true;
+            }
+        }
+        return consumed;
+    }
+
+    private static Class<?>[] boxedParameters(byte op) {
+        switch (op) {
+            case EventType.LOCK:
+                return new Class<?>[]{Integer.class, Integer.class, Integer.class, Object.class};
+            case EventType.METHOD_ENTER:
+            case EventType.METHOD_EXIT:
+                return new Class<?>[]{Integer.class, Integer.class};
+            case EventType.START_AFTER:
+                return new Class<?>[]{Integer.class, Integer.class, Object.class};
+            case EventType.READ:
+            case EventType.WRITE:
+                return new Class<?>[]{Integer.class, Integer.class, Long.class, boolean.class};
+            default:
+                return new Class<?>[]{Integer.class, Integer.class, Integer.class};
+        }
+    }
+
+    private static Class<?>[] primitiveParameters(byte op) {
+        switch (op) {
+            case EventType.LOCK:
+                return new Class<?>[]{int.class, int.class, int.class, Object.class};
+            case EventType.METHOD_ENTER:
+            case EventType.METHOD_EXIT:
+                return new Class<?>[]{int.class, int.class};
+            case EventType.START_AFTER:
+                return new Class<?>[]{int.class, int.class, Object.class};
+            case EventType.READ:
+            case EventType.WRITE:
+                return new Class<?>[]{int.class, int.class, long.class, boolean.class};
+            default:
+                return new Class<?>[]{int.class, int.class, int.class};
+        }
+    }
+
+    private static class Block {
+        final byte[] op;
+        final int[] iid;
+        final int[] thread;
+        final long[] target;
+        final boolean[] flag;
+        int size;
+
+        Block(int capacity) {
+            op = new byte[capacity];
+            iid = new int[capacity];
+            thread = new int[capacity];
+            target = new long[capacity];
+            flag = new boolean[capacity];
+        }
+    }
+
+    private static class Worker extends Thread {
+        final Analysis analysis;
+        final String errorFileSuffix;
+        final PrimitiveAnalysis next;
+        final boolean[] consumes;
+        final ArrayBlockingQueue<Block> full;
+        final ArrayBlockingQueue<Block> free;
+        Block current;
+        long nEvents;
+        long busyNanos;
+        Throwable failure;
+
+        Worker(Analysis analysis, String errorFileSuffix, int blockSize, int queueBlocks) {
+            super("fan-out " + analysis.getClass().getSimpleName());
+            this.analysis = analysis;
+            this.errorFileSuffix = errorFileSuffix;
+            AnalysisImpl.removeShutdownHook(analysis);
+            next = BoxingAnalysisAdapter.toPrimitive(analysis);
+            consumes = consumedEvents(analysis);
+            full = new ArrayBlockingQueue<Block>(queueBlocks + 1);
+            free = new ArrayBlockingQueue<Block>(queueBlocks);
+            for (int i = 0; i < queueBlocks; i++) {
+                free.add(new Block(blockSize));
+            }
+            setDaemon(true);
+        }
+
+        /**
+         * Called by the producer only.
+         */
+        void add(byte op, int iid, int thread, long target, boolean flag) throws InterruptedException {
+            Block b = current;
+            if (b == null) {
+                b = current = free.take();
+            }
+            int k = b.size;
+            b.op[k] = op;
+            b.iid[k] = iid;
+            b.thread[k] = thread;
+            b.target[k] = target;
+            b.flag[k] = flag;
+            b.size = k + 1;
+            if (b.size == b.op.length) {
+                full.put(b);
+                current = null;
+            }
+        }
+
+        void flush() throws InterruptedException {
+            if (current != null) {
+                full.put(current);
+                current = null;
+            }
+        }
+
+        public void run() {
+            Block b;
+            Parameters.setErrorFileSuffix(errorFileSuffix);
+            try {
+                while ((b = full.take()) != END) {
+                    if (failure == null) {
+                        process(b);
+                    }
+                    b.size = 0;
+                    free.put(b);
+                }
+                if (failure == null) {
+                    long start = System.nanoTime();
+                    try {
+                        analysis.finish();
+                    } catch (Throwable t) {
+                        failure = t;
+                    }
+                    busyNanos += System.nanoTime() - start;
+                }
+            } catch (InterruptedException e) {
+                failure = e;
+            }
+        }
+
+        private void process(Block b) {
+            long start = System.nanoTime();
+            try {
+                for (int k = 0; k < b.size; k++) {
+                    TraceReplay.dispatch(next, b.op[k], b.iid[k], b.thread[k], b.target[k], b.flag[k]);
+                }
+            } catch (Throwable t) {
+                // keep draining so that the producer does not block on us
+                failure = t;
+            }
+            busyNanos += System.nanoTime() - start;
+            nEvents += b.size;
+        }
+    }
+}
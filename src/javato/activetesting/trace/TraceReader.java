@@ -0,0 +1,206 @@
+package javato.activetesting.trace;
+
+import javato.activetesting.analysis.EventType;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Reads the per-thread trace files written by {@link TraceWriter} and merges
+ * them back into one stream ordered by global sequence number.
+ * <p/>
+ * Usage:
+ * <pre>
+ *   TraceReader r = new TraceReader(dir);
+ *   while (r.next()) {
+ *       ... r.getOp(), r.getIid(), r.getThread(), r.getTarget() ...
+ *   }
+ *   r.close();
+ * </pre>
+ * The reader itself does not allocate per event.
+ */
+public class TraceReader {
+    public static final String SUFFIX = ".trace";
+    private static final long MAX_MAP = (Integer.MAX_VALUE / TraceWriter.RECORD_SIZE) * (long) TraceWriter.RECORD_SIZE;
+
+    private final List<Cursor> cursors = new ArrayList<Cursor>();
+    private final PriorityQueue<Cursor> queue;
+    private Cursor current;
+    private long nEvents;
+
+    private static class Cursor {
+        final File f;
+        final RandomAccessFile file;
+        final FileChannel channel;
+        final long size;
+        MappedByteBuffer buffer;
+        long mappedFrom;
+        long position;
+        byte op;
+        boolean flag;
+        int iid;
+        int thread;
+        long target;
+        long seq;
+
+        Cursor(File f) throws IOException {
+            this.f = f;
+            file = new RandomAccessFile(f, "r");
+            channel = file.getChannel();
+            size = channel.size();
+            if (size < TraceWriter.HEADER_SIZE) {
+                throw new IOException(f + " is not a trace file");
+            }
+            map(0);
+            if (buffer.getInt(0) != TraceWriter.MAGIC || buffer.getInt(4) != TraceWriter.VERSION
+                    || buffer.getInt(8) != TraceWriter.RECORD_SIZE) {
+                throw new IOException(f + " is not a version " + TraceWriter.VERSION + " trace file");
+            }
+            position = TraceWriter.HEADER_SIZE;
+        }
+
+        private void map(long from) throws IOException {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(MAX_MAP, size - from));
+            mappedFrom = from;
+        }
+
+        /**
+         * Loads the record at the current position; returns false at the end.
+         */
+        boolean load() throws IOException {
+            if (position + TraceWriter.RECORD_SIZE > size) {
+                return false;
+            }
+            if (position + TraceWriter.RECORD_SIZE > mappedFrom + buffer.capacity()) {
+                map(position);
+            }
+            int p = (int) (position - mappedFrom);
+            op = buffer.get(p);
+            if (op == 0) {
+                return false;
+            }
+            flag = buffer.get(p + 1) != 0;
+            iid = buffer.getInt(p + 4);
+            thread = buffer.getInt(p + 8);
+            target = buffer.getLong(p + 16);
+            seq = buffer.getLong(p + 24);
+            position += TraceWriter.RECORD_SIZE;
+            return true;
+        }
+
+        void close() throws IOException {
+            channel.close();
+            file.close();
+        }
+    }
+
+    public TraceReader(File dir) throws IOException {
+        this(listTraceFiles(dir));
+    }
+
+    public TraceReader(File[] files) throws IOException {
+        queue = new PriorityQueue<Cursor>(Math.max(1, files.length), new Comparator<Cursor>() {
+            public int compare(Cursor c1, Cursor c2) {
+                return c1.seq < c2.seq ? -1 : (c1.seq == c2.seq ? 0 : 1);
+            }
+        });
+        for (File f : files) {
+            Cursor c = new Cursor(f);
+            cursors.add(c);
+            if (c.load()) {
+                queue.add(c);
+            }
+        }
+    }
+
+    public static File[] listTraceFiles(File dir) throws IOException {
+        File[] files = dir.listFiles(new FilenameFilter() {
+            public boolean accept(File d, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        if (files == null) {
+            throw new IOException("Cannot read trace directory " + dir);
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * Advances to the next event in global order.  Returns false once all
+     * per-thread traces are exhausted.
+     */
+    public boolean next() throws IOException {
+        if (current != null && current.load()) {
+            queue.add(current);
+        }
+        current = queue.poll();
+        if (current == null) {
+            return false;
+        }
+        nEvents++;
+        return true;
+    }
+
+    public byte getOp() {
+        return current.op;
+    }
+
+    public boolean getFlag() {
+        return current.flag;
+    }
+
+    public int getIid() {
+        return current.iid;
+    }
+
+    public int getThread() {
+        return current.thread;
+    }
+
+    public long getTarget() {
+        return current.target;
+    }
+
+    public long getSeq() {
+        return current.seq;
+    }
+
+    /**
+     * Number of events returned by next() so far.
+     */
+    public long getEventCount() {
+        return nEvents;
+    }
+
+    public void close() throws IOException {
+        for (Cursor c : cursors) {
+            c.close();
+        }
+    }
+
+    public String toString() {
+        return getSeq() + ": " + EventType.toString(getOp()) + "(" + getIid() + "," + getThread() + ","
+                + getTarget() + (getFlag() ? ",volatile" : "") + ")";
+    }
+
+    /**
+     * Prints a recorded trace in textual form.
+     */
+    public static void main(String[] args) throws IOException {
+        TraceReader r = new TraceReader(new File(args.length > 0 ? args[0] : "trace"));
+        while (r.next()) {
+            System.out.println(r);
+        }
+        r.close();
+    }
+}
@@ -0,0 +1,243 @@
+package javato.activetesting.trace;
+
+import javato.activetesting.analysis.Analysis;
+import javato.activetesting.analysis.AnalysisImpl;
+import javato.activetesting.analysis.BatchableAnalysis;
+import javato.activetesting.analysis.BoxingAnalysisAdapter;
+import javato.activetesting.analysis.EventType;
+import javato.activetesting.analysis.PrimitiveAnalysis;
+import javato.activetesting.common.Parameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs one or more analyses over a trace recorded by TraceRecorderAnalysis,
+ * without re-executing the instrumented program.  All analyses are fed in a
+ * single pass over the trace, each through its usual callbacks, and are
+ * finished once the trace is exhausted.
+ * <p/>
+ * With javato.replay.parallel (the default) every analysis runs in its own
+ * thread behind a {@link ParallelFanOut}, so independent analyses use
+ * separate cores; otherwise they are called one after the other from the
+ * reading thread.
+ * <p/>
+ * Run from the work directory (so that iidToLine.map and the error files
+ * resolve as in an online run):
+ * <pre>
+ *   java -Djavato.trace.dir=trace javato.activetesting.trace.TraceReplay
+ *        javato.activetesting.IGoodlockAnalysis javato.activetesting.HybridAnalysis
+ * </pre>
+ * The actual lock objects and started Thread objects are not part of a trace
+ * and are passed as null.  Analyses that are not {@link BatchableAnalysis}
+ * may depend on running in the thread that produced the event and are
+ * replayed with a warning.
+ * <p/>
+ * When several analyses are replayed, each reports into error log and list
+ * files of its own, named by appending {@link #errorFileSuffixes} to
+ * javato.activetesting.errorlog.file and errorlist.file (error.log.IGoodlockAnalysis,
+ * error.list.HybridAnalysis, ...).  Rename the one a later active run reads.
+ */
+public class TraceReplay {
+    private final Analysis[] analyses;
+    private final PrimitiveAnalysis[] targets;
+    private final String[] suffixes;
+    private final ParallelFanOut fanOut;
+
+    public TraceReplay(Analysis... analyses) {
+        this(Parameters.replayParallel, analyses);
+    }
+
+    /**
+     * Analyses that open their error files in initialize() must have been
+     * constructed with their suffix set, as {@link #main} does.
+     */
+    public TraceReplay(boolean parallel, Analysis... analyses) {
+        this.analyses = analyses;
+        suffixes = errorFileSuffixes(analyses);
+        if (parallel) {
+            fanOut = new ParallelFanOut(Parameters.replayBlockSize, Parameters.replayQueueBlocks, analyses);
+            targets = null;
+            return;
+        }
+        fanOut = null;
+        targets = new PrimitiveAnalysis[analyses.length];
+        for (int i = 0; i < analyses.length; i++) {
+            AnalysisImpl.removeShutdownHook(analyses[i]);
+            targets[i] = BoxingAnalysisAdapter.toPrimitive(analyses[i]);
+        }
+    }
+
+    /**
+     * Delivers every event of the trace to every analysis, in trace order.
+     * Returns the number of events replayed.
+     */
+    public long replay(TraceReader r) throws IOException, InterruptedException {
+        long n = 0;
+        while (r.next()) {
+            byte op = r.getOp();
+            int iid = r.getIid();
+            int thread = r.getThread();
+            long target = r.getTarget();
+            boolean flag = r.getFlag();
+            if (fanOut != null) {
+                fanOut.event(op, iid, thread, target, flag);
+            } else if (targets.length == 1) {
+                dispatch(targets[0], op, iid, thread, target, flag);
+            } else {
+                for (int i = 0; i < targets.length; i++) {
+                    Parameters.setErrorFileSuffix(suffixes[i]);
+                    dispatch(targets[i], op, iid, thread, target, flag);
+                }
+                Parameters.setErrorFileSuffix("");
+            }
+            n++;
+        }
+        return n;
+    }
+
+    public void finish() throws InterruptedException {
+        if (fanOut != null) {
+            fanOut.finish();
+            return;
+        }
+        for (int i = 0; i < analyses.length; i++) {
+            Parameters.setErrorFileSuffix(suffixes[i]);
+            analyses[i].finish();
+        }
+        Parameters.setErrorFileSuffix("");
+    }
+
+    /**
+     * The suffixes of the error files of analyses replayed together: none
+     * for a single analysis, otherwise "." and the simple name of its class,
+     * numbered if the class repeats.
+     */
+    public static String[] errorFileSuffixes(Class<?>... classes) {
+        String[] ret = new String[classes.length];
+        if (classes.length == 1) {
+            ret[0] = "";
+            return ret;
+        }
+        Map<String, Integer> seen = new HashMap<String, Integer>();
+        for (Class<?> c : classes) {
+            Integer n = seen.get(c.getSimpleName());
+            seen.put(c.getSimpleName(), n == null ? 1 : n + 1);
+        }
+        Map<String, Integer> next = new HashMap<String, Integer>();
+        for (int i = 0; i < classes.length; i++) {
+            String name = classes[i].getSimpleName();
+            ret[i] = "." + name;
+            if (seen.get(name) > 1) {
+                Integer k = next.get(name);
+                k = k == null ? 1 : k + 1;
+                next.put(name, k);
+                ret[i] += "." + k;
+            }
+        }
+        return ret;
+    }
+
+    public static String[] errorFileSuffixes(Analysis... analyses) {
+        Class<?>[] classes = new Class<?>[analyses.length];
+        for (int i = 0; i < analyses.length; i++) {
+            classes[i] = analyses[i].getClass();
+        }
+        return errorFileSuffixes(classes);
+    }
+
+    /**
+     * Calls the callback of <code>a</code> that corresponds to one trace record.
+     */
+    public static void dispatch(PrimitiveAnalysis a, byte op, int iid, int thread, long target, boolean flag) {
+        switch (op) {
+            case EventType.LOCK:
+                a.lockBefore(iid, thread, (int) target, null);
+                break;
+            case EventType.UNLOCK:
+                a.unlockAfter(iid, thread, (int) target);
+                break;
+            case EventType.NEW:
+                a.newExprAfter(iid, thread, (int) target);
+                break;
+            case EventType.METHOD_ENTER:
+                a.methodEnterBefore(iid, thread);
+                break;
+            case EventType.METHOD_EXIT:
+                a.methodExitAfter(iid, thread);
+                break;
+            case EventType.START_BEFORE:
+                a.startBefore(iid, thread, (int) target);
+                break;
+            case EventType.START_AFTER:
+                a.startAfter(iid, thread, null);
+                break;
+            case EventType.WAIT_BEFORE:
+                a.waitBefore(iid, thread, (int) target);
+                break;
+            case EventType.WAIT_AFTER:
+                a.waitAfter(iid, thread, (int) target);
+                break;
+            case EventType.NOTIFY:
+                a.notifyBefore(iid, thread, (int) target);
+                break;
+            case EventType.NOTIFY_ALL:
+                a.notifyAllBefore(iid, thread, (int) target);
+                break;
+            case EventType.JOIN:
+                a.joinAfter(iid, thread, (int) target);
+                break;
+            case EventType.READ:
+                a.readBefore(iid, thread, target, flag);
+                break;
+            case EventType.WRITE:
+                a.writeBefore(iid, thread, target, flag);
+                break;
+            default:
+                throw new IllegalArgumentException("Unexpected event in trace: " + EventType.toString(op));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: TraceReplay <analysis class>...");
+            System.exit(1);
+        }
+        Class<?>[] classes = new Class<?>[args.length];
+        for (int i = 0; i < args.length; i++) {
+            classes[i] = Class.forName(args[i]);
+        }
+        String[] suffixes = errorFileSuffixes(classes);
+        Analysis[] analyses = new Analysis[args.length];
+        for (int i = 0; i < args.length; i++) {
+            Parameters.setErrorFileSuffix(suffixes[i]);
+            analyses[i] = (Analysis) classes[i].getDeclaredConstructor().newInstance();
+            if (!(analyses[i] instanceof BatchableAnalysis)) {
+                System.err.println("Warning: " + args[i] + " may depend on running in the thread of the event");
+            }
+            if (args.length > 1) {
+                System.out.println(args[i] + " reports into " + Parameters.errorLogFile() + " and "
+                        + Parameters.errorListFile());
+            }
+        }
+        Parameters.setErrorFileSuffix("");
+        TraceReplay replay = new TraceReplay(analyses);
+        TraceReader reader = new TraceReader(new File(Parameters.traceDir));
+
+        long start = System.nanoTime();
+        long n = replay.replay(reader);
+        long replayed = System.nanoTime();
+        reader.close();
+        replay.finish();
+        long finished = System.nanoTime();
+
+        double seconds = (replayed - start) / 1e9;
+        System.out.println("Replayed " + n + " events into " + args.length + " analyses in " + seconds + " s ("
+                + (long) (n / Math.max(seconds, 1e-9)) + " events/s), finish() took "
+                + (finished - replayed) / 1e9 + " s");
+        // some analyses start helper threads that would keep the JVM alive
+        System.exit(0);
+    }
+}
@@ -0,0 +1,86 @@
+package javato.activetesting.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends fixed-width binary event records to a memory-mapped file.  A writer
+ * belongs to a single thread, which is the only one to write to it; other
+ * threads may read the count and flush, which hold the writer's lock.
+ * <p/>
+ * File layout: a {@link #HEADER_SIZE} byte header (magic, version, record
+ * size) followed by {@link #RECORD_SIZE} byte records
+ * <pre>
+ *   offset  0  byte  op (EventType, 0 marks the end of the trace)
+ *   offset  1  byte  flag (1 for volatile accesses)
+ *   offset  4  int   iid
+ *   offset  8  int   thread
+ *   offset 16  long  target (lock, memory, child or object id)
+ *   offset 24  long  global sequence number
+ * </pre>
+ * The file is mapped in chunks and grows one chunk at a time; the unused tail
+ * of the last chunk is zero, which the reader takes as end of trace.
+ */
+public class TraceWriter {
+    public static final int MAGIC = 0x43465452; // "CFTR"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_SIZE = 32;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long chunkBytes;
+    private MappedByteBuffer buffer;
+    private long mappedUpTo;
+    private volatile long count;
+
+    public TraceWriter(File f, int chunkRecords) throws IOException {
+        file = new RandomAccessFile(f, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+        chunkBytes = (long) chunkRecords * RECORD_SIZE;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + chunkBytes);
+        mappedUpTo = HEADER_SIZE + chunkBytes;
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(RECORD_SIZE);
+        buffer.putInt(0);
+    }
+
+    public synchronized void write(byte op, boolean flag, int iid, int thread, long target, long seq) throws IOException {
+        if (buffer.remaining() < RECORD_SIZE) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, mappedUpTo, chunkBytes);
+            mappedUpTo += chunkBytes;
+        }
+        int p = buffer.position();
+        buffer.put(p + 1, flag ? (byte) 1 : (byte) 0);
+        buffer.putInt(p + 4, iid);
+        buffer.putInt(p + 8, thread);
+        buffer.putLong(p + 16, target);
+        buffer.putLong(p + 24, seq);
+        // the op is written last so that a record with a non-zero op is complete
+        buffer.put(p, op);
+        buffer.position(p + RECORD_SIZE);
+        count++;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Forces the records written so far to disk.  The writer stays usable.
+     */
+    public synchronized void flush() {
+        buffer.force();
+    }
+
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+        file.close();
+    }
+}
@@ -0,0 +1,145 @@
+package javato.activetesting.trial;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One execution of the instrumented program inside a {@link TrialRunner},
+ * represented by the thread group all of its threads run in.
+ * <p/>
+ * The trial's classes, javato's included, are loaded afresh for every
+ * trial, except for this package, which all trials share with the runner.
+ * Code that would act on the whole JVM goes through here instead: shutdown
+ * hooks registered from a trial's thread run when the trial ends, and an
+ * exit or halt from one (see TrialRunner) ends the trial rather than the
+ * JVM.  Outside a TrialRunner every call acts on the JVM as usual.
+ */
+public class Trial extends ThreadGroup {
+    // values that are expensive to compute and the same for every trial, by key
+    private static final Map<String, Object> shared = new ConcurrentHashMap<String, Object>();
+
+    private final List<Thread> hooks = new ArrayList<Thread>();
+    private final CountDownLatch ended = new CountDownLatch(1);
+    private volatile int status;
+    private volatile boolean halted;
+
+    /**
+     * Thrown in the thread that ends a trial, to unwind it.
+     */
+    public static class Ended extends Error {
+        private static final long serialVersionUID = 1L;
+
+        Ended(int status) {
+            super("trial ended with status " + status);
+        }
+    }
+
+    Trial(String name) {
+        super(name);
+    }
+
+    /**
+     * The trial the current thread belongs to, or null.
+     */
+    public static Trial current() {
+        for (ThreadGroup g = Thread.currentThread().getThreadGroup(); g != null; g = g.getParent()) {
+            if (g instanceof Trial) {
+                return (Trial) g;
+            }
+        }
+        return null;
+    }
+
+    public static void addShutdownHook(Thread hook) {
+        Trial t = current();
+        if (t == null) {
+            Runtime.getRuntime().addShutdownHook(hook);
+        } else {
+            synchronized (t.hooks) {
+                t.hooks.add(hook);
+            }
+        }
+    }
+
+    public static void removeShutdownHook(Thread hook) {
+        Trial t = current();
+        if (t == null) {
+            Runtime.getRuntime().removeShutdownHook(hook);
+        } else {
+            synchronized (t.hooks) {
+                t.hooks.remove(hook);
+            }
+        }
+    }
+
+    /**
+     * The value stored under <code>key</code> by an earlier trial, or null.
+     * It must be of a class that is not loaded per trial, such as a JDK
+     * collection of strings.
+     */
+    public static Object getShared(String key) {
+        return shared.get(key);
+    }
+
+    public static void putShared(String key, Object value) {
+        shared.put(key, value);
+    }
+
+    /**
+     * Ends the trial with <code>status</code>, if it has not ended yet; a
+     * halted trial does not run its shutdown hooks.
+     */
+    void end(int status, boolean halted) {
+        synchronized (ended) {
+            if (ended.getCount() > 0) {
+                this.status = status;
+                this.halted = halted;
+                ended.countDown();
+            }
+        }
+    }
+
+    boolean hasEnded() {
+        return ended.getCount() == 0;
+    }
+
+    boolean awaitEnd(long millis) throws InterruptedException {
+        return ended.await(millis, TimeUnit.MILLISECONDS);
+    }
+
+    int getStatus() {
+        return status;
+    }
+
+    boolean isHalted() {
+        return halted;
+    }
+
+    /**
+     * Runs the shutdown hooks as the JVM would, all at once, and waits for
+     * them.
+     */
+    void runHooks() throws InterruptedException {
+        List<Thread> toRun;
+        synchronized (hooks) {
+            toRun = new ArrayList<Thread>(hooks);
+            hooks.clear();
+        }
+        for (Thread hook : toRun) {
+            hook.start();
+        }
+        for (Thread hook : toRun) {
+            hook.join();
+        }
+    }
+
+    public void uncaughtException(Thread t, Throwable e) {
+        if (!(e instanceof Ended)) {
+            super.uncaughtException(t, e);
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package javato.activetesting.trial;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.Permission;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs the instrumented program several times in one JVM, as the
+ * active-loop target does with one JVM per run.  Every run is a
+ * {@link Trial}: the program and javato are loaded in a fresh class loader,
+ * so each run starts from fresh static state (the analysis, the
+ * ObserverForActiveTesting and ActiveChecker state, the program's own),
+ * and its threads run in the trial's thread group.  The class files are
+ * read once and the iid to line map is deserialized once for all runs.
+ * <p/>
+ * A run ends when its last non-daemon thread does, or when one of its
+ * threads calls System.exit or Runtime.halt; the analysis then finishes as
+ * at JVM shutdown, unless it halted.  The remaining threads of the run are
+ * interrupted and abandoned.
+ * <p/>
+ * An exit or halt unwinds its thread with a {@link Trial.Ended}, which a
+ * program that catches Throwable can swallow and go on.  A run whose
+ * threads still run or sleep a second after it ended fails with status 1.
+ * Threads that stay blocked, as in a deadlock, are abandoned with their
+ * class loader and keep it alive; after javato.trial.max.abandoned (8)
+ * runs that left threads behind, the runner stops with an error, and
+ * active-loop, with one JVM per run, has to be used instead.
+ * <p/>
+ * Run from the work directory with the classpath of analysis-once:
+ * <pre>
+ *   java -Djavato.activetesting.analysis.class=javato.activetesting.DeadlockFuzzerAnalysis
+ *        -Djavato.activetesting.trialnum.list=1,2,3 -Djavato.activetesting.errorlist=1,2
+ *        javato.activetesting.trial.TrialRunner &lt;main class&gt; &lt;args&gt;...
+ * </pre>
+ * Every trial number runs once per id in javato.activetesting.errorlist, with
+ * javato.activetesting.errorid set to it, or once if the list is not set.
+ * The analyses report into the error files as they do when forked; the
+ * time of each run is appended to error.time.  Classes on the boot class
+ * path (tmpbootclasses) are shared by all runs and not supported.
+ */
+public class TrialRunner {
+    private static final String TRIAL_PACKAGE = TrialRunner.class.getPackage().getName() + ".";
+    // how often a run is checked for live threads, and how long its
+    // threads get to stop once it has ended, in ms
+    private static final long POLL = 20;
+    private static final long GRACE = 1000;
+    private static final int MAX_ABANDONED = Integer.getInteger("javato.trial.max.abandoned", 8);
+
+    private final URL[] classPath;
+    private final String mainClass;
+    private final String[] args;
+    private final Map<String, byte[]> classFiles = new ConcurrentHashMap<String, byte[]>();
+    // the runs that left threads behind
+    private int abandoned;
+
+    public TrialRunner(URL[] classPath, String mainClass, String[] args) {
+        this.classPath = classPath;
+        this.mainClass = mainClass;
+        this.args = args;
+    }
+
+    /**
+     * Loads everything but the JDK and this package itself, reading each
+     * class file only for the first run.
+     */
+    private class TrialClassLoader extends URLClassLoader {
+        TrialClassLoader() {
+            super(classPath, TrialRunner.class.getClassLoader());
+        }
+
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.startsWith("java.") || name.startsWith(TRIAL_PACKAGE)) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> c = findLoadedClass(name);
+                if (c == null) {
+                    try {
+                        c = findClass(name);
+                    } catch (ClassNotFoundException e) {
+                        return super.loadClass(name, resolve);
+                    }
+                }
+                if (resolve) {
+                    resolveClass(c);
+                }
+                return c;
+            }
+        }
+
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] b = classFiles.get(name);
+            if (b == null) {
+                URL url = findResource(name.replace('.', '/') + ".class");
+                if (url == null) {
+                    throw new ClassNotFoundException(name);
+                }
+                try {
+                    b = read(url);
+                } catch (IOException e) {
+                    throw new ClassNotFoundException(name, e);
+                }
+                classFiles.put(name, b);
+            }
+            return defineClass(name, b, 0, b.length);
+        }
+    }
+
+    private static byte[] read(URL url) throws IOException {
+        InputStream in = url.openStream();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Turns an exit or a halt from a trial's thread into the end of the
+     * trial.  Nothing else is checked.
+     */
+    private static class ExitTrap extends SecurityManager {
+        public void checkPermission(Permission perm) {
+        }
+
+        public void checkPermission(Permission perm, Object context) {
+        }
+
+        public void checkExit(int status) {
+            Trial t = Trial.current();
+            if (t != null) {
+                t.end(status, isHalt());
+                throw new Trial.Ended(status);
+            }
+        }
+
+        private static boolean isHalt() {
+            for (StackTraceElement e : new Throwable().getStackTrace()) {
+                if (e.getClassName().equals("java.lang.Runtime") && e.getMethodName().equals("halt")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Installs the ExitTrap.  From JDK 18 on a security manager can only be
+     * installed if the JVM runs with -Djava.security.manager=allow, as
+     * active-loop-inprocess starts it.
+     */
+    static void trapExits() {
+        if (System.getSecurityManager() instanceof ExitTrap) {
+            return;
+        }
+        try {
+            System.setSecurityManager(new ExitTrap());
+        } catch (UnsupportedOperationException e) {
+            System.err.println("TrialRunner needs a security manager to trap exits; "
+                    + "run it with -Djava.security.manager=allow");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the program once in a fresh class loader.
+     *
+     * @return the status the run would have exited the JVM with
+     */
+    public int run(String name) throws InterruptedException {
+        final Trial trial = new Trial(name);
+        final ClassLoader loader = new TrialClassLoader();
+        Thread main = new Thread(trial, new Runnable() {
+            public void run() {
+                try {
+                    Method m = Class.forName(mainClass, true, loader).getMethod("main", String[].class);
+                    m.invoke(null, (Object) args);
+                } catch (InvocationTargetException e) {
+                    if (!(e.getCause() instanceof Trial.Ended)) {
+                        System.err.print("Exception in thread \"main\" ");
+                        e.getCause().printStackTrace();
+                        trial.end(1, false);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    trial.end(1, false);
+                }
+            }
+        }, "main");
+        main.setContextClassLoader(loader);
+        main.start();
+        while (!trial.awaitEnd(POLL)) {
+            if (!hasLiveThreads(trial)) {
+                trial.end(0, false);
+            }
+        }
+        if (!trial.isHalted()) {
+            trial.runHooks();
+        }
+        trial.interrupt();
+        long deadline = System.currentTimeMillis() + GRACE;
+        for (Thread t : threadsOf(trial)) {
+            long left = deadline - System.currentTimeMillis();
+            if (left > 0) {
+                t.join(left);
+            }
+        }
+        Thread[] left = threadsOf(trial);
+        if (left.length == 0) {
+            return trial.getStatus();
+        }
+        abandoned++;
+        List<String> running = new ArrayList<String>();
+        for (Thread t : left) {
+            Thread.State s = t.getState();
+            if (s == Thread.State.RUNNABLE || s == Thread.State.TIMED_WAITING) {
+                running.add(t.getName());
+            }
+        }
+        if (!running.isEmpty()) {
+            System.err.println("Trial " + name + " kept running after it ended, in threads " + running);
+            return 1;
+        }
+        return trial.getStatus();
+    }
+
+    public int getAbandoned() {
+        return abandoned;
+    }
+
+    private static Thread[] threadsOf(ThreadGroup g) {
+        Thread[] ts = new Thread[g.activeCount() + 16];
+        return Arrays.copyOf(ts, g.enumerate(ts));
+    }
+
+    private static boolean hasLiveThreads(Trial trial) {
+        for (Thread t : threadsOf(trial)) {
+            if (t.isAlive() && !t.isDaemon()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static URL[] parseClassPath(String path) {
+        List<URL> urls = new ArrayList<URL>();
+        for (String entry : path.split(File.pathSeparator)) {
+            if (entry.length() > 0) {
+                try {
+                    urls.add(new File(entry).toURI().toURL());
+                } catch (MalformedURLException e) {
+                    System.err.println("Bad class path entry " + entry);
+                    System.exit(1);
+                }
+            }
+        }
+        return urls.toArray(new URL[urls.size()]);
+    }
+
+    private static List<String> parseList(String list) {
+        List<String> ret = new ArrayList<String>();
+        if (list != null) {
+            for (String s : list.split(",")) {
+                if (s.trim().length() > 0) {
+                    ret.add(s.trim());
+                }
+            }
+        }
+        return ret;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: TrialRunner <main class> <args>...");
+            System.exit(1);
+        }
+        TrialRunner runner = new TrialRunner(parseClassPath(System.getProperty("java.class.path")), args[0],
+                Arrays.copyOfRange(args, 1, args.length));
+        List<String> trials = parseList(System.getProperty("javato.activetesting.trialnum.list", "1"));
+        List<String> errors = parseList(System.getProperty("javato.activetesting.errorlist"));
+        if (errors.isEmpty()) {
+            errors.add(null);
+        }
+        trapExits();
+
+        int n = 0;
+        for (String trialnum : trials) {
+            System.out.println("Iteration: " + trialnum);
+            System.out.println("------------------");
+            for (String errornum : errors) {
+                if (errornum != null) {
+                    System.out.println("Error:Iteration = " + errornum + ":" + trialnum);
+                    System.out.println("------------------");
+                    System.setProperty("javato.activetesting.errorid", errornum);
+                }
+                long start = System.nanoTime();
+                int status = runner.run("trial-" + n++);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.println("Trial " + trialnum + (errornum == null ? "" : " error " + errornum)
+                        + " ended with status " + status + " after " + seconds + " s");
+                if (runner.getAbandoned() > MAX_ABANDONED) {
+                    System.err.println(runner.getAbandoned() + " trials left threads behind, which keep their classes "
+                            + "alive; use active-loop or raise javato.trial.max.abandoned");
+                    System.exit(1);
+                }
+                try {
+                    PrintWriter pw = new PrintWriter(new FileWriter("error.time", true));
+                    pw.println(seconds + " sec");
+                    pw.println();
+                    pw.close();
+                } catch (IOException e) {
+                    System.err.println("Error while writing to error.time");
+                    System.exit(1);
+                }
+            }
+        }
+        // threads of runs that deadlocked would keep the JVM alive
+        System.exit(0);
+    }
+}
@@ -0,0 +1,136 @@
+package javato.activetesting.vc;
+
+import java.util.Arrays;
+
+/**
+ * A vector clock stored as a <code>long[]</code> indexed by the dense thread
+ * indices of a shared {@link ThreadIndex}.  Components beyond the end of the
+ * array are 0.
+ * <p/>
+ * Join ({@link #updateMax}), comparison and {@link #copyFrom} work in place
+ * and only allocate when the clock has to grow because a thread it has not
+ * seen yet appears, so the race trackers can copy and compare clocks on
+ * every access.  Unlike {@link VectorClock}, a copy does not allocate a tree
+ * node and a counter per thread.
+ */
+public class DenseVectorClock {
+    private final ThreadIndex index;
+    private long[] clock;
+
+    public DenseVectorClock(ThreadIndex index) {
+        this.index = index;
+        clock = new long[Math.max(index.size(), 4)];
+    }
+
+    public DenseVectorClock(DenseVectorClock vc) {
+        index = vc.index;
+        clock = vc.clock.clone();
+    }
+
+    public ThreadIndex getIndex() {
+        return index;
+    }
+
+    private void ensureCapacity(int n) {
+        if (n > clock.length) {
+            clock = Arrays.copyOf(clock, Math.max(n, 2 * clock.length));
+        }
+    }
+
+    /**
+     * The component of the thread at dense index <code>i</code>.
+     */
+    public long get(int i) {
+        return i < clock.length ? clock[i] : 0;
+    }
+
+    public long getValue(int thread) {
+        int i = index.peek(thread);
+        return i < 0 ? 0 : get(i);
+    }
+
+    public void inc(int thread) {
+        int i = index.indexOf(thread);
+        ensureCapacity(i + 1);
+        clock[i]++;
+    }
+
+    /**
+     * this = max(this, vc2), component-wise.
+     */
+    public void updateMax(DenseVectorClock vc2) {
+        long[] other = vc2.clock;
+        ensureCapacity(other.length);
+        long[] mine = clock;
+        for (int i = 0; i < other.length; i++) {
+            if (other[i] > mine[i]) {
+                mine[i] = other[i];
+            }
+        }
+    }
+
+    /**
+     * this = vc2, reusing this clock's array when it is large enough.
+     */
+    public void copyFrom(DenseVectorClock vc2) {
+        long[] other = vc2.clock;
+        ensureCapacity(other.length);
+        System.arraycopy(other, 0, clock, 0, other.length);
+        Arrays.fill(clock, other.length, clock.length, 0);
+    }
+
+    public boolean isLessThanOrEqual(DenseVectorClock vc2) {
+        long[] mine = clock;
+        long[] other = vc2.clock;
+        int n = Math.min(mine.length, other.length);
+        for (int i = 0; i < n; i++) {
+            if (mine[i] > other[i]) {
+                return false;
+            }
+        }
+        for (int i = n; i < mine.length; i++) {
+            if (mine[i] > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isEqual(DenseVectorClock vc2) {
+        return isLessThanOrEqual(vc2) && vc2.isLessThanOrEqual(this);
+    }
+
+    /**
+     * Same contract as {@link VectorClock#compareVectorClocks}.
+     *
+     * @return -1 when this <= vc2, 0 when this is not comparable to vc2, 1 when this > vc2
+     */
+    public int compare(DenseVectorClock vc2) {
+        long[] mine = clock;
+        long[] other = vc2.clock;
+        int n = Math.max(mine.length, other.length);
+        boolean less = false;
+        boolean greater = false;
+        for (int i = 0; i < n; i++) {
+            long a = i < mine.length ? mine[i] : 0;
+            long b = i < other.length ? other[i] : 0;
+            if (a < b) {
+                less = true;
+            } else if (a > b) {
+                greater = true;
+            }
+            if (less && greater) {
+                return 0;
+            }
+        }
+        return greater ? 1 : -1;
+    }
+
+    public void print() {
+        for (int i = 0; i < index.size() && i < clock.length; i++) {
+            if (clock[i] != 0) {
+                System.out.println(index.threadAt(i) + " " + clock[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package javato.activetesting.vc;
+
+import java.util.Arrays;
+
+/**
+ * Maps thread ids, which are sparse object ids handed out by Observer, to
+ * dense indices 0, 1, 2, ... in order of first appearance.  All
+ * {@link DenseVectorClock}s of one execution share one index, so that a
+ * clock is a plain <code>long[]</code> indexed by it.
+ * <p/>
+ * Open addressing over primitive arrays, so neither lookup nor insertion
+ * boxes the id.
+ * <p/>
+ * Safe for concurrent use: lookups read an immutable table without
+ * locking, and a new thread, which is rare, is added to a copy of the
+ * table that is then published.
+ */
+public class ThreadIndex {
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    private static final class Table {
+        final int[] keys;
+        final int[] values;
+
+        Table(int n) {
+            keys = new int[n];
+            Arrays.fill(keys, EMPTY);
+            values = new int[n];
+        }
+
+        Table(Table t) {
+            keys = t.keys.clone();
+            values = t.values.clone();
+        }
+    }
+
+    private volatile Table table;
+    private volatile int[] threads;
+    private volatile int size;
+
+    public ThreadIndex() {
+        this(16);
+    }
+
+    public ThreadIndex(int expectedThreads) {
+        int n = 4;
+        while (n < 2 * expectedThreads) {
+            n <<= 1;
+        }
+        table = new Table(n);
+        threads = new int[Math.max(expectedThreads, 4)];
+    }
+
+    private static int slot(int thread, int mask) {
+        int h = thread * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static int find(Table t, int thread) {
+        int[] keys = t.keys;
+        int mask = keys.length - 1;
+        for (int i = slot(thread, mask); ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == thread) {
+                return t.values[i];
+            }
+            if (k == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    private static void insert(Table t, int thread, int index) {
+        int mask = t.keys.length - 1;
+        int i = slot(thread, mask);
+        while (t.keys[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        t.keys[i] = thread;
+        t.values[i] = index;
+    }
+
+    /**
+     * The index of <code>thread</code>, or -1 if it has not been assigned one.
+     */
+    public int peek(int thread) {
+        return find(table, thread);
+    }
+
+    /**
+     * The index of <code>thread</code>; a new thread gets the next free index.
+     */
+    public int indexOf(int thread) {
+        int index = find(table, thread);
+        return index >= 0 ? index : add(thread);
+    }
+
+    private synchronized int add(int thread) {
+        Table t = table;
+        int index = find(t, thread);
+        if (index >= 0) {
+            return index;
+        }
+        index = size;
+        if (2 * (index + 1) > t.keys.length) {
+            Table bigger = new Table(2 * t.keys.length);
+            for (int j = 0; j < t.keys.length; j++) {
+                if (t.keys[j] != EMPTY) {
+                    insert(bigger, t.keys[j], t.values[j]);
+                }
+            }
+            t = bigger;
+        } else {
+            t = new Table(t);
+        }
+        insert(t, thread, index);
+        int[] ts = threads;
+        if (index == ts.length) {
+            ts = Arrays.copyOf(ts, 2 * index);
+        }
+        ts[index] = thread;
+        // publish the thread before its index can be looked up
+        threads = ts;
+        size = index + 1;
+        table = t;
+        return index;
+    }
+
+    /**
+     * The thread id that was assigned <code>index</code>.
+     */
+    public int threadAt(int index) {
+        return threads[index];
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -58,6 +58,20 @@ public class VectorClock implements java.io.Serializable {
         vc = new TreeMap<Integer, LongCounter>();
     }
 
+    /**
+     * A snapshot of <code>dense</code>, e.g. to serialize it.
+     */
+    public VectorClock(DenseVectorClock dense) {
+        this();
+        ThreadIndex index = dense.getIndex();
+        for (int i = 0; i < index.size(); i++) {
+            long val = dense.get(i);
+            if (val != 0) {
+                vc.put(index.threadAt(i), new LongCounter(val));
+            }
+        }
+    }
+
     public long getValue(Integer thread) {
         LongCounter l = vc.get(thread);
         if (l == null) return 0;
@@ -1,7 +1,8 @@
 package javato.activetesting.vc;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Copyright (c) 2007-2008,
@@ -36,46 +37,79 @@ import java.util.Map;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 public class VectorClockTracker {
-    private Map<Integer, VectorClock> threads = new HashMap<Integer, VectorClock>();
-    private Map<Integer, VectorClock> notifyMessages = new HashMap<Integer, VectorClock>();
+    // a thread's clock is only updated by the thread itself, or by its parent
+    // before it starts, so callbacks of different threads need no common
+    // lock; only new clocks and notify messages are published to others
+    private final ThreadIndex index = new ThreadIndex();
+    // indexed by ThreadIndex
+    private volatile DenseVectorClock[] threads = new DenseVectorClock[16];
+    private Map<Integer, DenseVectorClock> notifyMessages = new ConcurrentHashMap<Integer, DenseVectorClock>();
 
     public void startBefore(Integer parent, Integer child) {
-        VectorClock vc = getVectorClock(parent);
-        VectorClock vc2 = new VectorClock(vc);
+        DenseVectorClock vc = getVectorClock(parent);
+        DenseVectorClock vc2 = new DenseVectorClock(vc);
         vc.inc(parent);
-        threads.put(child, vc2);
+        setVectorClock(child, vc2);
         vc2.inc(child);
     }
 
     public void joinAfter(Integer parent, Integer child) {
-        VectorClock vc = getVectorClock(parent);
-        VectorClock vc2 = getVectorClock(child);
+        DenseVectorClock vc = getVectorClock(parent);
+        DenseVectorClock vc2 = getVectorClock(child);
         vc.updateMax(vc2);
         vc.inc(parent);
     }
 
     public void notifyBefore(Integer thread, Integer lock) {
-        VectorClock vc = getVectorClock(thread);
-        notifyMessages.put(lock, new VectorClock(vc));
+        DenseVectorClock vc = getVectorClock(thread);
+        // a fresh copy, as a waiting thread may be reading the old one
+        notifyMessages.put(lock, new DenseVectorClock(vc));
         vc.inc(thread);
     }
 
     public void waitAfter(Integer thread, Integer lock) {
-        VectorClock vc = getVectorClock(thread);
-        VectorClock vc2 = notifyMessages.get(lock);
-        vc.updateMax(vc2);
+        DenseVectorClock vc = getVectorClock(thread);
+        DenseVectorClock vc2 = notifyMessages.get(lock);
+        if (vc2 != null) {
+            vc.updateMax(vc2);
+        }
         vc.inc(thread);
     }
 
     // make sure you make copy of this VC if you want to use in a Map
     // the returned VC changes during an execution
-    public VectorClock getVectorClock(Integer thread) {
-        VectorClock p = threads.get(thread);
+    public DenseVectorClock getVectorClock(int thread) {
+        int i = index.indexOf(thread);
+        DenseVectorClock[] ts = threads;
+        DenseVectorClock p = i < ts.length ? ts[i] : null;
         if (p == null) {
-            p = new VectorClock();
-            threads.put(thread, p);
+            p = newVectorClock(thread);
+        }
+        return p;
+    }
+
+    private synchronized DenseVectorClock newVectorClock(int thread) {
+        int i = index.indexOf(thread);
+        DenseVectorClock[] ts = threads;
+        if (i < ts.length && ts[i] != null) {
+            return ts[i];
         }
+        DenseVectorClock p = new DenseVectorClock(index);
+        setVectorClock(thread, p);
         return p;
     }
 
+    private synchronized void setVectorClock(int thread, DenseVectorClock vc) {
+        int i = index.indexOf(thread);
+        DenseVectorClock[] ts = threads;
+        if (i >= ts.length) {
+            ts = Arrays.copyOf(ts, Math.max(i + 1, 2 * ts.length));
+        }
+        ts[i] = vc;
+        threads = ts;
+    }
+
+    public ThreadIndex getThreadIndex() {
+        return index;
+    }
 }
@@ -0,0 +1,235 @@
+package javato.instrumentor;
+
+import soot.Body;
+import soot.BodyTransformer;
+import soot.Local;
+import soot.SootMethod;
+import soot.Unit;
+import soot.Value;
+import soot.ValueBox;
+import soot.jimple.ArrayRef;
+import soot.jimple.AssignStmt;
+import soot.jimple.CastExpr;
+import soot.jimple.DefinitionStmt;
+import soot.jimple.EnterMonitorStmt;
+import soot.jimple.ExitMonitorStmt;
+import soot.jimple.IfStmt;
+import soot.jimple.InstanceFieldRef;
+import soot.jimple.InstanceOfExpr;
+import soot.jimple.InvokeExpr;
+import soot.jimple.InvokeStmt;
+import soot.jimple.LengthExpr;
+import soot.jimple.NewArrayExpr;
+import soot.jimple.NewExpr;
+import soot.jimple.NewMultiArrayExpr;
+import soot.jimple.SpecialInvokeExpr;
+import soot.jimple.Stmt;
+import soot.jimple.ThisRef;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds, in every method, the locals that only ever hold objects allocated
+ * by the method itself and that never escape it: they are not stored into
+ * the heap, passed to a method, returned or thrown, and their constructor
+ * does not leak <code>this</code> either.  Such an object is only ever seen
+ * by the thread that allocated it, so no access through it can race, and
+ * the statements accessing its fields or elements are given a
+ * {@link ThreadLocalTag} for the instrumentation to skip.
+ * <p/>
+ * The analysis is intraprocedural and flow-insensitive, and runs in jtp
+ * before {@link TransformerForInstrumentation}.  It typically covers the
+ * scratch arrays and temporary objects of numeric kernels; anything it is
+ * not sure about stays instrumented.
+ */
+public class EscapeAnalysis extends BodyTransformer {
+    private static EscapeAnalysis instance = new EscapeAnalysis();
+    // constructor -> whether it keeps this to itself; false while being analyzed
+    private final Map<SootMethod, Boolean> confinedConstructors = new HashMap<SootMethod, Boolean>();
+    private int tagged;
+
+    private EscapeAnalysis() {
+    }
+
+    public static EscapeAnalysis v() {
+        return instance;
+    }
+
+    /**
+     * Forgets what was learned about the classes of the current Scene.
+     */
+    public void reset() {
+        confinedConstructors.clear();
+    }
+
+    /**
+     * The number of accesses tagged so far.
+     */
+    public int getTaggedCount() {
+        return tagged;
+    }
+
+    protected void internalTransform(Body body, String pn, Map map) {
+        SootMethod thisMethod = body.getMethod();
+        String cName = thisMethod.getDeclaringClass().getName();
+
+        if (cName.startsWith("javato.") || thisMethod.isAbstract() || thisMethod.isNative()) {
+            return;
+        }
+
+        Set<Local> confined = confinedLocals(body, null);
+        if (confined.isEmpty()) {
+            return;
+        }
+        for (Iterator it = body.getUnits().iterator(); it.hasNext();) {
+            Stmt s = (Stmt) it.next();
+            Value base = null;
+            if (s.containsFieldRef() && s.getFieldRef() instanceof InstanceFieldRef) {
+                base = ((InstanceFieldRef) s.getFieldRef()).getBase();
+            } else if (s.containsArrayRef()) {
+                base = s.getArrayRef().getBase();
+            }
+            if (base != null && confined.contains(base) && !s.hasTag(ThreadLocalTag.NAME)) {
+                s.addTag(ThreadLocalTag.v());
+                tagged++;
+            }
+        }
+    }
+
+    /**
+     * The locals of <code>body</code> holding only objects allocated in it,
+     * or <code>self</code> (the this of a constructor, or null), that do not
+     * escape it.
+     */
+    Set<Local> confinedLocals(Body body, Local self) {
+        Set<Local> confined = new HashSet<Local>();
+        Set<Local> defined = new HashSet<Local>();
+        for (Iterator it = body.getUnits().iterator(); it.hasNext();) {
+            Unit u = (Unit) it.next();
+            if (u instanceof DefinitionStmt && ((DefinitionStmt) u).getLeftOp() instanceof Local) {
+                defined.add((Local) ((DefinitionStmt) u).getLeftOp());
+            }
+        }
+        confined.addAll(defined);
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Iterator it = body.getUnits().iterator(); it.hasNext();) {
+                Unit u = (Unit) it.next();
+                if (u instanceof DefinitionStmt) {
+                    DefinitionStmt d = (DefinitionStmt) u;
+                    if (confined.contains(d.getLeftOp()) && !isConfinedDef(d, self, confined)) {
+                        confined.remove(d.getLeftOp());
+                        changed = true;
+                    }
+                }
+                for (Iterator uses = u.getUseBoxes().iterator(); uses.hasNext();) {
+                    Value v = ((ValueBox) uses.next()).getValue();
+                    if (confined.contains(v) && !isConfinedUse((Stmt) u, (Local) v, confined)) {
+                        confined.remove(v);
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return confined;
+    }
+
+    private boolean isConfinedDef(DefinitionStmt d, Local self, Set<Local> confined) {
+        Value right = d.getRightOp();
+        if (right instanceof NewExpr || right instanceof NewArrayExpr || right instanceof NewMultiArrayExpr) {
+            return true;
+        }
+        if (right instanceof CastExpr) {
+            right = ((CastExpr) right).getOp();
+        }
+        if (right instanceof Local) {
+            return confined.contains(right);
+        }
+        return right instanceof ThisRef && d.getLeftOp() == self;
+    }
+
+    /**
+     * True iff <code>s</code> uses <code>l</code> without letting its object
+     * escape, given that the locals in <code>confined</code> do not.
+     */
+    private boolean isConfinedUse(Stmt s, Local l, Set<Local> confined) {
+        if (s instanceof EnterMonitorStmt || s instanceof ExitMonitorStmt || s instanceof IfStmt) {
+            return true;
+        }
+        if (s instanceof InvokeStmt) {
+            return isConfinedInvoke(s.getInvokeExpr(), l);
+        }
+        if (!(s instanceof AssignStmt)) {
+            return false;
+        }
+        Value left = ((AssignStmt) s).getLeftOp();
+        Value right = ((AssignStmt) s).getRightOp();
+        if (right instanceof CastExpr) {
+            right = ((CastExpr) right).getOp();
+        }
+        if (right == l) {
+            // a copy to another confined local, anything else is a store
+            return left instanceof Local && confined.contains(left);
+        }
+        if (right instanceof InvokeExpr) {
+            return isConfinedInvoke((InvokeExpr) right, l);
+        }
+        return isBaseOf(left, l) || isBaseOf(right, l)
+                || (right instanceof LengthExpr && ((LengthExpr) right).getOp() == l)
+                || (right instanceof InstanceOfExpr && ((InstanceOfExpr) right).getOp() == l);
+    }
+
+    private static boolean isBaseOf(Value v, Local l) {
+        return (v instanceof InstanceFieldRef && ((InstanceFieldRef) v).getBase() == l)
+                || (v instanceof ArrayRef && ((ArrayRef) v).getBase() == l);
+    }
+
+    private boolean isConfinedInvoke(InvokeExpr ie, Local l) {
+        SootMethod m = ie.getMethod();
+        // calls inserted by an earlier instrumentation only report the object
+        if (m.getDeclaringClass().getName().equals(Visitor.observerClass)) {
+            return true;
+        }
+        if (ie.getArgs().contains(l)) {
+            return false;
+        }
+        return ie instanceof SpecialInvokeExpr && ((SpecialInvokeExpr) ie).getBase() == l
+                && m.getName().equals("<init>") && isConfinedConstructor(m);
+    }
+
+    /**
+     * True iff the constructor <code>m</code>, and those it calls on this,
+     * keep this to themselves.
+     */
+    boolean isConfinedConstructor(SootMethod m) {
+        if (m.getDeclaringClass().getName().equals("java.lang.Object")) {
+            return true;
+        }
+        Boolean known = confinedConstructors.get(m);
+        if (known != null) {
+            return known;
+        }
+        // a constructor calling itself back is not worth proving
+        confinedConstructors.put(m, false);
+        if (!m.isConcrete()) {
+            return false;
+        }
+        Body body;
+        try {
+            body = m.retrieveActiveBody();
+        } catch (RuntimeException e) {
+            // library or phantom class without a body
+            return false;
+        }
+        Local self = body.getThisLocal();
+        boolean ret = confinedLocals(body, self).contains(self);
+        confinedConstructors.put(m, ret);
+        return ret;
+    }
+}
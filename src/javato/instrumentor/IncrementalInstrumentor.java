@@ -0,0 +1,674 @@
+package javato.instrumentor;
+
+import javato.activetesting.common.Parameters;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Instruments the classes of a directory like InstrumentorForActiveTesting
+ * does, but class by class: batches of classes are instrumented by a pool
+ * of InstrumentorWorker JVMs, and the instrumented classes are kept in a
+ * cache, so that a later run only instruments the classes that changed.
+ * <pre>
+ *   IncrementalInstrumentor &lt;class dir&gt; &lt;output dir&gt; &lt;soot options&gt;...
+ * </pre>
+ * A class is taken from the cache when neither it nor the application
+ * classes it names, or their superclasses and interfaces, changed, and the
+ * instrumentation options are the same.  Each class has a range of iids
+ * of its own, reserved from an upper bound computed from its bytecode; a
+ * class keeps its range, and so its iids, for as long as it fits, and
+ * unchanged classes keep theirs.  Field and class names keep their ids in
+ * a symbol table that only grows.  The iid to line map, the used ids and,
+ * with javato.redundant.elimination set, the redundant accesses per class
+ * are written as by InstrumentorForActiveTesting.
+ * <p/>
+ * javato.instr.workers sets the number of workers (the number of
+ * processors by default), javato.instr.worker.memory their heap, and
+ * javato.instr.cache.dir the cache (instrcache in the work directory).
+ */
+public class IncrementalInstrumentor {
+    // properties that change what the instrumentation of a class is
+    private static final String[] CONFIG_PREFIXES = {"javato.ignore.", "javato.track.", "javato.escape.",
+            "javato.redundant."};
+    private static final String[] EXCLUDED = {"javato.", "edu.berkeley.cs.detcheck."};
+    private static final int MAX_ROUNDS = 3;
+
+    /**
+     * What instrumenting a class depends on, read from its bytecode.
+     */
+    static class ClassInfo extends ClassVisitor {
+        String name;
+        String hash;
+        String superName;
+        final List<String> interfaces = new ArrayList<String>();
+        // classes whose fields and methods the code uses or that it allocates
+        final Set<String> referenced = new TreeSet<String>();
+        final Set<String> fieldNames = new TreeSet<String>();
+        // classes whose static fields or static methods the code uses
+        final Set<String> staticOwners = new TreeSet<String>();
+        // at least as many iids as the instrumentation can give the class
+        int bound;
+
+        ClassInfo() {
+            super(Opcodes.ASM9);
+        }
+
+        public void visit(int version, int access, String name, String signature, String superName,
+                          String[] interfaces) {
+            this.name = dotted(name);
+            this.superName = superName == null ? null : dotted(superName);
+            if (interfaces != null) {
+                for (String i : interfaces) {
+                    this.interfaces.add(dotted(i));
+                }
+            }
+        }
+
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature,
+                                         String[] exceptions) {
+            // the parameters and this when tracking locals, and some slack
+            bound += Type.getArgumentTypes(desc).length + 3;
+            return new CodeReader();
+        }
+
+        private class CodeReader extends MethodVisitor {
+            CodeReader() {
+                super(Opcodes.ASM9);
+            }
+
+            public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+                bound++;
+                referenced.add(dotted(owner));
+                fieldNames.add(name);
+                if (opcode == Opcodes.GETSTATIC || opcode == Opcodes.PUTSTATIC) {
+                    staticOwners.add(dotted(owner));
+                }
+            }
+
+            public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+                if (opcode == Opcodes.INVOKESTATIC) {
+                    // method enter and exit, lock and unlock, deterministic block
+                    bound += 5;
+                    staticOwners.add(dotted(owner));
+                } else if (name.equals("<init>")) {
+                    // method enter and exit, write of the new object
+                    bound += 3;
+                } else {
+                    // method enter and exit, lock and unlock, wait/start before and after
+                    bound += 6;
+                }
+                if (!owner.startsWith("[")) {
+                    referenced.add(dotted(owner));
+                }
+            }
+
+            public void visitTypeInsn(int opcode, String type) {
+                if (opcode == Opcodes.NEW) {
+                    bound++;
+                    referenced.add(dotted(type));
+                } else if (opcode == Opcodes.ANEWARRAY) {
+                    bound++;
+                }
+            }
+
+            public void visitInsn(int opcode) {
+                if ((opcode >= Opcodes.IALOAD && opcode <= Opcodes.SALOAD)
+                        || (opcode >= Opcodes.IASTORE && opcode <= Opcodes.SASTORE)
+                        || opcode == Opcodes.MONITORENTER || opcode == Opcodes.MONITOREXIT) {
+                    bound++;
+                }
+            }
+
+            public void visitIntInsn(int opcode, int operand) {
+                if (opcode == Opcodes.NEWARRAY) {
+                    bound++;
+                }
+            }
+
+            public void visitVarInsn(int opcode, int var) {
+                if (opcode >= Opcodes.ISTORE && opcode <= Opcodes.ASTORE) {
+                    bound++;
+                }
+            }
+
+            public void visitIincInsn(int var, int increment) {
+                bound++;
+            }
+
+            public void visitMultiANewArrayInsn(String desc, int dims) {
+                bound++;
+            }
+        }
+    }
+
+    /**
+     * A class in the cache: what it was instrumented from and its iids.
+     */
+    static class Entry {
+        String hash;
+        String deps;
+        int base;
+        int reserve;
+        int count;
+
+        Entry(String hash, String deps, int base, int reserve, int count) {
+            this.hash = hash;
+            this.deps = deps;
+            this.base = base;
+            this.reserve = reserve;
+            this.count = count;
+        }
+    }
+
+    private final File classDir;
+    private final File outputDir;
+    private final File cacheDir;
+    private final List<String> sootOptions;
+    private final String config;
+    private final Map<String, Entry> entries = new TreeMap<String, Entry>();
+    // the first iid no class has ever had
+    private int nextIid = 0;
+    private SymbolTables symbols;
+    // class -> its direct superclass and interfaces, for classes outside classDir
+    private final Map<String, List<String>> librarySupers = new HashMap<String, List<String>>();
+
+    IncrementalInstrumentor(File classDir, File outputDir, File cacheDir, List<String> sootOptions) {
+        this.classDir = classDir;
+        this.outputDir = outputDir;
+        this.cacheDir = cacheDir;
+        this.sootOptions = sootOptions;
+        StringBuilder sb = new StringBuilder();
+        for (String key : new TreeSet<String>(System.getProperties().stringPropertyNames())) {
+            for (String prefix : CONFIG_PREFIXES) {
+                if (key.startsWith(prefix)) {
+                    sb.append(key).append('=').append(System.getProperty(key)).append('\n');
+                }
+            }
+        }
+        for (String option : sootOptions) {
+            sb.append(option).append('\n');
+        }
+        this.config = sha1(sb.toString().getBytes());
+        this.symbols = new SymbolTables();
+    }
+
+    static String dotted(String internalName) {
+        return internalName.replace('/', '.');
+    }
+
+    static String sha1(byte[] bytes) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(bytes)) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static ClassInfo scan(byte[] bytes) {
+        ClassInfo info = new ClassInfo();
+        new ClassReader(bytes).accept(info, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        info.hash = sha1(bytes);
+        return info;
+    }
+
+    private static boolean isExcluded(String name) {
+        for (String prefix : EXCLUDED) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String pathOf(String className) {
+        return className.replace('.', File.separatorChar) + ".class";
+    }
+
+    private void scanAll(File f, Map<String, ClassInfo> app) throws IOException {
+        if (f.isDirectory()) {
+            File[] list = f.listFiles();
+            for (File aList : list) {
+                scanAll(aList, app);
+            }
+        } else if (f.getName().endsWith(".class")) {
+            ClassInfo info = scan(Files.readAllBytes(f.toPath()));
+            if (!isExcluded(info.name)) {
+                app.put(info.name, info);
+            }
+        }
+    }
+
+    /**
+     * A hash of the classes of <code>app</code> instrumenting <code>c</code>
+     * looks at: itself, the classes it names and their supertypes.
+     */
+    static String depsHash(ClassInfo c, Map<String, ClassInfo> app) {
+        Set<String> deps = new TreeSet<String>();
+        LinkedList<String> work = new LinkedList<String>(c.referenced);
+        work.add(c.name);
+        while (!work.isEmpty()) {
+            ClassInfo d = app.get(work.removeFirst());
+            if (d != null && deps.add(d.name)) {
+                if (d.superName != null) {
+                    work.add(d.superName);
+                }
+                work.addAll(d.interfaces);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String d : deps) {
+            sb.append(d).append('=').append(app.get(d).hash).append('\n');
+        }
+        return sha1(sb.toString().getBytes());
+    }
+
+    private List<String> directSupers(String name, Map<String, ClassInfo> app) {
+        ClassInfo info = app.get(name);
+        if (info != null) {
+            List<String> ret = new ArrayList<String>(info.interfaces);
+            if (info.superName != null) {
+                ret.add(info.superName);
+            }
+            return ret;
+        }
+        List<String> ret = librarySupers.get(name);
+        if (ret == null) {
+            ret = new ArrayList<String>();
+            InputStream in = ClassLoader.getSystemResourceAsStream(name.replace('.', '/') + ".class");
+            if (in != null) {
+                try {
+                    ClassReader cr = new ClassReader(in);
+                    for (String i : cr.getInterfaces()) {
+                        ret.add(dotted(i));
+                    }
+                    if (cr.getSuperName() != null) {
+                        ret.add(dotted(cr.getSuperName()));
+                    }
+                    in.close();
+                } catch (IOException e) {
+                    // a class we cannot read has no symbols to add
+                }
+            }
+            librarySupers.put(name, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * The field and class names instrumenting <code>c</code> may ask the
+     * symbol table for: its field names, and the classes that may declare
+     * a static field or static method it uses.
+     */
+    Set<String> symbolsOf(ClassInfo c, Map<String, ClassInfo> app) {
+        Set<String> ret = new TreeSet<String>(c.fieldNames);
+        LinkedList<String> work = new LinkedList<String>(c.staticOwners);
+        while (!work.isEmpty()) {
+            String owner = work.removeFirst();
+            if (ret.add(owner)) {
+                work.addAll(directSupers(owner, app));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Reserves iids for the classes of <code>app</code> that are not in the
+     * cache and returns them; they are in the cache once instrumented.
+     */
+    List<String> plan(Map<String, ClassInfo> app) {
+        List<String> todo = new ArrayList<String>();
+        Map<String, Entry> old = new TreeMap<String, Entry>(entries);
+        entries.clear();
+        for (ClassInfo c : app.values()) {
+            String deps = depsHash(c, app);
+            Entry e = old.get(c.name);
+            if (e != null && e.hash.equals(c.hash) && e.deps.equals(deps)) {
+                entries.put(c.name, e);
+                continue;
+            }
+            if (e == null || e.reserve < c.bound) {
+                e = new Entry(c.hash, deps, nextIid, c.bound, 0);
+                nextIid += c.bound;
+            } else {
+                e = new Entry(c.hash, deps, e.base, e.reserve, 0);
+            }
+            entries.put(c.name, e);
+            todo.add(c.name);
+        }
+        return todo;
+    }
+
+    /**
+     * Records that <code>className</code> was instrumented with
+     * <code>count</code> iids; false if they do not fit in its range, which
+     * is then moved to where they do.
+     */
+    boolean instrumented(String className, int count) {
+        Entry e = entries.get(className);
+        if (count > e.reserve) {
+            e.base = nextIid;
+            e.reserve = count;
+            nextIid += count;
+            return false;
+        }
+        e.count = count;
+        return true;
+    }
+
+    Entry getEntry(String className) {
+        return entries.get(className);
+    }
+
+    /**
+     * Splits <code>todo</code> into at most <code>n</code> batches of about
+     * the same number of iids.
+     */
+    static List<List<String>> partition(List<String> todo, Map<String, ClassInfo> app, int n) {
+        List<String> bySize = new ArrayList<String>(todo);
+        Collections.sort(bySize, (a, b) -> app.get(b).bound - app.get(a).bound);
+        List<List<String>> batches = new ArrayList<List<String>>();
+        long[] sizes = new long[Math.max(1, Math.min(n, todo.size()))];
+        for (int i = 0; i < sizes.length; i++) {
+            batches.add(new ArrayList<String>());
+        }
+        for (String c : bySize) {
+            int min = 0;
+            for (int i = 1; i < sizes.length; i++) {
+                if (sizes[i] < sizes[min]) {
+                    min = i;
+                }
+            }
+            batches.get(min).add(c);
+            sizes[min] += app.get(c).bound + 1;
+        }
+        return batches;
+    }
+
+    private void readIndex() {
+        File index = new File(cacheDir, "index");
+        if (!index.exists()) {
+            return;
+        }
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(index));
+            String line;
+            boolean sameConfig = false;
+            while ((line = in.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (parts[0].equals("next")) {
+                    nextIid = Integer.parseInt(parts[1]);
+                } else if (parts[0].equals("config")) {
+                    sameConfig = parts[1].equals(config);
+                } else if (parts[0].equals("class") && sameConfig
+                        && new File(new File(cacheDir, "classes"), pathOf(parts[1])).exists()
+                        && new File(new File(cacheDir, "iids"), parts[1]).exists()
+                        && (!Parameters.redundantAccessElimination
+                        || new File(new File(cacheDir, "redundant"), parts[1]).exists())) {
+                    entries.put(parts[1], new Entry(parts[2], parts[3], Integer.parseInt(parts[4]),
+                            Integer.parseInt(parts[5]), Integer.parseInt(parts[6])));
+                }
+            }
+            in.close();
+        } catch (IOException e) {
+            System.err.println("Error while reading " + index);
+            System.exit(1);
+        }
+    }
+
+    private void writeIndex() throws IOException {
+        PrintWriter pw = new PrintWriter(new FileWriter(new File(cacheDir, "index")));
+        pw.println("next " + nextIid);
+        pw.println("config " + config);
+        for (Map.Entry<String, Entry> me : entries.entrySet()) {
+            Entry e = me.getValue();
+            pw.println("class " + me.getKey() + " " + e.hash + " " + e.deps + " " + e.base + " " + e.reserve
+                    + " " + e.count);
+        }
+        pw.close();
+    }
+
+    /**
+     * Runs a worker per batch and moves what they instrumented into the
+     * cache; returns the classes to instrument again.
+     */
+    private List<String> runWorkers(List<List<String>> batches) throws IOException, InterruptedException {
+        File work = new File(cacheDir, "work");
+        List<Process> processes = new ArrayList<Process>();
+        for (int i = 0; i < batches.size(); i++) {
+            PrintWriter pw = new PrintWriter(new FileWriter(new File(work, "task" + i)));
+            for (String c : batches.get(i)) {
+                pw.println(c + " " + entries.get(c).base);
+            }
+            pw.close();
+            List<String> cmd = new ArrayList<String>();
+            cmd.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+            cmd.add("-Xmx" + System.getProperty("javato.instr.worker.memory", "2048m"));
+            for (String key : new TreeSet<String>(System.getProperties().stringPropertyNames())) {
+                if (key.startsWith("javato.")) {
+                    cmd.add("-D" + key + "=" + System.getProperty(key));
+                }
+            }
+            cmd.add("-cp");
+            cmd.add(System.getProperty("java.class.path"));
+            cmd.add("javato.activetesting.instrumentor.InstrumentorWorker");
+            cmd.add(new File(work, "task" + i).getPath());
+            cmd.add(new File(cacheDir, "symbols").getPath());
+            cmd.add(new File(work, "report" + i).getPath());
+            cmd.addAll(sootOptions);
+            cmd.add("-d");
+            cmd.add(new File(work, "out" + i).getPath());
+            processes.add(new ProcessBuilder(cmd).inheritIO().start());
+        }
+        for (int i = 0; i < processes.size(); i++) {
+            if (processes.get(i).waitFor() != 0) {
+                System.err.println("Instrumentation worker " + i + " failed");
+                System.exit(1);
+            }
+        }
+
+        List<String> again = new ArrayList<String>();
+        for (int i = 0; i < batches.size(); i++) {
+            Map<String, List<String>> lines = new TreeMap<String, List<String>>();
+            Map<String, String> redundant = new HashMap<String, String>();
+            Set<String> unknown = new TreeSet<String>();
+            BufferedReader in = new BufferedReader(new FileReader(new File(work, "report" + i)));
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (parts[0].equals("class")) {
+                    List<String> l = new ArrayList<String>();
+                    for (int n = Integer.parseInt(parts[2]); n > 0; n--) {
+                        l.add(in.readLine());
+                    }
+                    lines.put(parts[1], l);
+                } else if (parts[0].equals("redundant")) {
+                    redundant.put(parts[1], parts[2]);
+                } else if (parts[0].equals("symbol")) {
+                    unknown.add(line.substring("symbol ".length()));
+                }
+            }
+            in.close();
+            if (!unknown.isEmpty()) {
+                // ids given while the table lacked these names may clash
+                symbols.addAll(unknown);
+                symbols.write(new File(cacheDir, "symbols").getPath());
+                again.addAll(batches.get(i));
+                continue;
+            }
+            for (Map.Entry<String, List<String>> me : lines.entrySet()) {
+                String c = me.getKey();
+                if (!instrumented(c, me.getValue().size())) {
+                    again.add(c);
+                    continue;
+                }
+                File to = new File(new File(cacheDir, "classes"), pathOf(c));
+                to.getParentFile().mkdirs();
+                Files.move(new File(new File(work, "out" + i), pathOf(c)).toPath(), to.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                PrintWriter pw = new PrintWriter(new FileWriter(new File(new File(cacheDir, "iids"), c)));
+                for (String l : me.getValue()) {
+                    pw.println(l);
+                }
+                pw.close();
+                if (redundant.containsKey(c)) {
+                    pw = new PrintWriter(new FileWriter(new File(new File(cacheDir, "redundant"), c)));
+                    pw.println(redundant.get(c));
+                    pw.close();
+                }
+            }
+        }
+        return again;
+    }
+
+    private void writeIidToLine() throws IOException {
+        ArrayList<String> iidToLineMap = new ArrayList<String>(Collections.<String>nCopies(nextIid, null));
+        for (Map.Entry<String, Entry> me : entries.entrySet()) {
+            BufferedReader in = new BufferedReader(new FileReader(new File(new File(cacheDir, "iids"), me.getKey())));
+            for (int i = 0; i < me.getValue().count; i++) {
+                iidToLineMap.set(me.getValue().base + i, in.readLine());
+            }
+            in.close();
+        }
+        ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
+                new FileOutputStream(Parameters.iidToLineMapFile)));
+        out.writeObject(iidToLineMap);
+        out.close();
+        PrintStream out2 = new PrintStream(new BufferedOutputStream(
+                new FileOutputStream(Parameters.iidToLineMapFile + ".html")));
+        out2.println("<html><body>");
+        for (int i = 0; i < iidToLineMap.size(); i++) {
+            if (iidToLineMap.get(i) != null) {
+                out2.println("<a href=\"tmpclasses/" + iidToLineMap.get(i) + "\">" + i + "</a><br>");
+            }
+        }
+        out2.println("</html></body>");
+        out2.close();
+    }
+
+    /**
+     * Writes the redundant accesses the workers found in the classes, from
+     * this run or an earlier one, to Parameters.REDUNDANT_STAT_FILE.
+     */
+    private void writeRedundantStat() throws IOException {
+        PrintWriter pw = new PrintWriter(new FileWriter(Parameters.REDUNDANT_STAT_FILE));
+        for (String c : entries.keySet()) {
+            File f = new File(new File(cacheDir, "redundant"), c);
+            if (!f.exists()) {
+                continue;
+            }
+            BufferedReader in = new BufferedReader(new FileReader(f));
+            int n = Integer.parseInt(in.readLine());
+            in.close();
+            if (n > 0) {
+                pw.println(c + " " + n);
+            }
+        }
+        pw.close();
+        System.out.println("Redundant accesses per class in " + Parameters.REDUNDANT_STAT_FILE);
+    }
+
+    public void run(int nWorkers) throws IOException, InterruptedException {
+        Map<String, ClassInfo> app = new TreeMap<String, ClassInfo>();
+        scanAll(classDir, app);
+        new File(cacheDir, "classes").mkdirs();
+        new File(cacheDir, "iids").mkdirs();
+        new File(cacheDir, "redundant").mkdirs();
+        readIndex();
+        symbols = SymbolTables.read(new File(cacheDir, "symbols").getPath());
+        Set<String> names = new TreeSet<String>();
+        for (ClassInfo c : app.values()) {
+            names.addAll(symbolsOf(c, app));
+        }
+        symbols.addAll(names);
+        symbols.write(new File(cacheDir, "symbols").getPath());
+
+        List<String> todo = plan(app);
+        System.out.println("Instrumenting " + todo.size() + " of " + app.size() + " classes");
+        if (!todo.isEmpty()) {
+            // the index is only valid again once the cache is complete
+            new File(cacheDir, "index").delete();
+            File work = new File(cacheDir, "work");
+            for (int round = 0; !todo.isEmpty(); round++) {
+                if (round == MAX_ROUNDS) {
+                    System.err.println("Instrumentation did not settle after " + MAX_ROUNDS + " rounds");
+                    System.exit(1);
+                }
+                deleteAll(work);
+                work.mkdirs();
+                todo = runWorkers(partition(todo, app, nWorkers));
+            }
+            deleteAll(work);
+        }
+
+        for (String c : app.keySet()) {
+            File to = new File(outputDir, pathOf(c));
+            to.getParentFile().mkdirs();
+            Files.copy(new File(new File(cacheDir, "classes"), pathOf(c)).toPath(), to.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+        writeIidToLine();
+        if (Parameters.redundantAccessElimination) {
+            writeRedundantStat();
+        }
+        PrintWriter pw = new PrintWriter(new FileWriter(Parameters.usedObjectId));
+        pw.println(symbols.getSize());
+        pw.close();
+        writeIndex();
+    }
+
+    private static void deleteAll(File f) {
+        File[] list = f.listFiles();
+        if (list != null) {
+            for (File aList : list) {
+                deleteAll(aList);
+            }
+        }
+        f.delete();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: IncrementalInstrumentor <class dir> <output dir> <soot options>...");
+            System.exit(1);
+        }
+        List<String> sootOptions = new ArrayList<String>();
+        for (int i = 2; i < args.length; i++) {
+            sootOptions.add(args[i]);
+        }
+        File cacheDir = new File(System.getProperty("javato.instr.cache.dir", "instrcache"));
+        int nWorkers = Integer.getInteger("javato.instr.workers", Runtime.getRuntime().availableProcessors());
+        new IncrementalInstrumentor(new File(args[0]), new File(args[1]), cacheDir, sootOptions).run(nWorkers);
+    }
+}
@@ -0,0 +1,256 @@
+package javato.instrumentor;
+
+import soot.Body;
+import soot.BodyTransformer;
+import soot.Local;
+import soot.Modifier;
+import soot.SootField;
+import soot.SootMethod;
+import soot.Unit;
+import soot.Value;
+import soot.jimple.ArrayRef;
+import soot.jimple.AssignStmt;
+import soot.jimple.DefinitionStmt;
+import soot.jimple.EnterMonitorStmt;
+import soot.jimple.ExitMonitorStmt;
+import soot.jimple.FieldRef;
+import soot.jimple.InstanceFieldRef;
+import soot.jimple.Stmt;
+import soot.toolkits.graph.BriefUnitGraph;
+import soot.toolkits.graph.UnitGraph;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Finds the field and array accesses that are certain to repeat an
+ * equivalent access (same base, same field or index, same read or write)
+ * made by the thread since its last synchronization point, and gives them a
+ * {@link RedundantAccessTag} for the instrumentation to skip.  Such an
+ * access would produce the same race-detector event as the earlier one, at
+ * the same vector clock and lockset.
+ * <p/>
+ * Any invoke (wait, start, join, synchronized methods and whatever they
+ * call), monitorenter, monitorexit or volatile access is a synchronization
+ * point, and so is entering a method or an exception handler.  Redefining a
+ * local makes the accesses through it, or indexed by it, different ones.
+ * The analysis is a must-available dataflow over each method body and runs
+ * in jtp before {@link TransformerForInstrumentation}.
+ */
+public class RedundantAccessElimination extends BodyTransformer {
+    private static RedundantAccessElimination instance = new RedundantAccessElimination();
+    // class -> accesses tagged in it
+    private final Map<String, Integer> taggedPerClass = new TreeMap<String, Integer>();
+
+    private RedundantAccessElimination() {
+    }
+
+    public static RedundantAccessElimination v() {
+        return instance;
+    }
+
+    /**
+     * An access as seen by the race detector: the object (or none, for a
+     * static field), the field or array index, and whether it writes.
+     */
+    private static class Access {
+        final Local base;
+        final SootField field;
+        final Value index;
+        final boolean write;
+
+        Access(Local base, SootField field, Value index, boolean write) {
+            this.base = base;
+            this.field = field;
+            this.index = index;
+            this.write = write;
+        }
+
+        boolean uses(Local l) {
+            return base == l || index == l;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Access)) {
+                return false;
+            }
+            Access a = (Access) o;
+            return base == a.base && field == a.field && write == a.write
+                    && (index == a.index || (index != null && !(index instanceof Local) && index.equals(a.index)));
+        }
+
+        public int hashCode() {
+            int h = System.identityHashCode(base) * 31 + System.identityHashCode(field);
+            return write ? h + 1 : h;
+        }
+    }
+
+    /**
+     * The access <code>s</code> makes, or null if it makes none or a
+     * volatile one.
+     */
+    private static Access accessOf(Stmt s) {
+        if (!(s instanceof AssignStmt)) {
+            return null;
+        }
+        Value left = ((AssignStmt) s).getLeftOp();
+        boolean write = !(left instanceof Local);
+        Value ref = write ? left : ((AssignStmt) s).getRightOp();
+        if (ref instanceof FieldRef) {
+            SootField f = ((FieldRef) ref).getField();
+            if (Modifier.isVolatile(f.getModifiers())) {
+                return null;
+            }
+            Value base = ref instanceof InstanceFieldRef ? ((InstanceFieldRef) ref).getBase() : null;
+            return new Access((Local) base, f, null, write);
+        } else if (ref instanceof ArrayRef) {
+            return new Access((Local) ((ArrayRef) ref).getBase(), null, ((ArrayRef) ref).getIndex(), write);
+        }
+        return null;
+    }
+
+    private static boolean isSyncPoint(Stmt s) {
+        if (s.containsInvokeExpr() || s instanceof EnterMonitorStmt || s instanceof ExitMonitorStmt) {
+            return true;
+        }
+        return s.containsFieldRef() && Modifier.isVolatile(s.getFieldRef().getField().getModifiers());
+    }
+
+    /**
+     * The accesses available after <code>s</code>, given those available
+     * before it.
+     */
+    private static Set<Access> flowThrough(Set<Access> in, Stmt s) {
+        Set<Access> out = new HashSet<Access>();
+        if (isSyncPoint(s)) {
+            return out;
+        }
+        out.addAll(in);
+        Access a = accessOf(s);
+        if (a != null) {
+            out.add(a);
+        }
+        if (s instanceof DefinitionStmt && ((DefinitionStmt) s).getLeftOp() instanceof Local) {
+            Local l = (Local) ((DefinitionStmt) s).getLeftOp();
+            for (Iterator<Access> it = out.iterator(); it.hasNext();) {
+                if (it.next().uses(l)) {
+                    it.remove();
+                }
+            }
+        }
+        return out;
+    }
+
+    protected void internalTransform(Body body, String pn, Map map) {
+        SootMethod thisMethod = body.getMethod();
+        String cName = thisMethod.getDeclaringClass().getName();
+
+        if (cName.startsWith("javato.") || thisMethod.isAbstract() || thisMethod.isNative()) {
+            return;
+        }
+
+        // handlers have no predecessors here and so start from nothing
+        UnitGraph graph = new BriefUnitGraph(body);
+        // unit -> accesses available after it; absent while not reached
+        Map<Unit, Set<Access>> outs = new HashMap<Unit, Set<Access>>();
+        Map<Unit, Set<Access>> ins = new HashMap<Unit, Set<Access>>();
+        LinkedList<Unit> work = new LinkedList<Unit>();
+        Set<Unit> queued = new HashSet<Unit>();
+        for (Iterator it = body.getUnits().iterator(); it.hasNext();) {
+            work.add((Unit) it.next());
+        }
+        queued.addAll(work);
+        while (!work.isEmpty()) {
+            Unit u = work.removeFirst();
+            queued.remove(u);
+            Set<Access> in = null;
+            for (Iterator it = graph.getPredsOf(u).iterator(); it.hasNext();) {
+                Set<Access> out = outs.get(it.next());
+                if (out == null) {
+                    continue;
+                }
+                if (in == null) {
+                    in = new HashSet<Access>(out);
+                } else {
+                    in.retainAll(out);
+                }
+            }
+            if (in == null) {
+                if (!graph.getPredsOf(u).isEmpty()) {
+                    continue;
+                }
+                in = new HashSet<Access>();
+            }
+            ins.put(u, in);
+            Set<Access> out = flowThrough(in, (Stmt) u);
+            if (!out.equals(outs.get(u))) {
+                outs.put(u, out);
+                for (Iterator it = graph.getSuccsOf(u).iterator(); it.hasNext();) {
+                    Unit succ = (Unit) it.next();
+                    if (queued.add(succ)) {
+                        work.add(succ);
+                    }
+                }
+            }
+        }
+
+        int tagged = 0;
+        for (Iterator it = body.getUnits().iterator(); it.hasNext();) {
+            Stmt s = (Stmt) it.next();
+            Set<Access> in = ins.get(s);
+            Access a = accessOf(s);
+            if (in != null && a != null && in.contains(a) && !s.hasTag(RedundantAccessTag.NAME)) {
+                s.addTag(RedundantAccessTag.v());
+                tagged++;
+            }
+        }
+        if (tagged > 0) {
+            Integer n = taggedPerClass.get(cName);
+            taggedPerClass.put(cName, n == null ? tagged : n + tagged);
+        }
+    }
+
+    /**
+     * The number of accesses tagged so far in all classes.
+     */
+    public int getTaggedCount() {
+        int ret = 0;
+        for (int n : taggedPerClass.values()) {
+            ret += n;
+        }
+        return ret;
+    }
+
+    /**
+     * The number of accesses tagged so far in class <code>cName</code>.
+     */
+    public int getTaggedCount(String cName) {
+        Integer n = taggedPerClass.get(cName);
+        return n == null ? 0 : n;
+    }
+
+    /**
+     * Writes, for every class with tagged accesses, its name and their
+     * number to <code>file</code>.
+     */
+    public void writeStat(String file) {
+        try {
+            PrintWriter pw = new PrintWriter(new FileWriter(file));
+            for (Map.Entry<String, Integer> e : taggedPerClass.entrySet()) {
+                pw.println(e.getKey() + " " + e.getValue());
+            }
+            pw.close();
+        } catch (IOException e) {
+            System.err.println("Error while writing to " + file);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package javato.instrumentor;
+
+import soot.tagkit.Tag;
+
+/**
+ * Marks a statement whose field or array access repeats one the thread has
+ * made since its last synchronization point, as found by
+ * {@link RedundantAccessElimination}, so that the access need not be
+ * instrumented.
+ */
+public class RedundantAccessTag implements Tag {
+    public static final String NAME = "RedundantAccessTag";
+    private static final RedundantAccessTag instance = new RedundantAccessTag();
+
+    private RedundantAccessTag() {
+    }
+
+    public static RedundantAccessTag v() {
+        return instance;
+    }
+
+    public String getName() {
+        return NAME;
+    }
+
+    public byte[] getValue() {
+        return new byte[0];
+    }
+}
@@ -1,6 +1,16 @@
 package javato.instrumentor;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * Copyright (c) 2007-2008,
@@ -36,11 +46,20 @@ import java.util.HashMap;
  */
 public class SymbolTables {
     private HashMap<String,Integer> table = new HashMap<String,Integer>();
+    // the names in the order of their ids
+    private ArrayList<String> names = new ArrayList<String>();
+    // once frozen, the names asked for that were not in the table
+    private boolean frozen = false;
+    private TreeSet<String> unknown = new TreeSet<String>();
 
 
     public int get(String name) {
         if (!table.containsKey(name)){
+            if (frozen) {
+                unknown.add(name);
+            }
             table.put(name,table.size()+1);
+            names.add(name);
         }
         return table.get(name);
     }
@@ -48,4 +67,59 @@ public class SymbolTables {
     public int getSize(){
     	return table.size()+1;
     }
+
+    /**
+     * Gives ids to those of <code>newNames</code> not in the table yet, in
+     * their sorted order, so that the ids do not depend on the order classes
+     * are instrumented in.
+     */
+    public void addAll(Collection<String> newNames) {
+        for (String name : new TreeSet<String>(newNames)) {
+            get(name);
+        }
+    }
+
+    /**
+     * Keeps the ids of the table as they are; names not in it still get one,
+     * but are remembered as unknown.
+     */
+    public void freeze() {
+        frozen = true;
+    }
+
+    public Set<String> getUnknown() {
+        return unknown;
+    }
+
+    public static SymbolTables read(String file) {
+        SymbolTables ret = new SymbolTables();
+        if (!new File(file).exists()) {
+            return ret;
+        }
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(file));
+            String line;
+            while ((line = in.readLine()) != null) {
+                ret.get(line);
+            }
+            in.close();
+        } catch (IOException e) {
+            System.err.println("Error while reading " + file);
+            System.exit(1);
+        }
+        return ret;
+    }
+
+    public void write(String file) {
+        try {
+            PrintWriter pw = new PrintWriter(new FileWriter(file));
+            for (String name : names) {
+                pw.println(name);
+            }
+            pw.close();
+        } catch (IOException e) {
+            System.err.println("Error while writing to " + file);
+            System.exit(1);
+        }
+    }
 }
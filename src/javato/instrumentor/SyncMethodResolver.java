@@ -0,0 +1,165 @@
+package javato.instrumentor;
+
+import soot.Body;
+import soot.Local;
+import soot.RefType;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.Unit;
+import soot.Value;
+import soot.jimple.DefinitionStmt;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.NewExpr;
+import soot.jimple.SpecialInvokeExpr;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides at instrumentation time whether an instance call site runs a
+ * synchronized method, so that only the sites where it depends on the
+ * receiver need the runtime check of SyncMethodCache.
+ * <p/>
+ * A site is resolved when its target is known exactly (a special invoke, a
+ * final or private method, a final class, or a receiver local that only
+ * holds objects allocated by the method itself, of one class), or when all
+ * the implementations the class hierarchy gives for an application class
+ * receiver agree.  Receivers typed by a library class stay unresolved: a
+ * class the Scene does not know of could override the method.  This is
+ * not Soot's points-to analysis, which needs whole-program mode, while the
+ * instrumentor runs per class in jtp.
+ */
+public class SyncMethodResolver {
+    public enum Status {
+        SYNC, NONSYNC, UNKNOWN
+    }
+
+    private static SyncMethodResolver instance = new SyncMethodResolver();
+    private boolean useHierarchy = true;
+    private final int[] counts = new int[Status.values().length];
+    // the body the allocated types below are for
+    private Body lastBody;
+    // local -> the one class of the objects it holds, all allocated in lastBody
+    private final Map<Local, SootClass> allocatedTypes = new HashMap<Local, SootClass>();
+
+    private SyncMethodResolver() {
+    }
+
+    public static SyncMethodResolver v() {
+        return instance;
+    }
+
+    /**
+     * Forgets what was learned about the bodies of the current Scene.
+     */
+    public void reset() {
+        lastBody = null;
+        allocatedTypes.clear();
+    }
+
+    /**
+     * Whether to resolve sites by all the overriders the hierarchy knows
+     * of.  Without it, a site's status only depends on its class, the
+     * classes it names and their superclasses, as the incremental
+     * instrumentor needs.
+     */
+    public void setUseHierarchy(boolean useHierarchy) {
+        this.useHierarchy = useHierarchy;
+    }
+
+    public int getCount(Status status) {
+        return counts[status.ordinal()];
+    }
+
+    public Status resolve(SootMethod sm, InstanceInvokeExpr invokeExpr) {
+        Status ret = resolve(sm.getActiveBody(), invokeExpr);
+        counts[ret.ordinal()]++;
+        return ret;
+    }
+
+    private Status resolve(Body body, InstanceInvokeExpr invokeExpr) {
+        SootMethod m = invokeExpr.getMethod();
+        SootClass declaring = m.getDeclaringClass();
+        if (invokeExpr instanceof SpecialInvokeExpr || m.isPrivate() || m.isFinal()
+                || (declaring.isFinal() && !declaring.isInterface())) {
+            return m.isSynchronized() ? Status.SYNC : Status.NONSYNC;
+        }
+        try {
+            SootClass allocated = allocatedType(body, invokeExpr.getBase());
+            if (allocated != null) {
+                return statusOf(Scene.v().getActiveHierarchy().resolveConcreteDispatch(allocated, m));
+            }
+            SootClass receiver = receiverClass(invokeExpr.getBase(), declaring);
+            if (!useHierarchy || receiver == null || !receiver.isApplicationClass()) {
+                return Status.UNKNOWN;
+            }
+            List targets = Scene.v().getActiveHierarchy().resolveAbstractDispatch(receiver, m);
+            Status ret = null;
+            for (Iterator it = targets.iterator(); it.hasNext();) {
+                SootMethod target = (SootMethod) it.next();
+                if (!target.getDeclaringClass().isApplicationClass() && !target.getDeclaringClass().isLibraryClass()) {
+                    return Status.UNKNOWN;
+                }
+                Status s = statusOf(target);
+                if (ret != null && ret != s) {
+                    return Status.UNKNOWN;
+                }
+                ret = s;
+            }
+            return ret == null ? Status.UNKNOWN : ret;
+        } catch (RuntimeException e) {
+            // phantom classes and methods the hierarchy cannot dispatch
+            return Status.UNKNOWN;
+        }
+    }
+
+    private static Status statusOf(SootMethod target) {
+        return target.isSynchronized() ? Status.SYNC : Status.NONSYNC;
+    }
+
+    private static SootClass receiverClass(Value base, SootClass declaring) {
+        if (base.getType() instanceof RefType) {
+            return ((RefType) base.getType()).getSootClass();
+        }
+        return declaring.isInterface() ? null : declaring;
+    }
+
+    /**
+     * The class of the objects <code>base</code> holds if they are all
+     * allocated in <code>body</code> and of one class, or null.
+     */
+    private SootClass allocatedType(Body body, Value base) {
+        if (body != lastBody) {
+            lastBody = body;
+            allocatedTypes.clear();
+            Map<Local, SootClass> types = new HashMap<Local, SootClass>();
+            Map<Local, Boolean> other = new HashMap<Local, Boolean>();
+            for (Iterator it = body.getUnits().iterator(); it.hasNext();) {
+                Unit u = (Unit) it.next();
+                if (!(u instanceof DefinitionStmt) || !(((DefinitionStmt) u).getLeftOp() instanceof Local)) {
+                    continue;
+                }
+                Local l = (Local) ((DefinitionStmt) u).getLeftOp();
+                Value right = ((DefinitionStmt) u).getRightOp();
+                if (right instanceof NewExpr) {
+                    SootClass c = ((NewExpr) right).getBaseType().getSootClass();
+                    if (types.containsKey(l) && types.get(l) != c) {
+                        other.put(l, true);
+                    }
+                    types.put(l, c);
+                } else {
+                    other.put(l, true);
+                }
+            }
+            for (Map.Entry<Local, SootClass> e : types.entrySet()) {
+                if (!other.containsKey(e.getKey())) {
+                    allocatedTypes.put(e.getKey(), e.getValue());
+                }
+            }
+        }
+        return allocatedTypes.get(base);
+    }
+}
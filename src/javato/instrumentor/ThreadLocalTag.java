@@ -0,0 +1,28 @@
+package javato.instrumentor;
+
+import soot.tagkit.Tag;
+
+/**
+ * Marks a statement whose field or array access is on an object that
+ * {@link EscapeAnalysis} proved never to leave the thread that allocated
+ * it, so that the access need not be instrumented.
+ */
+public class ThreadLocalTag implements Tag {
+    public static final String NAME = "ThreadLocalTag";
+    private static final ThreadLocalTag instance = new ThreadLocalTag();
+
+    private ThreadLocalTag() {
+    }
+
+    public static ThreadLocalTag v() {
+        return instance;
+    }
+
+    public String getName() {
+        return NAME;
+    }
+
+    public byte[] getValue() {
+        return new byte[0];
+    }
+}
@@ -1,5 +1,6 @@
 package javato.instrumentor;
 
+import javato.activetesting.common.Parameters;
 import org.objectweb.asm.ClassReader;
 import soot.PackManager;
 import soot.Scene;
@@ -148,6 +149,14 @@ public class TransformClass {
                 + File.pathSeparator + System.getProperty("java.class.path"));
         Scene.v().loadClassAndSupport(Visitor.observerClass);
         TransformerForInstrumentation.v().setVisitor(visitor);
+        SyncMethodResolver.v().reset();
+        if (Parameters.escapeAnalysis) {
+            EscapeAnalysis.v().reset();
+            PackManager.v().getPack("jtp").add(new Transform("jtp.escape", EscapeAnalysis.v()));
+        }
+        if (Parameters.redundantAccessElimination) {
+            PackManager.v().getPack("jtp").add(new Transform("jtp.redundant", RedundantAccessElimination.v()));
+        }
         PackManager.v().getPack("jtp").add(new Transform("jtp.instrumenter", TransformerForInstrumentation.v()));
         soot.Main.main(args);
         soot.G.reset();
@@ -9,7 +9,10 @@ import soot.util.Chain;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Copyright (c) 2007-2008,
@@ -53,6 +56,9 @@ public class Visitor {
     static public Stmt thisStmt;
     static private ArrayList<String> iidToLineMap = new ArrayList<String>(10000);
     static public SootClass thisClass;
+    // when iids are given per class: class -> next iid in it, and the lines of its iids
+    static private Map<String, Integer> nextIid = null;
+    static private Map<String, ArrayList<String>> classIidToLine = null;
 
     public int getCounter() {
         return counter;
@@ -81,10 +87,47 @@ public class Visitor {
     }
 
     public static int getAndIncCounter() {
-        iidToLineMap.add(getFileName(thisClass) + ".html#" + getLineNum(thisStmt));
+        String line = getFileName(thisClass) + ".html#" + getLineNum(thisStmt);
+        if (nextIid != null) {
+            String c = thisClass.getName();
+            Integer iid = nextIid.get(c);
+            if (iid == null) {
+                System.err.println("No iids reserved for " + c);
+                System.exit(1);
+            }
+            nextIid.put(c, iid + 1);
+            classIidToLine.get(c).add(line);
+            return iid;
+        }
+        iidToLineMap.add(line);
         return counter++;
     }
 
+    /**
+     * Gives the iids of each class in <code>bases</code> consecutively from
+     * its base on, instead of from one counter for all classes, so that they
+     * do not depend on which other classes are instrumented in the same run.
+     */
+    public static void setIidBases(Map<String, Integer> bases) {
+        nextIid = new HashMap<String, Integer>(bases);
+        classIidToLine = new HashMap<String, ArrayList<String>>();
+        for (String c : bases.keySet()) {
+            classIidToLine.put(c, new ArrayList<String>());
+        }
+    }
+
+    /**
+     * The lines of the iids given in <code>className</code>, from its base
+     * on; see setIidBases.
+     */
+    public static List<String> getIidToLine(String className) {
+        return classIidToLine.get(className);
+    }
+
+    public static void setSymbolTables(SymbolTables symbols) {
+        st = symbols;
+    }
+
     public static void setObserverClass(String s) {
         observerClass = s;
     }
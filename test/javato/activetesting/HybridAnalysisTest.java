@@ -0,0 +1,56 @@
+package javato.activetesting;
+
+import javato.activetesting.analysis.AnalysisImpl;
+import javato.activetesting.hybridracedetection.HybridRaceTracker;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class HybridAnalysisTest {
+    private static final File errorLog;
+    private static final File errorList;
+
+    static {
+        try {
+            errorLog = File.createTempFile("error", ".log");
+            errorList = File.createTempFile("error", ".list");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        errorLog.delete();
+        System.setProperty("javato.activetesting.errorlog.file", errorLog.getPath());
+        System.setProperty("javato.activetesting.errorlist.file", errorList.getPath());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        errorLog.delete();
+        errorList.delete();
+    }
+
+    @Test
+    public void testFindsRaceOnUnprotectedLocation() {
+        HybridAnalysis a = new HybridAnalysis();
+        AnalysisImpl.removeShutdownHook(a);
+        a.startBefore(1, 1, 2);
+        a.startBefore(2, 1, 3);
+        // location 10 is written by both threads under lock 100, location 11 without a lock
+        a.lockBefore(3, 2, 100, null);
+        a.writeBefore(4, 2, 10L, false);
+        a.unlockAfter(5, 2, 100);
+        a.writeBefore(6, 2, 11L, false);
+        a.lockBefore(7, 3, 100, null);
+        a.writeBefore(8, 3, 10L, false);
+        a.unlockAfter(9, 3, 100);
+        a.readBefore(10, 3, 11L, false);
+        a.joinAfter(11, 1, 2);
+        a.joinAfter(12, 1, 3);
+        a.writeBefore(13, 1, 11L, false);
+        a.finish();
+
+        assertEquals(1, HybridRaceTracker.getRacesFromFile().size());
+    }
+}
@@ -0,0 +1,65 @@
+package javato.activetesting.analysis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class BatchingAnalysisImplTest {
+
+    static class RecordingAnalysis extends AnalysisImpl implements BatchableAnalysis {
+        final List<long[]> events = new ArrayList<long[]>();
+
+        public void startBefore(Integer iid, Integer parent, Integer child) {
+            events.add(new long[]{-1, parent, child});
+        }
+
+        public void writeBefore(Integer iid, Integer thread, Long memory, boolean isVolatile) {
+            events.add(new long[]{iid, thread, memory});
+        }
+    }
+
+    @Test
+    public void testEventsArriveInObservedOrder() throws InterruptedException {
+        RecordingAnalysis recorder = new RecordingAnalysis();
+        final BatchingAnalysisImpl batched = new BatchingAnalysisImpl(recorder, 16);
+        final int nThreads = 4;
+        final int nEvents = 5000;
+
+        Thread[] threads = new Thread[nThreads];
+        for (int t = 0; t < nThreads; t++) {
+            final int id = t + 1;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < nEvents; i++) {
+                        batched.writeBefore(i, id, (long) i, false);
+                    }
+                }
+            };
+            batched.startBefore(0, 0, id);
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        batched.drain();
+
+        assertEquals(nThreads * (nEvents + 1), recorder.events.size());
+        long[] lastSeen = new long[nThreads + 1];
+        boolean[] started = new boolean[nThreads + 1];
+        for (int i = 0; i < lastSeen.length; i++) {
+            lastSeen[i] = -1;
+        }
+        for (long[] e : recorder.events) {
+            if (e[0] == -1) {
+                started[(int) e[2]] = true;
+            } else {
+                int thread = (int) e[1];
+                assertTrue("event of thread " + thread + " seen before its start", started[thread]);
+                assertEquals(lastSeen[thread] + 1, e[2]);
+                lastSeen[thread] = e[2];
+            }
+        }
+    }
+}
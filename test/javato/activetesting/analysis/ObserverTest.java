@@ -0,0 +1,93 @@
+package javato.activetesting.analysis;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class ObserverTest {
+
+    public static class BoxedAnalysis extends AnalysisImpl {
+        static final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+        public void readBefore(Integer iid, Integer thread, Long memory, boolean isVolatile) {
+            events.add((isVolatile ? "vread " : "read ") + iid + " " + memory);
+        }
+
+        public void writeBefore(Integer iid, Integer thread, Long memory, boolean isVolatile) {
+            events.add((isVolatile ? "vwrite " : "write ") + iid + " " + memory);
+        }
+    }
+
+    static class PrimitiveRecorder extends PrimitiveAnalysisImpl {
+        final List<String> events = new ArrayList<String>();
+
+        public void readBefore(int iid, int thread, long memory, boolean isVolatile) {
+            events.add("read " + iid + " " + memory);
+        }
+
+        public void writeBefore(int iid, int thread, long memory, boolean isVolatile) {
+            events.add("write " + iid + " " + memory);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        BoxedAnalysis analysis = new BoxedAnalysis();
+        AnalysisImpl.removeShutdownHook(analysis);
+        ObserverForActiveTesting.setAnalysis(analysis);
+        BoxedAnalysis.events.clear();
+    }
+
+    @Test
+    public void testObjectIds() {
+        Object o = new Object();
+        int oid = Observer.uniqueId(o);
+        long expected = ((long) oid << 32) + 7;
+        assertEquals(expected, Observer.longId(o, 7));
+        assertEquals(Long.valueOf(expected), Observer.id(o, 7));
+        assertEquals(Long.valueOf(expected), Observer.idInt(oid, 7));
+        assertEquals(oid, Observer.uniqueId(o).intValue());
+    }
+
+    @Test
+    public void testBoxedPath() {
+        Object o = new Object();
+        long memory = Observer.longId(o, 3);
+        ObserverForActiveTesting.myReadBefore(101, o, 3);
+        ObserverForActiveTesting.myVWriteBefore(102, o, 3);
+        ObserverForActiveTesting.myWriteBefore(103, 5, 4);
+        assertTrue(ObserverForActiveTesting.analysis instanceof BoxedAnalysis);
+        assertEquals(3, BoxedAnalysis.events.size());
+        assertEquals("read 101 " + memory, BoxedAnalysis.events.get(0));
+        assertEquals("vwrite 102 " + memory, BoxedAnalysis.events.get(1));
+        assertEquals("write 103 " + Observer.longId(5, 4), BoxedAnalysis.events.get(2));
+    }
+
+    @Test
+    public void testPrimitivePath() {
+        PrimitiveRecorder recorder = new PrimitiveRecorder();
+        PrimitiveAnalysis primitive = BoxingAnalysisAdapter.toPrimitive(recorder);
+        assertSame(recorder, primitive);
+
+        Object o = new Object();
+        long memory = Observer.longId(o, 2);
+        primitive.readBefore(1, 1, memory, false);
+        // boxed callers reach the primitive callbacks too
+        recorder.writeBefore(Integer.valueOf(2), Integer.valueOf(1), Long.valueOf(memory), false);
+        assertEquals(2, recorder.events.size());
+        assertEquals("read 1 " + memory, recorder.events.get(0));
+        assertEquals("write 2 " + memory, recorder.events.get(1));
+    }
+
+    @Test
+    public void testBoxedAnalysisIsAdapted() {
+        BoxedAnalysis boxed = new BoxedAnalysis();
+        PrimitiveAnalysis primitive = BoxingAnalysisAdapter.toPrimitive(boxed);
+        assertNotSame(boxed, primitive);
+        primitive.readBefore(7, 1, 42L, true);
+        assertEquals(Collections.singletonList("vread 7 42"), BoxedAnalysis.events);
+    }
+}
@@ -0,0 +1,43 @@
+package javato.activetesting.analysis;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class SyncMethodCacheTest {
+
+    static class Base {
+        synchronized void put(Object o, int[] a) {
+        }
+
+        void get() {
+        }
+
+        void getAll() {
+        }
+    }
+
+    static class Derived extends Base {
+        void put(Object o, int[] a) {
+        }
+
+        synchronized void getAll() {
+        }
+    }
+
+    @Test
+    public void testDispatchFollowsTheReceiver() {
+        SyncMethodCache cache = new SyncMethodCache();
+        assertTrue(cache.isSynchronized(1, new Base(), "put(java.lang.Object,int[])"));
+        assertFalse(cache.isSynchronized(1, new Derived(), "put(java.lang.Object,int[])"));
+        assertTrue(cache.isSynchronized(1, new Base(), "put(java.lang.Object,int[])"));
+    }
+
+    @Test
+    public void testSignaturesMatchExactly() {
+        SyncMethodCache cache = new SyncMethodCache();
+        assertFalse(cache.isSynchronized(2, new Derived(), "get()"));
+        assertTrue(cache.isSynchronized(2, new Derived(), "getAll()"));
+        assertFalse(cache.isSynchronized(2, new Base(), "getAll()"));
+        assertFalse(cache.isSynchronized(2, new Base(), "notAMethod()"));
+    }
+}
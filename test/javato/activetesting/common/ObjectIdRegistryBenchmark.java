@@ -0,0 +1,110 @@
+package javato.activetesting.common;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Compares the old <code>synchronized</code> WeakIdentityHashMap lookup used by
+ * Observer.uniqueId against ObjectIdRegistry at 1, 4, 16 and 64 threads.
+ * <p/>
+ * Each thread repeatedly asks for the id of its own thread object and of an
+ * object from a small private working set, which is what an instrumented
+ * field access does.  Run with
+ * <pre>
+ *   java -cp classes javato.activetesting.common.ObjectIdRegistryBenchmark [opsPerThread]
+ * </pre>
+ */
+public class ObjectIdRegistryBenchmark {
+    private static final int[] THREADS = {1, 4, 16, 64};
+    private static final int WORKING_SET = 256;
+
+    interface IdSource {
+        Integer id(Object o);
+
+        Integer threadId();
+    }
+
+    static class SynchronizedMapSource implements IdSource {
+        private final WeakIdentityHashMap objectMap = new WeakIdentityHashMap(3511);
+        private int currentId = 1;
+
+        synchronized public Integer id(Object o) {
+            Object val = objectMap.get(o);
+            if (val == null) {
+                val = currentId++;
+                objectMap.put(o, val);
+            }
+            return (Integer) val;
+        }
+
+        public Integer threadId() {
+            return id(Thread.currentThread());
+        }
+    }
+
+    static class RegistrySource implements IdSource {
+        private final ObjectIdRegistry registry = new ObjectIdRegistry(1);
+
+        public Integer id(Object o) {
+            return registry.getId(o);
+        }
+
+        public Integer threadId() {
+            return registry.currentThreadId();
+        }
+    }
+
+    private static long run(final IdSource source, int nThreads, final int opsPerThread) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(nThreads);
+        final long[] sink = new long[nThreads];
+        for (int t = 0; t < nThreads; t++) {
+            final int index = t;
+            new Thread() {
+                public void run() {
+                    Object[] objects = new Object[WORKING_SET];
+                    for (int i = 0; i < objects.length; i++) {
+                        objects[i] = new Object();
+                    }
+                    long acc = 0;
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < opsPerThread; i++) {
+                        acc += source.threadId();
+                        acc += source.id(objects[i & (WORKING_SET - 1)]);
+                    }
+                    sink[index] = acc;
+                    done.countDown();
+                }
+            }.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        return System.nanoTime() - begin;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int ops = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        // warm up both paths so that the JIT has compiled them before measuring
+        for (int i = 0; i < 3; i++) {
+            run(new SynchronizedMapSource(), 4, ops / 10);
+            run(new RegistrySource(), 4, ops / 10);
+        }
+        System.out.println("threads\tsynchronized(ns/op)\tregistry(ns/op)\tstripe entries(min-max)");
+        for (int nThreads : THREADS) {
+            long total = 2L * ops * nThreads;
+            long old = run(new SynchronizedMapSource(), nThreads, ops);
+            RegistrySource registrySource = new RegistrySource();
+            long neu = run(registrySource, nThreads, ops);
+            List<Integer> sizes = registrySource.registry.stripeSizes();
+            System.out.println(nThreads + "\t" + (old * nThreads / (double) total)
+                    + "\t" + (neu * nThreads / (double) total)
+                    + "\t" + Collections.min(sizes) + "-" + Collections.max(sizes));
+        }
+    }
+}
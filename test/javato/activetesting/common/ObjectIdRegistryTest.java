@@ -0,0 +1,66 @@
+package javato.activetesting.common;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class ObjectIdRegistryTest {
+
+    @Test
+    public void testIdsAreStableAndUnique() {
+        ObjectIdRegistry registry = new ObjectIdRegistry(5, 8);
+        Object[] objects = new Object[1000];
+        Set<Integer> seen = new HashSet<Integer>();
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = new Object();
+            assertTrue(seen.add(registry.getId(objects[i])));
+        }
+        for (int i = 0; i < objects.length; i++) {
+            assertTrue(seen.contains(registry.getId(objects[i])));
+        }
+        assertEquals(1000, seen.size());
+        assertEquals(1005, registry.peekNextId());
+        assertEquals(1000, registry.size());
+        assertSame(objects[17], registry.getObject(registry.getId(objects[17])));
+    }
+
+    @Test
+    public void testFirstIdComesFromUsedIds() {
+        ObjectIdRegistry registry = new ObjectIdRegistry(42);
+        assertEquals(42, registry.getId("a").intValue());
+        assertEquals(43, registry.getId(new Object()).intValue());
+        assertEquals(42, registry.getId("a").intValue());
+    }
+
+    @Test
+    public void testReverseLookup() {
+        ObjectIdRegistry registry = new ObjectIdRegistry(1, 4);
+        String a = "a";
+        Object b = new Object();
+        int ida = registry.getId(a);
+        int idb = registry.getId(b);
+        assertSame(a, registry.getObject(ida));
+        assertSame(b, registry.getObject(idb));
+        assertNull(registry.getObject(idb + 1));
+        assertNull(registry.getObject(0));
+    }
+
+    @Test
+    public void testCurrentThreadId() throws InterruptedException {
+        final ObjectIdRegistry registry = new ObjectIdRegistry(1);
+        assertEquals(registry.getId(Thread.currentThread()), registry.currentThreadId());
+
+        final Integer[] other = new Integer[1];
+        Thread t = new Thread() {
+            public void run() {
+                other[0] = registry.currentThreadId();
+            }
+        };
+        t.start();
+        t.join();
+        assertEquals(registry.getId(t), other[0]);
+        assertFalse(other[0].equals(registry.currentThreadId()));
+    }
+}
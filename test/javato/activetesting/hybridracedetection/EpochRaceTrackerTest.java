@@ -0,0 +1,131 @@
+package javato.activetesting.hybridracedetection;
+
+import javato.activetesting.lockset.LockSet;
+import javato.activetesting.vc.VectorClockTracker;
+
+import java.util.Arrays;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class EpochRaceTrackerTest {
+    private static final LockSet NONE = LockSet.emptySet;
+    private static final LockSet A = new LockSet(Arrays.asList(100));
+
+    private VectorClockTracker vcs;
+    private HybridRaceTracker tracker;
+
+    private void access(int iid, int thread, long m, boolean isRead, LockSet ls) {
+        tracker.checkRace(iid, thread, m, isRead, vcs.getVectorClock(thread), ls, false, false);
+        tracker.addEvent(iid, thread, m, isRead, vcs.getVectorClock(thread), ls);
+    }
+
+    /**
+     * Main thread 1 starts 2 and 3, which race on location 1, are protected
+     * by lock A on location 2, and only read location 3 concurrently; after
+     * joining both, thread 1 writes all three locations without a race.
+     */
+    private int run(HybridRaceTracker t) {
+        tracker = t;
+        vcs = new VectorClockTracker();
+        access(1, 1, 3, false, NONE);
+        vcs.startBefore(1, 2);
+        vcs.startBefore(1, 3);
+        access(2, 2, 1, false, NONE);
+        access(3, 2, 2, false, A);
+        access(4, 2, 3, true, NONE);
+        access(5, 3, 1, true, NONE);
+        access(6, 3, 2, true, A);
+        access(7, 3, 3, true, NONE);
+        access(8, 3, 1, false, NONE);
+        vcs.joinAfter(1, 2);
+        vcs.joinAfter(1, 3);
+        access(9, 1, 1, false, NONE);
+        access(10, 1, 2, false, NONE);
+        access(11, 1, 3, false, NONE);
+        return tracker.getDataRaceCount();
+    }
+
+    @Test
+    public void testAgreesWithWindowedTracker() {
+        int windowed = run(new HybridRaceTracker());
+        int epochs = run(new EpochRaceTracker());
+        // 2||5 and 2||8 on location 1
+        assertEquals(2, windowed);
+        assertEquals(windowed, epochs);
+    }
+
+    @Test
+    public void testConcurrentReadsAreKeptPerThread() {
+        tracker = new EpochRaceTracker();
+        vcs = new VectorClockTracker();
+        vcs.startBefore(1, 2);
+        vcs.startBefore(1, 3);
+        vcs.startBefore(1, 4);
+        access(1, 2, 7, true, NONE);
+        access(2, 3, 7, true, NONE);
+        access(3, 4, 7, false, NONE);
+        assertEquals(2, tracker.getDataRaceCount());
+    }
+
+    /**
+     * Thread 2 accesses location 1 without a lock (a write, or a read if
+     * <code>firstIsRead</code>) and then writes it under A; thread 3 writes
+     * it under A, concurrently with both.
+     */
+    private int runUnprotectedThenLocked(HybridRaceTracker t, boolean firstIsRead) {
+        tracker = t;
+        vcs = new VectorClockTracker();
+        vcs.startBefore(1, 2);
+        vcs.startBefore(1, 3);
+        access(1, 2, 1, firstIsRead, NONE);
+        access(2, 2, 1, false, A);
+        access(3, 3, 1, false, A);
+        return tracker.getDataRaceCount();
+    }
+
+    @Test
+    public void testUnprotectedWriteIsNotHiddenByALockedOne() {
+        assertEquals(1, runUnprotectedThenLocked(new HybridRaceTracker(), false));
+        assertEquals(1, runUnprotectedThenLocked(new EpochRaceTracker(), false));
+    }
+
+    @Test
+    public void testUnprotectedReadIsNotDroppedByALockedWrite() {
+        assertEquals(1, runUnprotectedThenLocked(new HybridRaceTracker(), true));
+        assertEquals(1, runUnprotectedThenLocked(new EpochRaceTracker(), true));
+    }
+
+    @Test
+    public void testLockedAccessesOfALaterEpochAreKept() {
+        // thread 2 writes without a lock, then under A after starting thread 4,
+        // which moves it to a new epoch; thread 3 writes under B
+        for (HybridRaceTracker t : new HybridRaceTracker[]{new HybridRaceTracker(), new EpochRaceTracker()}) {
+            tracker = t;
+            vcs = new VectorClockTracker();
+            vcs.startBefore(1, 2);
+            vcs.startBefore(1, 3);
+            access(1, 2, 1, false, NONE);
+            vcs.startBefore(2, 4);
+            access(2, 2, 1, false, A);
+            access(3, 3, 1, false, new LockSet(Arrays.asList(200)));
+            // 1||3 and 2||3
+            assertEquals(2, tracker.getDataRaceCount());
+        }
+    }
+
+    @Test
+    public void testOrderedAccessesDoNotRace() {
+        EpochRaceTracker epochs = new EpochRaceTracker();
+        tracker = epochs;
+        vcs = new VectorClockTracker();
+        for (int i = 0; i < 10; i++) {
+            access(1, 1, 1, false, A);
+            access(2, 1, 1, true, A);
+        }
+        vcs.startBefore(1, 2);
+        access(3, 2, 1, false, NONE);
+        access(4, 2, 1, true, NONE);
+        assertEquals(0, tracker.getDataRaceCount());
+    }
+}
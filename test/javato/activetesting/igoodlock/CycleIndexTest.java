@@ -0,0 +1,64 @@
+package javato.activetesting.igoodlock;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+
+public class CycleIndexTest {
+
+    private static List<Node> cycle(List<Integer>... contexts) {
+        List<Node> ret = new LinkedList<Node>();
+        for (List<Integer> context : contexts) {
+            ret.add(new Node(new LinkedList<Integer>(context)));
+        }
+        return ret;
+    }
+
+    @Test
+    public void testFindsAllCyclesThroughTwoContexts() {
+        List<List<Node>> cycles = new ArrayList<List<Node>>();
+        cycles.add(cycle(Arrays.asList(1, 2), Arrays.asList(3, 4)));
+        cycles.add(cycle(Arrays.asList(5, 6), Arrays.asList(7, 8)));
+        cycles.add(cycle(Arrays.asList(3, 4), Arrays.asList(1, 2)));
+        cycles.add(cycle(Arrays.asList(1, 2), Arrays.asList(7, 8)));
+        CycleIndex index = new CycleIndex(cycles, 1);
+
+        assertEquals(4, index.size());
+        assertTrue(index.isContext(new ArrayList<Integer>(Arrays.asList(7, 8))));
+        assertFalse(index.isContext(Arrays.asList(7)));
+        assertTrue(index.isOuterLock(Arrays.asList(5)));
+        assertFalse(index.isOuterLock(Arrays.asList(6)));
+        assertFalse(index.isOuterLock(Arrays.asList(1, 2)));
+
+        assertEquals(Arrays.asList(1, 3), index.cyclesThrough(Arrays.asList(1, 2), Arrays.asList(3, 4)));
+        assertEquals(Arrays.asList(4), index.cyclesThrough(Arrays.asList(7, 8), Arrays.asList(1, 2)));
+        assertTrue(index.cyclesThrough(Arrays.asList(5, 6), Arrays.asList(1, 2)).isEmpty());
+    }
+
+    @Test
+    public void testSingleCycleKeepsItsId() {
+        List<List<Node>> cycles = new ArrayList<List<Node>>();
+        cycles.add(cycle(Arrays.asList(1, 2), Arrays.asList(1, 2)));
+        CycleIndex index = new CycleIndex(cycles, 7);
+        assertEquals(Arrays.asList(7), index.cyclesThrough(Arrays.asList(1, 2), Arrays.asList(1, 2)));
+    }
+
+    @Test
+    public void testSkippedCyclesAreNotTargeted() {
+        List<List<Node>> cycles = new ArrayList<List<Node>>();
+        cycles.add(cycle(Arrays.asList(1, 2), Arrays.asList(3, 4)));
+        cycles.add(cycle(Arrays.asList(5, 6), Arrays.asList(7, 8)));
+        cycles.add(cycle(Arrays.asList(3, 4), Arrays.asList(1, 2)));
+        CycleIndex index = new CycleIndex(cycles, 1, new HashSet<Integer>(Arrays.asList(1, 2)));
+
+        assertEquals(1, index.size());
+        assertFalse(index.isContext(Arrays.asList(5, 6)));
+        assertFalse(index.isOuterLock(Arrays.asList(5)));
+        assertEquals(Arrays.asList(3), index.cyclesThrough(Arrays.asList(1, 2), Arrays.asList(3, 4)));
+    }
+}
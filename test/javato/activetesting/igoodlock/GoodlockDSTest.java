@@ -0,0 +1,195 @@
+package javato.activetesting.igoodlock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class GoodlockDSTest {
+
+    private static void section(GoodlockDS gl, int thread, int... locks) {
+        for (int i = 0; i < locks.length; i++) {
+            gl.lock(100 * thread + i, thread, locks[i]);
+        }
+        for (int i = locks.length - 1; i >= 0; i--) {
+            gl.unlock(100 * thread + i, thread, locks[i]);
+        }
+    }
+
+    @Test
+    public void testTwoThreadCycle() {
+        GoodlockDS gl = new GoodlockDS();
+        section(gl, 1, 10, 20);
+        section(gl, 2, 20, 10);
+        List<Path> deadlocks = gl.findDeadlocks();
+        assertEquals(1, deadlocks.size());
+        List<LockNode> cycle = deadlocks.get(0).getCycle();
+        assertEquals(2, cycle.size());
+        assertEquals(1, cycle.get(0).getThreadId());
+        assertEquals(20, cycle.get(0).getLockId());
+        assertEquals(2, cycle.get(1).getThreadId());
+        assertEquals(10, cycle.get(1).getLockId());
+    }
+
+    @Test
+    public void testGuardedCycleIsIgnored() {
+        GoodlockDS gl = new GoodlockDS();
+        section(gl, 1, 5, 10, 20);
+        section(gl, 2, 5, 20, 10);
+        assertTrue(gl.findDeadlocks().isEmpty());
+    }
+
+    @Test
+    public void testThreeThreadCycle() {
+        GoodlockDS gl = new GoodlockDS();
+        section(gl, 1, 10, 20);
+        section(gl, 2, 20, 30);
+        section(gl, 3, 30, 10);
+        List<Path> deadlocks = gl.findDeadlocks();
+        assertEquals(1, deadlocks.size());
+        assertEquals(3, deadlocks.get(0).getCycle().size());
+    }
+
+    @Test
+    public void testOnlineFindsCycleWhenItCloses() {
+        DeadlockCycleInfo info = new DeadlockCycleInfo(0);
+        GoodlockDS gl = new GoodlockDS(info);
+        section(gl, 1, 10, 20);
+        assertEquals(0, gl.lock(200, 2, 20));
+        assertEquals(1, gl.lock(201, 2, 10));
+        gl.unlock(201, 2, 10);
+        gl.unlock(200, 2, 20);
+        section(gl, 3, 10, 30);
+        assertEquals(1, gl.getDeadlockCount());
+
+        // the same cycle the offline search reports, starting with thread 1
+        List<List<Node>> cycles = info.getCycles();
+        assertEquals(1, cycles.size());
+        assertEquals(Arrays.asList(100, 101), cycles.get(0).get(0).getContext());
+        assertEquals(Arrays.asList(200, 201), cycles.get(0).get(1).getContext());
+    }
+
+    @Test
+    public void testOnlineAgreesWithOffline() {
+        Random r = new Random(3);
+        GoodlockDS offline = new GoodlockDS();
+        DeadlockCycleInfo info = new DeadlockCycleInfo(0);
+        GoodlockDS online = new GoodlockDS(info);
+        for (int i = 0; i < 200; i++) {
+            int thread = 1 + r.nextInt(5);
+            List<Integer> pool = new ArrayList<Integer>(Arrays.asList(10, 20, 30, 40, 50, 60));
+            Collections.shuffle(pool, r);
+            int[] locks = new int[1 + r.nextInt(3)];
+            for (int j = 0; j < locks.length; j++) {
+                locks[j] = pool.get(j);
+            }
+            section(offline, thread, locks);
+            section(online, thread, locks);
+        }
+        Set<String> expected = new HashSet<String>();
+        for (Path path : offline.findDeadlocks()) {
+            List<Node> cycle = new ArrayList<Node>();
+            for (LockNode ln : path.getCycle()) {
+                cycle.add(new Node(ln.getContext()));
+            }
+            expected.add(cycle.toString());
+        }
+        Set<String> actual = new HashSet<String>();
+        for (List<Node> cycle : info.getCycles()) {
+            actual.add(cycle.toString());
+        }
+        assertFalse(expected.isEmpty());
+        assertEquals(offline.findDeadlocks().size(), online.getDeadlockCount());
+        assertEquals(expected, actual);
+    }
+
+    private static List<String> randomCycles(long seed) {
+        Random r = new Random(seed);
+        GoodlockDS gl = new GoodlockDS();
+        for (int i = 0; i < 200; i++) {
+            int thread = 1 + r.nextInt(5);
+            List<Integer> pool = new ArrayList<Integer>(Arrays.asList(10, 20, 30, 40, 50, 60));
+            Collections.shuffle(pool, r);
+            int[] locks = new int[1 + r.nextInt(3)];
+            for (int j = 0; j < locks.length; j++) {
+                locks[j] = pool.get(j);
+            }
+            section(gl, thread, locks);
+        }
+        List<String> ret = new ArrayList<String>();
+        for (Path path : gl.findDeadlocks()) {
+            StringBuilder cycle = new StringBuilder();
+            for (LockNode ln : path.getCycle()) {
+                cycle.append(ln.getThreadId()).append(':').append(ln.getContext()).append(' ');
+            }
+            ret.add(cycle.toString());
+        }
+        return ret;
+    }
+
+    @Test
+    public void testCycleOrderIsStable() {
+        List<String> first = randomCycles(5);
+        assertFalse(first.isEmpty());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(first, randomCycles(5));
+        }
+    }
+
+    private static void sharedSection(GoodlockDS gl, int thread, int tree, int... locks) {
+        for (int i = 0; i < locks.length; i++) {
+            gl.lock(100 * tree + i, thread, tree, locks[i]);
+        }
+        for (int i = locks.length - 1; i >= 0; i--) {
+            gl.unlock(100 * tree + i, thread, tree, locks[i]);
+        }
+    }
+
+    @Test
+    public void testCycleWithinSharedTree() {
+        // two workers of one pool, merged into the tree -5
+        GoodlockDS gl = new GoodlockDS();
+        sharedSection(gl, 11, -5, 10, 20);
+        sharedSection(gl, 12, -5, 20, 10);
+        List<Path> deadlocks = gl.findDeadlocks();
+        assertEquals(1, deadlocks.size());
+        List<LockNode> cycle = deadlocks.get(0).getCycle();
+        assertEquals(2, cycle.size());
+        assertEquals(-5, cycle.get(0).getThreadId());
+        assertEquals(-5, cycle.get(1).getThreadId());
+
+        DeadlockCycleInfo info = new DeadlockCycleInfo(0);
+        GoodlockDS online = new GoodlockDS(info);
+        sharedSection(online, 11, -5, 10, 20);
+        sharedSection(online, 12, -5, 20, 10);
+        assertEquals(1, online.getDeadlockCount());
+    }
+
+    @Test
+    public void testUnsharedTreeIsOneThread() {
+        GoodlockDS gl = new GoodlockDS();
+        sharedSection(gl, 11, -5, 10, 20);
+        sharedSection(gl, 11, -5, 20, 10);
+        assertTrue(gl.findDeadlocks().isEmpty());
+    }
+
+    @Test
+    public void testNestedAbstractLockIsFolded() {
+        GoodlockDS gl = new GoodlockDS();
+        // 11 holds two objects of the abstract lock -7 around 20
+        gl.lock(1, 11, -5, -7);
+        gl.lock(2, 11, -5, -7);
+        gl.lock(3, 11, -5, 20);
+        gl.unlock(3, 11, -5, 20);
+        gl.unlock(2, 11, -5, -7);
+        gl.unlock(1, 11, -5, -7);
+        sharedSection(gl, 12, -5, 20, -7);
+        assertEquals(1, gl.findDeadlocks().size());
+    }
+}
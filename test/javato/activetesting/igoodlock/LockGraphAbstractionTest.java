@@ -0,0 +1,51 @@
+package javato.activetesting.igoodlock;
+
+import javato.activetesting.analysis.Observer;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class LockGraphAbstractionTest {
+
+    @Test
+    public void testLocksOfOneSiteAreOneLock() {
+        LockGraphAbstraction a = new LockGraphAbstraction(LockGraphAbstraction.NONE, "site");
+        Object first = new Object();
+        Object second = new Object();
+        int firstId = Observer.uniqueId(first);
+        int secondId = Observer.uniqueId(second);
+        a.newExprAfter(7, firstId);
+        a.newExprAfter(7, secondId);
+        int lock = a.getLock(firstId, first);
+        assertTrue(lock < 0);
+        assertEquals(lock, a.getLock(secondId, second));
+        assertEquals(lock, a.getLock(secondId, null));
+        Object other = new Object();
+        assertEquals(Observer.uniqueId(other).intValue(), a.getLock(Observer.uniqueId(other), other));
+    }
+
+    @Test
+    public void testReplayedObjectsAreKnownById() {
+        LockGraphAbstraction a = new LockGraphAbstraction(LockGraphAbstraction.NONE, "site");
+        // ids no object of this JVM has
+        a.newExprAfter(7, Integer.MAX_VALUE - 1);
+        a.newExprAfter(7, Integer.MAX_VALUE - 2);
+        int lock = a.getLock(Integer.MAX_VALUE - 1, null);
+        assertTrue(lock < 0);
+        assertEquals(lock, a.getLock(Integer.MAX_VALUE - 2, null));
+    }
+
+    @Test
+    public void testSitesAreDroppedWithTheirObjects() throws InterruptedException {
+        LockGraphAbstraction a = new LockGraphAbstraction(LockGraphAbstraction.NONE, "site");
+        for (int i = 0; i < 10000; i++) {
+            a.newExprAfter(7, Observer.uniqueId(new Object()));
+        }
+        for (int i = 0; i < 200 && a.siteCount() > 0; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        // the collector may keep a few
+        assertTrue(a.siteCount() < 100);
+    }
+}
@@ -0,0 +1,66 @@
+package javato.activetesting.igoodlock;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class LockTreeTest {
+
+    @Test
+    public void testChildIsFoundAgain() {
+        LockTree lt = new LockTree(1);
+        assertTrue(lt.lock(10, 1));
+        LockNode outer = lt.getCurrent();
+        assertTrue(lt.lock(20, 2));
+        LockNode inner = lt.getCurrent();
+        lt.unlock(20, 2);
+        lt.unlock(10, 1);
+
+        assertFalse(lt.lock(10, 1));
+        assertSame(outer, lt.getCurrent());
+        assertFalse(lt.lock(20, 2));
+        assertSame(inner, lt.getCurrent());
+        lt.unlock(20, 2);
+        // same lock, other site: a new child
+        assertTrue(lt.lock(20, 3));
+        assertNotSame(inner, lt.getCurrent());
+        assertSame(outer, lt.getCurrent().getParent());
+    }
+
+    @Test
+    public void testManyChildren() {
+        LockTree lt = new LockTree(1);
+        int n = 5000;
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < n; i++) {
+                assertEquals(round == 0 && i == 0, lt.lock(7, 1));
+                assertEquals(round == 0, lt.lock(i % 100, i));
+                LockNode ln = lt.getCurrent();
+                assertEquals(i % 100, ln.getLockId());
+                assertEquals(i, ln.getIid());
+                lt.unlock(i % 100, i);
+                lt.unlock(7, 1);
+            }
+        }
+        assertFalse(lt.lock(7, 1));
+        LockNode outer = lt.getCurrent();
+        assertEquals(n, outer.getChildCount());
+        for (int i = 0; i < n; i++) {
+            assertEquals(i, outer.getChild(i).getIid());
+        }
+    }
+
+    @Test
+    public void testThreadsShareATree() {
+        LockGraph graph = new LockGraph();
+        for (int thread = 100; thread < 1100; thread++) {
+            Pair<Boolean, LockNode> outer = graph.lock(1, thread, -5, 10);
+            Pair<Boolean, LockNode> inner = graph.lock(2, thread, -5, 20);
+            assertEquals(thread == 100, outer.fst);
+            assertEquals(thread == 100, inner.fst);
+            assertSame(outer.snd, inner.snd.getParent());
+            graph.unlock(2, thread, -5, 20);
+            graph.unlock(1, thread, -5, 10);
+            assertEquals(thread > 100, graph.isShared(-5));
+        }
+    }
+}
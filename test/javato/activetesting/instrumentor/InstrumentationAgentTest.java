@@ -0,0 +1,228 @@
+package javato.activetesting.instrumentor;
+
+import javato.activetesting.analysis.AnalysisImpl;
+import javato.activetesting.analysis.ObserverForActiveTesting;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class InstrumentationAgentTest {
+
+    public static class RecordingAnalysis extends AnalysisImpl {
+        static final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        static final List<Integer> iids = Collections.synchronizedList(new ArrayList<Integer>());
+
+        private void record(String event, Integer iid) {
+            events.add(event);
+            iids.add(iid);
+        }
+
+        public void lockBefore(Integer iid, Integer thread, Integer lock, Object actualLock) {
+            record("lock", iid);
+        }
+
+        public void unlockAfter(Integer iid, Integer thread, Integer lock) {
+            record("unlock", iid);
+        }
+
+        public void newExprAfter(Integer iid, Integer object, Integer objOnWhichMethodIsInvoked) {
+            record("new", iid);
+        }
+
+        public void notifyBefore(Integer iid, Integer thread, Integer lock) {
+            record("notify", iid);
+        }
+
+        public void readBefore(Integer iid, Integer thread, Long memory, boolean isVolatile) {
+            record(isVolatile ? "vread" : "read", iid);
+        }
+
+        public void writeBefore(Integer iid, Integer thread, Long memory, boolean isVolatile) {
+            record(isVolatile ? "vwrite" : "write", iid);
+        }
+    }
+
+    static final class Account {
+        static int total;
+        volatile int version;
+        long balance;
+        long[] history = new long[4];
+
+        synchronized void deposit(long amount, int slot) {
+            balance += amount;
+            history[slot] = balance;
+            version++;
+            total++;
+        }
+
+        long sum() {
+            long s = 0;
+            for (int i = 0; i < history.length; i++) {
+                s += history[i];
+            }
+            return s;
+        }
+
+        static long run() {
+            Account a = new Account();
+            Account b = a;
+            b.deposit(5, 1);
+            a.deposit(7, 2);
+            Object lock = new Object();
+            synchronized (lock) {
+                lock.notify();
+            }
+            return a.sum() * 1000 + a.version * 100 + total;
+        }
+    }
+
+    public interface Shelf {
+        static Shelf of(List<String> names) {
+            return () -> names;
+        }
+
+        List<String> names();
+
+        default String first() {
+            return names().get(0);
+        }
+    }
+
+    static final class Library {
+        private final Map<String, Integer> counts = new HashMap<String, Integer>();
+
+        synchronized void count(String name) {
+            Integer n = counts.get(name);
+            counts.put(name, n == null ? 1 : n + 1);
+        }
+
+        static String run() {
+            List<String> names = new ArrayList<String>(Arrays.asList("c", "a", "b", "a"));
+            Collections.sort(names);
+            Library library = new Library();
+            names.forEach(library::count);
+            // the calls through the method reference are not seen, this one is
+            library.count(names.get(0));
+            Shelf shelf = Shelf.of(names);
+            return shelf.first() + library.counts.get("a") + Collections.max(names);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        RecordingAnalysis analysis = new RecordingAnalysis();
+        AnalysisImpl.removeShutdownHook(analysis);
+        ObserverForActiveTesting.setAnalysis(analysis);
+        RecordingAnalysis.events.clear();
+        RecordingAnalysis.iids.clear();
+    }
+
+    private static byte[] bytesOf(Class c) throws Exception {
+        InputStream in = c.getResourceAsStream(c.getName().substring(c.getName().lastIndexOf('.') + 1) + ".class");
+        byte[] ret = new byte[in.available()];
+        assertEquals(ret.length, in.read(ret));
+        in.close();
+        return ret;
+    }
+
+    /**
+     * Loads <code>bytes</code> as <code>name</code>, and everything else
+     * from the class path.
+     */
+    static class OneClassLoader extends ClassLoader {
+        private final String name;
+        private final byte[] bytes;
+
+        OneClassLoader(String name, byte[] bytes) {
+            super(InstrumentationAgentTest.class.getClassLoader());
+            this.name = name;
+            this.bytes = bytes;
+        }
+
+        protected synchronized Class<?> loadClass(String n, boolean resolve) throws ClassNotFoundException {
+            if (n.equals(name)) {
+                Class<?> c = findLoadedClass(n);
+                return c != null ? c : defineClass(n, bytes, 0, bytes.length);
+            }
+            return super.loadClass(n, resolve);
+        }
+    }
+
+    @Test
+    public void testInstrumentedClassRunsAndReports() throws Exception {
+        InstrumentationAgent agent = new InstrumentationAgent();
+        String name = Account.class.getName();
+        byte[] instrumented = agent.instrument(getClass().getClassLoader(), name.replace('.', '/'), bytesOf(Account.class));
+        assertNotNull(instrumented);
+
+        Class<?> c = new OneClassLoader(name, instrumented).loadClass(name);
+        Method run = c.getDeclaredMethod("run");
+        run.setAccessible(true);
+        assertEquals(17202L, run.invoke(null));
+
+        List<String> events = new ArrayList<String>(RecordingAnalysis.events);
+        assertEquals(3, Collections.frequency(events, "lock"));
+        assertEquals(3, Collections.frequency(events, "unlock"));
+        assertEquals(1, Collections.frequency(events, "notify"));
+        assertTrue(Collections.frequency(events, "new") >= 3);
+        assertTrue(events.contains("vread") && events.contains("vwrite"));
+        assertTrue(events.contains("read") && events.contains("write"));
+        for (Integer iid : RecordingAnalysis.iids) {
+            assertTrue(agent.getIidToLine().get(iid).startsWith("javato/activetesting/instrumentor/InstrumentationAgentTest.java.html#"));
+        }
+    }
+
+    @Test
+    public void testClassCallingJdkAndInterfaceMethods() throws Exception {
+        InstrumentationAgent agent = new InstrumentationAgent();
+        String name = Library.class.getName();
+        byte[] bytes = bytesOf(Library.class);
+        byte[] instrumented = agent.instrument(getClass().getClassLoader(), name.replace('.', '/'), bytes);
+        assertNotNull(instrumented);
+        // the version is kept, so the interface method calls stay valid
+        assertEquals(bytes[7], instrumented[7]);
+
+        Class<?> c = new OneClassLoader(name, instrumented).loadClass(name);
+        Method run = c.getDeclaredMethod("run");
+        run.setAccessible(true);
+        assertEquals("a3c", run.invoke(null));
+        assertEquals(1, Collections.frequency(RecordingAnalysis.events, "lock"));
+    }
+
+    @Test
+    public void testRangesAreKept() throws Exception {
+        InstrumentationAgent agent = new InstrumentationAgent();
+        int a = agent.reserve("A", "a1", Arrays.asList("A.java.html#1", "A.java.html#2"));
+        int b = agent.reserve("B", "b1", Arrays.asList("B.java.html#1"));
+        assertEquals(a, agent.reserve("A", "a1", Arrays.asList("A.java.html#1", "A.java.html#2")));
+        int a2 = agent.reserve("A", "a2", Arrays.asList("A.java.html#3"));
+        assertTrue(a2 > b);
+
+        File file = File.createTempFile("javato", ".iids");
+        file.deleteOnExit();
+        agent.writeRanges(file.getPath());
+        InstrumentationAgent next = new InstrumentationAgent();
+        next.readRanges(file.getPath());
+        assertEquals(b, next.reserve("B", "b1", Arrays.asList("B.java.html#1")));
+        assertEquals(a2, next.reserve("A", "a2", Arrays.asList("A.java.html#3")));
+        assertEquals("A.java.html#3", next.getIidToLine().get(a2));
+        assertTrue(next.reserve("C", "c1", Arrays.asList("C.java.html#1")) > a2);
+    }
+
+    @Test
+    public void testExcluded() {
+        InstrumentationAgent agent = new InstrumentationAgent();
+        assertTrue(agent.isExcluded("java/lang/Thread"));
+        assertTrue(agent.isExcluded("javato/activetesting/analysis/Observer"));
+        assertFalse(agent.isExcluded("benchmarks/Account"));
+    }
+}
@@ -0,0 +1,48 @@
+package javato.activetesting.lockset;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+public class LockSetTrackerTest {
+
+    @Test
+    public void testStacksFollowAcquiresAndReleases() {
+        LockSetTracker ls = new LockSetTracker();
+        for (int i = 0; i < 20; i++) {
+            assertFalse(ls.lockBefore(100 + i, 1, 1000 + i));
+        }
+        assertEquals(20, ls.getLockList(1).size());
+        assertEquals(Integer.valueOf(1000), ls.getLockList(1).get(0));
+        assertEquals(Integer.valueOf(107), ls.getLockAcquireIID(1, 1007));
+        for (int i = 0; i < 18; i++) {
+            ls.unlockAfter(1);
+        }
+        assertEquals(Arrays.asList(1000, 1001), ls.getLockList(1));
+        assertEquals(Arrays.asList(100, 101), ls.getLockSetIids(1));
+        assertTrue(ls.getLockList(2).isEmpty());
+    }
+
+    @Test
+    public void testSameOrderIsNoDeadlock() {
+        LockSetTracker ls = new LockSetTracker();
+        assertFalse(ls.lockBefore(1, 1, 500));
+        assertFalse(ls.lockBefore(2, 1, 600));
+        assertFalse(ls.lockBefore(3, 2, 500));
+        ls.unlockAfter(1);
+        ls.unlockAfter(1);
+        assertFalse(ls.lockBefore(4, 2, 600));
+    }
+
+    @Test
+    public void testReversedOrderIsDeadlock() {
+        LockSetTracker ls = new LockSetTracker();
+        assertFalse(ls.lockBefore(1, 1, 500));
+        assertFalse(ls.lockBefore(2, 2, 600));
+        assertFalse(ls.lockBefore(3, 1, 600));
+        assertTrue(ls.lockBefore(4, 2, 500));
+        assertEquals(4, (int) ls.locationsInvolvedInDeadlock(2, 500).fst);
+        assertEquals(3, (int) ls.locationsInvolvedInDeadlock(2, 500).snd);
+    }
+}
@@ -0,0 +1,138 @@
+package javato.activetesting.syncpd;
+
+import javato.activetesting.SPDOnline;
+import javato.activetesting.analysis.AnalysisImpl;
+import javato.activetesting.analysis.BoxingAnalysisAdapter;
+import javato.activetesting.analysis.PrimitiveAnalysis;
+import javato.activetesting.trace.TraceReader;
+import javato.activetesting.trace.TraceReplay;
+
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Measures the throughput of SPDOnline, i.e. of SyncPDState and its vector
+ * clocks, in events per second.
+ * <p/>
+ * Given trace directories recorded with the record-trace target of run.xml
+ * (e.g. for the dstest and TestDeadlock benchmarks), each trace is replayed
+ * into a fresh SPDOnline.  Without arguments, two synthetic workloads are
+ * used: "dstest", many threads doing short nested critical sections on a
+ * few collection locks with reads and writes, "deadlock", pairs of
+ * threads taking two locks in opposite orders, and "churn", the dstest
+ * sections run by waves of threads that the main thread starts and joins,
+ * so that SyncPDState can collect their history.
+ * <pre>
+ *   java -cp classes javato.activetesting.syncpd.SyncPDBenchmark [traceDir]...
+ * </pre>
+ */
+public class SyncPDBenchmark {
+
+    private static SPDOnline newAnalysis() {
+        SPDOnline spd = new SPDOnline();
+        AnalysisImpl.removeShutdownHook(spd);
+        return spd;
+    }
+
+    /**
+     * Emits whole critical sections of randomly chosen threads, so that the
+     * execution itself never deadlocks.
+     */
+    private static long synthetic(PrimitiveAnalysis a, int nThreads, int nLocks, int sections,
+                                  boolean opposite, long seed) {
+        return synthetic(a, nThreads, nLocks, sections, opposite, 100, new Random(seed));
+    }
+
+    private static long churn(PrimitiveAnalysis a, int nThreads, int nLocks, int sections, int waves, long seed) {
+        Random random = new Random(seed);
+        int main = 1;
+        long n = 0;
+        for (int w = 0; w < waves; w++) {
+            int firstThread = 100 + w * nThreads;
+            n += synthetic(a, nThreads, nLocks, sections / waves, false, firstThread, random);
+            for (int t = 0; t < nThreads; t++) {
+                a.joinAfter(2, main, firstThread + t);
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private static long synthetic(PrimitiveAnalysis a, int nThreads, int nLocks, int sections,
+                                  boolean opposite, int firstThread, Random random) {
+        int main = 1;
+        int firstLock = 10000;
+        long n = 0;
+        for (int t = 0; t < nThreads; t++) {
+            a.startBefore(1, main, firstThread + t);
+            n++;
+        }
+        for (int i = 0; i < sections; i++) {
+            int t = random.nextInt(nThreads);
+            int thread = firstThread + t;
+            int l1;
+            int l2;
+            if (opposite) {
+                l1 = firstLock + ((t & 1) == 0 ? 0 : 1) + 2 * (t / 2 % (nLocks / 2));
+                l2 = l1 + ((t & 1) == 0 ? 1 : -1);
+            } else {
+                l1 = firstLock + random.nextInt(nLocks);
+                l2 = firstLock + random.nextInt(nLocks);
+                if (l1 == l2) {
+                    l2 = firstLock + (l1 - firstLock + 1) % nLocks;
+                }
+            }
+            long memory = random.nextInt(64);
+            a.lockBefore(10, thread, l1, null);
+            a.readBefore(11, thread, memory, false);
+            a.lockBefore(12, thread, l2, null);
+            a.writeBefore(13, thread, memory, false);
+            a.unlockAfter(14, thread, l2);
+            a.writeBefore(15, thread, memory + 1, false);
+            a.unlockAfter(16, thread, l1);
+            n += 7;
+        }
+        return n;
+    }
+
+    private static void report(String name, long events, long nanos, SPDOnline spd) {
+        double seconds = nanos / 1e9;
+        SyncPDState state = spd.getSyncPDState();
+        System.out.println(name + "\t" + events + "\t" + seconds + "\t" + (long) (events / seconds)
+                + "\t" + state.uniqueDeadlockCount + "\t" + state.historyPeak + "\t" + state.historyReclaimed);
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("workload\tevents\tseconds\tevents/s\tdeadlocks\thistory peak\treclaimed");
+        if (args.length == 0) {
+            // warm up
+            synthetic(BoxingAnalysisAdapter.toPrimitive(newAnalysis()), 8, 8, 5000, false, 0);
+            SPDOnline spd = newAnalysis();
+            long start = System.nanoTime();
+            long n = synthetic(BoxingAnalysisAdapter.toPrimitive(spd), 16, 8, 40000, false, 1);
+            report("dstest", n, System.nanoTime() - start, spd);
+            spd = newAnalysis();
+            start = System.nanoTime();
+            n = synthetic(BoxingAnalysisAdapter.toPrimitive(spd), 8, 8, 40000, true, 2);
+            report("deadlock", n, System.nanoTime() - start, spd);
+            spd = newAnalysis();
+            start = System.nanoTime();
+            n = churn(BoxingAnalysisAdapter.toPrimitive(spd), 4, 8, 20000, 20, 3);
+            report("churn", n, System.nanoTime() - start, spd);
+            return;
+        }
+        for (String dir : args) {
+            SPDOnline spd = newAnalysis();
+            PrimitiveAnalysis a = BoxingAnalysisAdapter.toPrimitive(spd);
+            TraceReader r = new TraceReader(new File(dir));
+            long n = 0;
+            long start = System.nanoTime();
+            while (r.next()) {
+                TraceReplay.dispatch(a, r.getOp(), r.getIid(), r.getThread(), r.getTarget(), r.getFlag());
+                n++;
+            }
+            report(dir, n, System.nanoTime() - start, spd);
+            r.close();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package javato.activetesting.syncpd;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class SyncPDStateTest {
+
+    private static void acquire(SyncPDState state, int thread, int lock, int iid) {
+        int vertexIndex = state.keepCycleBooks(thread, lock, iid);
+        if (vertexIndex >= 0) {
+            state.findDeadlocks(vertexIndex, thread, lock, iid);
+        }
+        state.incClockThread(thread);
+        state.addToLocksHeld(thread, lock);
+        state.addAcquireToHist(thread, lock, iid);
+    }
+
+    private static void release(SyncPDState state, int thread, int lock) {
+        state.incClockThread(thread);
+        state.updateRelease(thread, lock);
+        state.removeLockFromLocksHeld(thread, lock);
+    }
+
+    private static void section(SyncPDState state, int thread, int iid, int... locks) {
+        for (int i = 0; i < locks.length; i++) {
+            acquire(state, thread, locks[i], iid + i);
+        }
+        for (int i = locks.length - 1; i >= 0; i--) {
+            release(state, thread, locks[i]);
+        }
+    }
+
+    private static SyncPDState twoThreads() {
+        SyncPDState state = new SyncPDState();
+        state.addThread(1);
+        state.incClockThread(1);
+        state.addThread(1, 2);
+        state.incClockThread(1);
+        state.addThread(1, 3);
+        return state;
+    }
+
+    @Test
+    public void testOppositeOrderIsDeadlock() {
+        SyncPDState state = twoThreads();
+        section(state, 2, 10, 100, 200);
+        section(state, 3, 20, 200, 100);
+        // the same pair again is not reported twice
+        section(state, 3, 20, 200, 100);
+        assertEquals(1, state.uniqueDeadlockCount);
+    }
+
+    @Test
+    public void testGuardedOrderIsNotDeadlock() {
+        SyncPDState state = twoThreads();
+        section(state, 2, 10, 50, 100, 200);
+        section(state, 3, 20, 50, 200, 100);
+        assertEquals(0, state.uniqueDeadlockCount);
+    }
+
+    @Test
+    public void testSameThreadIsNotDeadlock() {
+        SyncPDState state = twoThreads();
+        section(state, 2, 10, 100, 200);
+        section(state, 2, 20, 200, 100);
+        assertEquals(0, state.uniqueDeadlockCount);
+    }
+
+    @Test
+    public void testJoinedHistoryIsCollected() {
+        SyncPDState state = twoThreads();
+        for (int i = 0; i < 10; i++) {
+            section(state, 2, 10, 100, 200);
+            section(state, 3, 30, 300, 400);
+        }
+        state.incClockThread(1);
+        state.joinThread(2);
+        state.getThreadVC(1).updateMax(state.getThreadVC(2));
+        state.joinThread(3);
+        state.getThreadVC(1).updateMax(state.getThreadVC(3));
+        state.incClockThread(1);
+        state.addThread(1, 4);
+        state.incClockThread(1);
+        state.addThread(1, 5);
+
+        long before = state.historySize;
+        state.collectHistory();
+        assertTrue(state.historyReclaimed > 0);
+        assertEquals(before - state.historyReclaimed, state.historySize);
+
+        // what the later threads do is still checked against what is left
+        section(state, 4, 40, 100, 200);
+        section(state, 5, 50, 200, 100);
+        assertEquals(1, state.uniqueDeadlockCount);
+    }
+}
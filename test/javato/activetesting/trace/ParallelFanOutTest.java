@@ -0,0 +1,90 @@
+package javato.activetesting.trace;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javato.activetesting.analysis.AnalysisImpl;
+import javato.activetesting.analysis.EventType;
+import javato.activetesting.analysis.PrimitiveAnalysisImpl;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class ParallelFanOutTest {
+
+    static class LockRecorder extends AnalysisImpl {
+        final List<Integer> locks = new ArrayList<Integer>();
+        boolean finished;
+
+        public void lockBefore(Integer iid, Integer thread, Integer lock, Object actualLock) {
+            locks.add(lock);
+        }
+
+        public void finish() {
+            finished = true;
+        }
+    }
+
+    static class WriteRecorder extends PrimitiveAnalysisImpl {
+        final List<Long> writes = new ArrayList<Long>();
+
+        public void writeBefore(int iid, int thread, long memory, boolean isVolatile) {
+            writes.add(memory);
+        }
+    }
+
+    @Test
+    public void testConsumedEvents() {
+        boolean[] locks = ParallelFanOut.consumedEvents(new LockRecorder());
+        assertTrue(locks[EventType.LOCK]);
+        assertFalse(locks[EventType.UNLOCK]);
+        assertFalse(locks[EventType.WRITE]);
+
+        boolean[] writes = ParallelFanOut.consumedEvents(new WriteRecorder());
+        assertTrue(writes[EventType.WRITE]);
+        assertFalse(writes[EventType.READ]);
+        assertFalse(writes[EventType.LOCK]);
+    }
+
+    @Test
+    public void testEachAnalysisSeesItsEventsInOrder() throws InterruptedException {
+        LockRecorder locks = new LockRecorder();
+        WriteRecorder writes = new WriteRecorder();
+        ParallelFanOut fanOut = new ParallelFanOut(7, 2, locks, writes);
+        int n = 1000;
+        for (int i = 0; i < n; i++) {
+            fanOut.event(EventType.LOCK, 1, 1, i, false);
+            fanOut.event(EventType.WRITE, 2, 1, i, false);
+            fanOut.event(EventType.UNLOCK, 3, 1, i, false);
+        }
+        fanOut.finish();
+
+        assertTrue(locks.finished);
+        assertEquals(n, locks.locks.size());
+        assertEquals(n, writes.writes.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(i, locks.locks.get(i).intValue());
+            assertEquals(i, writes.writes.get(i).longValue());
+        }
+    }
+
+    @Test
+    public void testFailingFinishIsReported() throws InterruptedException {
+        final IllegalStateException broken = new IllegalStateException("broken");
+        LockRecorder failing = new LockRecorder() {
+            public void finish() {
+                throw broken;
+            }
+        };
+        LockRecorder locks = new LockRecorder();
+        ParallelFanOut fanOut = new ParallelFanOut(7, 2, failing, locks);
+        fanOut.event(EventType.LOCK, 1, 1, 1, false);
+        try {
+            fanOut.finish();
+            fail("finish() should rethrow the failure of the analysis");
+        } catch (RuntimeException e) {
+            assertSame(broken, e.getCause());
+        }
+        assertTrue(locks.finished);
+    }
+}
@@ -0,0 +1,68 @@
+package javato.activetesting.trace;
+
+import javato.activetesting.analysis.EventType;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TraceReaderTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("trace", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testMergesThreadsInSequenceOrder() throws IOException {
+        // a chunk of 3 records forces the writers to grow their mapping
+        TraceWriter w1 = new TraceWriter(new File(dir, "thread-0" + TraceReader.SUFFIX), 3);
+        TraceWriter w2 = new TraceWriter(new File(dir, "thread-1" + TraceReader.SUFFIX), 3);
+        long seq = 0;
+        for (int i = 0; i < 10; i++) {
+            w1.write(EventType.WRITE, false, i, 1, 100 + i, seq++);
+            w2.write(EventType.READ, true, i, 2, (1L << 32) + i, seq++);
+            if (i % 3 == 0) {
+                w2.write(EventType.LOCK, false, i, 2, 7, seq++);
+            }
+        }
+        w1.close();
+        w2.close();
+
+        TraceReader r = new TraceReader(dir);
+        long expected = 0;
+        int reads = 0;
+        while (r.next()) {
+            assertEquals(expected++, r.getSeq());
+            if (r.getOp() == EventType.READ) {
+                assertEquals(2, r.getThread());
+                assertTrue(r.getFlag());
+                assertEquals((1L << 32) + reads, r.getTarget());
+                reads++;
+            } else if (r.getOp() == EventType.WRITE) {
+                assertEquals(1, r.getThread());
+                assertFalse(r.getFlag());
+            } else {
+                assertEquals(EventType.LOCK, r.getOp());
+                assertEquals(7, r.getTarget());
+            }
+        }
+        r.close();
+        assertEquals(seq, expected);
+        assertEquals(seq, r.getEventCount());
+        assertEquals(10, reads);
+    }
+}
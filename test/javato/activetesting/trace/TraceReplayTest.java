@@ -0,0 +1,162 @@
+package javato.activetesting.trace;
+
+import javato.activetesting.TraceRecorderAnalysis;
+import javato.activetesting.analysis.EventType;
+import javato.activetesting.analysis.PrimitiveAnalysisImpl;
+import javato.activetesting.common.Parameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TraceReplayTest {
+    private static final File dir;
+
+    static {
+        try {
+            dir = File.createTempFile("trace", "");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        dir.delete();
+        System.setProperty("javato.trace.dir", dir.getPath());
+    }
+
+    static class RecordingAnalysis extends PrimitiveAnalysisImpl {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        boolean finished;
+
+        public void lockBefore(int iid, int thread, int lock, Object actualLock) {
+            events.add("lock " + iid + " " + thread + " " + lock);
+        }
+
+        public void unlockAfter(int iid, int thread, int lock) {
+            events.add("unlock " + iid + " " + thread + " " + lock);
+        }
+
+        public void readBefore(int iid, int thread, long memory, boolean isVolatile) {
+            events.add((isVolatile ? "vread " : "read ") + iid + " " + thread + " " + memory);
+        }
+
+        public void writeBefore(int iid, int thread, long memory, boolean isVolatile) {
+            events.add((isVolatile ? "vwrite " : "write ") + iid + " " + thread + " " + memory);
+        }
+
+        public void finish() {
+            finished = true;
+        }
+    }
+
+    static class ErrorFileRecorder extends PrimitiveAnalysisImpl {
+        String atEvent;
+        String atFinish;
+
+        public void lockBefore(int iid, int thread, int lock, Object actualLock) {
+            atEvent = Parameters.errorLogFile();
+        }
+
+        public void finish() {
+            atFinish = Parameters.errorListFile();
+        }
+    }
+
+    private static final List<String> RECORDED = Arrays.asList(
+            "lock 1 1 7", "write 2 1 4294967299", "unlock 3 1 7",
+            "vread 4 2 12", "read 5 2 4294967299", "write 6 1 5");
+
+    @BeforeClass
+    public static void record() throws InterruptedException {
+        final TraceRecorderAnalysis recorder = new TraceRecorderAnalysis();
+        recorder.lockBefore(1, 1, 7, null);
+        recorder.writeBefore(2, 1, (1L << 32) + 3, false);
+        recorder.unlockAfter(3, 1, 7);
+        Thread t = new Thread() {
+            public void run() {
+                recorder.readBefore(4, 2, 12, true);
+                recorder.readBefore(5, 2, (1L << 32) + 3, false);
+            }
+        };
+        t.start();
+        t.join();
+        recorder.writeBefore(6, 1, 5, false);
+        recorder.finish();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private void replay(boolean parallel) throws IOException, InterruptedException {
+        RecordingAnalysis first = new RecordingAnalysis();
+        RecordingAnalysis second = new RecordingAnalysis();
+        TraceReplay replay = new TraceReplay(parallel, first, second);
+        TraceReader reader = new TraceReader(dir);
+        assertEquals(RECORDED.size(), replay.replay(reader));
+        reader.close();
+        replay.finish();
+        assertEquals(RECORDED, first.events);
+        assertEquals(RECORDED, second.events);
+        assertTrue(first.finished);
+        assertTrue(second.finished);
+    }
+
+    @Test
+    public void testReplayInOrder() throws Exception {
+        replay(false);
+    }
+
+    @Test
+    public void testReplayInParallel() throws Exception {
+        replay(true);
+    }
+
+    private void replayErrorFiles(boolean parallel) throws IOException, InterruptedException {
+        ErrorFileRecorder first = new ErrorFileRecorder();
+        ErrorFileRecorder second = new ErrorFileRecorder();
+        RecordingAnalysis third = new RecordingAnalysis();
+        TraceReplay replay = new TraceReplay(parallel, first, second, third);
+        TraceReader reader = new TraceReader(dir);
+        replay.replay(reader);
+        reader.close();
+        replay.finish();
+        assertEquals(Parameters.ERROR_LOG_FILE + ".ErrorFileRecorder.1", first.atEvent);
+        assertEquals(Parameters.ERROR_LIST_FILE + ".ErrorFileRecorder.1", first.atFinish);
+        assertEquals(Parameters.ERROR_LOG_FILE + ".ErrorFileRecorder.2", second.atEvent);
+        assertEquals(Parameters.ERROR_LIST_FILE + ".ErrorFileRecorder.2", second.atFinish);
+        assertEquals(Parameters.ERROR_LOG_FILE, Parameters.errorLogFile());
+    }
+
+    @Test
+    public void testEachAnalysisHasItsOwnErrorFiles() throws Exception {
+        replayErrorFiles(false);
+    }
+
+    @Test
+    public void testEachParallelAnalysisHasItsOwnErrorFiles() throws Exception {
+        replayErrorFiles(true);
+    }
+
+    @Test
+    public void testErrorFileSuffixes() {
+        assertEquals("", TraceReplay.errorFileSuffixes(RecordingAnalysis.class)[0]);
+        assertArrayEquals(new String[]{".RecordingAnalysis", ".ErrorFileRecorder"},
+                TraceReplay.errorFileSuffixes(RecordingAnalysis.class, ErrorFileRecorder.class));
+    }
+
+    @Test
+    public void testDispatch() {
+        RecordingAnalysis a = new RecordingAnalysis();
+        TraceReplay.dispatch(a, EventType.WRITE, 9, 3, 11, true);
+        assertEquals(Collections.singletonList("vwrite 9 3 11"), a.events);
+    }
+}
@@ -0,0 +1,78 @@
+package javato.activetesting.trial;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TrialRunnerTest {
+    private static final String MAIN = "test.TrialMain";
+    private URL[] classPath;
+
+    @Before
+    public void setUp() throws Exception {
+        classPath = new URL[]{Class.forName(MAIN).getProtectionDomain().getCodeSource().getLocation()};
+        Trial.putShared("test.TrialMain.events", new ArrayList<String>());
+        TrialRunner.trapExits();
+    }
+
+    @After
+    public void tearDown() {
+        // ExitTrap permits everything, this included
+        System.setSecurityManager(null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> events() {
+        return (List<String>) Trial.getShared("test.TrialMain.events");
+    }
+
+    private int run(String how, String name) throws InterruptedException {
+        return new TrialRunner(classPath, MAIN, new String[]{how}).run(name);
+    }
+
+    @Test
+    public void testExitRunsHooksAndEndsOnlyTheTrial() throws InterruptedException {
+        assertEquals(3, run("exit", "trial-0"));
+        // the second trial has fresh static state
+        assertEquals(3, run("exit", "trial-1"));
+        assertEquals(Arrays.asList("exit run 1", "exit hook", "exit run 1", "exit hook"), events());
+    }
+
+    @Test
+    public void testHaltSkipsHooks() throws InterruptedException {
+        assertEquals(4, run("halt", "trial-0"));
+        assertEquals(4, run("halt", "trial-1"));
+        assertEquals(Arrays.asList("halt run 1", "halt run 1"), events());
+    }
+
+    @Test
+    public void testSwallowedExitFailsTheTrial() throws InterruptedException {
+        TrialRunner runner = new TrialRunner(classPath, MAIN, new String[]{"swallow"});
+        assertEquals(1, runner.run("trial-0"));
+        assertEquals(1, runner.getAbandoned());
+        // the hook runs while the program goes on
+        assertEquals(new HashSet<String>(Arrays.asList("swallow run 1", "swallow hook", "swallow caught")),
+                new HashSet<String>(events()));
+    }
+
+    @Test
+    public void testBlockedThreadsAreAbandoned() throws InterruptedException {
+        TrialRunner runner = new TrialRunner(classPath, MAIN, new String[]{"block"});
+        assertEquals(6, runner.run("trial-0"));
+        assertEquals(1, runner.getAbandoned());
+        assertEquals(Arrays.asList("block run 1", "block hook"), events());
+    }
+
+    @Test
+    public void testTrialEndsWithItsLastThread() throws InterruptedException {
+        assertEquals(0, run("return", "trial-0"));
+        assertEquals(0, run("return", "trial-1"));
+        assertEquals(Arrays.asList("return run 1", "return thread", "return hook",
+                "return run 1", "return thread", "return hook"), events());
+    }
+}
@@ -0,0 +1,91 @@
+package javato.activetesting.vc;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class DenseVectorClockTest {
+
+    @Test
+    public void testThreadIndexIsDense() {
+        ThreadIndex index = new ThreadIndex(2);
+        int[] threads = {7, 1000003, -5, 0, 42};
+        for (int i = 0; i < 100; i++) {
+            for (int t : threads) {
+                index.indexOf(t * 31 + i);
+            }
+        }
+        assertEquals(500, index.size());
+        for (int i = 0; i < index.size(); i++) {
+            assertEquals(i, index.peek(index.threadAt(i)));
+        }
+        assertEquals(-1, index.peek(999));
+    }
+
+    @Test
+    public void testThreadIndexIsDenseUnderConcurrentUse() throws InterruptedException {
+        final ThreadIndex index = new ThreadIndex(2);
+        final int[][] seen = new int[4][1000];
+        Thread[] workers = new Thread[seen.length];
+        for (int w = 0; w < workers.length; w++) {
+            final int[] mine = seen[w];
+            workers[w] = new Thread() {
+                public void run() {
+                    for (int t = 0; t < mine.length; t++) {
+                        mine[t] = index.indexOf(t);
+                    }
+                }
+            };
+            workers[w].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(1000, index.size());
+        for (int t = 0; t < 1000; t++) {
+            for (int[] mine : seen) {
+                assertEquals(seen[0][t], mine[t]);
+            }
+            assertEquals(t, index.threadAt(seen[0][t]));
+        }
+    }
+
+    @Test
+    public void testAgreesWithTreeMapClock() {
+        ThreadIndex index = new ThreadIndex();
+        DenseVectorClock a = new DenseVectorClock(index);
+        DenseVectorClock b = new DenseVectorClock(index);
+        VectorClock oa = new VectorClock();
+        VectorClock ob = new VectorClock();
+        java.util.Random random = new java.util.Random(1);
+        for (int i = 0; i < 2000; i++) {
+            int thread = 100 + random.nextInt(40);
+            switch (random.nextInt(5)) {
+                case 0:
+                    a.inc(thread);
+                    oa.inc(thread);
+                    break;
+                case 1:
+                    b.inc(thread);
+                    ob.inc(thread);
+                    break;
+                case 2:
+                    a.updateMax(b);
+                    oa.updateMax(ob);
+                    break;
+                case 3:
+                    b.copyFrom(a);
+                    ob = new VectorClock(oa);
+                    break;
+                default:
+                    assertEquals(VectorClock.isVC1LessThanOrEqualToVC2(oa, ob), a.isLessThanOrEqual(b));
+                    assertEquals(VectorClock.isVC1LessThanOrEqualToVC2(ob, oa), b.isLessThanOrEqual(a));
+                    boolean le = VectorClock.isVC1LessThanOrEqualToVC2(oa, ob);
+                    boolean ge = VectorClock.isVC1LessThanOrEqualToVC2(ob, oa);
+                    assertEquals(le ? -1 : ge ? 1 : 0, a.compare(b));
+            }
+            assertEquals(oa.getValue(thread), a.getValue(thread));
+            assertEquals(ob.getValue(thread), b.getValue(thread));
+        }
+        assertTrue(VectorClock.areVecClocksEqual(oa, new VectorClock(a)));
+    }
+}
@@ -0,0 +1,106 @@
+package javato.activetesting.vc;
+
+import java.util.Random;
+
+/**
+ * Compares the TreeMap-backed VectorClock against DenseVectorClock for 8, 64
+ * and 512 threads on the operations the race trackers perform per access:
+ * taking a copy, joining, and the two comparisons.
+ * <p/>
+ * Run with
+ * <pre>
+ *   java -cp classes javato.activetesting.vc.VectorClockBenchmark [opsPerSize]
+ * </pre>
+ */
+public class VectorClockBenchmark {
+    private static final int[] THREADS = {8, 64, 512};
+    private static final int CLOCKS = 16;
+
+    private static long sink;
+
+    private static VectorClock[] treeClocks(int nThreads, long seed) {
+        Random random = new Random(seed);
+        VectorClock[] clocks = new VectorClock[CLOCKS];
+        for (int c = 0; c < CLOCKS; c++) {
+            clocks[c] = new VectorClock();
+            for (int t = 0; t < nThreads; t++) {
+                int n = 1 + random.nextInt(8);
+                for (int i = 0; i < n; i++) {
+                    clocks[c].inc(1000 + 7 * t);
+                }
+            }
+        }
+        return clocks;
+    }
+
+    private static DenseVectorClock[] denseClocks(VectorClock[] tree) {
+        ThreadIndex index = new ThreadIndex();
+        DenseVectorClock[] clocks = new DenseVectorClock[tree.length];
+        for (int c = 0; c < tree.length; c++) {
+            clocks[c] = new DenseVectorClock(index);
+            for (Integer t : tree[c].vc.keySet()) {
+                long n = tree[c].getValue(t);
+                for (long i = 0; i < n; i++) {
+                    clocks[c].inc(t);
+                }
+            }
+        }
+        return clocks;
+    }
+
+    private static long runTree(VectorClock[] clocks, int ops) {
+        long begin = System.nanoTime();
+        long acc = 0;
+        for (int i = 0; i < ops; i++) {
+            VectorClock a = clocks[i & (CLOCKS - 1)];
+            VectorClock b = clocks[(i * 7 + 3) & (CLOCKS - 1)];
+            VectorClock copy = new VectorClock(a);
+            copy.updateMax(b);
+            if (VectorClock.isVC1LessThanOrEqualToVC2(a, copy)) {
+                acc++;
+            }
+            acc += copy.compareVectorClocks(b, a);
+        }
+        sink += acc;
+        return System.nanoTime() - begin;
+    }
+
+    private static long runDense(DenseVectorClock[] clocks, int ops) {
+        long begin = System.nanoTime();
+        long acc = 0;
+        DenseVectorClock copy = new DenseVectorClock(clocks[0].getIndex());
+        for (int i = 0; i < ops; i++) {
+            DenseVectorClock a = clocks[i & (CLOCKS - 1)];
+            DenseVectorClock b = clocks[(i * 7 + 3) & (CLOCKS - 1)];
+            copy.copyFrom(a);
+            copy.updateMax(b);
+            if (a.isLessThanOrEqual(copy)) {
+                acc++;
+            }
+            acc += b.compare(a);
+        }
+        sink += acc;
+        return System.nanoTime() - begin;
+    }
+
+    public static void main(String[] args) {
+        int ops = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        System.out.println("threads\ttreemap(ns/op)\tdense(ns/op)");
+        for (int nThreads : THREADS) {
+            VectorClock[] tree = treeClocks(nThreads, nThreads);
+            DenseVectorClock[] dense = denseClocks(tree);
+            int n = Math.max(ops * 8 / nThreads, 1000);
+            // warm up both paths so that the JIT has compiled them before measuring
+            for (int i = 0; i < 3; i++) {
+                runTree(tree, n / 10);
+                runDense(dense, n / 10);
+            }
+            long old = runTree(tree, n);
+            long neu = runDense(dense, n);
+            System.out.println(nThreads + "\t" + (old / (double) n) + "\t" + (neu / (double) n));
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package javato.instrumentor;
+
+import soot.Body;
+import soot.IntType;
+import soot.Local;
+import soot.Modifier;
+import soot.SootField;
+import soot.SootMethod;
+import soot.Value;
+import soot.jimple.IntConstant;
+import soot.jimple.Jimple;
+import soot.jimple.Stmt;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+import static javato.instrumentor.JimpleBodies.*;
+
+public class EscapeAnalysisTest {
+    private JimpleBodies c;
+    private SootField f;
+    private SootField last;
+    private SootMethod confinedInit;
+    private SootMethod sink;
+
+    @Before
+    public void setUp() {
+        EscapeAnalysis.v().reset();
+        c = new JimpleBodies();
+        f = c.field("f", Modifier.PUBLIC);
+        last = c.staticField("last");
+        sink = c.method("sink", true, c.type).getMethod();
+        ret(sink.getActiveBody());
+
+        // <init>() { this.f = 0; }
+        Body b = c.method("<init>", false);
+        Local self = local(b, "this", c.type);
+        add(b, Jimple.v().newIdentityStmt(self, Jimple.v().newThisRef(c.type)));
+        assign(b, get(self, f), IntConstant.v(0));
+        ret(b);
+        confinedInit = b.getMethod();
+    }
+
+    private static boolean isThreadLocal(Stmt s) {
+        return s.hasTag(ThreadLocalTag.NAME);
+    }
+
+    /**
+     * A method that allocates an object with <code>constructor</code> and
+     * writes its field; returns the body, whose third statement is the write.
+     */
+    private Body allocateAndWrite(String name, SootMethod constructor, Value... args) {
+        Body b = c.method(name, true);
+        Local o = local(b, "o", c.type);
+        assign(b, o, Jimple.v().newNewExpr(c.type));
+        init(b, o, constructor, args);
+        assign(b, get(o, f), IntConstant.v(1));
+        return b;
+    }
+
+    private static Stmt nth(Body b, int n) {
+        return (Stmt) b.getUnits().toArray()[n];
+    }
+
+    private static Local o(Body b) {
+        return (Local) b.getLocals().getFirst();
+    }
+
+    @Test
+    public void testConfinedCopy() {
+        Body b = allocateAndWrite("copy", confinedInit);
+        Local copy = local(b, "copy", c.type);
+        assign(b, copy, o(b));
+        Stmt read = assign(b, local(b, "x", IntType.v()), get(copy, f));
+        ret(b);
+        assertTrue(EscapeAnalysis.v().confinedLocals(b, null).contains(o(b)));
+        assertTrue(EscapeAnalysis.v().confinedLocals(b, null).contains(copy));
+        EscapeAnalysis.v().internalTransform(b, "jtp.escape", null);
+        assertTrue(isThreadLocal(nth(b, 2)));
+        assertTrue(isThreadLocal(read));
+    }
+
+    @Test
+    public void testStoreToHeapEscapes() {
+        Body b = allocateAndWrite("store", confinedInit);
+        assign(b, get(last), o(b));
+        ret(b);
+        assertFalse(EscapeAnalysis.v().confinedLocals(b, null).contains(o(b)));
+        EscapeAnalysis.v().internalTransform(b, "jtp.escape", null);
+        assertFalse(isThreadLocal(nth(b, 2)));
+    }
+
+    @Test
+    public void testArgumentEscapes() {
+        Body b = allocateAndWrite("pass", confinedInit);
+        call(b, sink, o(b));
+        ret(b);
+        assertFalse(EscapeAnalysis.v().confinedLocals(b, null).contains(o(b)));
+        EscapeAnalysis.v().internalTransform(b, "jtp.escape", null);
+        assertFalse(isThreadLocal(nth(b, 2)));
+    }
+
+    @Test
+    public void testCopyOfEscapingObjectEscapes() {
+        Body b = allocateAndWrite("copyEscapes", confinedInit);
+        Local copy = local(b, "copy", c.type);
+        assign(b, copy, o(b));
+        call(b, sink, copy);
+        ret(b);
+        EscapeAnalysis.v().internalTransform(b, "jtp.escape", null);
+        assertFalse(isThreadLocal(nth(b, 2)));
+    }
+
+    @Test
+    public void testLeakingConstructor() {
+        // <init>(int) { last = this; }
+        Body init = c.method("<init>", false, IntType.v());
+        Local self = local(init, "this", c.type);
+        add(init, Jimple.v().newIdentityStmt(self, Jimple.v().newThisRef(c.type)));
+        assign(init, get(last), self);
+        ret(init);
+        assertFalse(EscapeAnalysis.v().isConfinedConstructor(init.getMethod()));
+        assertTrue(EscapeAnalysis.v().isConfinedConstructor(confinedInit));
+        assertFalse(EscapeAnalysis.v().confinedLocals(init, self).contains(self));
+
+        Body b = allocateAndWrite("leak", init.getMethod(), IntConstant.v(0));
+        ret(b);
+        EscapeAnalysis.v().internalTransform(b, "jtp.escape", null);
+        assertFalse(isThreadLocal(nth(b, 2)));
+    }
+}
@@ -0,0 +1,103 @@
+package javato.instrumentor;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class IncrementalInstrumentorTest {
+
+    static class Counter {
+        static int total;
+        int n;
+        int[] history = new int[10];
+
+        synchronized void inc() {
+            n++;
+            history[n % 10] = n;
+            total = Math.max(total, n);
+        }
+    }
+
+    private static IncrementalInstrumentor.ClassInfo info(String name, String hash, int bound, String... referenced) {
+        IncrementalInstrumentor.ClassInfo ret = new IncrementalInstrumentor.ClassInfo();
+        ret.name = name;
+        ret.hash = hash;
+        ret.superName = "java.lang.Object";
+        ret.bound = bound;
+        ret.referenced.addAll(Arrays.asList(referenced));
+        return ret;
+    }
+
+    private static IncrementalInstrumentor newInstrumentor() {
+        return new IncrementalInstrumentor(new File("classes"), new File("out"), new File("cache"),
+                new ArrayList<String>());
+    }
+
+    @Test
+    public void testScan() throws Exception {
+        InputStream in = getClass().getResourceAsStream("IncrementalInstrumentorTest$Counter.class");
+        byte[] bytes = new byte[in.available()];
+        assertEquals(bytes.length, in.read(bytes));
+        in.close();
+        IncrementalInstrumentor.ClassInfo c = IncrementalInstrumentor.scan(bytes);
+        assertEquals(Counter.class.getName(), c.name);
+        assertEquals("java.lang.Object", c.superName);
+        assertTrue(c.fieldNames.containsAll(Arrays.asList("total", "n", "history")));
+        assertTrue(c.staticOwners.contains("java.lang.Math"));
+        assertTrue(c.referenced.contains("java.lang.Math"));
+        assertTrue(c.bound > 10);
+        assertEquals(IncrementalInstrumentor.sha1(bytes), c.hash);
+    }
+
+    @Test
+    public void testPlanKeepsIids() {
+        IncrementalInstrumentor instr = newInstrumentor();
+        Map<String, IncrementalInstrumentor.ClassInfo> app = new TreeMap<String, IncrementalInstrumentor.ClassInfo>();
+        app.put("A", info("A", "a1", 10));
+        app.put("B", info("B", "b1", 20, "A"));
+        app.put("C", info("C", "c1", 30));
+        assertEquals(Arrays.asList("A", "B", "C"), instr.plan(app));
+        for (String c : app.keySet()) {
+            assertTrue(instr.instrumented(c, 5));
+        }
+        int baseA = instr.getEntry("A").base;
+        int baseC = instr.getEntry("C").base;
+
+        // unchanged classes are not instrumented again
+        assertTrue(instr.plan(app).isEmpty());
+
+        // a change to A also changes what B is instrumented from
+        app.put("A", info("A", "a2", 8));
+        assertEquals(Arrays.asList("A", "B"), instr.plan(app));
+        assertEquals(baseA, instr.getEntry("A").base);
+        assertEquals(baseC, instr.getEntry("C").base);
+        assertTrue(instr.instrumented("A", 4));
+        assertTrue(instr.instrumented("B", 5));
+
+        // a class that grows out of its range gets a new one
+        app.put("C", info("C", "c2", 40));
+        assertEquals(Arrays.asList("C"), instr.plan(app));
+        assertTrue(instr.getEntry("C").base >= 60);
+        assertFalse(instr.instrumented("C", 50));
+        assertEquals(50, instr.getEntry("C").reserve);
+    }
+
+    @Test
+    public void testPartition() {
+        Map<String, IncrementalInstrumentor.ClassInfo> app = new TreeMap<String, IncrementalInstrumentor.ClassInfo>();
+        app.put("A", info("A", "a", 100));
+        app.put("B", info("B", "b", 60));
+        app.put("C", info("C", "c", 50));
+        java.util.List<java.util.List<String>> batches =
+                IncrementalInstrumentor.partition(new ArrayList<String>(app.keySet()), app, 2);
+        assertEquals(2, batches.size());
+        assertEquals(Arrays.asList("A"), batches.get(0));
+        assertEquals(Arrays.asList("B", "C"), batches.get(1));
+    }
+}
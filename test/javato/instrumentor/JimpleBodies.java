@@ -0,0 +1,102 @@
+package javato.instrumentor;
+
+import soot.Body;
+import soot.IntType;
+import soot.Local;
+import soot.Modifier;
+import soot.RefType;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootField;
+import soot.SootMethod;
+import soot.Type;
+import soot.Unit;
+import soot.Value;
+import soot.VoidType;
+import soot.jimple.IntConstant;
+import soot.jimple.Jimple;
+import soot.jimple.Stmt;
+
+import java.util.Arrays;
+
+/**
+ * Builds Jimple bodies by hand for the tests of the body transformers, in
+ * classes of their own that need nothing from the class path.
+ */
+class JimpleBodies {
+    private static int classes;
+
+    final SootClass cls;
+    final RefType type;
+
+    JimpleBodies() {
+        cls = new SootClass("test.Jimple" + classes++, Modifier.PUBLIC);
+        cls.setResolvingLevel(SootClass.BODIES);
+        Scene.v().addClass(cls);
+        type = RefType.v(cls.getName());
+    }
+
+    SootField field(String name, int modifiers) {
+        SootField f = new SootField(name, IntType.v(), modifiers);
+        cls.addField(f);
+        return f;
+    }
+
+    SootField staticField(String name) {
+        SootField f = new SootField(name, type, Modifier.STATIC);
+        cls.addField(f);
+        return f;
+    }
+
+    /**
+     * A method of the class with an empty body.
+     */
+    Body method(String name, boolean isStatic, Type... params) {
+        SootMethod m = new SootMethod(name, Arrays.asList((Object[]) params), VoidType.v(),
+                isStatic ? Modifier.STATIC : Modifier.PUBLIC);
+        cls.addMethod(m);
+        Body b = Jimple.v().newBody(m);
+        m.setActiveBody(b);
+        return b;
+    }
+
+    static Local local(Body b, String name, Type t) {
+        Local l = Jimple.v().newLocal(name, t);
+        b.getLocals().add(l);
+        return l;
+    }
+
+    static Stmt add(Body b, Stmt s) {
+        b.getUnits().add(s);
+        return s;
+    }
+
+    static Stmt assign(Body b, Value left, Value right) {
+        return add(b, Jimple.v().newAssignStmt(left, right));
+    }
+
+    static Value get(Local base, SootField f) {
+        return Jimple.v().newInstanceFieldRef(base, f.makeRef());
+    }
+
+    static Value get(SootField f) {
+        return Jimple.v().newStaticFieldRef(f.makeRef());
+    }
+
+    static Stmt call(Body b, SootMethod m, Value... args) {
+        return add(b, Jimple.v().newInvokeStmt(Jimple.v().newStaticInvokeExpr(m.makeRef(), Arrays.asList(args))));
+    }
+
+    static Stmt init(Body b, Local base, SootMethod constructor, Value... args) {
+        return add(b, Jimple.v().newInvokeStmt(Jimple.v().newSpecialInvokeExpr(base, constructor.makeRef(),
+                Arrays.asList(args))));
+    }
+
+    static Stmt ifZero(Body b, Local cond, Unit target) {
+        return add(b, Jimple.v().newIfStmt(Jimple.v().newEqExpr(cond, IntConstant.v(0)), target));
+    }
+
+    static Stmt ret(Body b) {
+        return add(b, Jimple.v().newReturnVoidStmt());
+    }
+}
@@ -0,0 +1,161 @@
+package javato.instrumentor;
+
+import soot.ArrayType;
+import soot.Body;
+import soot.IntType;
+import soot.Local;
+import soot.Modifier;
+import soot.SootField;
+import soot.SootMethod;
+import soot.jimple.IntConstant;
+import soot.jimple.Jimple;
+import soot.jimple.Stmt;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+import static javato.instrumentor.JimpleBodies.*;
+
+public class RedundantAccessEliminationTest {
+    private JimpleBodies c;
+    private SootField f;
+    private SootField v;
+    private SootMethod m;
+    private Body b;
+    private Local o;
+    private Local x;
+    private Local cond;
+
+    @Before
+    public void setUp() {
+        c = new JimpleBodies();
+        f = c.field("f", Modifier.PUBLIC);
+        v = c.field("v", Modifier.PUBLIC | Modifier.VOLATILE);
+        m = c.method("m", true).getMethod();
+        ret(m.getActiveBody());
+        b = c.method("test", true);
+        o = local(b, "o", c.type);
+        x = local(b, "x", IntType.v());
+        cond = local(b, "c", IntType.v());
+    }
+
+    private Stmt read() {
+        return Jimple.v().newAssignStmt(x, get(o, f));
+    }
+
+    private void transform() {
+        ret(b);
+        RedundantAccessElimination.v().internalTransform(b, "jtp.rae", null);
+    }
+
+    private static boolean isRedundant(Stmt s) {
+        return s.hasTag(RedundantAccessTag.NAME);
+    }
+
+    @Test
+    public void testRepeatedRead() {
+        Stmt first = add(b, read());
+        Stmt second = add(b, read());
+        Stmt write = assign(b, get(o, f), IntConstant.v(1));
+        Stmt write2 = assign(b, get(o, f), IntConstant.v(2));
+        transform();
+        assertFalse(isRedundant(first));
+        assertTrue(isRedundant(second));
+        // a write is not the same access as a read
+        assertFalse(isRedundant(write));
+        assertTrue(isRedundant(write2));
+    }
+
+    @Test
+    public void testInvokeKills() {
+        add(b, read());
+        call(b, m);
+        Stmt after = add(b, read());
+        transform();
+        assertFalse(isRedundant(after));
+    }
+
+    @Test
+    public void testMonitorKills() {
+        add(b, read());
+        add(b, Jimple.v().newEnterMonitorStmt(o));
+        Stmt inside = add(b, read());
+        add(b, Jimple.v().newExitMonitorStmt(o));
+        Stmt after = add(b, read());
+        transform();
+        assertFalse(isRedundant(inside));
+        assertFalse(isRedundant(after));
+    }
+
+    @Test
+    public void testVolatileKills() {
+        add(b, read());
+        Stmt vread = assign(b, x, get(o, v));
+        Stmt after = add(b, read());
+        Stmt vread2 = assign(b, x, get(o, v));
+        transform();
+        assertFalse(isRedundant(after));
+        // volatile accesses are never tagged
+        assertFalse(isRedundant(vread));
+        assertFalse(isRedundant(vread2));
+    }
+
+    @Test
+    public void testRedefiningBaseOrIndexKills() {
+        Local a = local(b, "a", ArrayType.v(IntType.v(), 1));
+        Local i = local(b, "i", IntType.v());
+        add(b, read());
+        assign(b, o, local(b, "other", c.type));
+        Stmt otherObject = add(b, read());
+        assign(b, x, Jimple.v().newArrayRef(a, i));
+        Stmt sameElement = assign(b, x, Jimple.v().newArrayRef(a, i));
+        assign(b, i, Jimple.v().newAddExpr(i, IntConstant.v(1)));
+        Stmt nextElement = assign(b, x, Jimple.v().newArrayRef(a, i));
+        transform();
+        assertFalse(isRedundant(otherObject));
+        assertTrue(isRedundant(sameElement));
+        assertFalse(isRedundant(nextElement));
+    }
+
+    @Test
+    public void testJoinOfBranchesThatBothRead() {
+        Stmt join = read();
+        Stmt otherBranch = read();
+        ifZero(b, cond, otherBranch);
+        add(b, read());
+        add(b, Jimple.v().newGotoStmt(join));
+        add(b, otherBranch);
+        add(b, join);
+        transform();
+        assertTrue(isRedundant(join));
+    }
+
+    @Test
+    public void testJoinOfBranchesThatDoNotBothRead() {
+        Stmt join = read();
+        ifZero(b, cond, join);
+        add(b, read());
+        add(b, join);
+        transform();
+        assertFalse(isRedundant(join));
+    }
+
+    @Test
+    public void testLoopKeepsWhatItsBodyKeeps() {
+        add(b, read());
+        Stmt head = add(b, read());
+        ifZero(b, cond, head);
+        transform();
+        assertTrue(isRedundant(head));
+    }
+
+    @Test
+    public void testLoopBodyThatSynchronizes() {
+        add(b, read());
+        Stmt head = add(b, read());
+        call(b, m);
+        ifZero(b, cond, head);
+        transform();
+        // the back edge brings nothing, so the first iteration's read does not count
+        assertFalse(isRedundant(head));
+    }
+}
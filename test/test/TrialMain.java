@@ -0,0 +1,100 @@
+// Must use a package other than javato.activetesting.trial, whose classes
+// TrialRunner shares between trials.
+package test;
+
+import javato.activetesting.trial.Trial;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A program for TrialRunnerTest: records its run and the run of its
+ * shutdown hook in a list shared by all trials, then returns, exits,
+ * halts, exits and goes on, or leaves a thread blocked and exits as its
+ * first argument says.
+ */
+public class TrialMain {
+    public static final String EVENTS = "test.TrialMain.events";
+    private static int runs;
+
+    @SuppressWarnings("unchecked")
+    private static void record(String event) {
+        synchronized (TrialMain.class) {
+            List<String> events = (List<String>) Trial.getShared(EVENTS);
+            if (events == null) {
+                events = new ArrayList<String>();
+                Trial.putShared(EVENTS, events);
+            }
+            synchronized (events) {
+                events.add(event);
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        runs++;
+        final String how = args[0];
+        record(how + " run " + runs);
+        Trial.addShutdownHook(new Thread() {
+            public void run() {
+                record(how + " hook");
+            }
+        });
+        if (how.equals("exit")) {
+            System.exit(3);
+        } else if (how.equals("halt")) {
+            Runtime.getRuntime().halt(4);
+        } else if (how.equals("swallow")) {
+            try {
+                System.exit(5);
+            } catch (Throwable t) {
+                record(how + " caught");
+            }
+            long end = System.currentTimeMillis() + 3000;
+            while (System.currentTimeMillis() < end) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    // goes on regardless
+                }
+            }
+            return;
+        } else if (how.equals("block")) {
+            block();
+            System.exit(6);
+        }
+        // a thread left behind ends the trial when it does
+        Thread t = new Thread() {
+            public void run() {
+                record(how + " thread");
+            }
+        };
+        t.start();
+    }
+
+    /**
+     * Leaves a thread waiting for a notify that never comes, as one
+     * deadlocked on a lock would be.
+     */
+    private static void block() {
+        final Object never = new Object();
+        Thread t = new Thread() {
+            public void run() {
+                synchronized (never) {
+                    while (true) {
+                        try {
+                            never.wait();
+                        } catch (InterruptedException e) {
+                            // waits on regardless
+                        }
+                    }
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+        while (t.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+    }
+}